@@ -27,26 +27,49 @@
  */
 package org.tantalum.android;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.os.Environment;
 import android.os.StatFs;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.DigestException;
+import java.util.Enumeration;
+import java.util.Vector;
 import org.tantalum.storage.FlashCache;
 import org.tantalum.storage.FlashDatabaseException;
 import org.tantalum.storage.FlashFullException;
 import org.tantalum.util.CryptoUtils;
 import org.tantalum.util.L;
+import org.tantalum.util.StringUtils;
 
 /**
  * Android implementation of cross-platform persistent storage using an SQLite
  * database. All web services you access over the net using a StaticWebCache
  * will be automatically stored here for faster access and offline use.
  *
+ * Writes are serialized. Reads do not wait for writes: the database is opened
+ * in write-ahead log mode where the platform supports it (Android 3.0 and
+ * later), so SQLite serves readers from its own pool of connections while a
+ * large value is being written.
+ *
+ * Values larger than <code>setExternalValueThreshold()</code> are stored as
+ * files in a directory next to the database and only their name is kept in
+ * the table. The file name is the MD5 digest and length of the content, so
+ * identical values stored under different keys share one file. This keeps
+ * large images out of the database pages and the CursorWindow. Files are
+ * deleted only after the database change which stops referring to them has
+ * been committed, and files written by a change which is rolled back are
+ * deleted again.
+ *
  * You should not access this class directly. Use
  * <code>PlatformUtils.getInstance()...</code> instead.
  *
@@ -58,11 +81,15 @@ public final class AndroidCache extends FlashCache {
     /**
      * Database version number
      */
-    private static final int DB_VERSION = 2;
+    private static final int DB_VERSION = 4;
     /**
      * Database name
      */
     private static final String databaseName = "Tantalum";
+    /**
+     * Prefix of the table name of each cache
+     */
+    private static final String TABLE_PREFIX = "Tantalum_Table";
     /**
      * Database id column tag
      */
@@ -79,23 +106,85 @@ public final class AndroidCache extends FlashCache {
      * Database data column tag
      */
     private static final String COL_DATA = "data";
+    /**
+     * Database external value file name column tag, null if the value is
+     * inline
+     */
+    private static final String COL_FILE = "file";
+    /**
+     * Database value length column tag
+     */
+    private static final String COL_SIZE = "size";
+    /**
+     * Prefix of the external value directory of each cache
+     */
+    private static final String BLOB_DIRECTORY_PREFIX = "Tantalum_Blobs";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final byte[] EMPTY = new byte[0];
+    private static volatile int externalValueThreshold = 64 * 1024;
+    /**
+     * Android 3.0, the first version with write-ahead logging
+     */
+    private static final int WAL_SDK_VERSION = 11;
+    /**
+     * The most getKey() statements kept compiled for re-use by concurrent
+     * readers
+     */
+    private static final int MAX_POOLED_READ_STATEMENTS = 4;
     /**
      * Android object used for associated the database with an application
      */
     private static Context context = null;
     /**
-     * SQL to create the database
+     * Database table name
      */
+    private final String tableName = TABLE_PREFIX + priority;
     /**
-     * Database table name
+     * SQL to create the database
      */
-    private final String tableName = "Tantalum_Table" + priority;
     private final String createTable = "CREATE TABLE IF NOT EXISTS "
-            + tableName + "(" + COL_ID + " INTEGER PRIMARY KEY, " + COL_DIGEST + " BIGINT NOT NULL" + COL_KEY
-            + " TEXT NOT NULL, " + COL_DATA + " BLOB NOT NULL)";
+            + tableName + "(" + COL_ID + " INTEGER PRIMARY KEY, " + COL_DIGEST + " INTEGER UNIQUE NOT NULL, " + COL_KEY
+            + " TEXT NOT NULL, " + COL_DATA + " BLOB NOT NULL, " + COL_FILE + " TEXT, " + COL_SIZE + " INTEGER NOT NULL)";
     private final String clearTable = "DROP TABLE IF EXISTS " + tableName;
-    private SQLiteDatabase db = null;
+    /*
+     * Each statement is a constant string with bound arguments so that SQLite
+     * compiles it once per connection rather than once per call
+     */
+    private final String selectData = "SELECT " + COL_DATA + ", " + COL_FILE + " FROM " + tableName + " WHERE " + COL_DIGEST + "=?";
+    private final String selectKey = "SELECT " + COL_KEY + " FROM " + tableName + " WHERE " + COL_DIGEST + "=?";
+    private final String selectDigests = "SELECT " + COL_DIGEST + " FROM " + tableName;
+    private final String selectSize = "SELECT COALESCE(SUM(" + COL_SIZE + "), 0) FROM " + tableName;
+    private final String selectFile = "SELECT " + COL_FILE + " FROM " + tableName + " WHERE " + COL_DIGEST + "=?";
+    private final String countFileReferences = "SELECT COUNT(*) FROM " + tableName + " WHERE " + COL_FILE + "=?";
+    private final String insertOrReplace = "INSERT OR REPLACE INTO " + tableName + "(" + COL_DIGEST + ", " + COL_KEY + ", " + COL_DATA + ", " + COL_FILE + ", " + COL_SIZE + ") VALUES (?, ?, ?, ?, ?)";
+    private final String deleteDigest = "DELETE FROM " + tableName + " WHERE " + COL_DIGEST + "=?";
+    private final FlashCache.StartupTask startupTask;
+    private volatile SQLiteDatabase db = null;
+    private volatile File blobDirectory = null;
+    /*
+     * Held while writing and while opening or closing the database. Reads do
+     * not take this lock.
+     */
     private final Object MUTEX = new Object();
+    private SQLiteStatement insertStatement = null;
+    private SQLiteStatement deleteStatement = null;
+    private SQLiteStatement selectFileStatement = null;
+    private SQLiteStatement countFileStatement = null;
+    /*
+     * External value files changed by the current put() or putAll(). They are
+     * only deleted once it is known whether the database change committed.
+     * Access within the MUTEX.
+     */
+    private final Vector writtenFiles = new Vector();
+    private final Vector replacedFiles = new Vector();
+    private boolean inTransaction = false;
+    /*
+     * SQLiteStatement is not thread safe, so each reader borrows one. The
+     * generation changes when the table or database is closed so that
+     * statements compiled against it are not pooled again.
+     */
+    private final Vector keyStatementPool = new Vector(MAX_POOLED_READ_STATEMENTS);
+    private int statementGeneration = 0;
 
     /**
      * Create a new AndroidCache. You should not call this method directly, but
@@ -107,92 +196,135 @@ public final class AndroidCache extends FlashCache {
     public AndroidCache(final char priority, final FlashCache.StartupTask startupTask) {
         super(priority);
 
+        this.startupTask = startupTask;
         helper = new SQLiteOpenHelper(context, databaseName, null, DB_VERSION) {
             @Override
             public void onCreate(final SQLiteDatabase sqld) {
-                synchronized (MUTEX) {
-                    sqld.execSQL(createTable);
-                }
+                sqld.execSQL(createTable);
             }
 
             @Override
             public void onUpgrade(final SQLiteDatabase sqld, int i, int i1) {
-                synchronized (MUTEX) {
-                    clear();
-                    sqld.execSQL(createTable);
+                // The schema of every cache table changed, not only this one
+                final Vector tables = new Vector();
+                final Cursor cursor = sqld.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name LIKE '" + TABLE_PREFIX + "%'", null);
+
+                try {
+                    while (cursor.moveToNext()) {
+                        tables.addElement(cursor.getString(0));
+                    }
+                } finally {
+                    cursor.close();
                 }
+                for (int j = 0; j < tables.size(); j++) {
+                    sqld.execSQL("DROP TABLE IF EXISTS " + tables.elementAt(j));
+                }
+                sqld.execSQL(createTable);
             }
+        };
+    }
 
-            @Override
-            public SQLiteDatabase getWritableDatabase() {
-                final SQLiteDatabase db = super.getWritableDatabase();
-
-                if (startupTask != null) {
-                    try {
-                        final long[] digests = getDigests();
-
-                        for (int i = 0; i < digests.length; i++) {
-                            final String key = getKey(digests[i]);
-
-                            if (key != null) {
-                                startupTask.execForEachKey(AndroidCache.this, key);
-                            }
-                        }
-                    } catch (FlashDatabaseException ex) {
-                        L.e("Can not furn startupTask on database init", startupTask.toString(), ex);
-                    } catch (DigestException ex) {
-                        L.e("Can not furn startupTask on database init", startupTask.toString(), ex);
+    /**
+     * Set the size above which values are stored in a separate file instead
+     * of inside the database. Values already stored are not moved.
+     *
+     * @param bytes - the default is 64KB. Use Integer.MAX_VALUE to keep all
+     * values in the database.
+     */
+    public static void setExternalValueThreshold(final int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("External value threshold must be 0 or more: " + bytes);
+        }
+        externalValueThreshold = bytes;
+    }
+
+    /**
+     * Open the database on first use. Several caches share one database
+     * file, so the table of this cache is created here if needed rather than
+     * only when the file is created.
+     *
+     * @return
+     * @throws FlashDatabaseException
+     */
+    private SQLiteDatabase getDatabase() throws FlashDatabaseException {
+        final SQLiteDatabase d = db;
+
+        if (d != null) {
+            return d;
+        }
+        synchronized (MUTEX) {
+            if (db == null) {
+                final SQLiteDatabase sqld;
+
+                try {
+                    sqld = helper.getWritableDatabase();
+                    if (Build.VERSION.SDK_INT >= WAL_SDK_VERSION) {
+                        sqld.enableWriteAheadLogging();
                     }
+                    sqld.execSQL(createTable);
+                    blobDirectory = new File(new File(sqld.getPath()).getParentFile(), BLOB_DIRECTORY_PREFIX + priority);
+                    deleteTempFiles();
+                } catch (Exception e) {
+                    //#debug
+                    L.e(this, "Can not open database", tableName, e);
+                    throw new FlashDatabaseException("Can not open database " + tableName + " : " + e);
                 }
-
-                return db;
+                db = sqld;
+                // The table is the index, so the cache is usable at once
+                forkStartupTask(startupTask);
             }
-        };
+
+            return db;
+        }
+    }
+
+    /**
+     * SQLite keeps no access order. Old values are removed by the StaticCache
+     * when space is needed.
+     *
+     * @param digest
+     */
+    @Override
+    public void markLeastRecentlyUsed(final Long digest) {
     }
 
     /**
      * Get the stored byte[] associated with the specified key
      *
      * @param digest
+     * @param markAsLeastRecentlyUsed
      * @return
      * @throws FlashDatabaseException
      */
     @Override
-    public byte[] get(final long digest) throws FlashDatabaseException {
-        synchronized (MUTEX) {
-            Cursor cursor = null;
-
-            final String[] fields = new String[]{COL_DATA};
-            //#debug
-            L.i(this, "get()", "digest=" + Long.toString(digest, 16));
-            try {
-                if (db == null) {
-                    db = helper.getWritableDatabase();
-                }
-                cursor = db.query(tableName, fields, COL_DIGEST + "=?",
-                        new String[]{"" + digest}, null, null, null, null);
+    public byte[] get(final long digest, final boolean markAsLeastRecentlyUsed) throws FlashDatabaseException {
+        Cursor cursor = null;
 
-                if (cursor == null || cursor.getCount() == 0) {
-                    return null;
-                } else {
-                    cursor.moveToFirst();
+        //#debug
+        L.i(this, "get()", "digest=" + Long.toString(digest, 16));
+        try {
+            cursor = getDatabase().rawQuery(selectData, new String[]{Long.toString(digest)});
 
-                    return cursor.getBlob(0);
-                }
-            } catch (NullPointerException e) {
-                //#debug
-                L.e("db not initialized, join() then try again", "getData", e);
+            if (cursor == null || !cursor.moveToFirst()) {
                 return null;
-            } catch (Exception e) {
-                //#debug
-                L.e("db can not be initialized", "getData, key=" + Long.toString(digest, 16), e);
-                throw new FlashDatabaseException("db init error on getData, key=" + Long.toString(digest, 16) + " : " + e);
-            } finally {
-                //#debug
-                L.i("db getData", "end");
-                if (cursor != null) {
-                    cursor.close();
-                }
+            }
+            if (cursor.isNull(1)) {
+                return cursor.getBlob(0);
+            }
+            final String fileName = cursor.getString(1);
+            cursor.close();
+            cursor = null;
+
+            return readExternalValue(digest, fileName);
+        } catch (FlashDatabaseException e) {
+            throw e;
+        } catch (Exception e) {
+            //#debug
+            L.e("db can not be read", "getData, key=" + Long.toString(digest, 16), e);
+            throw new FlashDatabaseException("db read error on getData, key=" + Long.toString(digest, 16) + " : " + e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
         }
     }
@@ -206,41 +338,79 @@ public final class AndroidCache extends FlashCache {
      */
     @Override
     public String getKey(final long digest) throws FlashDatabaseException {
-        synchronized (MUTEX) {
-            Cursor cursor = null;
-
-            final String[] fields = new String[]{COL_KEY};
+        final int generation;
+        SQLiteStatement statement = null;
+
+        //#debug
+        L.i(this, "getKey()", "digest=" + Long.toString(digest, 16));
+        synchronized (keyStatementPool) {
+            generation = statementGeneration;
+            if (!keyStatementPool.isEmpty()) {
+                statement = (SQLiteStatement) keyStatementPool.lastElement();
+                keyStatementPool.removeElementAt(keyStatementPool.size() - 1);
+            }
+        }
+        try {
+            if (statement == null) {
+                statement = getDatabase().compileStatement(selectKey);
+            }
+            statement.bindLong(1, digest);
+
+            return statement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            // No such row
+            return null;
+        } catch (FlashDatabaseException e) {
+            throw e;
+        } catch (Exception e) {
             //#debug
-            L.i(this, "getKey()", "digest=" + Long.toString(digest, 16));
-            try {
-                if (db == null) {
-                    db = helper.getWritableDatabase();
-                }
-                cursor = db.query(tableName, fields, COL_DIGEST + "=?",
-                        new String[]{"" + digest}, null, null, null, null);
+            L.e("db can not be read", "getKey, key=" + Long.toString(digest, 16), e);
+            throw new FlashDatabaseException("db read error on getKey, key=" + Long.toString(digest, 16) + " : " + e);
+        } finally {
+            if (statement != null) {
+                returnKeyStatement(statement, generation);
+            }
+        }
+    }
 
-                if (cursor == null || cursor.getCount() == 0) {
-                    return null;
-                } else {
-                    cursor.moveToFirst();
+    private void returnKeyStatement(final SQLiteStatement statement, final int generation) {
+        synchronized (keyStatementPool) {
+            if (generation == statementGeneration && keyStatementPool.size() < MAX_POOLED_READ_STATEMENTS) {
+                statement.clearBindings();
+                keyStatementPool.addElement(statement);
+                return;
+            }
+        }
+        statement.close();
+    }
 
-                    return cursor.getString(0);
-                }
-            } catch (NullPointerException e) {
-                //#debug
-                L.e("db not initialized, join() then try again", "getData", e);
-                return null;
-            } catch (Exception e) {
-                //#debug
-                L.e("db can not be initialized", "getData, key=" + Long.toString(digest, 16), e);
-                throw new FlashDatabaseException("db init error on getData, key=" + Long.toString(digest, 16) + " : " + e);
-            } finally {
-                //#debug
-                L.i("db getData", "end");
-                if (cursor != null) {
-                    cursor.close();
-                }
+    /**
+     * Close all compiled statements. Call this within the MUTEX before the
+     * table is dropped or the database is closed.
+     */
+    private void closeStatements() {
+        if (insertStatement != null) {
+            insertStatement.close();
+            insertStatement = null;
+        }
+        if (deleteStatement != null) {
+            deleteStatement.close();
+            deleteStatement = null;
+        }
+        if (selectFileStatement != null) {
+            selectFileStatement.close();
+            selectFileStatement = null;
+        }
+        if (countFileStatement != null) {
+            countFileStatement.close();
+            countFileStatement = null;
+        }
+        synchronized (keyStatementPool) {
+            statementGeneration++;
+            for (int i = 0; i < keyStatementPool.size(); i++) {
+                ((SQLiteStatement) keyStatementPool.elementAt(i)).close();
             }
+            keyStatementPool.removeAllElements();
         }
     }
 
@@ -249,11 +419,12 @@ public final class AndroidCache extends FlashCache {
      *
      * @param url
      * @param data
+     * @throws DigestException
      * @throws FlashFullException
      * @throws FlashDatabaseException
      */
     @Override
-    public void put(final String url, final byte[] data) throws FlashFullException, FlashDatabaseException {
+    public void put(final String url, final byte[] data) throws DigestException, FlashFullException, FlashDatabaseException {
         if (url == null) {
             throw new NullPointerException("You attempted to put a null key to the cache");
         }
@@ -261,29 +432,126 @@ public final class AndroidCache extends FlashCache {
             throw new IllegalArgumentException("You attempted to put null data to the cache");
         }
 
+        final long digest;
+        try {
+            digest = CryptoUtils.getInstance().toDigest(url);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e("Android cache put can not encode key", url, e);
+            throw new FlashDatabaseException("put() can not encode key: " + url + " - " + e);
+        }
+
         synchronized (MUTEX) {
-            final ContentValues values = new ContentValues();
+            if (inTransaction) {
+                putRow(url, digest, data);
+                return;
+            }
+            boolean success = false;
+            try {
+                putRow(url, digest, data);
+                success = true;
+            } finally {
+                endFileChanges(success);
+            }
+        }
+    }
+
+    /**
+     * Insert or replace one row. Call within the MUTEX.
+     *
+     * @param url
+     * @param digest
+     * @param data
+     * @throws FlashFullException
+     * @throws FlashDatabaseException
+     */
+    private void putRow(final String url, final long digest, final byte[] data) throws FlashFullException, FlashDatabaseException {
+        final SQLiteDatabase sqld = getDatabase();
 
-            values.put(COL_KEY, url);
-            values.put(COL_DATA, data);
+        try {
+            final String previousFileName = getFileName(digest);
+            String fileName = null;
 
+            if (data.length > externalValueThreshold) {
+                fileName = writeExternalValue(data);
+            }
+            if (insertStatement == null) {
+                insertStatement = sqld.compileStatement(insertOrReplace);
+            }
+            insertStatement.bindLong(1, digest);
+            insertStatement.bindString(2, url);
+            if (fileName == null) {
+                insertStatement.bindBlob(3, data);
+                insertStatement.bindNull(4);
+            } else {
+                insertStatement.bindBlob(3, EMPTY);
+                insertStatement.bindString(4, fileName);
+            }
+            insertStatement.bindLong(5, data.length);
+            insertStatement.executeInsert();
+            if (previousFileName != null && !previousFileName.equals(fileName)) {
+                replacedFiles.addElement(previousFileName);
+            }
+        } catch (IOException e) {
+            if (isFileSystemFull(e, data.length)) {
+                throw new FlashFullException("Android file system full, attempting cleanup of old..." + url + " : " + e);
+            }
+            //#debug
+            L.e("Android cache put file exception", "" + url, e);
+            throw new FlashDatabaseException("key = " + url + " : " + e);
+        } catch (Exception e) {
             try {
-                if (db == null) {
-                    db = helper.getWritableDatabase();
+                if (Class.forName("android.database.sqlite.SQLiteFullException").isAssignableFrom(e.getClass())) {
+                    throw new FlashFullException("Android database full, attempting cleanup of old..." + url + " : " + e);
                 }
-                db.insert(tableName, null, values);
-            } catch (Exception e) {
+            } catch (ClassNotFoundException e2) {
+                //#debug
+                L.e("Introspection error", "android.database.sqlite.SQLiteFullException", e2);
+            }
+            //#debug
+            L.e("Android cache put database exception", "" + url, e);
+            throw new FlashDatabaseException("key = " + url + " : " + e);
+        } finally {
+            if (insertStatement != null) {
+                // Release the reference to the value bytes
+                insertStatement.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Store several values in one SQLite transaction
+     *
+     * @param urls
+     * @param data
+     * @throws DigestException
+     * @throws FlashFullException
+     * @throws FlashDatabaseException
+     */
+    @Override
+    public void putAll(final String[] urls, final byte[][] data) throws DigestException, FlashFullException, FlashDatabaseException {
+        synchronized (MUTEX) {
+            final SQLiteDatabase sqld = getDatabase();
+
+            boolean success = false;
+            boolean committed = false;
+
+            sqld.beginTransaction();
+            inTransaction = true;
+            try {
+                for (int i = 0; i < urls.length; i++) {
+                    put(urls[i], data[i]);
+                }
+                sqld.setTransactionSuccessful();
+                success = true;
+            } finally {
+                inTransaction = false;
                 try {
-                    if (Class.forName("android.database.sqlite.SQLiteFullException").isAssignableFrom(e.getClass())) {
-                        throw new FlashFullException("Android database full, attempting cleanup of old..." + url + " : " + e);
-                    }
-                } catch (ClassNotFoundException e2) {
-                    //#debug
-                    L.e("Introspection error", "android.database.sqlite.SQLiteFullException", e2);
+                    sqld.endTransaction();
+                    committed = success;
+                } finally {
+                    endFileChanges(committed);
                 }
-                //#debug
-                L.e("Android cache put database exception", "" + url, e);
-                throw new FlashDatabaseException("key = " + url + " : " + e);
             }
         }
     }
@@ -297,14 +565,19 @@ public final class AndroidCache extends FlashCache {
     @Override
     public void removeData(final long digest) throws FlashDatabaseException {
         synchronized (MUTEX) {
-            final String where;
-            where = COL_KEY + "==\"" + Long.toString(digest, 16) + "\"";
+            final SQLiteDatabase sqld = getDatabase();
 
             try {
-                if (db == null) {
-                    db = helper.getWritableDatabase();
+                final String fileName = getFileName(digest);
+
+                if (deleteStatement == null) {
+                    deleteStatement = sqld.compileStatement(deleteDigest);
+                }
+                deleteStatement.bindLong(1, digest);
+                deleteStatement.execute();
+                if (fileName != null) {
+                    deleteExternalValueIfUnused(fileName);
                 }
-                db.delete(tableName, where, null);
             } catch (Exception e) {
                 //#debug
                 L.e("Can not access database on removeData()", Long.toString(digest, 16), e);
@@ -314,64 +587,248 @@ public final class AndroidCache extends FlashCache {
     }
 
     /**
-     * Get a list of all the keys for data available in this database
+     * Get a list of all the digests for data available in this database
      *
-     * @return
-     * @throws FlashDatabaseException
+     * @return an Enumeration of Long digests, empty if the database can not be
+     * read
      */
     @Override
-    public long[] getDigests() throws FlashDatabaseException {
-        synchronized (MUTEX) {
-            long[] digests = null;
-            Cursor cursor = null;
+    public Enumeration getDigests() {
+        final Vector digests = new Vector();
+        Cursor cursor = null;
+
+        try {
+            cursor = getDatabase().rawQuery(selectDigests, null);
+            while (cursor.moveToNext()) {
+                digests.addElement(new Long(cursor.getLong(0)));
+            }
+        } catch (Exception e) {
+            //#debug
+            L.e("Can not access database on getDigests()", tableName, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
 
+        return digests.elements();
+    }
+
+    /**
+     * Remove all elements from this cache. Since there is a different table for
+     * each cache, other caches still contain values.
+     *
+     */
+    @Override
+    public void clear() {
+        synchronized (MUTEX) {
             try {
-                if (db == null) {
-                    db = helper.getWritableDatabase();
-                }
-                cursor = db.query(tableName, new String[]{COL_KEY}, "*",
-                        null, null, null, null, null);
-                if (cursor != null && cursor.getCount() > 0) {
-                    digests = new long[cursor.getCount()];
-                    cursor.moveToFirst();
-                    for (int i = 0; i < digests.length; i++) {
-                        if (i != 0) {
-                            cursor.moveToNext();
-                        }
-                        final String s = new String(cursor.getBlob(0), "UTF-8");
-                        digests[i] = CryptoUtils.getInstance().toDigest(s);
-                    }
-                }
-            } catch (UnsupportedEncodingException e) {
-                //#debug
-                L.e("Can not access database on getKeys()", "", e);
-                throw new FlashDatabaseException("Can not acccess database on getKeys() : " + e);
-            } catch (DigestException e) {
+                final SQLiteDatabase sqld = getDatabase();
+
+                closeStatements();
+                sqld.execSQL(clearTable);
+                sqld.execSQL(createTable);
+                deleteAllExternalValues();
+            } catch (FlashDatabaseException e) {
                 //#debug
-                L.e("Can not access database on getKeys()", "", e);
-                throw new FlashDatabaseException("Can not acccess database on getKeys() : " + e);
+                L.e("Can not clear database", tableName, e);
+            }
+        }
+    }
+
+    /**
+     * Get the external value file name of a stored value. Call within the
+     * MUTEX.
+     *
+     * @param digest
+     * @return the file name, or null if the value is inline or not stored
+     */
+    private String getFileName(final long digest) {
+        if (selectFileStatement == null) {
+            selectFileStatement = db.compileStatement(selectFile);
+        }
+        selectFileStatement.bindLong(1, digest);
+        try {
+            return selectFileStatement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Delete the external value files which are no longer referenced after a
+     * put() or putAll(). If the change committed, these are the files of the
+     * replaced values. If it did not, these are the files written for it. A
+     * file still used by another key is kept. Call within the MUTEX.
+     *
+     * @param committed
+     */
+    private void endFileChanges(final boolean committed) {
+        final Vector unused = committed ? replacedFiles : writtenFiles;
+
+        try {
+            for (int i = 0; i < unused.size(); i++) {
+                deleteExternalValueIfUnused((String) unused.elementAt(i));
+            }
+        } catch (Exception e) {
+            //#debug
+            L.e(this, "Can not delete unused external values", tableName, e);
+        } finally {
+            writtenFiles.removeAllElements();
+            replacedFiles.removeAllElements();
+        }
+    }
+
+    /**
+     * Check if a failed file write was caused by the file system being full
+     *
+     * @param e
+     * @param length
+     * @return
+     */
+    private boolean isFileSystemFull(final IOException e, final int length) {
+        final String message = e.getMessage();
+
+        if (message != null && (message.indexOf("ENOSPC") >= 0 || message.indexOf("No space left") >= 0)) {
+            return true;
+        }
+        try {
+            final StatFs stat = new StatFs(blobDirectory.getParentFile().getPath());
+
+            return (long) stat.getAvailableBlocks() * (long) stat.getBlockSize() < length;
+        } catch (Exception e2) {
+            return false;
+        }
+    }
+
+    /**
+     * Write a value to a file named by its content, unless an identical value
+     * is already stored. The file is written under a temporary name and then
+     * renamed so a partial file is never visible. The MD5 digest is used
+     * whatever the key digest algorithm is, since a match means the stored
+     * file is returned in place of this value. Call within the MUTEX.
+     *
+     * @param data
+     * @return the file name
+     * @throws IOException
+     * @throws DigestException
+     */
+    private String writeExternalValue(final byte[] data) throws IOException, DigestException {
+        final String fileName = StringUtils.byteArrayToHexString(CryptoUtils.getInstance().longToBytes(CryptoUtils.getInstance().toDigest(data, CryptoUtils.DIGEST_MD5))) + "-" + data.length;
+        final File file = new File(blobDirectory, fileName);
+
+        if (file.length() == data.length) {
+            return fileName;
+        }
+        if (!blobDirectory.isDirectory() && !blobDirectory.mkdirs()) {
+            throw new IOException("Can not create directory " + blobDirectory);
+        }
+        final File temp = new File(blobDirectory, fileName + TEMP_FILE_SUFFIX);
+        try {
+            final FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+                out.getFD().sync();
             } finally {
-                if (cursor != null) {
-                    cursor.close();
+                out.close();
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can not rename " + temp + " to " + file);
+        }
+        writtenFiles.addElement(fileName);
+
+        return fileName;
+    }
+
+    /**
+     * Read an external value with one allocation of the exact file length.
+     * If the file has gone, the entry is removed and this is a cache miss.
+     *
+     * @param digest
+     * @param fileName
+     * @return the value, or null if the file is missing
+     * @throws IOException
+     * @throws FlashDatabaseException
+     */
+    private byte[] readExternalValue(final long digest, final String fileName) throws IOException, FlashDatabaseException {
+        final File file = new File(blobDirectory, fileName);
+        final FileInputStream in;
+
+        try {
+            in = new FileInputStream(file);
+        } catch (IOException e) {
+            //#debug
+            L.e(this, "External value missing, removing entry", fileName, e);
+            synchronized (MUTEX) {
+                // Unless the value was replaced meanwhile
+                if (fileName.equals(getFileName(digest))) {
+                    removeData(digest);
                 }
             }
+            return null;
+        }
+        try {
+            final byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+
+            while (offset < bytes.length) {
+                final int n = in.read(bytes, offset, bytes.length - offset);
+
+                if (n < 0) {
+                    throw new IOException("External value truncated: " + fileName);
+                }
+                offset += n;
+            }
 
-            return digests;
+            return bytes;
+        } finally {
+            in.close();
         }
     }
 
     /**
-     * Remove all elements from this cache. Since there is a different table for
-     * each cache, other caches still contain values.
+     * Delete the file of an external value once no key refers to it. Call
+     * within the MUTEX.
      *
+     * @param fileName
      */
-    @Override
-    public void clear() {
-        synchronized (MUTEX) {
-            if (db == null) {
-                db = helper.getWritableDatabase();
+    private void deleteExternalValueIfUnused(final String fileName) {
+        if (countFileStatement == null) {
+            countFileStatement = db.compileStatement(countFileReferences);
+        }
+        countFileStatement.bindString(1, fileName);
+        if (countFileStatement.simpleQueryForLong() == 0) {
+            new File(blobDirectory, fileName).delete();
+        }
+    }
+
+    private void deleteAllExternalValues() {
+        final File[] files = blobDirectory.listFiles();
+
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Remove partial files left if the application stopped during a write
+     */
+    private void deleteTempFiles() {
+        final File[] files = blobDirectory.listFiles();
+
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    files[i].delete();
+                }
             }
-            db.execSQL(clearTable);
         }
     }
 
@@ -382,15 +839,50 @@ public final class AndroidCache extends FlashCache {
         return (long) stat.getBlockSize() * (long) stat.getBlockCount();
     }
 
+    /**
+     * The total size of all stored values
+     *
+     * @return
+     * @throws FlashDatabaseException
+     */
+    @Override
+    public long getSize() throws FlashDatabaseException {
+        SQLiteStatement statement = null;
+
+        try {
+            statement = getDatabase().compileStatement(selectSize);
+
+            return statement.simpleQueryForLong();
+        } catch (FlashDatabaseException e) {
+            throw e;
+        } catch (Exception e) {
+            //#debug
+            L.e("Can not access database on getSize()", tableName, e);
+            throw new FlashDatabaseException("Can not read database size: " + e);
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * SQLite manages its own pages, so there is nothing to do
+     */
+    @Override
+    public void maintainDatabase() {
+    }
+
     @Override
     public void close() throws FlashDatabaseException {
         synchronized (MUTEX) {
             if (db != null) {
                 super.close();
 
+                closeStatements();
                 db.close();
                 db = null;
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -32,14 +32,23 @@ import android.graphics.BitmapFactory;
 import org.tantalum.storage.ImageCacheView;
 import org.tantalum.util.L;
 import org.tantalum.util.LOR;
+import org.tantalum.util.Weigher;
 
 /**
  * This is a helper class for creating an image class. It automatically converts
  * the byte[] to an Image as the data is loaded from the network or cache.
  *
+ * Bitmaps are weighed by their pixel buffer size in heap memory.
+ *
  * @author tsaa
  */
-public class AndroidImageCacheView extends ImageCacheView {
+public class AndroidImageCacheView extends ImageCacheView implements Weigher {
+
+    public int weigh(final Object value) {
+        final Bitmap b = (Bitmap) value;
+
+        return b.getRowBytes() * b.getHeight();
+    }
 
     public Object convertToUseForm(final Object key, final LOR bytesReference) {
         try {
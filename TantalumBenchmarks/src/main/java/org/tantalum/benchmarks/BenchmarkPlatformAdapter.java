@@ -0,0 +1,104 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.benchmarks;
+
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.tantalum.PlatformAdapter;
+import org.tantalum.PlatformUtils;
+import org.tantalum.storage.FlashCache;
+import org.tantalum.storage.ImageCacheView;
+import org.tantalum.util.L;
+
+/**
+ * A headless PlatformAdapter for running the Task and Worker runtime on a
+ * desktop JVM. The user interface thread is a single daemon thread and log
+ * output is discarded so that it does not distort measurements.
+ *
+ * Storage, images and network are not available.
+ *
+ * @author phou
+ */
+public final class BenchmarkPlatformAdapter implements PlatformAdapter {
+
+    private final ExecutorService uiThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "UI");
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    });
+    private final L log = new L() {
+        protected void printMessage(final StringBuffer sb, final Throwable t) {
+        }
+
+        protected void close() {
+        }
+    };
+
+    public void init(final int logMode) {
+    }
+
+    public void runOnUiThread(final Runnable action) {
+        uiThread.execute(action);
+    }
+
+    public void shutdownComplete() {
+        uiThread.shutdown();
+    }
+
+    public L getLog() {
+        return log;
+    }
+
+    public ImageCacheView getImageCacheView() {
+        throw new UnsupportedOperationException("No images in benchmarks");
+    }
+
+    public void vibrateAsync(final int duration, final Runnable timekeeperLambda) {
+    }
+
+    public Object readImageFromJAR(final String jarPathAndFilename) {
+        throw new UnsupportedOperationException("No images in benchmarks");
+    }
+
+    public FlashCache getFlashCache(final char priority, final int cacheType, final FlashCache.StartupTask startupTask) {
+        throw new UnsupportedOperationException("No flash storage in benchmarks");
+    }
+
+    public void deleteFlashCache(final char priority, final int cacheType) {
+    }
+
+    public PlatformUtils.HttpConn getHttpConn(final String url, final Vector requestPropertyKeys, final Vector requestPropertyValues, final byte[] bytes, final String requestMethod) {
+        throw new UnsupportedOperationException("No network in benchmarks");
+    }
+}
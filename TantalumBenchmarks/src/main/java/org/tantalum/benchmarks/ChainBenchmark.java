@@ -0,0 +1,91 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.tantalum.Task;
+
+/**
+ * Latency of a Task.chain() pipeline of the given depth, from fork() of the
+ * first Task to join() of the last. Depth is the number of chain() links, so
+ * depth + 1 Tasks run. Priority is Task.NORMAL_PRIORITY (3) or
+ * Task.FASTLANE_PRIORITY (7).
+ *
+ * @author phou
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChainBenchmark {
+
+    private static final Object VALUE = "value";
+    @Param({"4"})
+    public int workers;
+    @Param({"0", "1"})
+    public int schedulerMode;
+    @Param({"1", "4", "16"})
+    public int depth;
+    @Param({"3", "7"})
+    public int priority;
+
+    @Setup(Level.Trial)
+    public void start() {
+        TantalumRuntime.start(workers, schedulerMode);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        TantalumRuntime.stop();
+    }
+
+    @Benchmark
+    public Object chain() throws Exception {
+        final Task first = new TantalumRuntime.PassThroughTask(priority, VALUE);
+        Task last = first;
+
+        for (int i = 0; i < depth; i++) {
+            final Task next = new TantalumRuntime.PassThroughTask(priority);
+
+            last.chain(next);
+            last = next;
+        }
+        first.fork();
+
+        return last.join();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.tantalum.CancellationException;
+import org.tantalum.PlatformUtils;
+import org.tantalum.QueuePolicy;
+import org.tantalum.Task;
+
+/**
+ * Cost of queue overflow handling. A burst of several times the queue size
+ * limit is forked from outside the Workers, then every Task is joined whether
+ * it ran, was coalesced or was canceled by the QueuePolicy.
+ *
+ * Policy is the QueuePolicy type: CANCEL_ON_OVERFLOW (0), BLOCK_FORKER (1),
+ * SHED_LOWEST_PRIORITY (2), COALESCE_DUPLICATES (3) or GROW_TO_MEMORY_BUDGET
+ * (4). Every fourth Task is equal to another so that COALESCE_DUPLICATES has
+ * duplicates to find.
+ *
+ * @author phou
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueuePolicyBenchmark {
+
+    private static final int BURST = 4 * QueuePolicy.DEFAULT_QUEUE_SIZE_LIMIT;
+    private static final long MEMORY_BUDGET = 64 * 1024 * 1024;
+    @Param({"4"})
+    public int workers;
+    @Param({"0", "1"})
+    public int schedulerMode;
+    @Param({"0", "1", "2", "3", "4"})
+    public int policy;
+    private final Task[] tasks = new Task[BURST];
+
+    @Setup(Level.Trial)
+    public void start() {
+        TantalumRuntime.start(workers, schedulerMode);
+        PlatformUtils.getInstance().setQueuePolicy(new QueuePolicy(policy, QueuePolicy.DEFAULT_QUEUE_SIZE_LIMIT, MEMORY_BUDGET));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        TantalumRuntime.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int burst() throws Exception {
+        int canceled = 0;
+
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new KeyedTask(i % 4 == 3 ? i - 1 : i).fork();
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            try {
+                tasks[i].join();
+            } catch (CancellationException e) {
+                canceled++;
+            }
+        }
+
+        return canceled;
+    }
+
+    /**
+     * Tasks with the same key are equal
+     */
+    private static final class KeyedTask extends Task {
+
+        private final int key;
+
+        KeyedTask(final int key) {
+            super(Task.NORMAL_PRIORITY);
+
+            this.key = key;
+        }
+
+        protected Object exec(final Object in) {
+            return in;
+        }
+
+        public boolean equals(final Object o) {
+            return o instanceof KeyedTask && ((KeyedTask) o).key == key;
+        }
+
+        public int hashCode() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.benchmarks;
+
+import org.tantalum.PlatformUtils;
+import org.tantalum.Task;
+
+/**
+ * Start and stop the Tantalum runtime for a benchmark trial.
+ *
+ * PlatformUtils can only be started once per JVM, so each trial must run in a
+ * forked JVM (the JMH default). Do not run with "-f 0".
+ *
+ * @author phou
+ */
+final class TantalumRuntime {
+
+    private TantalumRuntime() {
+    }
+
+    /**
+     * Start the Worker threads
+     *
+     * @param workers - number of Worker threads, 3 to 16
+     * @param schedulerMode - PlatformUtils.SHARED_QUEUE_SCHEDULER_MODE or
+     * PlatformUtils.WORK_STEALING_SCHEDULER_MODE
+     */
+    static void start(final int workers, final int schedulerMode) {
+        final PlatformUtils platformUtils = PlatformUtils.getInstance();
+
+        platformUtils.setSchedulerMode(schedulerMode);
+        if (!platformUtils.setProgram(new Object(), new BenchmarkPlatformAdapter(), workers, PlatformUtils.NORMAL_LOG_MODE)) {
+            throw new IllegalStateException("Tantalum was already started in this JVM. Run each benchmark trial in a forked JVM");
+        }
+    }
+
+    static void stop() {
+        PlatformUtils.getInstance().shutdown("Benchmark trial complete");
+    }
+
+    /**
+     * A minimal Task which returns its input
+     */
+    static final class PassThroughTask extends Task {
+
+        PassThroughTask(final int priority, final Object in) {
+            super(priority, in);
+        }
+
+        PassThroughTask(final int priority) {
+            super(priority);
+        }
+
+        protected Object exec(final Object in) {
+            return in;
+        }
+    }
+
+    /**
+     * A minimal Task which signals a Countdown when it runs
+     */
+    static final class CountdownTask extends Task {
+
+        private final Countdown countdown;
+
+        CountdownTask(final int priority, final Countdown countdown) {
+            super(priority);
+
+            this.countdown = countdown;
+        }
+
+        protected Object exec(final Object in) {
+            countdown.countDown();
+
+            return in;
+        }
+    }
+
+    /**
+     * Wait for a known number of Tasks to run without join(), which would
+     * unfork and run queued Tasks on the benchmark thread
+     */
+    static final class Countdown {
+
+        private int count = 0;
+
+        synchronized void reset(final int count) {
+            this.count = count;
+        }
+
+        synchronized void countDown() {
+            if (--count == 0) {
+                notifyAll();
+            }
+        }
+
+        synchronized void await() throws InterruptedException {
+            while (count > 0) {
+                wait();
+            }
+        }
+    }
+}
@@ -94,6 +94,16 @@ public final class PlatformUtils {
      * and there will not be any log output.
      */
     public static final int MEMORY_CARD_LOG_MODE = 2;
+    /**
+     * All Worker threads take Tasks from shared queues. This is the default.
+     */
+    public static final int SHARED_QUEUE_SCHEDULER_MODE = 0;
+    /**
+     * Each Worker thread queues Tasks in its own deque for each priority and
+     * idle Workers steal Tasks from busy Workers. This reduces lock contention
+     * when there are many Workers forking many small Tasks.
+     */
+    public static final int WORK_STEALING_SCHEDULER_MODE = 1;
     private static final String UNSUPPORTED_PLATFORM_MESSAGE = "Unsupported platform- getIntance(program) argument must be JME MIDlet, Blackberry UiApplication or Android Activity";
     /**
      * PlatformUtils.setProgram() has not yet been called. Usually this is done
@@ -120,6 +130,7 @@ public final class PlatformUtils {
      * How many Worker threads have been started
      */
     protected int numberOfWorkers = 0;
+    private int schedulerMode = SHARED_QUEUE_SCHEDULER_MODE;
     /**
      * The base class for the application on this platform. On JME this is a
      * MIDlet, on Android this is an Activity
@@ -231,6 +242,91 @@ public final class PlatformUtils {
         throw new UnsupportedOperationException("SET PROGRAM: " + UNSUPPORTED_PLATFORM_MESSAGE + " : " + program.getClass().getName());
     }
 
+    /**
+     * Start with an explicitly provided PlatformAdapter instead of detecting
+     * the phone platform from the program class. This is for hosts which are
+     * not a phone, such as a benchmark harness running on a desktop JVM.
+     *
+     * @param program
+     * @param platformAdapter
+     * @param numberOfWorkers
+     * @param logMode
+     * @return true if program has not been previously set, otherwise ignore
+     */
+    public boolean setProgram(final Object program, final PlatformAdapter platformAdapter, final int numberOfWorkers, final int logMode) {
+        if (platformAdapter == null) {
+            throw new NullPointerException("setProgram() with null PlatformAdapter");
+        }
+        if (this.program != null) {
+            return false;
+        }
+        if (numberOfWorkers < 3 || numberOfWorkers > 16) {
+            throw new IllegalArgumentException("Less than 3 or more than 16 workers threads is not supported: " + numberOfWorkers);
+        }
+
+        this.program = program;
+        this.numberOfWorkers = numberOfWorkers;
+        this.platformAdapter = platformAdapter;
+        init(logMode);
+
+        return true;
+    }
+
+    /**
+     * Select how Tasks are queued to the Worker threads. This must be called
+     * before setProgram().
+     *
+     * @param schedulerMode SHARED_QUEUE_SCHEDULER_MODE or
+     * WORK_STEALING_SCHEDULER_MODE
+     */
+    public void setSchedulerMode(final int schedulerMode) {
+        if (schedulerMode != SHARED_QUEUE_SCHEDULER_MODE && schedulerMode != WORK_STEALING_SCHEDULER_MODE) {
+            throw new IllegalArgumentException("Unsupported scheduler mode: " + schedulerMode);
+        }
+        if (program != null) {
+            throw new IllegalStateException("setSchedulerMode() must be called before setProgram()");
+        }
+
+        this.schedulerMode = schedulerMode;
+    }
+
+    /**
+     * Run DEDICATED_THREAD_PRIORITY Tasks, and Tasks such as HttpGetter which
+     * are mostly blocked waiting for I/O, on threads from the specified
+     * executor rather than on new DedicatedThreads and the fixed pool of
+     * Worker threads.
+     *
+     * On a JVM which supports virtual threads, an executor which starts each
+     * action on a new virtual thread allows many slow network operations to be
+     * in flight without tying up the Workers.
+     *
+     * @param executor, or null to return to the default behavior
+     */
+    public void setBlockingTaskExecutor(final TaskExecutor executor) {
+        Worker.setBlockingTaskExecutor(executor);
+    }
+
+    /**
+     * Set what happens when a burst of fork()s fills the Worker queues. The
+     * default is QueuePolicy.CANCEL_ON_OVERFLOW with a limit of
+     * QueuePolicy.DEFAULT_QUEUE_SIZE_LIMIT Tasks.
+     *
+     * @param policy
+     */
+    public void setQueuePolicy(final QueuePolicy policy) {
+        Worker.setQueuePolicy(policy);
+    }
+
+    /**
+     * The current queue policy. Use this to read queue depth and rejection
+     * statistics.
+     *
+     * @return
+     */
+    public QueuePolicy getQueuePolicy() {
+        return Worker.getQueuePolicy();
+    }
+
     /**
      * Return a reference to the main program object appropriate for this phone
      * platform (JME MIDlet, Android Activity, ...)
@@ -248,7 +344,7 @@ public final class PlatformUtils {
      */
     private void init(final int logMode) {
         platformAdapter.init(logMode);
-        Worker.init(numberOfWorkers);
+        Worker.init(numberOfWorkers, schedulerMode == WORK_STEALING_SCHEDULER_MODE);
         runOnUiThread(new Runnable() {
             public void run() {
                 uiThread = Thread.currentThread();
@@ -0,0 +1,292 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum;
+
+/**
+ * What the Worker queues do when a burst of fork()s reaches the queue size
+ * limit, together with per-queue depth and rejection statistics which help you
+ * size the number of Worker threads from data.
+ *
+ * Set with <code>PlatformUtils.getInstance().setQueuePolicy()</code>. The
+ * default is CANCEL_ON_OVERFLOW with a limit of DEFAULT_QUEUE_SIZE_LIMIT
+ * Tasks in each queue.
+ *
+ * @author phou
+ */
+public final class QueuePolicy {
+
+    /**
+     * When a queue is full, cancel() the Task at the end of the queue with the
+     * reason Task.QUEUE_LENGTH_EXCEEDED
+     */
+    public static final int CANCEL_ON_OVERFLOW = 0;
+    /**
+     * When a queue is full, the thread calling fork() waits until there is
+     * space. Workers, the UI thread and the Timer thread never wait since that
+     * could deadlock or freeze the user interface. Their Tasks are queued
+     * anyway and CANCEL_ON_OVERFLOW applies.
+     */
+    public static final int BLOCK_FORKER = 1;
+    /**
+     * When a queue is full, cancel() the lowest priority Task in that queue if
+     * it is lower priority than the Task being forked, so a HIGH_PRIORITY Task
+     * takes the place of the last NORMAL_PRIORITY Task. Otherwise the Task
+     * being forked is canceled and not queued.
+     */
+    public static final int SHED_LOWEST_PRIORITY = 2;
+    /**
+     * A Task which equals() a Task already waiting in the same queue is not
+     * queued. It completes with the result of the queued Task instead. Tasks
+     * only coalesce if you override equals(). When a queue is full,
+     * CANCEL_ON_OVERFLOW applies.
+     */
+    public static final int COALESCE_DUPLICATES = 3;
+    /**
+     * Queues grow beyond the size limit for as long as the heap memory in use
+     * is less than the memory budget. Above the budget, CANCEL_ON_OVERFLOW
+     * applies.
+     */
+    public static final int GROW_TO_MEMORY_BUDGET = 4;
+    /**
+     * The queue size limit before the policy takes action
+     */
+    public static final int DEFAULT_QUEUE_SIZE_LIMIT = 32;
+    /**
+     * Statistics for Task.FASTLANE_PRIORITY Tasks
+     */
+    public static final int FASTLANE_QUEUE = 0;
+    /**
+     * Statistics for Task.HIGH_PRIORITY and Task.NORMAL_PRIORITY Tasks
+     */
+    public static final int NORMAL_QUEUE = 1;
+    /**
+     * Statistics for Task.IDLE_PRIORITY Tasks
+     */
+    public static final int IDLE_QUEUE = 2;
+    private static final int NUMBER_OF_QUEUES = 3;
+    private final int type;
+    private final int sizeLimit;
+    private final long memoryBudget;
+    private final int[] maxDepth = new int[NUMBER_OF_QUEUES];
+    private final int[] rejectedCount = new int[NUMBER_OF_QUEUES];
+    private final int[] coalescedCount = new int[NUMBER_OF_QUEUES];
+    private final int[] blockedCount = new int[NUMBER_OF_QUEUES];
+
+    /**
+     * Create a queue policy
+     *
+     * @param type
+     * @param sizeLimit - number of Tasks in each queue before the policy takes
+     * action
+     */
+    public QueuePolicy(final int type, final int sizeLimit) {
+        this(type, sizeLimit, 0);
+    }
+
+    /**
+     * Create a queue policy
+     *
+     * @param type
+     * @param sizeLimit - number of Tasks in each queue before the policy takes
+     * action
+     * @param memoryBudget - bytes of heap memory in use up to which
+     * GROW_TO_MEMORY_BUDGET allows the queues to grow
+     */
+    public QueuePolicy(final int type, final int sizeLimit, final long memoryBudget) {
+        if (type < CANCEL_ON_OVERFLOW || type > GROW_TO_MEMORY_BUDGET) {
+            throw new IllegalArgumentException("Unsupported queue policy type: " + type);
+        }
+        if (sizeLimit < 1) {
+            throw new IllegalArgumentException("Queue size limit must be at least 1: " + sizeLimit);
+        }
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Queue memory budget can not be negative: " + memoryBudget);
+        }
+
+        this.type = type;
+        this.sizeLimit = sizeLimit;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return CANCEL_ON_OVERFLOW, BLOCK_FORKER, SHED_LOWEST_PRIORITY,
+     * COALESCE_DUPLICATES or GROW_TO_MEMORY_BUDGET
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return
+     */
+    public int getSizeLimit() {
+        return sizeLimit;
+    }
+
+    /**
+     * @return
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * The number of Tasks now waiting in a queue
+     *
+     * @param queue - FASTLANE_QUEUE, NORMAL_QUEUE or IDLE_QUEUE
+     * @return
+     */
+    public int getDepth(final int queue) {
+        checkQueue(queue);
+
+        return Worker.getQueueDepth(queue);
+    }
+
+    /**
+     * The largest number of Tasks seen waiting in a queue since this policy
+     * was set or the statistics were reset
+     *
+     * @param queue - FASTLANE_QUEUE, NORMAL_QUEUE or IDLE_QUEUE
+     * @return
+     */
+    public synchronized int getMaxDepth(final int queue) {
+        checkQueue(queue);
+
+        return maxDepth[queue];
+    }
+
+    /**
+     * The number of Tasks canceled from a queue because it was full
+     *
+     * @param queue - FASTLANE_QUEUE, NORMAL_QUEUE or IDLE_QUEUE
+     * @return
+     */
+    public synchronized int getRejectedCount(final int queue) {
+        checkQueue(queue);
+
+        return rejectedCount[queue];
+    }
+
+    /**
+     * The number of Tasks which completed with the result of an equal Task
+     * instead of being queued
+     *
+     * @param queue - FASTLANE_QUEUE, NORMAL_QUEUE or IDLE_QUEUE
+     * @return
+     */
+    public synchronized int getCoalescedCount(final int queue) {
+        checkQueue(queue);
+
+        return coalescedCount[queue];
+    }
+
+    /**
+     * The number of times a fork() waited for space in a queue
+     *
+     * @param queue - FASTLANE_QUEUE, NORMAL_QUEUE or IDLE_QUEUE
+     * @return
+     */
+    public synchronized int getBlockedCount(final int queue) {
+        checkQueue(queue);
+
+        return blockedCount[queue];
+    }
+
+    /**
+     * Set all statistics back to zero
+     */
+    public synchronized void resetStatistics() {
+        for (int i = 0; i < NUMBER_OF_QUEUES; i++) {
+            maxDepth[i] = 0;
+            rejectedCount[i] = 0;
+            coalescedCount[i] = 0;
+            blockedCount[i] = 0;
+        }
+    }
+
+    synchronized void depth(final int queue, final int depth) {
+        if (depth > maxDepth[queue]) {
+            maxDepth[queue] = depth;
+        }
+    }
+
+    synchronized void rejected(final int queue) {
+        rejectedCount[queue]++;
+    }
+
+    synchronized void coalesced(final int queue) {
+        coalescedCount[queue]++;
+    }
+
+    synchronized void blocked(final int queue) {
+        blockedCount[queue]++;
+    }
+
+    /**
+     * Check if GROW_TO_MEMORY_BUDGET may let a queue grow beyond its size limit
+     *
+     * @return
+     */
+    boolean isUnderMemoryBudget() {
+        final Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory() < memoryBudget;
+    }
+
+    private static void checkQueue(final int queue) {
+        if (queue < 0 || queue >= NUMBER_OF_QUEUES) {
+            throw new IllegalArgumentException("Unknown queue: " + queue);
+        }
+    }
+
+    //#mdebug
+    public String toString() {
+        final StringBuffer sb = new StringBuffer();
+
+        sb.append("QueuePolicy type=");
+        sb.append(type);
+        sb.append(" sizeLimit=");
+        sb.append(sizeLimit);
+        for (int i = 0; i < NUMBER_OF_QUEUES; i++) {
+            sb.append(" [");
+            sb.append(i);
+            sb.append(" maxDepth=");
+            sb.append(getMaxDepth(i));
+            sb.append(" rejected=");
+            sb.append(getRejectedCount(i));
+            sb.append(" coalesced=");
+            sb.append(getCoalescedCount(i));
+            sb.append(" blocked=");
+            sb.append(getBlockedCount(i));
+            sb.append(']');
+        }
+
+        return sb.toString();
+    }
+    //#enddebug
+}
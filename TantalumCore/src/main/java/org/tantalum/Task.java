@@ -284,19 +284,27 @@ public abstract class Task {
      * using Worker.queueShutdownTask(Task).
      */
 //    public static final int DEQUEUE_OR_INTERRUPT_ON_SHUTDOWN = 2;
-    private Object value = null; // Always access within a synchronized block
+    private Object value = null; // Always access within a synchronized block, or read after status is seen FINISHED
     /**
-     * The current execution state, one of several predefined constants
+     * The current execution state, one of several predefined constants.
+     *
+     * Status only changes within synchronized(mutex), but is volatile so that
+     * the common read-only checks do not need to take the lock. The value is
+     * always set before status becomes FINISHED, so a thread which reads
+     * FINISHED also sees the final value.
      */
-    protected int status = PENDING; // Always access within a synchronized block
+    protected volatile int status = PENDING;
     /**
      * The next Task to be executed after this Task completes successfully. If
      * the current task is canceled or throws an exception, the chainedTask(s)
      * will have cancel() called to notify that they will not execute.
      */
     private Task chainedTask = null; // Run afterwords, passing output as input parameter
+    private Vector coalescedTasks = null; // Equal Tasks which complete with this result, access only within synchronized(mutex)
+    private Runnable deferredResume = null; // Set by defer() during exec(), access only within synchronized(mutex)
     private final int forkPriority;
     private final Object mutex = new Object();
+    private int joinWaiters = 0; // Threads in join() wait, access only within synchronized(mutex)
     static volatile Thread timerThread = null;
 
     /**
@@ -574,8 +582,18 @@ public abstract class Task {
         }
         //#enddebug
 
-        if (getStatus() == PENDING && Worker.tryUnfork(this)) {
-            return executeOutOfOrderAfterSuccessfulUnfork();
+        switch (status) {
+            case FINISHED:
+                return value;
+
+            case PENDING:
+                if (Worker.tryUnfork(this)) {
+                    final Object out = executeOutOfOrderAfterSuccessfulUnfork();
+                    if (status != PENDING) {
+                        return out;
+                    }
+                    // The Task called defer(), wait below for it to complete
+                }
         }
 
         synchronized (mutex) {
@@ -591,11 +609,14 @@ public abstract class Task {
                         //#debug
                         L.i(this, "Can not unfork, must be an executing or chained Task. Start join(" + timeout + ")", "" + this);
 
+                        joinWaiters++;
                         try {
                             mutex.wait(timeout);
                         } catch (InterruptedException e) {
                             //#debug
                             L.e(this, "InterruptedException during join(" + timeout + ") wait", "Task will cancel: " + this, e);
+                        } finally {
+                            joinWaiters--;
                         }
                         //#debug
                         L.i(this, "End join(" + timeout + ") after can not unfork executing or chained Task", "" + this);
@@ -626,6 +647,9 @@ public abstract class Task {
      * is still PENDING and will run, but there is a rare race condition whereby
      * at this point the Task state may have changed, so check again.
      *
+     * The lock is not held during exec() so other threads can check status,
+     * chain() or cancel() while the Task runs out of order.
+     *
      * @return
      * @throws CancellationException
      */
@@ -633,18 +657,16 @@ public abstract class Task {
         //#debug
         L.i(this, "Successful unfork join() PENDING task", "Out of order exec: " + this);
 
-        synchronized (mutex) {
-            switch (getStatus()) {
-                case PENDING:
-                    return executeTask(getValue());
+        switch (status) {
+            case PENDING:
+                return executeTask(getValue());
 
-                case FINISHED:
-                    return value;
+            case FINISHED:
+                return value;
 
-                default:
-                case CANCELED:
-                    throw new CancellationException("join() was to a Task which was canceled: " + this);
-            }
+            default:
+            case CANCELED:
+                throw new CancellationException("join() was to a Task which was canceled: " + this);
         }
     }
 
@@ -709,9 +731,7 @@ public abstract class Task {
      * @return
      */
     public final int getStatus() {
-        synchronized (mutex) {
-            return status;
-        }
+        return status;
     }
 
     /**
@@ -720,9 +740,7 @@ public abstract class Task {
      * @return
      */
     public final String getStatusString() {
-        synchronized (mutex) {
-            return Task.STATUS_STRINGS[status];
-        }
+        return Task.STATUS_STRINGS[status];
     }
 
     /**
@@ -746,6 +764,7 @@ public abstract class Task {
 
     private void doSetStatus(final int status, final String reason) {
         final Task t;
+        Vector coalesced = null;
         synchronized (mutex) {
             if (this.status == status) {
                 //#debug
@@ -765,8 +784,12 @@ public abstract class Task {
                  * canceled chained tasks. This can also speed garbage collection.
                  */
                 chainedTask = null;
+                coalesced = coalescedTasks;
+                coalescedTasks = null;
+            }
+            if (joinWaiters > 0) {
+                mutex.notifyAll();
             }
-            mutex.notifyAll();
         }
 
         if (status == CANCELED) {
@@ -781,6 +804,11 @@ public abstract class Task {
             if (t != null) {
                 t.cancel("Previous task in chain was canceled: " + this + ", reason: " + reason);
             }
+            if (coalesced != null) {
+                for (int i = 0; i < coalesced.size(); i++) {
+                    ((Task) coalesced.elementAt(i)).cancel("Coalesced duplicate was canceled: " + this + ", reason: " + reason);
+                }
+            }
         }
     }
 
@@ -834,7 +862,7 @@ public abstract class Task {
             throw new IllegalArgumentException("Can not chain a task to itself: " + nextTask);
         }
         synchronized (mutex) {
-            if (getStatus() > Task.PENDING) {
+            if (status > Task.PENDING) {
                 throw new IllegalStateException("Can not chain() to a Task unless it is still PENDING. Generally you should complete all chaining before you fork(): " + this + " -> " + nextTask);
             }
 
@@ -903,27 +931,43 @@ public abstract class Task {
         Object out;
 
         try {
-            synchronized (mutex) {
-                if (status == Task.CANCELED) {
-                    throw new IllegalStateException(this.getStatusString() + " state can not be executed: " + this);
-                }
+            if (status == Task.CANCELED) {
+                throw new IllegalStateException(this.getStatusString() + " state can not be executed: " + this);
             }
             /*
              * Execute the Task without holding any locks
              */
             out = exec(in);
 
+            final Runnable resume;
+            synchronized (mutex) {
+                resume = deferredResume;
+                deferredResume = null;
+            }
+            if (resume != null) {
+                if (status == Task.PENDING) {
+                    //#debug
+                    L.i(this, "Deferred", "" + this);
+                    resume.run();
+                }
+                return null;
+            }
+
             final boolean executionSuccessful;
             final Task t;
+            final Vector coalesced;
             synchronized (mutex) {
                 executionSuccessful = status == Task.PENDING;
                 if (executionSuccessful) {
                     value = out;
                     t = chainedTask;
+                    coalesced = coalescedTasks;
+                    coalescedTasks = null;
                     setStatus(FINISHED);
                 } else {
                     // Task was canceled
                     t = null;
+                    coalesced = null;
                 }
             }
             if (t != null) {
@@ -934,10 +978,18 @@ public abstract class Task {
                 }
                 t.fork();
             }
+            if (coalesced != null) {
+                for (int i = 0; i < coalesced.size(); i++) {
+                    ((Task) coalesced.elementAt(i)).finishCoalesced(out);
+                }
+            }
         } catch (final Throwable t) {
             final String s = "Exception during Task exec()";
             //#debug
             L.e(this, s, "" + this, t);
+            synchronized (mutex) {
+                deferredResume = null;
+            }
             cancel(s + " : " + this, t);
             out = null;
         }
@@ -945,6 +997,86 @@ public abstract class Task {
         return out;
     }
 
+    /**
+     * End the current exec() without completing this Task. Call this from
+     * exec() just before you return. The return value is ignored, the Task
+     * stays PENDING and chained Tasks are not forked.
+     *
+     * After exec() returns, resume.run() is called on the same thread. It must
+     * arrange for this Task to be fork()ed again later, for example from a
+     * Task.getTimer() TimerTask, or cancel() it. This lets a Task wait for a
+     * resource or a delay without holding a Worker thread.
+     *
+     * @param resume
+     */
+    protected final void defer(final Runnable resume) {
+        if (resume == null) {
+            throw new NullPointerException("Task.defer() needs a Runnable to resume the Task: " + this);
+        }
+        synchronized (mutex) {
+            if (status != Task.PENDING) {
+                throw new IllegalStateException("Can not defer() a Task which is not PENDING: " + this);
+            }
+            deferredResume = resume;
+        }
+    }
+
+    /**
+     * Check if this exec() has called defer(). A subclass which overrides
+     * exec() and calls super.exec() must check this before using the result.
+     * The result of a deferred exec() is null and the Task will run again
+     * later.
+     *
+     * @return true if the Task will resume later
+     */
+    protected final boolean isDeferred() {
+        synchronized (mutex) {
+            return deferredResume != null;
+        }
+    }
+
+    /**
+     * Complete this Task with the result of an equal Task which is already
+     * queued instead of executing it a second time. Used by
+     * QueuePolicy.COALESCE_DUPLICATES
+     *
+     * @param duplicate
+     * @return false if the duplicate is no longer PENDING and this Task should
+     * be queued normally
+     */
+    final boolean coalesceWith(final Task duplicate) {
+        synchronized (duplicate.mutex) {
+            if (duplicate.status != Task.PENDING) {
+                return false;
+            }
+            if (duplicate.coalescedTasks == null) {
+                duplicate.coalescedTasks = new Vector();
+            }
+            duplicate.coalescedTasks.addElement(this);
+
+            return true;
+        }
+    }
+
+    private void finishCoalesced(final Object out) {
+        final Task t;
+
+        synchronized (mutex) {
+            if (status != Task.PENDING) {
+                return;
+            }
+            value = out;
+            t = chainedTask;
+            setStatus(FINISHED);
+        }
+        if (t != null) {
+            if (out != null) {
+                t.set(out);
+            }
+            t.fork();
+        }
+    }
+
     /**
      * Override to implement Worker thread code
      *
@@ -1058,6 +1190,21 @@ public abstract class Task {
         L.i(this, "default Task.onCanceled() - this method was not overridden: cancellationReason=" + reason, this.toString());
     }
 
+    /**
+     * Override and return true if exec() spends most of its time blocked
+     * waiting for the network or other slow I/O rather than computing.
+     *
+     * If an executor has been set with
+     * <code>PlatformUtils.getInstance().setBlockingTaskExecutor()</code> then
+     * FASTLANE_PRIORITY, HIGH_PRIORITY and NORMAL_PRIORITY blocking Tasks run
+     * there instead of holding one of the Worker threads.
+     *
+     * @return
+     */
+    protected boolean isBlocking() {
+        return false;
+    }
+
     /**
      * Check of the task has been had cancel() called or has thrown an uncaught
      * exception while executing.
@@ -27,6 +27,8 @@
  */
 package org.tantalum;
 
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
@@ -45,7 +47,6 @@ final class Worker extends Thread {
      * The following are state variables. During application shutdown, all tasks
      * from the previous state must complete before the next state is entered.
      */
-    private static final int QUEUE_SIZE_LIMIT = 32;
     private static final int SHUTDOWN_TIMEOUT_1 = 10000; // ms, how long to hold the shutdown before interrupt unresponsive Workers
     private static final int SHUTDOWN_TIMEOUT_2 = 15000; // ms, how long to hold the shutdown before interrupt shutdown thread
     /*
@@ -66,13 +67,51 @@ final class Worker extends Thread {
     private static final Vector shutdownQ = new Vector();
     volatile static boolean shuttingDown = false;
     volatile static boolean shutdownComplete = false;
-    private Task currentTask = null; // Access only within synchronized(q)
+    /*
+     * Work-stealing mode: each Worker has its own deque for each priority band
+     * instead of the shared q, fastlaneQ and idleQ. See init()
+     */
+    private static boolean workStealing = false;
+    /*
+     * If set, DEDICATED_THREAD_PRIORITY and blocking Tasks run here instead
+     */
+    private static volatile TaskExecutor blockingTaskExecutor = null;
+    private static volatile QueuePolicy queuePolicy = new QueuePolicy(QueuePolicy.CANCEL_ON_OVERFLOW, QueuePolicy.DEFAULT_QUEUE_SIZE_LIMIT);
+    private static volatile int blockedForkers = 0; // Change only within synchronized(blockedForkersMutex)
+    private static final Object blockedForkersMutex = new Object();
+    private static int nextWorkerIndex = 0; // Round-robin hint, races are harmless
+    /*
+     * Work-stealing mode, checking that all other Workers are idle and marking
+     * this one busy with an IDLE_PRIORITY Task is one step within
+     * synchronized(idleBandMutex). Otherwise two Workers could each see the
+     * other idle and both run an IDLE_PRIORITY Task.
+     */
+    private static final Object idleBandMutex = new Object();
+    private static final int FASTLANE_BAND = 0;
+    private static final int HIGH_BAND = 1;
+    private static final int NORMAL_BAND = 2;
+    private static final int IDLE_BAND = 3;
+    private final Vector[] deques = {new Vector(), new Vector(), new Vector(), new Vector()};
+    private volatile boolean parked = false; // Work-stealing mode, this Worker may be waiting for a signal
+    /*
+     * Work-stealing mode, a parked Worker waits on this. The Thread monitor is
+     * not used since Thread.join() also waits and is notified on it.
+     */
+    private final Object parkMutex = new Object();
+    private boolean signalled = false; // Access only within synchronized(parkMutex)
+    /*
+     * Access only within synchronized(q), or synchronized(parkMutex) in
+     * work-stealing mode
+     */
+    private volatile Task currentTask = null;
+    private final int index;
     private final boolean isDedicatedFastlaneWorker;
     private volatile boolean threadDeath = false; // The thread is in last finally block, is done
 
-    private Worker(final String name, final boolean isDedicatedFastlaneWorker) {
+    private Worker(final String name, final int index, final boolean isDedicatedFastlaneWorker) {
         super(name);
 
+        this.index = index;
         this.isDedicatedFastlaneWorker = isDedicatedFastlaneWorker;
     }
 
@@ -82,20 +121,76 @@ final class Worker extends Thread {
      * Generally numberOfWorkers=2 is suggested, but you can increase this later
      * when tuning your application's performance.
      *
-     * @param midlet
+     * In work-stealing mode each Worker queues the Tasks it forks in its own
+     * per-priority deques and idle Workers steal from their peers. This
+     * removes the single q lock which all Workers otherwise contend for. Tasks
+     * forked from other threads are spread round-robin. Thieves take from the
+     * same end as the owner, so each priority band keeps the same order as in
+     * the shared queue mode.
+     *
      * @param numberOfWorkers
+     * @param workStealing
      */
-    static void init(final int numberOfWorkers) {
+    static void init(final int numberOfWorkers, final boolean workStealing) {
+        Worker.workStealing = workStealing;
         workers = new Worker[numberOfWorkers];
         for (int i = 0; i < numberOfWorkers; i++) {
             final boolean fastlane = i == numberOfWorkers - 1;
             final String name = fastlane ? "Fastlane" : "Worker" + i;
 
-            workers[i] = new Worker(name, fastlane);
+            workers[i] = new Worker(name, i, fastlane);
+        }
+        for (int i = 0; i < numberOfWorkers; i++) {
             workers[i].start();
         }
     }
 
+    /**
+     * Run DEDICATED_THREAD_PRIORITY Tasks and Tasks which override
+     * Task.isBlocking() on the specified executor
+     *
+     * @param executor, or null to use DedicatedThreads and Workers
+     */
+    static void setBlockingTaskExecutor(final TaskExecutor executor) {
+        blockingTaskExecutor = executor;
+    }
+
+    static void setQueuePolicy(final QueuePolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("Queue policy can not be null");
+        }
+
+        queuePolicy = policy;
+    }
+
+    static QueuePolicy getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    /**
+     * Check if the Task should be run by the blocking Task executor. Blocking
+     * Tasks only go there if they would otherwise occupy a Worker until they
+     * complete. SERIAL and IDLE ordering are not changed.
+     *
+     * @param task
+     * @param priority
+     * @return
+     */
+    private static boolean isForBlockingTaskExecutor(final Task task, final int priority) {
+        switch (priority) {
+            case Task.DEDICATED_THREAD_PRIORITY:
+                return true;
+
+            case Task.FASTLANE_PRIORITY:
+            case Task.HIGH_PRIORITY:
+            case Task.NORMAL_PRIORITY:
+                return task.isBlocking();
+
+            default:
+                return false;
+        }
+    }
+
     /**
      * True during the shutdown process
      *
@@ -129,22 +224,361 @@ final class Worker extends Thread {
             ((Worker) currentThread).serialQ.addElement(task);
         } else if (currentThread instanceof DedicatedThread) {
             ((DedicatedThread) currentThread).serialQ.addElement(task);
+        } else if (ExecutorRun.runs.containsKey(currentThread)) {
+            ((ExecutorRun) ExecutorRun.runs.get(currentThread)).serialQ.addElement(task);
         } else {
             throw new IllegalArgumentException("You must be in a Task running on a Tantalum Worker thread or DedicatedThread to fork a new Task.SERIAL_CURRENT_THREAD_PRIORITY");
         }
     }
 
-    private static Task cancelTasksAboveMaxQueueSize(final Vector queue) {
-        synchronized (queue) {
-            if (queue.size() >= QUEUE_SIZE_LIMIT) {
-                final Task task = (Task) queue.elementAt(queue.size() - 1);
-                queue.removeElementAt(queue.size() - 1);
+    /**
+     * Choose the Worker deque into which a new Task is queued in work-stealing
+     * mode. A Worker keeps its own Tasks, other threads spread them
+     * round-robin. The Fastlane Worker only keeps FASTLANE_PRIORITY Tasks.
+     *
+     * @param fastlane
+     * @return
+     */
+    private static Worker chooseWorker(final boolean fastlane) {
+        final Thread currentThread = Thread.currentThread();
 
-                return task;
+        if (currentThread instanceof Worker) {
+            final Worker w = (Worker) currentThread;
+
+            if (fastlane || !w.isDedicatedFastlaneWorker) {
+                return w;
+            }
+        }
+        final int n = fastlane || workers.length == 1 ? workers.length : workers.length - 1;
+
+        return workers[(nextWorkerIndex++ & 0x7FFFFFFF) % n];
+    }
+
+    /**
+     * Wake the preferred Worker if it is waiting for work, otherwise any other
+     * waiting Worker which can steal the Task
+     *
+     * @param preferred
+     * @param fastlane
+     */
+    private static void signalWork(final Worker preferred, final boolean fastlane) {
+        if (preferred.parked) {
+            preferred.wake();
+            return;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            final Worker w = workers[i];
+
+            if (w.parked && (fastlane || !w.isDedicatedFastlaneWorker)) {
+                w.wake();
+                return;
+            }
+        }
+    }
+
+    private static void signalAllWorkers() {
+        if (workers != null) {
+            for (int i = 0; i < workers.length; i++) {
+                workers[i].wake();
             }
+        }
+    }
 
+    private void wake() {
+        synchronized (parkMutex) {
+            signalled = true;
+            parkMutex.notify();
+        }
+    }
+
+    /**
+     * Work-stealing mode fork() of the priorities which are queued to Workers.
+     *
+     * @param task
+     * @param priority
+     * @return false if this priority is not queued to a Worker deque
+     */
+    private static boolean forkToWorkerDeque(final Task task, final int priority) {
+        final Worker w;
+        final Vector deque;
+        Task taskToCancel = null;
+
+        switch (priority) {
+            case Task.FASTLANE_PRIORITY:
+                w = chooseWorker(true);
+                deque = w.deques[FASTLANE_BAND];
+                awaitQueueSpace(deque, QueuePolicy.FASTLANE_QUEUE, deque);
+                taskToCancel = applyQueuePolicy(deque, QueuePolicy.FASTLANE_QUEUE, task);
+                if (taskToCancel != task) {
+                    deque.insertElementAt(task, 0);
+                    signalWork(w, true);
+                }
+                break;
+
+            case Task.SERIAL_PRIORITY:
+                w = workers[0];
+                w.serialQ.addElement(task);
+                signalWork(w, false);
+                break;
+
+            case Task.HIGH_PRIORITY:
+                w = chooseWorker(false);
+                deque = w.deques[HIGH_BAND];
+                awaitQueueSpace(deque, QueuePolicy.NORMAL_QUEUE, deque);
+                taskToCancel = applyQueuePolicy(deque, QueuePolicy.NORMAL_QUEUE, task);
+                if (taskToCancel != task) {
+                    deque.insertElementAt(task, 0);
+                    signalWork(w, false);
+                }
+                break;
+
+            case Task.NORMAL_PRIORITY:
+                w = chooseWorker(false);
+                deque = w.deques[NORMAL_BAND];
+                awaitQueueSpace(deque, QueuePolicy.NORMAL_QUEUE, deque);
+                taskToCancel = applyQueuePolicy(deque, QueuePolicy.NORMAL_QUEUE, task);
+                if (taskToCancel != task) {
+                    deque.addElement(task);
+                    signalWork(w, false);
+                }
+                break;
+
+            case Task.IDLE_PRIORITY:
+                w = chooseWorker(false);
+                deque = w.deques[IDLE_BAND];
+                deque.addElement(task);
+                queuePolicy.depth(QueuePolicy.IDLE_QUEUE, deque.size());
+                signalWork(w, false);
+                break;
+
+            default:
+                return false;
+        }
+
+        if (taskToCancel != null) {
+            taskToCancel.cancel(Task.QUEUE_LENGTH_EXCEEDED);
+        }
+
+        return true;
+    }
+
+    /**
+     * Apply the QueuePolicy before a Task is queued. The Task to cancel is
+     * returned so that it can be canceled after releasing the q lock. If that
+     * is the new Task, do not queue it.
+     *
+     * Call this before adding the new Task so that a forker which
+     * awaitQueueSpace() has let through does not find the queue full again and
+     * cancel a Task.
+     *
+     * @param queue
+     * @param queueId - QueuePolicy queue for statistics
+     * @param task - the Task about to be queued
+     * @return the Task to cancel, or null
+     */
+    static Task applyQueuePolicy(final Vector queue, final int queueId, final Task task) {
+        final QueuePolicy policy = queuePolicy;
+        final int depth = queue.size();
+
+        policy.depth(queueId, depth);
+        if (depth < policy.getSizeLimit()) {
+            return null;
+        }
+        if (policy.getType() == QueuePolicy.GROW_TO_MEMORY_BUDGET && policy.isUnderMemoryBudget()) {
             return null;
         }
+        Task taskToCancel;
+        synchronized (queue) {
+            taskToCancel = pollLast(queue);
+            if (policy.getType() == QueuePolicy.SHED_LOWEST_PRIORITY && taskToCancel != null && taskToCancel.getForkPriority() >= task.getForkPriority()) {
+                /*
+                 * Everything queued is at least as important as the new Task,
+                 * so shed that instead
+                 */
+                queue.addElement(taskToCancel);
+                taskToCancel = task;
+            }
+        }
+        if (taskToCancel != null) {
+            policy.rejected(queueId);
+        }
+
+        return taskToCancel;
+    }
+
+    /**
+     * QueuePolicy.BLOCK_FORKER waits here until the queue has space. Workers,
+     * the Timer thread and the UI thread never wait since they could hold up
+     * the Tasks which would make space, or freeze the user interface.
+     *
+     * @param queue
+     * @param queueId
+     * @param lock - the monitor which is notified when a Task is taken from
+     * the queue
+     */
+    static void awaitQueueSpace(final Vector queue, final int queueId, final Object lock) {
+        final QueuePolicy policy = queuePolicy;
+
+        if (policy.getType() != QueuePolicy.BLOCK_FORKER || queue.size() < policy.getSizeLimit()) {
+            return;
+        }
+        if (Thread.currentThread() instanceof Worker || Task.isTimerThread() || PlatformUtils.getInstance().isUIThread()) {
+            return;
+        }
+
+        policy.blocked(queueId);
+        synchronized (blockedForkersMutex) {
+            blockedForkers++;
+        }
+        try {
+            synchronized (lock) {
+                while (queue.size() >= policy.getSizeLimit() && !shuttingDown) {
+                    lock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            //#debug
+            L.i("Interrupted while waiting for queue space", "queue=" + queueId);
+        } finally {
+            synchronized (blockedForkersMutex) {
+                blockedForkers--;
+            }
+        }
+    }
+
+    /**
+     * Wake any thread waiting in awaitQueueSpace(). Call within
+     * synchronized(lock)
+     *
+     * @param lock
+     */
+    private static void notifyBlockedForkers(final Object lock) {
+        if (blockedForkers > 0) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Find a Task equal to this one waiting in the same queue. Tasks are only
+     * equal if they override equals().
+     *
+     * @param task
+     * @param priority
+     * @return the queued duplicate, or null
+     */
+    private static Task findQueuedDuplicate(final Task task, final int priority) {
+        final Vector queue;
+        final int firstBand;
+        final int lastBand;
+
+        switch (priority) {
+            case Task.FASTLANE_PRIORITY:
+                queue = fastlaneQ;
+                firstBand = FASTLANE_BAND;
+                lastBand = FASTLANE_BAND;
+                break;
+
+            case Task.HIGH_PRIORITY:
+            case Task.NORMAL_PRIORITY:
+                queue = q;
+                firstBand = HIGH_BAND;
+                lastBand = NORMAL_BAND;
+                break;
+
+            case Task.IDLE_PRIORITY:
+                queue = idleQ;
+                firstBand = IDLE_BAND;
+                lastBand = IDLE_BAND;
+                break;
+
+            default:
+                return null;
+        }
+
+        if (!workStealing) {
+            return findDuplicate(queue, task);
+        }
+        for (int i = 0; i < workers.length; i++) {
+            for (int band = firstBand; band <= lastBand; band++) {
+                final Task duplicate = findDuplicate(workers[i].deques[band], task);
+
+                if (duplicate != null) {
+                    return duplicate;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static Task findDuplicate(final Vector queue, final Task task) {
+        synchronized (queue) {
+            for (int i = 0; i < queue.size(); i++) {
+                final Task t = (Task) queue.elementAt(i);
+
+                if (t != task && t.equals(task)) {
+                    return t;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static int getQueueId(final int priority) {
+        switch (priority) {
+            case Task.FASTLANE_PRIORITY:
+                return QueuePolicy.FASTLANE_QUEUE;
+
+            case Task.IDLE_PRIORITY:
+                return QueuePolicy.IDLE_QUEUE;
+
+            default:
+                return QueuePolicy.NORMAL_QUEUE;
+        }
+    }
+
+    /**
+     * The number of Tasks now waiting in a QueuePolicy queue
+     *
+     * @param queueId
+     * @return
+     */
+    static int getQueueDepth(final int queueId) {
+        switch (queueId) {
+            case QueuePolicy.FASTLANE_QUEUE:
+                return fastlaneQ.size() + dequeSize(FASTLANE_BAND);
+
+            case QueuePolicy.IDLE_QUEUE:
+                return idleQ.size() + dequeSize(IDLE_BAND);
+
+            default:
+                return q.size() + dequeSize(HIGH_BAND) + dequeSize(NORMAL_BAND);
+        }
+    }
+
+    private static int dequeSize(final int band) {
+        int size = 0;
+
+        if (workers != null) {
+            for (int i = 0; i < workers.length; i++) {
+                size += workers[i].deques[band].size();
+            }
+        }
+
+        return size;
+    }
+
+    private static Task pollLast(final Vector queue) {
+        synchronized (queue) {
+            if (queue.isEmpty()) {
+                return null;
+            }
+            final Task task = (Task) queue.lastElement();
+            queue.removeElementAt(queue.size() - 1);
+
+            return task;
+        }
     }
 
     /**
@@ -182,6 +616,24 @@ final class Worker extends Thread {
         final int priority = task.getForkPriority();
         //#debug
         L.i(task, "Fork", "priority=" + task.getPriorityString());
+        final TaskExecutor executor = blockingTaskExecutor;
+        if (executor != null && isForBlockingTaskExecutor(task, priority)) {
+            executor.execute(new ExecutorRun(task));
+            return task;
+        }
+        if (queuePolicy.getType() == QueuePolicy.COALESCE_DUPLICATES) {
+            final Task duplicate = findQueuedDuplicate(task, priority);
+
+            if (duplicate != null && task.coalesceWith(duplicate)) {
+                //#debug
+                L.i(task, "Coalesced with queued duplicate", "duplicate=" + duplicate);
+                queuePolicy.coalesced(getQueueId(priority));
+                return task;
+            }
+        }
+        if (workStealing && forkToWorkerDeque(task, priority)) {
+            return task;
+        }
         Task taskToCancel = null; // If the max queue length is exceeded, cancel the task after releasing the q lock
 
         synchronized (q) {
@@ -198,16 +650,24 @@ final class Worker extends Thread {
                     break;
 
                 case Task.FASTLANE_PRIORITY:
+                    awaitQueueSpace(fastlaneQ, QueuePolicy.FASTLANE_QUEUE, q);
+                    taskToCancel = applyQueuePolicy(fastlaneQ, QueuePolicy.FASTLANE_QUEUE, task);
+                    if (taskToCancel == task) {
+                        break;
+                    }
                     fastlaneQ.insertElementAt(task, 0);
-                    taskToCancel = cancelTasksAboveMaxQueueSize(fastlaneQ);
                     /**
                      * notify() vs notifyAll(): Any thread will do as all
                      * Workers (and nothing else) waits on this lock and will
-                     * accept into use Fastlane tasks. If in future these
-                     * conditions are not met, this optimization will no longer
-                     * work and notifyAll() will be needed
+                     * accept into use Fastlane tasks. Forkers blocked by
+                     * QueuePolicy.BLOCK_FORKER also wait on this lock, so then
+                     * notifyAll() is needed
                      */
-                    q.notify();
+                    if (blockedForkers > 0) {
+                        q.notifyAll();
+                    } else {
+                        q.notify();
+                    }
                     break;
 
                 case Task.SERIAL_CURRENT_THREAD_PRIORITY:
@@ -225,19 +685,28 @@ final class Worker extends Thread {
                     break;
 
                 case Task.HIGH_PRIORITY:
+                    awaitQueueSpace(q, QueuePolicy.NORMAL_QUEUE, q);
+                    taskToCancel = applyQueuePolicy(q, QueuePolicy.NORMAL_QUEUE, task);
+                    if (taskToCancel == task) {
+                        break;
+                    }
                     q.insertElementAt(task, 0);
-                    taskToCancel = cancelTasksAboveMaxQueueSize(q);
                     q.notifyAll();
                     break;
 
                 case Task.NORMAL_PRIORITY:
-                    taskToCancel = cancelTasksAboveMaxQueueSize(q);
+                    awaitQueueSpace(q, QueuePolicy.NORMAL_QUEUE, q);
+                    taskToCancel = applyQueuePolicy(q, QueuePolicy.NORMAL_QUEUE, task);
+                    if (taskToCancel == task) {
+                        break;
+                    }
                     q.addElement(task);
                     q.notifyAll();
                     break;
 
                 case Task.IDLE_PRIORITY:
                     idleQ.addElement(task);
+                    queuePolicy.depth(QueuePolicy.IDLE_QUEUE, idleQ.size());
                     q.notifyAll();
                     break;
 
@@ -263,6 +732,13 @@ final class Worker extends Thread {
     }
 
     static Task[] fork(final Task[] tasks) {
+        if (workStealing) {
+            for (int i = 0; i < tasks.length; i++) {
+                fork(tasks[i]);
+            }
+
+            return tasks;
+        }
         synchronized (q) {
             for (int i = 0; i < tasks.length; i++) {
                 fork(tasks[i]);
@@ -287,14 +763,20 @@ final class Worker extends Thread {
         boolean success;
 
         synchronized (q) {
-            success = q.removeElement(task);
+            success = removeTask(q, task);
             if (!success) {
-                success = fastlaneQ.removeElement(task);
+                success = removeTask(fastlaneQ, task);
             }
             if (!success) {
-                success = idleQ.removeElement(task);
+                success = removeTask(idleQ, task);
+            }
+            if (success) {
+                notifyBlockedForkers(q);
             }
         }
+        if (!success && workStealing) {
+            success = removeFromWorkerDeques(task);
+        }
         //#debug
         L.i(task, "tryUnfork", "success=" + success + " task=" + task);
 
@@ -315,27 +797,29 @@ final class Worker extends Thread {
 
         final Thread currentThread = Thread.currentThread();
 
-        synchronized (q) {
-            for (int i = 0; i < workers.length; i++) {
-                if (currentThread == workers[i]) {
-                    /**
-                     * Never send interrupt to own thread. The task state will
-                     * change to canceled, which is enough.
-                     */
-                    continue;
-                }
+        for (int i = 0; i < workers.length; i++) {
+            final Worker w = workers[i];
+
+            if (currentThread == w) {
+                /**
+                 * Never send interrupt to own thread. The task state will
+                 * change to canceled, which is enough.
+                 */
+                continue;
+            }
 
-                if (task.equals(workers[i].currentTask)) {
+            synchronized (w.currentTaskLock()) {
+                if (task.equals(w.currentTask)) {
                     //#debug
-                    L.i(task, "cancel() is sending Thread.interrupt()", "thread=" + workers[i].getName() + " task=" + task);
+                    L.i(task, "cancel() is sending Thread.interrupt()", "thread=" + w.getName() + " task=" + task);
                     /*
                      * Note that there is no race condition here (risk the
                      * task ends before you interrupt it) because currentTask
-                     * is a variable only accessed within a q-synchronized block
+                     * is a variable only accessed within a synchronized block
                      * and Worker.run() is hardened against stray interrupts
                      */
-                    workers[i].interrupt();
-                    return workers[i];
+                    w.interrupt();
+                    return w;
                 }
             }
         }
@@ -367,6 +851,20 @@ final class Worker extends Thread {
             }
         }
 
+        final Enumeration runs = ExecutorRun.runs.elements();
+        while (runs.hasMoreElements()) {
+            final ExecutorRun run = (ExecutorRun) runs.nextElement();
+
+            synchronized (run) {
+                if (currentThread != run.thread && task.equals(run.task)) {
+                    //#debug
+                    L.i(task, "cancel() is sending Thread.interrupt()", "thread=" + run.thread.getName() + " task=" + task);
+                    run.thread.interrupt();
+                    return run.thread;
+                }
+            }
+        }
+
         return null;
     }
 
@@ -428,6 +926,23 @@ final class Worker extends Thread {
             for (int i = 0; i < dt.length; i++) {
                 dt[i].serialQ.removeAllElements();
             }
+            final Enumeration runs = ExecutorRun.runs.elements();
+            while (runs.hasMoreElements()) {
+                ((ExecutorRun) runs.nextElement()).cancelQueuedTasks("Shutdown: " + reason);
+            }
+            if (workStealing) {
+                for (int i = 0; i < workers.length; i++) {
+                    for (int band = 0; band < workers[i].deques.length; band++) {
+                        final Vector deque = workers[i].deques[band];
+
+                        synchronized (deque) {
+                            deque.removeAllElements();
+                            deque.notifyAll();
+                        }
+                    }
+                }
+                signalAllWorkers();
+            }
             synchronized (q) {
                 q.removeAllElements();
                 q.notifyAll();
@@ -442,6 +957,9 @@ final class Worker extends Thread {
             synchronized (q) {
                 q.notifyAll();
             }
+            if (workStealing) {
+                signalAllWorkers();
+            }
         }
     }
 
@@ -483,6 +1001,18 @@ final class Worker extends Thread {
                             }
                         }
                     }
+                    final Enumeration runs = ExecutorRun.runs.elements();
+                    while (runs.hasMoreElements()) {
+                        final ExecutorRun run = (ExecutorRun) runs.nextElement();
+
+                        synchronized (run) {
+                            if (run.thread != null && run.task != null) {
+                                //#debug
+                                L.i(this, "*** HUNG BLOCKING TASK EXECUTOR THREAD IN SHUTDOWN", run.thread.getName() + " task=" + run.task);
+                                run.thread.interrupt();
+                            }
+                        }
+                    }
                     //#debug
                     L.i("End shutdown 1 timeout", reason);
                 } catch (Exception e) {
@@ -524,6 +1054,9 @@ final class Worker extends Thread {
                             L.i("Skipping current thread wait during shutdown", "reason=" + reason);
                             continue;
                         }
+                        if (workStealing) {
+                            w.wake();
+                        }
                         synchronized (q) {
                             if (!w.threadDeath) {
                                 //#debug
@@ -540,6 +1073,19 @@ final class Worker extends Thread {
                     }
                 }
             }
+            // Wait for blocking Task executor threads to end their current Task
+            try {
+                synchronized (q) {
+                    while (ExecutorRun.isRunningOnOtherThread()) {
+                        //#debug
+                        L.i("Await blocking Task executor threads during shutdown", "count=" + ExecutorRun.runs.size());
+                        q.wait();
+                    }
+                }
+            } catch (Throwable t) {
+                //#debug
+                L.e("Problem waiting for blocking Task executor threads to end", "", t);
+            }
 
             // Run all queues until empty
             //#debug
@@ -596,31 +1142,61 @@ final class Worker extends Thread {
      */
     static boolean dequeue(final Task task) {
         synchronized (q) {
-            if (q.contains(task)) {
-                q.removeElement(task);
+            if (removeTask(q, task)) {
+                notifyBlockedForkers(q);
                 return true;
             }
         }
 
-        synchronized (fastlaneQ) {
-            if (fastlaneQ.contains(task)) {
-                fastlaneQ.removeElement(task);
-                return true;
+        if (removeTask(fastlaneQ, task) || removeTask(idleQ, task)) {
+            return true;
+        }
+
+        if (workers != null) {
+            for (int i = 0; i < workers.length; i++) {
+                if (removeTask(workers[i].serialQ, task)) {
+                    return true;
+                }
             }
         }
 
-        synchronized (idleQ) {
-            if (idleQ.contains(task)) {
-                idleQ.removeElement(task);
-                return true;
+        return workStealing && removeFromWorkerDeques(task);
+    }
+
+    /**
+     * Remove this exact Task instance. Vector.removeElement() would instead
+     * remove the first Task which equals() it, which is not the same Task if
+     * equals() is overridden for QueuePolicy.COALESCE_DUPLICATES
+     *
+     * @param queue
+     * @param task
+     * @return
+     */
+    private static boolean removeTask(final Vector queue, final Task task) {
+        synchronized (queue) {
+            for (int i = 0; i < queue.size(); i++) {
+                if (queue.elementAt(i) == task) {
+                    queue.removeElementAt(i);
+                    return true;
+                }
             }
         }
 
+        return false;
+    }
+
+    /**
+     * Work-stealing mode, remove a Task from the per-priority deque of any
+     * Worker
+     *
+     * @param task
+     * @return
+     */
+    private static boolean removeFromWorkerDeques(final Task task) {
         if (workers != null) {
             for (int i = 0; i < workers.length; i++) {
-                synchronized (workers[i].serialQ) {
-                    if (workers[i].serialQ.contains(task)) {
-                        workers[i].serialQ.removeElement(task);
+                for (int band = 0; band < workers[i].deques.length; band++) {
+                    if (removeTask(workers[i].deques[band], task)) {
                         return true;
                     }
                 }
@@ -657,6 +1233,10 @@ final class Worker extends Thread {
                  * of race a condition.
                  */
                 try {
+                    if (workStealing) {
+                        runStealingTask();
+                        continue;
+                    }
                     synchronized (q) {
                         try {
                             currentTask = null;
@@ -710,6 +1290,78 @@ final class Worker extends Thread {
         //#enddebug
     }
 
+    /**
+     * Work-stealing mode, take the next Task from this Worker or a peer and
+     * execute it. If there is nothing to do, wait until a fork() signals new
+     * work.
+     *
+     * @throws InterruptedException
+     */
+    private void runStealingTask() throws InterruptedException {
+        Task task = getNormalRunTask();
+
+        if (task == null) {
+            /*
+             * Announce we are about to wait before the final check so that a
+             * concurrent fork() will signal this Worker
+             */
+            parked = true;
+            try {
+                task = getNormalRunTask();
+                if (task == null) {
+                    if (isDedicatedFastlaneWorker) {
+                        signalIdleWork();
+                    }
+                    synchronized (parkMutex) {
+                        if (!signalled && !shuttingDown) {
+                            parkMutex.wait();
+                        }
+                        signalled = false;
+                    }
+                    return;
+                }
+            } finally {
+                parked = false;
+            }
+        }
+
+        synchronized (parkMutex) {
+            currentTask = task;
+        }
+        try {
+            task.executeTask(task.getValue());
+        } finally {
+            synchronized (parkMutex) {
+                currentTask = null;
+            }
+        }
+    }
+
+    /**
+     * Work-stealing mode, the Fastlane Worker does not run IDLE_PRIORITY Tasks.
+     * If it was the last busy Worker, the others parked before the IDLE Tasks
+     * became runnable and no fork() will wake them, so wake one.
+     */
+    private static void signalIdleWork() {
+        if (workers.length < 2 || !allWorkersIdleExceptThisOne()) {
+            return;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            if (!workers[i].deques[IDLE_BAND].isEmpty()) {
+                signalWork(workers[0], false);
+                return;
+            }
+        }
+    }
+
+    private Object currentTaskLock() {
+        if (workStealing) {
+            return parkMutex;
+        }
+
+        return q;
+    }
+
     private static boolean allWorkersIdleExceptThisOne() {
         for (int i = 0; i < workers.length; i++) {
             if (workers[i] == Thread.currentThread()) {
@@ -744,6 +1396,9 @@ final class Worker extends Thread {
      * running state (not shutdown)
      */
     private Task getNormalRunTask() {
+        if (workStealing) {
+            return getStealingRunTask();
+        }
         Task task = null;
 
         if (serialQ.size() > 8) {
@@ -772,11 +1427,108 @@ final class Worker extends Thread {
             }
         } else if (!serialQ.isEmpty()) {
             task = getSerialTask();
+        } else if (!idleQ.isEmpty() && allWorkersIdleExceptThisOne()) {
+            /*
+             * The Fastlane Worker does not run IDLE_PRIORITY Tasks. The other
+             * Workers went to sleep while this one was busy, so wake one.
+             * Forkers blocked by QueuePolicy.BLOCK_FORKER also wait on q, so
+             * then notifyAll() is needed
+             */
+            if (blockedForkers > 0) {
+                q.notifyAll();
+            } else {
+                q.notify();
+            }
+        }
+        if (task != null) {
+            notifyBlockedForkers(q);
         }
 
         return task;
     }
 
+    /**
+     * Work-stealing mode equivalent of getNormalRunTask(). Each priority band
+     * is checked on this Worker and then on all peers before dropping to the
+     * next lower band.
+     *
+     * @return
+     */
+    private Task getStealingRunTask() {
+        Task task = null;
+
+        if (serialQ.size() > 8) {
+            task = pollFirst(serialQ);
+        }
+        if (task == null) {
+            task = steal(FASTLANE_BAND);
+        }
+        if (task == null) {
+            if (!isDedicatedFastlaneWorker) {
+                task = steal(HIGH_BAND);
+                if (task == null) {
+                    task = steal(NORMAL_BAND);
+                }
+                if (task == null) {
+                    task = pollFirst(serialQ);
+                }
+                if (task == null) {
+                    task = stealIdle();
+                }
+            } else {
+                task = pollFirst(serialQ);
+            }
+        }
+
+        return task;
+    }
+
+    /**
+     * Work-stealing mode, take an IDLE_PRIORITY Task if all other Workers are
+     * idle and mark this Worker busy with it before any other Worker can check
+     *
+     * @return
+     */
+    private Task stealIdle() {
+        synchronized (idleBandMutex) {
+            if (!allWorkersIdleExceptThisOne()) {
+                return null;
+            }
+            final Task task = steal(IDLE_BAND);
+
+            if (task != null) {
+                synchronized (parkMutex) {
+                    currentTask = task;
+                }
+            }
+
+            return task;
+        }
+    }
+
+    private Task steal(final int band) {
+        Task task = pollFirst(deques[band]);
+
+        for (int i = 1; task == null && i < workers.length; i++) {
+            task = pollFirst(workers[(index + i) % workers.length].deques[band]);
+        }
+
+        return task;
+    }
+
+    private static Task pollFirst(final Vector queue) {
+        synchronized (queue) {
+            if (queue.isEmpty()) {
+                return null;
+            }
+            final Task task = (Task) queue.firstElement();
+            queue.removeElementAt(0);
+            notifyBlockedForkers(queue);
+
+            return task;
+        }
+    }
+
     private static Task getNormalTaskAnyWorkerDuringShutdown() {
         for (int i = 0; i < workers.length; i++) {
             final Task t = workers[i].getNormalRunTask();
@@ -824,6 +1576,13 @@ final class Worker extends Thread {
                 sb.append(w.getName());
                 sb.append(" serialQsize=");
                 sb.append(w.serialQ.size());
+                if (workStealing) {
+                    sb.append(" dequeSizes=");
+                    for (int band = 0; band < w.deques.length; band++) {
+                        sb.append(w.deques[band].size());
+                        sb.append(band < w.deques.length - 1 ? ',' : ' ');
+                    }
+                }
                 sb.append(" currentTask=");
                 sb.append(w.currentTask);
                 sb.append("] ");
@@ -846,9 +1605,12 @@ final class Worker extends Thread {
                     sb.append(task != null ? 'o' : ' ');
                 }
             }
-            if (!fastlaneQ.isEmpty()) {
+            final int fastlaneCount = fastlaneQ.size() + dequeSize(FASTLANE_BAND);
+            final int count = q.size() + dequeSize(HIGH_BAND) + dequeSize(NORMAL_BAND);
+            final int idleCount = idleQ.size() + dequeSize(IDLE_BAND);
+            if (fastlaneCount > 0) {
                 sb.append('F');
-                sb.append(fastlaneQ.size());
+                sb.append(fastlaneCount);
                 sb.append('-');
             }
             if (!workers[0].serialQ.isEmpty()) {
@@ -856,13 +1618,13 @@ final class Worker extends Thread {
                 sb.append(workers[0].serialQ.size());
                 sb.append(' ');
             }
-            if (!q.isEmpty()) {
+            if (count > 0) {
                 sb.append('Q');
-                sb.append(Worker.q.size());
+                sb.append(count);
             }
-            if (!idleQ.isEmpty()) {
+            if (idleCount > 0) {
                 sb.append('B');
-                sb.append(Worker.idleQ.size());
+                sb.append(idleCount);
             }
             for (int i = 0; i < n; i++) {
                 final Worker w = Worker.workers[i];
@@ -976,4 +1738,92 @@ final class Worker extends Thread {
             dedicatedThreads.addElement(this);
         }
     }
+
+    /**
+     * Run a Task on a thread provided by the blocking Task executor. Like a
+     * DedicatedThread, any Task.SERIAL_CURRENT_THREAD_PRIORITY Tasks it forks
+     * are run next on the same thread.
+     */
+    private static final class ExecutorRun implements Runnable {
+
+        static final Hashtable runs = new Hashtable(); // Thread -> ExecutorRun
+        final Vector serialQ = new Vector();
+        Thread thread = null; // Access only within synchronized(this)
+        Task task = null; // Access only within synchronized(this)
+
+        ExecutorRun(final Task task) {
+            serialQ.addElement(task);
+        }
+
+        public void run() {
+            final Thread currentThread = Thread.currentThread();
+
+            synchronized (this) {
+                thread = currentThread;
+            }
+            runs.put(currentThread, this);
+            try {
+                while (!shuttingDown) {
+                    final Task t;
+                    synchronized (serialQ) {
+                        if (serialQ.isEmpty()) {
+                            break;
+                        }
+                        t = (Task) serialQ.firstElement();
+                        serialQ.removeElementAt(0);
+                    }
+                    synchronized (this) {
+                        task = t;
+                    }
+
+                    try {
+                        t.executeTask(t.getValue());
+                    } catch (final Throwable throwable) {
+                        //#debug
+                        L.e("Uncaught Task exception on blocking Task executor thread", "task=" + t, throwable);
+                    } finally {
+                        synchronized (this) {
+                            task = null;
+                        }
+                    }
+                }
+            } finally {
+                runs.remove(currentThread);
+                cancelQueuedTasks("Shutdown before the blocking Task executor thread could run the Task");
+                synchronized (q) {
+                    q.notifyAll(); // Shutdown sequence may need this notification to complete
+                }
+            }
+        }
+
+        /**
+         * Check if a thread other than the current one is running Tasks
+         *
+         * @return
+         */
+        static boolean isRunningOnOtherThread() {
+            final int n = runs.size();
+
+            return n > 1 || (n == 1 && !runs.containsKey(Thread.currentThread()));
+        }
+
+        /**
+         * Cancel any Task.SERIAL_CURRENT_THREAD_PRIORITY Tasks not yet run so
+         * that nothing waits for them after shutdown
+         *
+         * @param reason
+         */
+        void cancelQueuedTasks(final String reason) {
+            final Task[] tasks;
+
+            synchronized (serialQ) {
+                tasks = new Task[serialQ.size()];
+                serialQ.copyInto(tasks);
+                serialQ.removeAllElements();
+            }
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i].cancel(reason);
+            }
+        }
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.tantalum.Task;
+import org.tantalum.util.ByteArrayPool;
+import org.tantalum.util.L;
+
+/**
+ * A push-style StreamReader. The HTTP response body is read into one small
+ * reusable buffer and handed to chunkReady() as it arrives, so the body is
+ * never held in memory as a whole.
+ *
+ * Use this for large downloads which you process incrementally or spool to
+ * persistent storage. An HttpGetter with a reader set is not limited by the
+ * platform maximum block length and returns null from exec() since the body
+ * has already been delivered to the reader.
+ *
+ * If the connection fails and the HttpGetter retries, streamStarted() is called
+ * again and you should discard any partial data from the previous attempt.
+ *
+ * @author phou
+ */
+public abstract class ChunkedStreamReader implements StreamReader {
+
+    private static final int SLEEP_TIME_IF_READ_ZERO_BYTES = 10;
+    private final int bufferLength;
+    private volatile int bytesRead = 0;
+    private volatile IOException exception = null;
+
+    /**
+     * Create a reader which uses the HttpGetter's pooled 8k read buffers
+     */
+    public ChunkedStreamReader() {
+        this(HttpGetter.readBufferPool.getBufferLength());
+    }
+
+    /**
+     * Create a reader which delivers chunks of at most bufferLength bytes
+     *
+     * @param bufferLength
+     */
+    public ChunkedStreamReader(final int bufferLength) {
+        if (bufferLength <= 0) {
+            throw new IllegalArgumentException("ChunkedStreamReader buffer length must be positive: " + bufferLength);
+        }
+        this.bufferLength = bufferLength;
+    }
+
+    /**
+     * Pump the stream to the end, calling chunkReady() for each block of data
+     * received. Errors are not thrown but held for the HttpGetter to see in
+     * getException() so that normal retry logic applies.
+     *
+     * @param inputStream
+     */
+    public final void readReady(final InputStream inputStream) {
+        final ByteArrayPool pool = HttpGetter.readBufferPool;
+        final byte[] buffer = bufferLength == pool.getBufferLength() ? pool.get() : new byte[bufferLength];
+        boolean complete = false;
+
+        bytesRead = 0;
+        exception = null;
+        try {
+            streamStarted();
+            while (!Task.isShuttingDown()) {
+                final int n = inputStream.read(buffer);
+                if (n < 0) {
+                    complete = true;
+                    break;
+                } else if (n == 0) {
+                    Thread.sleep(SLEEP_TIME_IF_READ_ZERO_BYTES);
+                } else {
+                    bytesRead += n;
+                    chunkReady(buffer, 0, n);
+                }
+            }
+        } catch (IOException e) {
+            //#debug
+            L.e(this, "Streaming read error", "bytesRead=" + bytesRead, e);
+            exception = e;
+        } catch (InterruptedException e) {
+            //#debug
+            L.i(this, "Streaming read interrupted", "bytesRead=" + bytesRead);
+            exception = new IOException("Streaming read interrupted: " + e);
+        } finally {
+            pool.release(buffer);
+            streamEnded(complete);
+        }
+    }
+
+    /**
+     * The number of body bytes delivered so far in the current attempt
+     *
+     * @return
+     */
+    public int getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * The error which ended the last attempt early, or null if the stream was
+     * read to the end
+     *
+     * @return
+     */
+    public IOException getException() {
+        return exception;
+    }
+
+    /**
+     * Called before the first chunk of each connection attempt. Override to
+     * open or reset your destination.
+     *
+     * @throws IOException
+     */
+    protected void streamStarted() throws IOException {
+    }
+
+    /**
+     * Receive the next part of the body. The buffer is reused for the next
+     * chunk, so copy or write out the data before returning.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @throws IOException to abort this connection attempt
+     */
+    protected abstract void chunkReady(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Called after the last chunk of each connection attempt. Override to
+     * close your destination.
+     *
+     * @param complete true if the end of the stream was reached, false if the
+     * attempt ended early due to error or shutdown
+     */
+    protected void streamEnded(final boolean complete) {
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.TimeZone;
+
+/**
+ * The HTTP caching headers of a response stored in a StaticWebCache, used to
+ * decide if the local copy is still fresh and, if not, to revalidate it with a
+ * conditional GET.
+ *
+ * @author phou
+ */
+final class HttpCacheMetadata {
+
+    static final String ETAG = "ETag";
+    static final String LAST_MODIFIED = "Last-Modified";
+    static final String CACHE_CONTROL = "Cache-Control";
+    static final String EXPIRES = "Expires";
+    static final String DATE = "Date";
+    static final String IF_NONE_MATCH = "If-None-Match";
+    static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    /**
+     * Heuristic freshness when the server gives only Last-Modified is 10% of
+     * the age of the document, but not more than this
+     */
+    private static final long MAX_HEURISTIC_FRESHNESS = 24 * 60 * 60 * 1000;
+    private static final int FORMAT_VERSION = 1;
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    /**
+     * Entity tag, or null
+     */
+    final String eTag;
+    /**
+     * Last-Modified date exactly as sent by the server, or null
+     */
+    final String lastModified;
+    /**
+     * Time after which the local copy must be revalidated
+     */
+    final long expiresAt;
+
+    HttpCacheMetadata(final String eTag, final String lastModified, final long expiresAt) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Freshness and validators from HTTP response headers
+     *
+     * @param headers - as returned by HttpGetter.getResponseHeaders()
+     * @param now - time the response was received
+     * @return
+     */
+    static HttpCacheMetadata fromHeaders(final Hashtable headers, final long now) {
+        final String eTag = getHeader(headers, ETAG);
+        final String lastModified = getHeader(headers, LAST_MODIFIED);
+        final String cacheControl = getHeader(headers, CACHE_CONTROL);
+        final long date = parseHttpDate(getHeader(headers, DATE));
+        long expiresAt = now;
+
+        final long maxAge = cacheControl == null ? -1 : parseMaxAge(cacheControl);
+        if (maxAge >= 0) {
+            expiresAt = now + maxAge * 1000;
+        } else {
+            final long expires = parseHttpDate(getHeader(headers, EXPIRES));
+            if (expires >= 0) {
+                // Correct for the difference between server and phone clocks
+                expiresAt = date >= 0 ? now + (expires - date) : expires;
+            } else {
+                final long modified = parseHttpDate(lastModified);
+                if (modified >= 0) {
+                    expiresAt = now + Math.min(((date >= 0 ? date : now) - modified) / 10, MAX_HEURISTIC_FRESHNESS);
+                }
+            }
+        }
+
+        return new HttpCacheMetadata(eTag, lastModified, Math.max(now, expiresAt));
+    }
+
+    /**
+     * Update after a 304 Not Modified response. The server may send new
+     * freshness or validators, otherwise the previous validators are kept.
+     *
+     * @param headers
+     * @param now
+     * @return
+     */
+    HttpCacheMetadata refresh(final Hashtable headers, final long now) {
+        final HttpCacheMetadata m = fromHeaders(headers, now);
+
+        return new HttpCacheMetadata(m.eTag != null ? m.eTag : eTag, m.lastModified != null ? m.lastModified : lastModified, m.expiresAt);
+    }
+
+    boolean isStale(final long now) {
+        return now >= expiresAt;
+    }
+
+    boolean hasValidator() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * Make the request a conditional GET which the server may answer with 304
+     * Not Modified
+     *
+     * @param httpGetter
+     */
+    void addConditionalHeaders(final HttpGetter httpGetter) {
+        if (eTag != null) {
+            httpGetter.setRequestProperty(IF_NONE_MATCH, eTag);
+        }
+        if (lastModified != null) {
+            httpGetter.setRequestProperty(IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    byte[] toBytes() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+        final DataOutputStream dos = new DataOutputStream(bos);
+
+        dos.writeByte(FORMAT_VERSION);
+        dos.writeLong(expiresAt);
+        dos.writeUTF(eTag == null ? "" : eTag);
+        dos.writeUTF(lastModified == null ? "" : lastModified);
+        dos.close();
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * @param bytes
+     * @return the metadata, or null if the bytes are not in a known format
+     * @throws IOException
+     */
+    static HttpCacheMetadata fromBytes(final byte[] bytes) throws IOException {
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        if (dis.readByte() != FORMAT_VERSION) {
+            return null;
+        }
+        final long expiresAt = dis.readLong();
+        final String eTag = dis.readUTF();
+        final String lastModified = dis.readUTF();
+
+        return new HttpCacheMetadata(eTag.length() == 0 ? null : eTag, lastModified.length() == 0 ? null : lastModified, expiresAt);
+    }
+
+    /**
+     * Case-insensitive header lookup. Repeated headers are joined with ", "
+     *
+     * @param headers
+     * @param name
+     * @return the value, or null if not present
+     */
+    static String getHeader(final Hashtable headers, final String name) {
+        final Enumeration keys = headers.keys();
+
+        while (keys.hasMoreElements()) {
+            final String key = (String) keys.nextElement();
+
+            if (key != null && key.equalsIgnoreCase(name)) {
+                final String[] values = (String[]) headers.get(key);
+
+                if (values.length == 1) {
+                    return values[0];
+                }
+                final StringBuffer sb = new StringBuffer();
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(values[i]);
+                }
+
+                return sb.toString();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Cache-Control max-age in seconds. no-cache and no-store are treated as
+     * max-age=0.
+     *
+     * @param cacheControl
+     * @return seconds, or -1 if not specified
+     */
+    static long parseMaxAge(final String cacheControl) {
+        final String s = cacheControl.toLowerCase();
+
+        if (s.indexOf("no-cache") >= 0 || s.indexOf("no-store") >= 0) {
+            return 0;
+        }
+        final int i = s.indexOf("max-age=");
+        if (i < 0) {
+            return -1;
+        }
+        int end = i + 8;
+        while (end < s.length() && Character.isDigit(s.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.parseLong(s.substring(i + 8, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse an RFC 1123 date such as "Sun, 06 Nov 1994 08:49:37 GMT"
+     *
+     * @param s
+     * @return milliseconds since 1970, or -1 if null or not in this format
+     */
+    static long parseHttpDate(final String s) {
+        if (s == null) {
+            return -1;
+        }
+        try {
+            final int comma = s.indexOf(',');
+            final String d = s.substring(comma + 1).trim();
+            // 06 Nov 1994 08:49:37 GMT
+            if (d.length() < 20 || d.charAt(2) != ' ' || d.charAt(6) != ' ' || d.charAt(11) != ' ' || d.charAt(14) != ':' || d.charAt(17) != ':') {
+                return -1;
+            }
+            int month = -1;
+            final String m = d.substring(3, 6);
+            for (int i = 0; i < MONTHS.length; i++) {
+                if (MONTHS[i].equals(m)) {
+                    month = i;
+                    break;
+                }
+            }
+            if (month < 0) {
+                return -1;
+            }
+            final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+            calendar.set(Calendar.YEAR, Integer.parseInt(d.substring(7, 11)));
+            calendar.set(Calendar.MONTH, month);
+            calendar.set(Calendar.DAY_OF_MONTH, Integer.parseInt(d.substring(0, 2)));
+            calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(d.substring(12, 14)));
+            calendar.set(Calendar.MINUTE, Integer.parseInt(d.substring(15, 17)));
+            calendar.set(Calendar.SECOND, Integer.parseInt(d.substring(18, 20)));
+            calendar.set(Calendar.MILLISECOND, 0);
+
+            return calendar.getTime().getTime();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+}
@@ -27,7 +27,6 @@
  */
 package org.tantalum.net;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Hashtable;
@@ -39,7 +38,11 @@ import java.util.TimerTask;
 
 import org.tantalum.PlatformUtils;
 import org.tantalum.Task;
+import org.tantalum.util.ByteArrayPool;
+import org.tantalum.util.ChunkedByteBuffer;
 import org.tantalum.util.CryptoUtils;
+import org.tantalum.util.GzipEncoder;
+import org.tantalum.util.InflateInputStream;
 import org.tantalum.util.L;
 import org.tantalum.util.LOR;
 import org.tantalum.util.RollingAverage;
@@ -69,7 +72,6 @@ import org.tantalum.util.WeakReferenceListenerHandler;
 public class HttpGetter extends Task {
 
     private static final int READ_BUFFER_LENGTH = 8192; //8k read buffer if no Content-Length header from server
-    private static final int OUTPUT_BUFFER_INITIAL_LENGTH = 8192; //8k read buffer if no Content-Length header from server
     private static final int SLEEP_TIME_IF_READ_ZERO_BYTES = 10;
     /**
      * HTTP GET is the default operation
@@ -470,14 +472,31 @@ public class HttpGetter extends Task {
      * HTTP header request property
      */
     public static final String USER_AGENT = "User-Agent";
+    /**
+     * HTTP header request property listing the compression formats the client
+     * can decode
+     */
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    /**
+     * HTTP header property naming the compression format of the message body
+     */
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    /**
+     * HTTP header request property asking for part of the response body
+     */
+    public static final String RANGE = "Range";
+    /**
+     * HTTP header request property, send the Range only if the response is
+     * still the same version as this ETag or Last-Modified date
+     */
+    public static final String IF_RANGE = "If-Range";
 
     /**
      * The HTTP server has not yet been contacted, so no response code is yet
      * available
      */
     public static final int HTTP_OPERATION_PENDING = -1;
-    private static final int HTTP_GET_RETRIES = 1;
-    private static final int HTTP_RETRY_DELAY = 5000; // 5 seconds
+    private static final int MAX_REDIRECTS = 5;
     /**
      * Connections slower than this drop into single file load with header
      * pre-wind to increase interface responsiveness to each HTTP action as seen
@@ -494,8 +513,16 @@ public class HttpGetter extends Task {
      * first response body byte to an HTTP request. This will shift up and down
      * slowly based on the servers and data network you use. It is in some cases
      * useful as a performance tuning parameter.
+     *
+     * This is the average over all hosts. Connection scheduling uses the
+     * statistics of each host, see getAverageResponseDelayMillis(url).
      */
     public static final RollingAverage averageResponseDelayMillis = new RollingAverage(10, 700.0f);
+    /**
+     * Network read buffers shared by all HTTP operations. Enough are kept for
+     * several simultaneous reads; the rest are left for the garbage collector.
+     */
+    static final ByteArrayPool readBufferPool = new ByteArrayPool(READ_BUFFER_LENGTH, 8);
     private static final WeakReferenceListenerHandler netActivityListenerDelegate = new WeakReferenceListenerHandler(NetActivityListener.class);
     /**
      * bits per second realized by a each connection. When multiple connections
@@ -512,6 +539,9 @@ public class HttpGetter extends Task {
      * not. Changing network connections or network connection real speeds
      * should result in a change of mode within a few HTTP operations if
      * appropriate.
+     *
+     * This is the average over all hosts. Connection scheduling uses the
+     * statistics of each host, see getAverageBaud(url).
      */
     public static final RollingAverage averageBaud = new RollingAverage(10, THRESHOLD_BAUD / 2);
     /**
@@ -520,11 +550,14 @@ public class HttpGetter extends Task {
      */
     private static volatile long nextHeaderStartTime = 0;
     /**
-     * How many more times will we try to re-connect after a 5 second delay
-     * before giving up. This aids in working with low quality networks and
-     * normal HTTP connection setup errors even on a "good" mobile network.
+     * How many more times will we try to re-connect after a delay before
+     * giving up. This aids in working with low quality networks and normal
+     * HTTP connection setup errors even on a "good" mobile network.
      */
-    protected volatile int retriesRemaining = HTTP_GET_RETRIES;
+    protected volatile int retriesRemaining = RetryPolicy.DEFAULT.getMaxRetries();
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private int retryCount = 0; // Access only from exec()
+    private int redirectCount = 0; // Access only from exec()
     /**
      * Data to be sent to the server as part of an HTTP POST operation
      */
@@ -545,12 +578,35 @@ public class HttpGetter extends Task {
      * Access only in static synchronized block
      */
     private static int upstreamDataCount = 0;
+    /**
+     * Counter, response body bytes after decompression during the app session.
+     *
+     * Access only in static synchronized block
+     */
+    private static int decodedDownstreamDataCount = 0;
     private static String userAgent = null;
     private volatile StreamWriter streamWriter = null;
     private volatile StreamReader streamReader = null;
     // Always access in a synchronized(HttpGetter.this) block
     private int responseCode = HTTP_OPERATION_PENDING;
     private volatile long startTime = 0;
+    private volatile HttpScheduler scheduler = null;
+    private volatile String redirectUrl = null;
+    private volatile boolean compressionAccepted = false;
+    private volatile boolean gzipDecoded = true;
+    private volatile boolean resumable = false;
+    private volatile boolean failed = false;
+    private volatile PartialContentListener partialContentListener = null;
+    /*
+     * Body bytes received before the connection failed, and the ETag or
+     * Last-Modified date of that response. Access only in synchronized block.
+     */
+    private byte[] partialBody = null;
+    private String partialValidator = null;
+    /**
+     * gzip the post message before it is sent
+     */
+    protected volatile boolean postMessageCompressed = false;
 
     static {
         HttpGetter.averageBaud.setLowerBound(HttpGetter.THRESHOLD_BAUD / 10);
@@ -622,8 +678,9 @@ public class HttpGetter extends Task {
      *
      * On a fast network, this will not delay the calling thread.
      *
-     * The HttpGetter will call this for you at the start of Task exec() to
-     * reduce network contention. You may also want to call as part of your loop
+     * The HttpGetter no longer calls this itself, connections are limited per
+     * host instead, see setMaxConnectionsPerHost(). You may want to call this
+     * as part of your loop
      * that creates multiple HTTP GET operations such as fetching images. You
      * can in this way delay the decision to actually fetch a resource and not
      * do so if the data is not needed several seconds later. This is also
@@ -649,6 +706,78 @@ public class HttpGetter extends Task {
         return t;
     }
 
+    /**
+     * Set the most simultaneous connections to any one host. The default is 2.
+     *
+     * While a host is slower than THRESHOLD_BAUD only one connection at a time
+     * is made to it. Additional HttpGetters for a busy host wait without
+     * holding a Worker thread, and start in Task priority order.
+     *
+     * @param max
+     */
+    public static void setMaxConnectionsPerHost(final int max) {
+        HttpScheduler.setMaxConnectionsPerHost(max);
+    }
+
+    /**
+     * Set when to stop connecting to a host which is down. After
+     * failureThreshold network errors or 5xx server errors in a row, requests
+     * to that host are canceled at once without connecting for openMillis.
+     * Then one trial request is made. If it succeeds the host is used again
+     * as normal, otherwise requests fail at once for another openMillis.
+     *
+     * The default is 5 failures and 30 seconds. A failureThreshold of 0 turns
+     * this off.
+     *
+     * @param failureThreshold
+     * @param openMillis
+     */
+    public static void setCircuitBreaker(final int failureThreshold, final long openMillis) {
+        HttpScheduler.setCircuitBreaker(failureThreshold, openMillis);
+    }
+
+    /**
+     * Is the host of this URL considered down, so that requests to it now fail
+     * without connecting? See setCircuitBreaker().
+     *
+     * @param url
+     * @return
+     */
+    public static boolean isCircuitOpen(final String url) {
+        return HttpScheduler.getScheduler(url).isCircuitOpen(System.currentTimeMillis());
+    }
+
+    /**
+     * Get the most simultaneous connections to any one host
+     *
+     * @return
+     */
+    public static int getMaxConnectionsPerHost() {
+        return HttpScheduler.getMaxConnectionsPerHost();
+    }
+
+    /**
+     * The rolling average time from request start to the first response byte
+     * for the host of this URL
+     *
+     * @param url
+     * @return
+     */
+    public static float getAverageResponseDelayMillis(final String url) {
+        return HttpScheduler.getScheduler(url).averageResponseDelayMillis.value();
+    }
+
+    /**
+     * The rolling average bits per second realized by each connection to the
+     * host of this URL
+     *
+     * @param url
+     * @return
+     */
+    public static float getAverageBaud(final String url) {
+        return HttpScheduler.getScheduler(url).averageBaud.value();
+    }
+
     /**
      * Get the time at which the HTTP network connection started
      *
@@ -673,11 +802,11 @@ public class HttpGetter extends Task {
     }
 
     /**
-     * Set the StreamReader which will receive data in the optional streaming
-     * download mode. Most HTTP activities are block-oriented in which case a
+     * Set the StreamWriter which will provide data in the optional streaming
+     * upload mode. Most HTTP activities are block-oriented in which case a
      * stream does not need to be set up.
      *
-     * If you are tracking data usage, update addDownstreamDataCount() after or
+     * If you are tracking data usage, update addUpstreamDataCount() after or
      * while streaming
      *
      * @param writer
@@ -698,9 +827,15 @@ public class HttpGetter extends Task {
     }
 
     /**
-     * Get the current streaming upload reader.
+     * Set the StreamReader which will receive the response body in the
+     * optional streaming download mode. Most HTTP activities are
+     * block-oriented in which case a stream does not need to be set up.
      *
-     * Most HTTP use is block-oriented in which case the value is null.
+     * When a reader is set the body is not buffered, the platform maximum
+     * block length does not apply and exec() returns null on success. Use a
+     * ChunkedStreamReader to receive the body incrementally in a small reused
+     * buffer. Data usage is counted for you with a ChunkedStreamReader, with
+     * other readers update addDownstreamDataCount() after or while streaming.
      *
      * @param reader
      */
@@ -725,6 +860,138 @@ public class HttpGetter extends Task {
         return this;
     }
 
+    /**
+     * Set when and how often to retry after network errors and temporary
+     * server errors. This also sets the retries remaining to the maximum
+     * retries of the policy.
+     *
+     * Retries wait on the Task Timer, not on a Worker thread.
+     *
+     * @param retryPolicy
+     * @return
+     */
+    public Task setRetryPolicy(final RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new NullPointerException("HttpGetter retry policy can not be null, use RetryPolicy.NONE");
+        }
+        this.retryPolicy = retryPolicy;
+        this.retriesRemaining = retryPolicy.getMaxRetries();
+
+        return this;
+    }
+
+    /**
+     * Ask the server to compress the response with gzip or deflate. Compressed
+     * responses are decoded as they are read, so the result is the same as
+     * without compression but less data is sent over the network. The default
+     * is false.
+     *
+     * @param accepted
+     * @return
+     */
+    public Task setCompressionAccepted(final boolean accepted) {
+        this.compressionAccepted = accepted;
+
+        return this;
+    }
+
+    /**
+     * Choose if a gzip response body is decoded, or returned still compressed
+     * for example to store in less space. Check the Content-Encoding response
+     * header to see which you received. A deflate response body is always
+     * decoded. The default is true.
+     *
+     * @param decoded
+     * @return
+     */
+    public Task setGzipDecoded(final boolean decoded) {
+        this.gzipDecoded = decoded;
+
+        return this;
+    }
+
+    /**
+     * Is the response body returned still gzip compressed? This is only
+     * possible after setGzipDecoded(false).
+     *
+     * @return
+     */
+    public boolean isGzipBody() {
+        if (!compressionAccepted || gzipDecoded) {
+            return false;
+        }
+        final String encoding = HttpCacheMetadata.getHeader(getResponseHeaders(), CONTENT_ENCODING);
+        if (encoding == null) {
+            return false;
+        }
+        final String e = encoding.trim().toLowerCase();
+
+        return e.equals("gzip") || e.equals("x-gzip");
+    }
+
+    /**
+     * Keep the bytes already received if the connection fails part way
+     * through the response body. The retry asks the server for only the rest
+     * of the body with a Range request header.
+     *
+     * This is only possible if the server sent a strong ETag or a
+     * Last-Modified date to check with If-Range that the rest of the body is
+     * from the same version. It is not used for POST, streaming reads or
+     * responses decoded from gzip or deflate. The default is false.
+     *
+     * @param resumable
+     * @return
+     */
+    public Task setResumable(final boolean resumable) {
+        this.resumable = resumable;
+
+        return this;
+    }
+
+    /**
+     * Continue a download which was interrupted earlier, for example before
+     * the application was closed. This also sets resumable.
+     *
+     * If the server version has changed since then, or the server does not
+     * support Range requests, the complete body is read again.
+     *
+     * @param partialBody the response body bytes received before
+     * @param validator the ETag or Last-Modified date of that response
+     * @return
+     */
+    public synchronized Task setPartialContent(final byte[] partialBody, final String validator) {
+        if (partialBody == null || validator == null) {
+            throw new NullPointerException("setPartialContent() needs both the bytes and a validator: " + this);
+        }
+        this.partialBody = partialBody;
+        this.partialValidator = validator;
+        this.resumable = true;
+
+        return this;
+    }
+
+    /**
+     * Be notified when a resumable download stops part way, for example to
+     * save the partial body for use after the application restarts
+     *
+     * @param listener
+     * @return
+     */
+    public Task setPartialContentListener(final PartialContentListener listener) {
+        this.partialContentListener = listener;
+
+        return this;
+    }
+
+    /**
+     * Get the current retry policy
+     *
+     * @return
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
     /**
      * Find the HTTP server's response code, or HTTP_OPERATION_PENDING if the
      * HTTP server has not yet been contacted.
@@ -735,6 +1002,18 @@ public class HttpGetter extends Task {
         return responseCode;
     }
 
+    /**
+     * Did the HTTP operation itself fail? This is true after a rejected
+     * response code, a network error with no retries left, or an open circuit
+     * breaker for the host. It is false if the HttpGetter was only canceled,
+     * for example because the caller no longer needs the result.
+     *
+     * @return
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
     /**
      * Get a Hashtable of all HTTP headers recieved from the server
      *
@@ -766,6 +1045,10 @@ public class HttpGetter extends Task {
      * content_length as this makes the phone run slightly faster when we can
      * predict how many bytes to expect.
      *
+     * If the host already has all the connections it may use, or a retry is
+     * scheduled, this calls defer() and returns null. A subclass which
+     * overrides exec() must check isDeferred() before it uses the result.
+     *
      * @param in
      * @return
      */
@@ -786,22 +1069,59 @@ public class HttpGetter extends Task {
             return out;
         }
 
-        startTime = staggerHeaderStartTime();
-
-        String url = keyIncludingPostDataHashtoUrl((String) in);
+        final String redirect = redirectUrl;
+        final String url = redirect != null ? redirect : keyIncludingPostDataHashtoUrl((String) in);
+        final HttpScheduler hostScheduler = HttpScheduler.getScheduler(url);
+        this.scheduler = hostScheduler;
+        if (!hostScheduler.allowRequest(this, System.currentTimeMillis())) {
+            //#debug
+            L.i(this, "Host is down, fail without connecting", hostScheduler.toString());
+            setRetriesRemaining(0);
+            failed = true;
+            cancel("HttpGetter circuit breaker is open for the host of " + url);
+            return out;
+        }
+        if (!hostScheduler.tryAcquire(this)) {
+            //#debug
+            L.i(this, "Wait for connection", hostScheduler.toString());
+            defer(new Runnable() {
+                public void run() {
+                    if (hostScheduler.park(HttpGetter.this)) {
+                        HttpGetter.this.fork();
+                    }
+                }
+            });
+            return out;
+        }
+        startTime = System.currentTimeMillis();
         final Integer netActivityKey = new Integer(hashCode());
         HttpGetter.networkActivity(netActivityKey); // Notify listeners, net is in use
 
         final String userAgent = HttpGetter.getUserAgent();
-        if (userAgent != null) {
+        if (userAgent != null && !requestPropertyKeys.contains(USER_AGENT)) {
             this.setRequestProperty(USER_AGENT, userAgent);
         }
+        if (compressionAccepted && !requestPropertyKeys.contains(ACCEPT_ENCODING)) {
+            this.setRequestProperty(ACCEPT_ENCODING, "gzip, deflate");
+        }
+        if (postMessageCompressed && postMessage != null && !requestPropertyKeys.contains(CONTENT_ENCODING)) {
+            this.setRequestProperty(CONTENT_ENCODING, "gzip");
+        }
+        final boolean resume = resumable && streamReader == null && !(this instanceof HttpPoster);
+        final byte[] partial;
+        synchronized (this) {
+            partial = resume ? partialBody : null;
+            replaceRequestProperty(RANGE, partial != null ? "bytes=" + partial.length + "-" : null);
+            replaceRequestProperty(IF_RANGE, partial != null ? partialValidator : null);
+        }
 
         //#debug
         L.i(this, "Start", url);
-        ByteArrayOutputStream bos = null;
+        ChunkedByteBuffer body = null;
+        String resumeValidator = null;
         PlatformUtils.HttpConn httpConn = null;
-        boolean tryAgain = false;
+        long retryDelay = RetryPolicy.NO_RETRY;
+        boolean retryScheduled = false;
         boolean success = false;
 
         addUpstreamDataCount(url.length());
@@ -813,23 +1133,21 @@ public class HttpGetter extends Task {
                     throw new NullPointerException("null HTTP POST- did you forget to call httpPoster.setMessage(byte[]) ? : " + url);
                 }
 
-                httpConn = PlatformUtils.getInstance().getHttpPostConn(url, requestPropertyKeys, requestPropertyValues, postMessage);
+                final byte[] message = postMessageCompressed && postMessage != null ? GzipEncoder.gzip(postMessage) : postMessage;
+                httpConn = PlatformUtils.getInstance().getHttpPostConn(url, requestPropertyKeys, requestPropertyValues, message);
                 outputStream = httpConn.getOutputStream();
                 final StreamWriter writer = this.streamWriter;
                 if (writer != null) {
                     writer.writeReady(outputStream);
                     success = true;
                 }
-                addUpstreamDataCount(postMessage.length);
+                if (message != null) {
+                    addUpstreamDataCount(message.length);
+                }
             } else {
                 httpConn = PlatformUtils.getInstance().getHttpGetConn(url, requestPropertyKeys, requestPropertyValues);
             }
-            final InputStream inputStream = httpConn.getInputStream();
-            final StreamReader reader = streamReader;
-            if (reader != null) {
-                reader.readReady(inputStream);
-                success = true;
-            }
+            InputStream inputStream = httpConn.getInputStream();
 
             // Estimate data length of the sent headers
             for (int i = 0; i < requestPropertyKeys.size(); i++) {
@@ -839,61 +1157,119 @@ public class HttpGetter extends Task {
 
             final int length = (int) httpConn.getLength();
             final int downstreamDataHeaderLength;
+            final int decodeFormat;
             synchronized (this) {
                 responseCode = httpConn.getResponseCode();
                 httpConn.getResponseHeaders(responseHeaders);
                 downstreamDataHeaderLength = PlatformUtils.responseHeadersToString(responseHeaders).length();
+                decodeFormat = getDecodeFormat(HttpCacheMetadata.getHeader(responseHeaders, CONTENT_ENCODING));
             }
 
             // Response headers length estimation
             addDownstreamDataCount(downstreamDataHeaderLength);
+            int resumedLength = 0;
+            if (partial != null) {
+                if (responseCode == HTTP_206_PARTIAL_CONTENT) {
+                    if (decodeFormat >= 0 || getContentRangeStart() != partial.length) {
+                        discardPartialContent();
+                        throw new IOException("Partial response does not continue the " + partial.length + " bytes already received: " + url);
+                    }
+                    //#debug
+                    L.i(this, "Resume", url + " from byte " + partial.length);
+                    resumedLength = partial.length;
+                } else {
+                    // Full body sent instead, or the range was rejected
+                    discardPartialContent();
+                }
+            }
+            if (resume && decodeFormat < 0 && (responseCode == HTTP_200_OK || resumedLength > 0)) {
+                resumeValidator = getResumeValidator();
+            }
+            CountingInputStream compressedStream = null;
+            if (decodeFormat >= 0) {
+                compressedStream = new CountingInputStream(inputStream);
+                inputStream = new InflateInputStream(compressedStream, decodeFormat);
+            }
 
             long firstByteTime = Long.MAX_VALUE;
-            if (length == 0) {
+            int dataLength = 0;
+            final StreamReader reader = streamReader;
+            if (reader != null) {
+                // Streaming mode, the body goes to the reader and is not held here
+                firstByteTime = System.currentTimeMillis();
+                reader.readReady(inputStream);
+                if (reader instanceof ChunkedStreamReader) {
+                    final ChunkedStreamReader chunkedReader = (ChunkedStreamReader) reader;
+                    final IOException readException = chunkedReader.getException();
+                    if (readException != null) {
+                        throw readException;
+                    }
+                    dataLength = chunkedReader.getBytesRead();
+                }
+            } else if (length == 0) {
                 //#debug
                 L.i(this, "Exec", "No response. Stream is null, or length is 0");
             } else if (length > httpConn.getMaxLengthSupportedAsBlockOperation()) {
                 cancel("Http server sent Content-Length > " + httpConn.getMaxLengthSupportedAsBlockOperation() + " which might cause out-of-memory on this platform");
-            } else if (length > 0 && HttpGetter.netActivityListenerDelegate.isEmpty()) {
+            } else if (length > 0 && resumedLength == 0 && compressedStream == null && resumeValidator == null && HttpGetter.netActivityListenerDelegate.isEmpty()) {
                 final byte[] bytes = new byte[length];
                 firstByteTime = readBytesFixedLength(url, inputStream, bytes);
                 out = new LOR(bytes);
             } else {
-                bos = new ByteArrayOutputStream(OUTPUT_BUFFER_INITIAL_LENGTH);
-                firstByteTime = readBytesVariableLength(inputStream, bos, netActivityKey);
-                out = new LOR(bos.toByteArray());
+                body = new ChunkedByteBuffer(readBufferPool);
+                if (resumedLength > 0) {
+                    body.write(partial, 0, resumedLength);
+                }
+                firstByteTime = readBytesVariableLength(inputStream, body, netActivityKey);
+                out = new LOR(body.toByteArray());
             }
             if (firstByteTime != Long.MAX_VALUE) {
                 final long responseTime = firstByteTime - startTime;
                 HttpGetter.averageResponseDelayMillis.update(responseTime);
+                hostScheduler.averageResponseDelayMillis.update(responseTime);
                 //#debug
-                L.i(this, "Average HTTP header response time", HttpGetter.averageResponseDelayMillis.value() + " current=" + responseTime);
+                L.i(this, "Average HTTP header response time", hostScheduler.averageResponseDelayMillis.value() + " current=" + responseTime + " all hosts=" + HttpGetter.averageResponseDelayMillis.value());
             }
             final long lastByteTime = System.currentTimeMillis();
             final float baud;
-            int dataLength = 0;
             if (out != null) {
                 dataLength = out.getBytes().length;
             }
-            if (dataLength > 0 && lastByteTime > firstByteTime) {
-                baud = (dataLength * 8 * 1000) / ((int) (lastByteTime - firstByteTime));
+            final int networkDataLength = compressedStream != null ? compressedStream.count : dataLength - resumedLength;
+            if (networkDataLength > 0 && lastByteTime > firstByteTime) {
+                baud = (networkDataLength * 8 * 1000) / ((int) (lastByteTime - firstByteTime));
             } else {
                 baud = THRESHOLD_BAUD * 2;
             }
             HttpGetter.averageBaud.update(baud);
+            hostScheduler.averageBaud.update(baud);
             //#debug
-            L.i(this, "Average HTTP body read baud", HttpGetter.averageBaud.value() + " current=" + baud);
+            L.i(this, "Average HTTP body read baud", hostScheduler.averageBaud.value() + " current=" + baud + " all hosts=" + HttpGetter.averageBaud.value());
 
-            if (out != null) {
-                addDownstreamDataCount(dataLength);
+            if (dataLength > 0) {
+                addDownstreamDataCount(networkDataLength);
+                addDecodedDownstreamDataCount(dataLength - resumedLength);
                 //#debug
-                L.i(this, "End read", "url=" + url + " bytes=" + dataLength);
+                L.i(this, "End read", "url=" + url + " bytes=" + dataLength + " networkBytes=" + networkDataLength);
             }
             synchronized (this) {
                 success = checkResponseCode(url, responseCode, responseHeaders);
             }
+            hostScheduler.recordSuccess();
             //#debug
             L.i(this, "Response", "HTTP response code indicates success=" + success);
+            if (!success) {
+                if (partial != null && responseCode == HTTP_416_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                    // Ask again for the whole body
+                    retryDelay = 0;
+                } else if (followRedirect()) {
+                    retryDelay = 0;
+                } else {
+                    retryDelay = nextRetryDelay(url, false);
+                }
+            } else if (partial != null) {
+                discardPartialContent();
+            }
         } catch (IllegalArgumentException e) {
             //#debug
             L.e(this, "HttpGetter has illegal argument", url, e);
@@ -903,27 +1279,21 @@ public class HttpGetter extends Task {
             L.e(this, "HttpGetter has null pointer", url, e);
             throw e;
         } catch (IOException e) {
-            if (responseCode == HTTP_301_MOVED_PERMANENTLY || responseCode == HTTP_302_FOUND) {
-                Object locations = responseHeaders.get("Location");
-                if (locations != null) {
-                    if (((String[]) locations).length > 0) {
-                        String newUrl = ((String[])locations)[0];
-                        L.i(this, "Response", "HTTP response code indicates a redirect, new url=" + newUrl);
-                        url = newUrl;
-                        tryAgain = true;
-                        success = true;
-                    }
-                }
-            }
             //#debug
-            L.e(this, "Retries remaining", url + ", retries=" + retriesRemaining, e);
-            if (retriesRemaining > 0) {
-                retriesRemaining--;
-                tryAgain = true;
-            } else if (!tryAgain) {
-                //#debug
-                L.i(this, "No more retries", url);
-                cancel("No more retries");
+            L.e(this, "HttpGetter IOException", url + ", retries=" + retriesRemaining, e);
+            if (resumeValidator != null && body != null && body.size() > 0) {
+                keepPartialContent(url, body.toByteArray(), resumeValidator);
+            }
+            final int code = getResponseCode();
+            if (code >= HTTP_300_MULTIPLE_CHOICES && code < HTTP_500_INTERNAL_SERVER_ERROR) {
+                hostScheduler.recordSuccess();
+            } else {
+                hostScheduler.recordFailure(System.currentTimeMillis());
+            }
+            if (followRedirect()) {
+                retryDelay = 0;
+            } else {
+                retryDelay = nextRetryDelay(url, true);
             }
         } finally {
             if (httpConn != null) {
@@ -935,16 +1305,22 @@ public class HttpGetter extends Task {
                 }
                 httpConn = null;
             }
-            bos = null;
-
-            if (tryAgain && status == Task.PENDING) {
-//                try {
-                Thread.sleep(HTTP_RETRY_DELAY);
-//                } catch (InterruptedException ex) {
-//                    cancel(false, "Interrupted HttpGetter while sleeping between retries: " + this);
-//                }
-//                out = (LOR) exec(url);
+            final Task next = hostScheduler.release();
+            if (next != null) {
+                next.fork();
+            }
+            if (body != null) {
+                body.release();
+                body = null;
+            }
+
+            if (retryDelay != RetryPolicy.NO_RETRY && status == Task.PENDING) {
+                scheduleRetry(retryDelay);
+                retryScheduled = true;
             } else if (!success) {
+                if (status == Task.PENDING) {
+                    failed = true;
+                }
                 //#debug
                 L.i("HTTP GET FAILED: about to HttpGetter.cancel() this and any chained Tasks", this.toString());
                 cancel("HttpGetter failed response code and header check: " + this);
@@ -954,21 +1330,257 @@ public class HttpGetter extends Task {
             HttpGetter.endNetworkActivity(netActivityKey); // Notify listeners, net is in use
         }
 
+        if (retryScheduled) {
+            return null;
+        }
         if (!success) {
             if (!isCanceled() && this.retriesRemaining <= 0) {
+                failed = true;
                 cancel("HttpGetter did not succeed");
             }
             return null;
         }
+        retryPolicy.recordSuccess();
 
         return out;
     }
 
+    /**
+     * Add, change or, if the value is null, remove a request header
+     *
+     * @param key
+     * @param value
+     */
+    private synchronized void replaceRequestProperty(final String key, final String value) {
+        final int i = requestPropertyKeys.indexOf(key);
+
+        if (i >= 0) {
+            requestPropertyKeys.removeElementAt(i);
+            requestPropertyValues.removeElementAt(i);
+        }
+        if (value != null) {
+            requestPropertyKeys.addElement(key);
+            requestPropertyValues.addElement(value);
+        }
+    }
+
+    /**
+     * The first byte position of a "Content-Range: bytes first-last/length"
+     * response header
+     *
+     * @return the position, or -1 if the header is missing or not understood
+     */
+    private synchronized int getContentRangeStart() {
+        return getContentRangeStart(HttpCacheMetadata.getHeader(responseHeaders, "Content-Range"));
+    }
+
+    /**
+     * The first byte position of a "Content-Range" header value
+     *
+     * @param contentRange
+     * @return the position, or -1 if the value is null or not understood
+     */
+    static int getContentRangeStart(final String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        final String s = contentRange.trim();
+        final int dash = s.indexOf('-');
+        if (!s.startsWith("bytes ") || dash < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(s.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The value to send in If-Range when resuming this response. A weak ETag
+     * can not be used to join byte ranges, so fall back to Last-Modified.
+     *
+     * @return the validator, or null if the response can not be resumed
+     */
+    private synchronized String getResumeValidator() {
+        final String acceptRanges = HttpCacheMetadata.getHeader(responseHeaders, "Accept-Ranges");
+        if (acceptRanges != null && acceptRanges.trim().toLowerCase().equals("none")) {
+            return null;
+        }
+        final String etag = HttpCacheMetadata.getHeader(responseHeaders, HttpCacheMetadata.ETAG);
+        if (etag != null && etag.length() > 0 && !etag.startsWith("W/")) {
+            return etag;
+        }
+        final String lastModified = HttpCacheMetadata.getHeader(responseHeaders, HttpCacheMetadata.LAST_MODIFIED);
+        if (lastModified != null && lastModified.length() > 0) {
+            return lastModified;
+        }
+
+        return null;
+    }
+
+    /**
+     * Remember the body received so far so the retry can resume from there
+     *
+     * @param url
+     * @param bytes
+     * @param validator
+     */
+    private void keepPartialContent(final String url, final byte[] bytes, final String validator) {
+        synchronized (this) {
+            partialBody = bytes;
+            partialValidator = validator;
+        }
+        //#debug
+        L.i(this, "Keep partial content", url + " bytes=" + bytes.length);
+        final PartialContentListener listener = partialContentListener;
+        if (listener != null) {
+            listener.partialContentReceived(url, bytes, validator);
+        }
+    }
+
+    private synchronized void discardPartialContent() {
+        partialBody = null;
+        partialValidator = null;
+    }
+
+    /**
+     * Find how to decode the response body
+     *
+     * @param contentEncoding
+     * @return an InflateInputStream format, or -1 to read the body as is
+     */
+    private int getDecodeFormat(final String contentEncoding) {
+        if (!compressionAccepted || contentEncoding == null) {
+            return -1;
+        }
+        final String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return gzipDecoded ? InflateInputStream.GZIP : -1;
+        }
+        if (encoding.equals("deflate")) {
+            return InflateInputStream.ZLIB_OR_RAW;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Ask the retry policy if and when to try again
+     *
+     * @param url
+     * @param networkError the connection failed, perhaps after a successful
+     * response code while reading the body
+     * @return milliseconds to wait, or RetryPolicy.NO_RETRY
+     */
+    private long nextRetryDelay(final String url, final boolean networkError) {
+        if (retriesRemaining <= 0 || Task.isShuttingDown()) {
+            //#debug
+            L.i(this, "No more retries", url);
+            return RetryPolicy.NO_RETRY;
+        }
+        final long delay;
+        synchronized (this) {
+            final int code = networkError && responseCode >= HTTP_200_OK && responseCode < HTTP_300_MULTIPLE_CHOICES ? HTTP_OPERATION_PENDING : responseCode;
+            delay = retryPolicy.getRetryDelay(retryCount + 1, code, responseHeaders);
+        }
+        if (delay != RetryPolicy.NO_RETRY) {
+            retryCount++;
+            retriesRemaining--;
+        }
+        //#debug
+        L.i(this, "Retry", url + " delay=" + delay + " retriesRemaining=" + retriesRemaining);
+
+        return delay;
+    }
+
+    /**
+     * End this exec() without completing the Task and fork() it again after
+     * the delay. No Worker thread is held while waiting.
+     *
+     * @param delay
+     */
+    private void scheduleRetry(final long delay) {
+        synchronized (this) {
+            responseCode = HTTP_OPERATION_PENDING;
+            responseHeaders.clear();
+        }
+        defer(new Runnable() {
+            public void run() {
+                if (delay <= 0) {
+                    HttpGetter.this.fork();
+                } else {
+                    Task.getTimer().schedule(new TimerTask() {
+                        public void run() {
+                            HttpGetter.this.fork();
+                        }
+                    }, delay);
+                }
+            }
+        });
+    }
+
+    /**
+     * If the server responded with a 301 or 302 redirect, the next attempt
+     * goes to the new location. Call only from exec().
+     *
+     * @return true if the redirect will be followed
+     */
+    private boolean followRedirect() {
+        final String location = getRedirectLocation();
+
+        if (location == null || redirectCount >= MAX_REDIRECTS) {
+            return false;
+        }
+        //#debug
+        L.i(this, "Response", "HTTP response code indicates a redirect, new url=" + location);
+        redirectCount++;
+        redirectUrl = location;
+
+        return true;
+    }
+
+    /**
+     * The new location if the server responded with a redirect
+     *
+     * @return the new URL, or null
+     */
+    private synchronized String getRedirectLocation() {
+        if (responseCode != HTTP_301_MOVED_PERMANENTLY && responseCode != HTTP_302_FOUND) {
+            return null;
+        }
+        final String location = HttpCacheMetadata.getHeader(responseHeaders, "Location");
+        if (location == null || location.length() == 0) {
+            return null;
+        }
+
+        return location;
+    }
+
+    /**
+     * HTTP operations are mostly waiting for the network, so they may run on
+     * the blocking Task executor if one has been set
+     *
+     * @return
+     */
+    protected boolean isBlocking() {
+        return true;
+    }
+
     public boolean cancel(final String reason, final Throwable t) {
         //#debug
         L.i("The HttpGetter has been canceled. Retries Remaining is set to 0", reason);
         retriesRemaining = 0;
-        return super.cancel(reason, t);
+        final boolean canceled = super.cancel(reason, t);
+        final HttpScheduler s = scheduler;
+        if (s != null) {
+            final Task next = s.abandon(this);
+            if (next != null) {
+                next.fork();
+            }
+        }
+
+        return canceled;
     }
 
     /**
@@ -1025,19 +1637,20 @@ public class HttpGetter extends Task {
      * Read an unknown length field because the server did not specify how long
      * the result is
      *
+     * The data is read directly into pooled buffers, so the only copy is the
+     * final exact-size byte[] made by the caller.
+     *
      * @param inputStream
-     * @param bos
+     * @param body
      * @return time of first byte received
      * @throws IOException
      */
-    private long readBytesVariableLength(final InputStream inputStream, final OutputStream bos, final Integer netActivityKey) throws IOException, InterruptedException {
-        final byte[] readBuffer = new byte[READ_BUFFER_LENGTH];
-
+    private long readBytesVariableLength(final InputStream inputStream, final ChunkedByteBuffer body, final Integer netActivityKey) throws IOException, InterruptedException {
         final int b = inputStream.read(); // Prime the read loop before mistakenly synchronizing on a net stream that has no data available yet
         if (b < 0) {
             return Long.MAX_VALUE;
         }
-        bos.write(b);
+        body.write(b);
         final long firstByteReceivedTime = System.currentTimeMillis();
         HttpGetter.networkActivity(netActivityKey);
         while (true) {
@@ -1046,14 +1659,12 @@ public class HttpGetter extends Task {
                 this.cancel("HttpGetter end on shutting down");
                 return 0;
             }
-            final int bytesRead = inputStream.read(readBuffer);
+            final int bytesRead = body.read(inputStream);
             HttpGetter.networkActivity(netActivityKey);
             if (bytesRead < 0) {
                 break;
             } else if (bytesRead == 0) {
                 Thread.sleep(SLEEP_TIME_IF_READ_ZERO_BYTES);
-            } else {
-                bos.write(readBuffer, 0, bytesRead);
             }
         }
 
@@ -1064,6 +1675,9 @@ public class HttpGetter extends Task {
      * Check headers and HTTP response code as needed for your web service to
      * see if this is a valid response. Override if needed.
      *
+     * 304 Not Modified is a valid answer to a conditional request, with no
+     * response body.
+     *
      * @param url
      * @param responseCode
      * @param headers
@@ -1071,7 +1685,7 @@ public class HttpGetter extends Task {
      * @throws IOException
      */
     protected boolean checkResponseCode(final String url, final int responseCode, final Hashtable headers) throws IOException {
-        if (responseCode < 300) {
+        if (responseCode < 300 || responseCode == HTTP_304_NOT_MODIFIED) {
             return true;
         } else if (responseCode < 500) {
             // We might be able to extract some useful information in case of a 400+ error code
@@ -1142,6 +1756,24 @@ public class HttpGetter extends Task {
         return upstreamDataCount;
     }
 
+    /**
+     * Retrieves a count of response body bytes after decompression. Compare
+     * with getDownstreamDataCount() to see the network data saved by
+     * compression. The counter is valid during the application run.
+     *
+     * @return byte count
+     */
+    public synchronized static int getDecodedDownstreamDataCount() {
+        return decodedDownstreamDataCount;
+    }
+
+    /**
+     * Clears the decompressed downstream data counter.
+     */
+    public synchronized static void clearDecodedDownstreamDataCount() {
+        decodedDownstreamDataCount = 0;
+    }
+
     /**
      * Clears the downstream data counter.
      */
@@ -1165,6 +1797,15 @@ public class HttpGetter extends Task {
         downstreamDataCount += byteCount;
     }
 
+    /**
+     * Accumulates the decompressed downstream data counter.
+     *
+     * @param byteCount
+     */
+    protected synchronized static void addDecodedDownstreamDataCount(final int byteCount) {
+        decodedDownstreamDataCount += byteCount;
+    }
+
     /**
      * Accumulates the upstream data counter.
      *
@@ -1397,6 +2038,25 @@ public class HttpGetter extends Task {
 
     }
 
+    /**
+     * Implement this to be notified when a resumable download stops part way.
+     * See setResumable().
+     */
+    public interface PartialContentListener {
+
+        /**
+         * The connection failed part way through the response body. The same
+         * bytes and validator given to setPartialContent() later will resume
+         * the download from this point. This is called on the Worker thread
+         * of the HttpGetter.
+         *
+         * @param url
+         * @param partialBody all body bytes received so far
+         * @param validator the ETag or Last-Modified date of the response
+         */
+        void partialContentReceived(String url, byte[] partialBody, String validator);
+    }
+
     /**
      * Implement this the NetActivityListener to be notified about the network
      * state. This is useful for adding user notification such as a spinner
@@ -1434,4 +2094,41 @@ public class HttpGetter extends Task {
          */
         void netActivityStateChanged(final int previousState, final int newState);
     }
+
+    /**
+     * Count the compressed bytes read from the network
+     */
+    private static final class CountingInputStream extends InputStream {
+
+        private final InputStream in;
+        int count = 0;
+
+        CountingInputStream(final InputStream in) {
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            final int b = in.read();
+
+            if (b >= 0) {
+                count++;
+            }
+
+            return b;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = in.read(b, off, len);
+
+            if (n > 0) {
+                count += n;
+            }
+
+            return n;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
 }
@@ -116,11 +116,26 @@ public class HttpPoster extends HttpGetter {
         return this;
     }
 
+    /**
+     * gzip the message before it is sent and mark it with a Content-Encoding
+     * request header. Only use this if you know the server accepts compressed
+     * request bodies. The default is false.
+     *
+     * @param compressed
+     * @return
+     */
+    public HttpPoster setPostDataCompressed(final boolean compressed) {
+        this.postMessageCompressed = compressed;
+
+        return this;
+    }
+
     /**
      * Execute the POST operation
      * 
      * @param in
-     * @return
+     * @return the response, or null if isDeferred() and the POST will run
+     * again when a connection is free or the retry delay has passed
      */
     public Object exec(final Object in) throws InterruptedException {
         if (isChainInputPostData) {
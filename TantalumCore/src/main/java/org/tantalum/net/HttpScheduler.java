@@ -0,0 +1,366 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+import org.tantalum.Task;
+import org.tantalum.util.RollingAverage;
+
+/**
+ * Admission control for HTTP connections to one host.
+ *
+ * Each host has its own connection limit and its own rolling response time and
+ * baud statistics. An HttpGetter which can not get a connection is deferred
+ * and parked here without holding a Worker thread. When a connection to that
+ * host is released the highest priority parked Task is forked again with a
+ * connection already reserved for it. A slow host therefore only holds its own
+ * connections and does not delay requests to other hosts.
+ *
+ * While a host is slower than HttpGetter.THRESHOLD_BAUD it is limited to one
+ * connection at a time so that each response arrives as fast as possible. A
+ * new host starts from the average of all hosts, but not below
+ * THRESHOLD_BAUD, so it is not limited until it is measured to be slow.
+ *
+ * Each host also has a circuit breaker. After several failures in a row the
+ * circuit opens and requests to the host fail at once without a connection.
+ * When the open time has passed one trial request is allowed (half-open). If
+ * that succeeds the circuit closes, otherwise it opens again.
+ *
+ * @author phou
+ */
+final class HttpScheduler {
+
+    private static final Hashtable schedulers = new Hashtable(); // host -> HttpScheduler
+    /*
+     * Above this many hosts, idle schedulers are forgotten when a new host is
+     * added
+     */
+    private static final int MAX_IDLE_SCHEDULERS = 16;
+    private static volatile int maxConnectionsPerHost = 2;
+    private static final int CIRCUIT_CLOSED = 0;
+    private static final int CIRCUIT_OPEN = 1;
+    private static final int CIRCUIT_HALF_OPEN = 2;
+    private static volatile int circuitFailureThreshold = 5;
+    private static volatile long circuitOpenMillis = 30000;
+    /**
+     * Time from request start to first response byte for this host
+     */
+    final RollingAverage averageResponseDelayMillis = new RollingAverage(10, 700.0f);
+    /**
+     * Body read speed realized by each connection to this host
+     */
+    final RollingAverage averageBaud = new RollingAverage(10, Math.max(HttpGetter.averageBaud.value(), HttpGetter.THRESHOLD_BAUD));
+    private final String host;
+    private final Vector waiting = new Vector(); // Parked Tasks, highest priority first
+    private final Vector admitted = new Vector(); // Forked Tasks which have a reserved connection
+    private int activeConnections = 0;
+    private int circuitState = CIRCUIT_CLOSED;
+    private int consecutiveFailures = 0;
+    private long circuitOpenUntil = 0;
+    private Task trialTask = null; // The one Task allowed while half-open
+
+    private HttpScheduler(final String host) {
+        this.host = host;
+        averageBaud.setLowerBound(HttpGetter.THRESHOLD_BAUD / 10);
+        averageResponseDelayMillis.setUpperBound(5000.0f);
+    }
+
+    /**
+     * Get the scheduler for the host of this URL
+     *
+     * @param url
+     * @return
+     */
+    static HttpScheduler getScheduler(final String url) {
+        final String h = getHost(url);
+
+        synchronized (schedulers) {
+            HttpScheduler scheduler = (HttpScheduler) schedulers.get(h);
+
+            if (scheduler == null) {
+                if (schedulers.size() >= MAX_IDLE_SCHEDULERS) {
+                    removeIdleSchedulers();
+                }
+                scheduler = new HttpScheduler(h);
+                schedulers.put(h, scheduler);
+            }
+
+            return scheduler;
+        }
+    }
+
+    /**
+     * Forget hosts which have no connections, no waiting Tasks and a closed
+     * circuit. Call within synchronized(schedulers)
+     */
+    private static void removeIdleSchedulers() {
+        final Vector idleHosts = new Vector();
+        final Enumeration hosts = schedulers.keys();
+
+        while (hosts.hasMoreElements()) {
+            final Object h = hosts.nextElement();
+
+            if (((HttpScheduler) schedulers.get(h)).isIdle()) {
+                idleHosts.addElement(h);
+            }
+        }
+        for (int i = 0; i < idleHosts.size(); i++) {
+            schedulers.remove(idleHosts.elementAt(i));
+        }
+    }
+
+    static int getSchedulerCount() {
+        synchronized (schedulers) {
+            return schedulers.size();
+        }
+    }
+
+    private synchronized boolean isIdle() {
+        return activeConnections == 0 && waiting.isEmpty() && admitted.isEmpty() && circuitState == CIRCUIT_CLOSED && consecutiveFailures == 0;
+    }
+
+    /**
+     * Find the "scheme://host:port" part of a URL, in lower case
+     *
+     * @param url
+     * @return
+     */
+    static String getHost(final String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = url.length();
+        for (int i = start; i < end; i++) {
+            final char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+
+        return url.substring(0, end).toLowerCase();
+    }
+
+    static void setMaxConnectionsPerHost(final int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("Max HTTP connections per host must be at least 1: " + max);
+        }
+        maxConnectionsPerHost = max;
+    }
+
+    static int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    static void setCircuitBreaker(final int failureThreshold, final long openMillis) {
+        if (failureThreshold < 0 || openMillis < 0) {
+            throw new IllegalArgumentException("Bad circuit breaker failureThreshold=" + failureThreshold + " openMillis=" + openMillis);
+        }
+        circuitFailureThreshold = failureThreshold;
+        circuitOpenMillis = openMillis;
+    }
+
+    /**
+     * May this Task connect to the host, or is the circuit open?
+     *
+     * @param task
+     * @param now
+     * @return false if the Task should fail without connecting
+     */
+    synchronized boolean allowRequest(final Task task, final long now) {
+        switch (circuitState) {
+            case CIRCUIT_CLOSED:
+                return true;
+
+            case CIRCUIT_OPEN:
+                if (now < circuitOpenUntil) {
+                    return false;
+                }
+                circuitState = CIRCUIT_HALF_OPEN;
+                trialTask = task;
+                return true;
+
+            default:
+                return task == trialTask;
+        }
+    }
+
+    /**
+     * The host answered
+     */
+    synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        circuitState = CIRCUIT_CLOSED;
+        trialTask = null;
+    }
+
+    /**
+     * The host did not answer, or answered with a server error
+     *
+     * @param now
+     */
+    synchronized void recordFailure(final long now) {
+        consecutiveFailures++;
+        if (circuitFailureThreshold > 0 && (circuitState == CIRCUIT_HALF_OPEN || consecutiveFailures >= circuitFailureThreshold)) {
+            circuitState = CIRCUIT_OPEN;
+            circuitOpenUntil = now + circuitOpenMillis;
+            trialTask = null;
+        }
+    }
+
+    /**
+     * Is the circuit open so that requests fail without connecting?
+     *
+     * @param now
+     * @return
+     */
+    synchronized boolean isCircuitOpen(final long now) {
+        return (circuitState == CIRCUIT_OPEN && now < circuitOpenUntil) || circuitState == CIRCUIT_HALF_OPEN;
+    }
+
+    /**
+     * The number of simultaneous connections currently allowed to this host
+     *
+     * @return
+     */
+    int getConnectionLimit() {
+        if (averageBaud.value() < HttpGetter.THRESHOLD_BAUD) {
+            return 1;
+        }
+
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Take a connection for this Task if one is free, or if one was reserved
+     * for it when it was forked from the parked list. Tasks which are already
+     * parked go first.
+     *
+     * @param task
+     * @return true if the Task may connect now and must later release()
+     */
+    synchronized boolean tryAcquire(final Task task) {
+        if (admitted.removeElement(task)) {
+            return true;
+        }
+        if (waiting.isEmpty() && activeConnections < getConnectionLimit()) {
+            activeConnections++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Park a deferred Task until a connection is free. If one has been freed
+     * since tryAcquire() it is reserved for this Task now.
+     *
+     * @param task
+     * @return true if the Task should be forked immediately
+     */
+    synchronized boolean park(final Task task) {
+        if (waiting.isEmpty() && activeConnections < getConnectionLimit()) {
+            activeConnections++;
+            admitted.addElement(task);
+            return true;
+        }
+        final int priority = task.getForkPriority();
+        int i = 0;
+        while (i < waiting.size() && ((Task) waiting.elementAt(i)).getForkPriority() >= priority) {
+            i++;
+        }
+        waiting.insertElementAt(task, i);
+
+        return false;
+    }
+
+    /**
+     * Return a connection
+     *
+     * @return the parked Task which now has a reserved connection and should
+     * be forked, or null
+     */
+    synchronized Task release() {
+        activeConnections--;
+
+        return admitNext();
+    }
+
+    /**
+     * Forget a Task which has been canceled while parked or before using its
+     * reserved connection
+     *
+     * @param task
+     * @return the parked Task which now has a reserved connection and should
+     * be forked, or null
+     */
+    synchronized Task abandon(final Task task) {
+        if (task == trialTask) {
+            // Let the next request be the trial
+            circuitState = CIRCUIT_OPEN;
+            circuitOpenUntil = 0;
+            trialTask = null;
+        }
+        waiting.removeElement(task);
+        if (admitted.removeElement(task)) {
+            activeConnections--;
+            return admitNext();
+        }
+
+        return null;
+    }
+
+    private Task admitNext() {
+        while (!waiting.isEmpty() && activeConnections < getConnectionLimit()) {
+            final Task task = (Task) waiting.firstElement();
+            waiting.removeElementAt(0);
+            if (task.getStatus() == Task.PENDING) {
+                activeConnections++;
+                admitted.addElement(task);
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    synchronized int getActiveConnections() {
+        return activeConnections;
+    }
+
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    //#mdebug
+    public synchronized String toString() {
+        return "HttpScheduler " + host + " active=" + activeConnections + " limit=" + getConnectionLimit() + " waiting=" + waiting.size() + " admitted=" + admitted.size() + " circuit=" + circuitState + " failures=" + consecutiveFailures;
+    }
+    //#enddebug
+}
@@ -0,0 +1,125 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import org.tantalum.Task;
+
+/**
+ * Limits for a batch of background downloads started with
+ * StaticWebCache.prefetch(String[], PrefetchPolicy).
+ *
+ * At most maxConcurrent downloads of the batch run at the same time. No new
+ * download starts after maxBytes have been received, or when the average
+ * speed of the network connections to the host is below minBaud. This keeps a
+ * large prefetch from using up the data plan or competing with what the user
+ * is waiting for on a slow network.
+ *
+ * Override isVisible() to fetch the items now on screen first.
+ *
+ * @author phou
+ */
+public class PrefetchPolicy {
+
+    /**
+     * Two at a time, up to 1MB, stop when the network is slow
+     */
+    public static final PrefetchPolicy DEFAULT = new PrefetchPolicy(2, 1024 * 1024, HttpGetter.THRESHOLD_BAUD / 4);
+    private final int maxConcurrent;
+    private final int maxBytes;
+    private final float minBaud;
+
+    /**
+     * Create a prefetch policy
+     *
+     * @param maxConcurrent - the most downloads of the batch at the same time
+     * @param maxBytes - no new download starts once the batch has received
+     * this many bytes. Use Integer.MAX_VALUE for no limit.
+     * @param minBaud - no new download starts if HttpGetter.getAverageBaud()
+     * for the host is below this. Use 0 for no limit.
+     */
+    public PrefetchPolicy(final int maxConcurrent, final int maxBytes, final float minBaud) {
+        if (maxConcurrent < 1 || maxBytes < 0 || minBaud < 0) {
+            throw new IllegalArgumentException("Bad PrefetchPolicy maxConcurrent=" + maxConcurrent + " maxBytes=" + maxBytes + " minBaud=" + minBaud);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxBytes = maxBytes;
+        this.minBaud = minBaud;
+    }
+
+    /**
+     * The most downloads of the batch at the same time
+     *
+     * @return
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * The byte budget of the batch
+     *
+     * @return
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * The network speed below which the batch stops
+     *
+     * @return
+     */
+    public float getMinBaud() {
+        return minBaud;
+    }
+
+    /**
+     * Is this item visible to the user now? Visible items are fetched first,
+     * in the order given, and at a higher priority. The default is false.
+     *
+     * @param key
+     * @return
+     */
+    protected boolean isVisible(final String key) {
+        return false;
+    }
+
+    /**
+     * The Task priority of the download
+     *
+     * @param key
+     * @return NORMAL_PRIORITY for visible items, otherwise IDLE_PRIORITY
+     */
+    protected int getPriority(final String key) {
+        if (isVisible(key)) {
+            return Task.NORMAL_PRIORITY;
+        }
+
+        return Task.IDLE_PRIORITY;
+    }
+}
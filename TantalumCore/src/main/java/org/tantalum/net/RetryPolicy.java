@@ -0,0 +1,203 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.util.Hashtable;
+import java.util.Random;
+
+/**
+ * When and how soon an HttpGetter tries again after a network error or a
+ * temporary server error.
+ *
+ * The delay grows exponentially from the initial delay up to the maximum
+ * delay. A random jitter of up to half the delay spreads retries from many
+ * clients so they do not all hit a recovering server at the same moment. A
+ * Retry-After header from the server is honored if it is within the maximum
+ * delay, otherwise the request is not retried.
+ *
+ * Retries also draw on a budget shared by all HttpGetters using this policy.
+ * Each retry costs one token and each success earns back a tenth of one, so
+ * when the server is down retries stop after a few failures instead of
+ * multiplying the load.
+ *
+ * Set the policy with HttpGetter.setRetryPolicy() or
+ * StaticWebCache.HttpTaskFactory.setRetryPolicy(). Override isRetryable() to
+ * change which response codes are retried.
+ *
+ * @author phou
+ */
+public class RetryPolicy {
+
+    /**
+     * getRetryDelay() value meaning the request should not be retried
+     */
+    public static final long NO_RETRY = -1;
+    /**
+     * One retry 5 to 10 seconds after a failure
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(1, 10000, 60000);
+    /**
+     * Never retry
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+    private static final int BUDGET_TOKEN = 10; // Budget is counted in tenths of a retry
+    private static final int MAX_BUDGET = 10 * BUDGET_TOKEN;
+    private static final Random random = new Random();
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private int budget = MAX_BUDGET; // Access only within synchronized(this)
+
+    /**
+     * Create a retry policy
+     *
+     * @param maxRetries - the most times to try again after the first attempt
+     * @param initialDelayMillis - the longest delay before the first retry.
+     * Each following retry may wait up to twice as long as the one before.
+     * @param maxDelayMillis - the longest delay before any retry
+     */
+    public RetryPolicy(final int maxRetries, final long initialDelayMillis, final long maxDelayMillis) {
+        if (maxRetries < 0 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Bad RetryPolicy maxRetries=" + maxRetries + " initialDelayMillis=" + initialDelayMillis + " maxDelayMillis=" + maxDelayMillis);
+        }
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * The most times to try again after the first attempt
+     *
+     * @return
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Decide if and when to try again. A retry which is allowed is taken from
+     * the retry budget.
+     *
+     * @param retry - 1 for the first retry, 2 for the second and so on
+     * @param responseCode - the HTTP response code, or
+     * HttpGetter.HTTP_OPERATION_PENDING if the server did not respond
+     * @param responseHeaders
+     * @return milliseconds to wait before trying again, or NO_RETRY
+     */
+    public long getRetryDelay(final int retry, final int responseCode, final Hashtable responseHeaders) {
+        if (retry > maxRetries || !isRetryable(responseCode)) {
+            return NO_RETRY;
+        }
+
+        long delay = initialDelayMillis;
+        for (int i = 1; i < retry && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        if (delay > 1) {
+            delay -= (random.nextInt() & Integer.MAX_VALUE) % (delay / 2 + 1);
+        }
+        final long retryAfter = getRetryAfterMillis(responseHeaders, System.currentTimeMillis());
+        if (retryAfter > maxDelayMillis) {
+            return NO_RETRY;
+        }
+        delay = Math.max(delay, retryAfter);
+
+        synchronized (this) {
+            if (budget < BUDGET_TOKEN) {
+                return NO_RETRY;
+            }
+            budget -= BUDGET_TOKEN;
+        }
+
+        return delay;
+    }
+
+    /**
+     * Tell the policy that a request has succeeded. This refills the retry
+     * budget a little.
+     */
+    public synchronized void recordSuccess() {
+        if (budget < MAX_BUDGET) {
+            budget++;
+        }
+    }
+
+    /**
+     * Is this response temporary such that trying again later may succeed?
+     *
+     * The default retries network errors, 408 Request Timeout, 429 Too Many
+     * Requests, 500 Internal Server Error, 502 Bad Gateway, 503 Service
+     * Unavailable and 504 Gateway Timeout.
+     *
+     * @param responseCode - the HTTP response code, or
+     * HttpGetter.HTTP_OPERATION_PENDING if the server did not respond
+     * @return
+     */
+    protected boolean isRetryable(final int responseCode) {
+        switch (responseCode) {
+            case HttpGetter.HTTP_OPERATION_PENDING:
+            case HttpGetter.HTTP_408_REQUEST_TIMEOUT:
+            case HttpGetter.HTTP_429_TOO_MANY_REQUESTS:
+            case HttpGetter.HTTP_500_INTERNAL_SERVER_ERROR:
+            case HttpGetter.HTTP_502_BAD_GATEWAY:
+            case HttpGetter.HTTP_503_SERVICE_UNAVAILABLE:
+            case HttpGetter.HTTP_504_GATEWAY_TIMEOUT:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Read the Retry-After header, which is either a number of seconds or an
+     * HTTP date
+     *
+     * @param headers
+     * @param now
+     * @return milliseconds to wait, or 0 if there is no usable header
+     */
+    static long getRetryAfterMillis(final Hashtable headers, final long now) {
+        if (headers == null) {
+            return 0;
+        }
+        final String retryAfter = HttpCacheMetadata.getHeader(headers, "Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        final String s = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(s) * 1000);
+        } catch (NumberFormatException e) {
+            final long date = HttpCacheMetadata.parseHttpDate(s);
+
+            return date < 0 ? 0 : Math.max(0, date - now);
+        }
+    }
+}
@@ -27,8 +27,12 @@
  */
 package org.tantalum.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.DigestException;
+import java.util.Hashtable;
+import java.util.Vector;
 import org.tantalum.CancellationException;
 import org.tantalum.PlatformUtils;
 import org.tantalum.Task;
@@ -38,10 +42,15 @@ import org.tantalum.storage.FlashCache;
 import org.tantalum.storage.FlashCache.StartupTask;
 import org.tantalum.storage.FlashDatabaseException;
 import org.tantalum.storage.StaticCache;
+import org.tantalum.util.ChunkedByteBuffer;
 import org.tantalum.util.CryptoUtils;
+import org.tantalum.util.InflateInputStream;
 import org.tantalum.util.L;
 import org.tantalum.util.LOR;
+import org.tantalum.util.LongLongLRUMap;
 import org.tantalum.util.RollingAverage;
+import org.tantalum.util.WeakHashCache;
+import org.tantalum.util.WeakReferenceListenerHandler;
 
 /**
  * A cache of remote http contents backed by local flash memory storage
@@ -63,6 +72,50 @@ public final class StaticWebCache extends StaticCache {
      */
     public static final HttpTaskFactory DEFAULT_HTTP_GETTER_FACTORY = new HttpTaskFactory();
     private final HttpTaskFactory httpTaskFactory;
+    /*
+     * Single-flight coalescing of concurrent gets for the same url. Digest ->
+     * InFlightGet, access only within synchronized(inFlightGets)
+     */
+    private final Hashtable inFlightGets = new Hashtable();
+    /*
+     * url -> PrefetchBatch which is now downloading that url
+     */
+    private final Hashtable inFlightPrefetches = new Hashtable();
+    /*
+     * url -> background refresh Task of a GET_STALE_WHILE_REVALIDATE
+     */
+    private final Hashtable inFlightRefreshes = new Hashtable();
+    /*
+     * Digest of a url which recently failed -> time until which it is not
+     * requested again. Access the size only within synchronized(failedGets)
+     */
+    private final LongLongLRUMap failedGets = new LongLongLRUMap();
+    private static final int MAX_FAILED_GETS = 64;
+    private volatile boolean failureCacheEnabled = false;
+    private final WeakReferenceListenerHandler refreshListenerDelegate = new WeakReferenceListenerHandler(RefreshListener.class);
+    /*
+     * HTTP caching headers are stored as a separate flash record under the url
+     * plus this suffix. Like the post data hash suffix used by HttpPoster keys,
+     * it can not be part of a url.
+     */
+    private static final String METADATA_KEY_SUFFIX = "\nhttp-metadata";
+    /*
+     * Appended to the url to store the partial body of an interrupted download
+     */
+    private static final String PARTIAL_KEY_SUFFIX = "\nhttp-partial";
+    /*
+     * This record is present if the value of the url is stored gzip
+     * compressed. Only the digest is checked, so it is not read from flash.
+     */
+    private static final String COMPRESSED_KEY_SUFFIX = "\nhttp-gzip";
+    /*
+     * url -> HttpCacheMetadata recently read or written
+     */
+    private final WeakHashCache metadataCache = new WeakHashCache();
+    private volatile boolean revalidationEnabled = false;
+    private volatile boolean compressionEnabled = false;
+    private volatile boolean storeCompressed = false;
+    private volatile boolean resumeEnabled = false;
     /**
      * Get from the local heap or (on heap miss) flash memory cache only- do not
      * request from a web server
@@ -80,8 +133,17 @@ public final class StaticWebCache extends StaticCache {
      * the local cache
      */
     public static final int GET_WEB = 2;
+    /**
+     * Get from the local cache at FASTLANE_PRIORITY if available, and also
+     * GET from the web at IDLE_PRIORITY to refresh the local value. If the
+     * server sends different bytes, the cache is updated and each
+     * RefreshListener is notified with the new value.
+     *
+     * If the value is not in the local cache, this is the same as GET_ANYWHERE.
+     */
+    public static final int GET_STALE_WHILE_REVALIDATE = 3;
     //#debug
-    private static final String[] GET_TYPES = {"GET_LOCAL", "GET_ANYWHERE", "GET_WEB"};
+    private static final String[] GET_TYPES = {"GET_LOCAL", "GET_ANYWHERE", "GET_WEB", "GET_STALE_WHILE_REVALIDATE"};
 
     /**
      * Return a cache of default type PlatformUtils.PHONE_DATABASE_CACHE. The
@@ -146,6 +208,421 @@ public final class StaticWebCache extends StaticCache {
         super(priority, cacheType, cacheView, startupTask);
 
         this.httpTaskFactory = httpTaskFactory;
+        setSupportingKeySuffixes(new String[]{METADATA_KEY_SUFFIX, PARTIAL_KEY_SUFFIX, COMPRESSED_KEY_SUFFIX});
+    }
+
+    /**
+     * Use HTTP caching headers to keep the local copy up to date.
+     *
+     * When enabled, the ETag, Last-Modified, Cache-Control max-age and Expires
+     * headers of each HTTP GET response are stored with the value. A
+     * GET_ANYWHERE of a value which is still fresh is served locally as usual.
+     * A stale value is revalidated with a conditional GET, If-None-Match and
+     * If-Modified-Since. If the server answers 304 Not Modified the local copy
+     * is kept without writing it again, otherwise the new response replaces it.
+     * If revalidation fails, for example when offline, the stale local copy is
+     * returned.
+     *
+     * Values stored while this is disabled have no headers and are always
+     * served locally. The default is disabled.
+     *
+     * @param enabled
+     */
+    public void setRevalidationEnabled(final boolean enabled) {
+        revalidationEnabled = enabled;
+    }
+
+    /**
+     * Ask the server to gzip or deflate responses. Less data is sent over the
+     * network, and the response is decoded as it is read. The default is
+     * disabled.
+     *
+     * @param enabled
+     */
+    public void setCompressionEnabled(final boolean enabled) {
+        compressionEnabled = enabled;
+    }
+
+    /**
+     * When compression is enabled, store gzip responses in flash memory still
+     * compressed. This saves flash space at the cost of decoding each time the
+     * value is read from flash. Your HttpTaskFactory.validateHttpResponse()
+     * then receives the compressed bytes. The default is to store the decoded
+     * form.
+     *
+     * @param compressed
+     */
+    public void setStoreCompressed(final boolean compressed) {
+        storeCompressed = compressed;
+    }
+
+    /**
+     * Continue interrupted downloads instead of starting again from the first
+     * byte. This is useful for large media on unreliable networks.
+     *
+     * When a connection fails part way through a response body, the bytes
+     * already received are kept in flash memory. The retry, or the next GET of
+     * the same url even after the application restarts, asks for only the
+     * rest of the body with a Range request. If-Range makes sure the server
+     * still has the same version, otherwise the whole body is sent again. The
+     * partial entry is removed once the complete value is stored.
+     *
+     * The server must send a strong ETag or Last-Modified header. The default
+     * is disabled.
+     *
+     * @param enabled
+     */
+    public void setResumeEnabled(final boolean enabled) {
+        resumeEnabled = enabled;
+    }
+
+    /**
+     * Remember recent failures so that a url which failed is not requested
+     * again for a while. Gets of a failed url which is not in the local cache
+     * are canceled at once instead of repeating the HTTP request and retries.
+     * How long depends on the response code, see getFailureCacheMillis(). A
+     * successful response does not need to be remembered, so only the most
+     * recent failures are kept.
+     *
+     * The default is disabled.
+     *
+     * @param enabled
+     */
+    public void setFailureCacheEnabled(final boolean enabled) {
+        failureCacheEnabled = enabled;
+        if (!enabled) {
+            failedGets.clear();
+        }
+    }
+
+    /**
+     * How long to remember a failed get. Override to change the defaults.
+     *
+     * @param responseCode - the HTTP response code, or
+     * HttpGetter.HTTP_OPERATION_PENDING if the server did not respond
+     * @return milliseconds, or 0 to not remember this failure
+     */
+    protected long getFailureCacheMillis(final int responseCode) {
+        if (responseCode == HttpGetter.HTTP_404_NOT_FOUND || responseCode == HttpGetter.HTTP_410_GONE) {
+            return 5 * 60000;
+        }
+        if (responseCode == HttpGetter.HTTP_OPERATION_PENDING) {
+            return 10000;
+        }
+        if (responseCode >= HttpGetter.HTTP_500_INTERNAL_SERVER_ERROR) {
+            return 30000;
+        }
+
+        // Other client errors, or a response rejected by validateHttpResponse()
+        return 60000;
+    }
+
+    private void putFailedGet(final String url, final int responseCode) {
+        final long millis = getFailureCacheMillis(responseCode);
+
+        if (millis <= 0 || Task.isShuttingDown()) {
+            return;
+        }
+        try {
+            final long digest = CryptoUtils.getInstance().toDigest(url);
+            synchronized (failedGets) {
+                failedGets.put(digest, System.currentTimeMillis() + millis);
+                while (failedGets.size() > MAX_FAILED_GETS) {
+                    failedGets.remove(failedGets.getLeastRecentlyUsedKey());
+                }
+            }
+            //#debug
+            L.i(this, "Remember failed get for " + millis + "ms, responseCode=" + responseCode, url);
+        } catch (Exception e) {
+            //#debug
+            L.e(this, "Can not remember failed get", url, e);
+        }
+    }
+
+    /**
+     * Did a get of this url fail recently?
+     *
+     * @param url
+     * @return
+     */
+    private boolean isFailedGet(final String url) {
+        try {
+            final long digest = CryptoUtils.getInstance().toDigest(url);
+            final long until = failedGets.get(digest, false);
+
+            if (until == LongLongLRUMap.NO_VALUE) {
+                return false;
+            }
+            if (System.currentTimeMillis() < until) {
+                return true;
+            }
+            failedGets.remove(digest);
+        } catch (Exception e) {
+            //#debug
+            L.e(this, "Can not check failed gets", url, e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Be notified when a GET_STALE_WHILE_REVALIDATE background refresh
+     * changes a value. The listener is held by a WeakReference.
+     *
+     * @param listener
+     */
+    public void registerRefreshListener(final RefreshListener listener) {
+        refreshListenerDelegate.registerListener(listener);
+    }
+
+    /**
+     * Stop notifications to this listener
+     *
+     * @param listener
+     */
+    public void unregisterRefreshListener(final RefreshListener listener) {
+        refreshListenerDelegate.unregisterListener(listener);
+    }
+
+    /**
+     * Decode values which were stored in gzip format, see setStoreCompressed(),
+     * before they are passed to the CacheView
+     *
+     * @param key
+     * @param bytesReference
+     * @param cacheView
+     * @return
+     */
+    protected Object convertToUseForm(final String key, final LOR bytesReference, final CacheView cacheView) {
+        final byte[] bytes = bytesReference.getBytes();
+
+        if (bytes.length > 3 && bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b && bytes[2] == 8 && isStoredCompressed(key)) {
+            try {
+                final InflateInputStream in = new InflateInputStream(new ByteArrayInputStream(bytes), InflateInputStream.GZIP);
+                final ChunkedByteBuffer decoded = new ChunkedByteBuffer(HttpGetter.readBufferPool);
+                try {
+                    while (decoded.read(in) >= 0) {
+                    }
+                    return super.convertToUseForm(key, new LOR(decoded.toByteArray()), cacheView);
+                } finally {
+                    decoded.release();
+                }
+            } catch (IOException e) {
+                //#debug
+                L.e(this, "Can not decode gzip value, using bytes as stored", key, e);
+            }
+        }
+
+        return super.convertToUseForm(key, bytesReference, cacheView);
+    }
+
+    private boolean isStoredCompressed(final String key) {
+        try {
+            return containsKey(key + COMPRESSED_KEY_SUFFIX);
+        } catch (DigestException e) {
+            //#debug
+            L.e(this, "Can not check if value is stored compressed", key, e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e(this, "Can not check if value is stored compressed", key, e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Record if the value about to be put() for this url is gzip compressed.
+     * Call this before put() so that convertToUseForm() decodes it.
+     *
+     * @param url
+     * @param httpGetter
+     * @throws FlashDatabaseException
+     */
+    private void markStoredCompressed(final String url, final HttpGetter httpGetter) throws FlashDatabaseException {
+        if (httpGetter.isGzipBody()) {
+            putBytes(url + COMPRESSED_KEY_SUFFIX, new byte[]{1});
+        } else if (isStoredCompressed(url)) {
+            removeBytes(url + COMPRESSED_KEY_SUFFIX);
+        }
+    }
+
+    /**
+     * Apply the compression settings of this cache to a new HTTP request
+     *
+     * @param httpGetter
+     */
+    private void setCompression(final HttpGetter httpGetter) {
+        if (compressionEnabled) {
+            httpGetter.setCompressionAccepted(true);
+            httpGetter.setGzipDecoded(!storeCompressed);
+        }
+    }
+
+    /**
+     * Continue from any partial body stored earlier, and store the partial
+     * body if this download is interrupted
+     *
+     * @param url
+     * @param httpGetter
+     */
+    private void setResume(final String url, final HttpGetter httpGetter) {
+        httpGetter.setResumable(true);
+        try {
+            final byte[] bytes = getBytes(url + PARTIAL_KEY_SUFFIX);
+
+            if (bytes != null && setPartialContent(httpGetter, bytes)) {
+                //#debug
+                L.i(this, "Resume partial download", url + " record bytes=" + bytes.length);
+            }
+        } catch (FlashDatabaseException e) {
+            //#debug
+            L.e(this, "Can not read partial download", url, e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e(this, "Can not decode partial download", url, e);
+        }
+        httpGetter.setPartialContentListener(new HttpGetter.PartialContentListener() {
+            public void partialContentReceived(final String url, final byte[] partialBody, final String validator) {
+                try {
+                    final byte[] bytes = toPartialContentRecord(partialBody, validator);
+
+                    if (bytes != null) {
+                        putBytes(url + PARTIAL_KEY_SUFFIX, bytes);
+                    }
+                } catch (FlashDatabaseException e) {
+                    //#debug
+                    L.e(this, "Can not write partial download", url, e);
+                } catch (UnsupportedEncodingException e) {
+                    //#debug
+                    L.e(this, "Can not encode partial download", url, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Encode a partial body and its validator for storage. The record is the
+     * 2 byte length of the UTF-8 validator, the validator, then the body.
+     *
+     * @param partialBody
+     * @param validator
+     * @return the record, or null if the validator is too long to store
+     * @throws UnsupportedEncodingException
+     */
+    static byte[] toPartialContentRecord(final byte[] partialBody, final String validator) throws UnsupportedEncodingException {
+        final byte[] v = validator.getBytes("UTF-8");
+
+        if (v.length > 0xFFFF) {
+            return null;
+        }
+        final byte[] bytes = new byte[2 + v.length + partialBody.length];
+        bytes[0] = (byte) (v.length >>> 8);
+        bytes[1] = (byte) v.length;
+        System.arraycopy(v, 0, bytes, 2, v.length);
+        System.arraycopy(partialBody, 0, bytes, 2 + v.length, partialBody.length);
+
+        return bytes;
+    }
+
+    /**
+     * Decode a record made by <code>toPartialContentRecord()</code> and give
+     * it to the HttpGetter to resume from
+     *
+     * @param httpGetter
+     * @param bytes
+     * @return false if the record holds no validator or no body
+     * @throws UnsupportedEncodingException
+     */
+    static boolean setPartialContent(final HttpGetter httpGetter, final byte[] bytes) throws UnsupportedEncodingException {
+        if (bytes.length <= 2) {
+            return false;
+        }
+        final int validatorLength = ((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF);
+        final int bodyLength = bytes.length - 2 - validatorLength;
+
+        if (validatorLength == 0 || bodyLength <= 0) {
+            return false;
+        }
+        final String validator = new String(bytes, 2, validatorLength, "UTF-8");
+        final byte[] partialBody = new byte[bodyLength];
+        System.arraycopy(bytes, 2 + validatorLength, partialBody, 0, bodyLength);
+        httpGetter.setPartialContent(partialBody, validator);
+
+        return true;
+    }
+
+    /**
+     * Remove the partial body of a download which is now complete
+     *
+     * @param url
+     */
+    private void removePartialContent(final String url) {
+        removeBytes(url + PARTIAL_KEY_SUFFIX);
+    }
+
+    /**
+     * The stored HTTP caching headers for a url
+     *
+     * @param url
+     * @return null if none are stored
+     */
+    private HttpCacheMetadata getMetadata(final String url) {
+        HttpCacheMetadata metadata = (HttpCacheMetadata) metadataCache.get(url);
+
+        if (metadata == null) {
+            try {
+                final byte[] bytes = getBytes(url + METADATA_KEY_SUFFIX);
+
+                if (bytes != null) {
+                    metadata = HttpCacheMetadata.fromBytes(bytes);
+                    if (metadata != null) {
+                        metadataCache.put(url, metadata);
+                    }
+                }
+            } catch (FlashDatabaseException e) {
+                //#debug
+                L.e(this, "Can not read HTTP metadata", url, e);
+            } catch (IOException e) {
+                //#debug
+                L.e(this, "Can not decode HTTP metadata", url, e);
+            }
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Store the HTTP caching headers of a new response. A response with no
+     * validator and no freshness information can not be revalidated, and
+     * storing it would make every get fetch the whole body again, so any
+     * previous headers are removed instead.
+     *
+     * @param url
+     * @param httpGetter
+     */
+    private void putResponseMetadata(final String url, final HttpGetter httpGetter) {
+        final long now = System.currentTimeMillis();
+        final HttpCacheMetadata metadata = HttpCacheMetadata.fromHeaders(httpGetter.getResponseHeaders(), now);
+
+        if (metadata.hasValidator() || !metadata.isStale(now)) {
+            putMetadata(url, metadata);
+        } else {
+            metadataCache.remove(url);
+            removeBytes(url + METADATA_KEY_SUFFIX);
+        }
+    }
+
+    private void putMetadata(final String url, final HttpCacheMetadata metadata) {
+        metadataCache.put(url, metadata);
+        try {
+            putBytes(url + METADATA_KEY_SUFFIX, metadata.toBytes());
+        } catch (FlashDatabaseException e) {
+            //#debug
+            L.e(this, "Can not write HTTP metadata", url, e);
+        } catch (IOException e) {
+            //#debug
+            L.e(this, "Can not encode HTTP metadata", url, e);
+        }
     }
 
 //#mdebug
@@ -313,8 +790,9 @@ public final class StaticWebCache extends StaticCache {
      * otherwise HTTP GET is used
      * @param priority
      * @param * *
-     * getType <code>StaticWebCache.GET_ANYWHERE</code>, <code>StaticWebCache.GET_WEB</code>
-     * or <code>StaticWebCache.GET_LOCAL</code>
+     * getType <code>StaticWebCache.GET_ANYWHERE</code>, <code>StaticWebCache.GET_WEB</code>,
+     * <code>StaticWebCache.GET_LOCAL</code> or
+     * <code>StaticWebCache.GET_STALE_WHILE_REVALIDATE</code>
      * @param nextTask - your <code>Task</code> which is given the data returned
      * and executed after the getAsync operation.
      * @param taskFactory - Specify a custom class for creating network
@@ -326,10 +804,19 @@ public final class StaticWebCache extends StaticCache {
      * specify an alternate CacheView, results may be slightly slower since to
      * maintain cache integrity they must execute serially after any pending
      * write operations.
+     * If a GET_ANYWHERE or GET_WEB for the same url is already in progress
+     * with the default CacheView and HttpTaskFactory, no second request is
+     * made. The nextTask receives the result of the in-flight request, and
+     * the Task returned only passes that result on. Canceling it does not
+     * affect the other callers. If the first caller cancels the get before it
+     * completes, the callers who joined it are canceled too. A GET_WEB only
+     * joins an in-flight GET_WEB since it must not be answered from the local
+     * cache. HTTP POST requests are never coalesced.
+     *
      * @return a new Task containing the result, or null if the
      * StaticWebCache.HttpTaskFactory decided not to honor the GET_WEB request
      * for application-specific reasons such as 'we don't need to do this
-     * anymore'.
+     * anymore', or the url failed recently (see setFailureCacheEnabled()).
      */
     public Task getAsync(final String url, final byte[] postMessage, final int priority, final int getType, final Task nextTask, StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView) {
         if (url == null) {
@@ -344,6 +831,25 @@ public final class StaticWebCache extends StaticCache {
 
         //#debug
         L.i(this, "getAsync getType=" + GET_TYPES[getType] + " priority=" + priority + "key=" + url, "nextTask=" + nextTask);
+        InFlightGet inFlightGet = null;
+        if ((getType == GET_ANYWHERE || getType == GET_WEB) && postMessage == null && cacheView == null && taskFactory == this.httpTaskFactory) {
+            final Long digest = digestOrNull(url);
+
+            if (digest != null) {
+                synchronized (inFlightGets) {
+                    final InFlightGet inFlight = (InFlightGet) inFlightGets.get(digest);
+
+                    if (inFlight != null && (getType == GET_ANYWHERE || inFlight.getType == GET_WEB)) {
+                        //#debug
+                        L.i(this, "getAsync joined in-flight " + GET_TYPES[inFlight.getType], url);
+
+                        return inFlight.join(nextTask);
+                    }
+                    inFlightGet = new InFlightGet(digest, getType);
+                    inFlightGets.put(digest, inFlightGet);
+                }
+            }
+        }
         switch (getType) {
             case GET_LOCAL:
                 getterPriority = boostHighPriorityToFastlane(priority);
@@ -355,14 +861,25 @@ public final class StaticWebCache extends StaticCache {
             case GET_ANYWHERE:
                 getterPriority = boostHighPriorityToFastlane(priority);
                 getterPriority = switchToSerialPriorityIfNotDefaultCacheView(getterPriority, cacheView);
-                getTask = new StaticWebCache.GetAnywhereTask(getterPriority, url, postMessage, nextTask, taskFactory, cacheView);
+                getTask = new StaticWebCache.GetAnywhereTask(getterPriority, url, postMessage, nextTask, taskFactory, cacheView, inFlightGet);
+                break;
+
+            case GET_STALE_WHILE_REVALIDATE:
+                getterPriority = switchToSerialPriorityIfNotDefaultCacheView(Task.FASTLANE_PRIORITY, cacheView);
+                getTask = new StaticWebCache.StaleWhileRevalidateTask(getterPriority, url, priority, nextTask, taskFactory, cacheView);
                 break;
 
             case GET_WEB:
                 getterPriority = preventWebTaskFromUsingFastLane(priority);
-                getTask = getHttpGetter(getterPriority, url, postMessage, nextTask, taskFactory, cacheView);
+                getTask = getHttpGetter(getterPriority, url, postMessage, nextTask, taskFactory, cacheView, inFlightGet);
                 if (getTask == null) {
-                    nextTask.cancel("StaticWebCache was told by " + taskFactory.getClass().getName() + " not to complete the get operation (null returned): " + url);
+                    final String s = "StaticWebCache was told by " + taskFactory.getClass().getName() + " not to complete the get operation (null returned): " + url;
+                    if (nextTask != null) {
+                        nextTask.cancel(s);
+                    }
+                    if (inFlightGet != null) {
+                        inFlightGet.cancel(s);
+                    }
                     return null;
                 }
                 break;
@@ -374,6 +891,132 @@ public final class StaticWebCache extends StaticCache {
         return getTask.fork();
     }
 
+    /**
+     * The digest used to identify in-flight gets for the same url
+     *
+     * @param url
+     * @return digest, or null if the url can not be digested in which case the
+     * get is not coalesced
+     */
+    private Long digestOrNull(final String url) {
+        try {
+            return new Long(CryptoUtils.getInstance().toDigest(url));
+        } catch (Exception e) {
+            //#debug
+            L.e(this, "Can not digest url, get will not be coalesced", url, e);
+            return null;
+        }
+    }
+
+    /**
+     * A get which other concurrent gets for the same url can join. While it
+     * has only one caller this is just the entry in the in-flight table. The
+     * Task which completes the get calls finish() or cancel() before its own
+     * chained Tasks run, and that removes it from the table.
+     *
+     * Each caller who joins is given its own Task, which is forked with the
+     * result.
+     */
+    private final class InFlightGet {
+
+        final Long digest;
+        final int getType;
+        private Vector joinedGetTasks = null; // Access only within synchronized(inFlightGets)
+
+        InFlightGet(final Long digest, final int getType) {
+            this.digest = digest;
+            this.getType = getType;
+        }
+
+        /**
+         * Add one caller. Call only within synchronized(inFlightGets) while
+         * this is in the in-flight table.
+         *
+         * @param nextTask
+         * @return the Task for this caller
+         */
+        Task join(final Task nextTask) {
+            final Task joinedGetTask = new Task(Task.FASTLANE_PRIORITY) {
+                protected Object exec(final Object in) {
+                    return in;
+                }
+
+                public boolean cancel(final String reason, final Throwable t) {
+                    final boolean canceled = super.cancel(reason, t);
+
+                    if (canceled) {
+                        leave(this);
+                    }
+
+                    return canceled;
+                }
+            }.setClassName("JoinedGet");
+
+            joinedGetTask.chain(nextTask);
+            if (joinedGetTasks == null) {
+                joinedGetTasks = new Vector();
+            }
+            joinedGetTasks.addElement(joinedGetTask);
+
+            return joinedGetTask;
+        }
+
+        /**
+         * A caller who joined canceled its Task
+         *
+         * @param joinedGetTask
+         */
+        private void leave(final Task joinedGetTask) {
+            synchronized (inFlightGets) {
+                if (joinedGetTasks != null) {
+                    joinedGetTasks.removeElement(joinedGetTask);
+                }
+            }
+        }
+
+        /**
+         * The get completed, pass the result to the callers who joined it
+         *
+         * @param out
+         */
+        void finish(final Object out) {
+            final Vector joined = end();
+
+            if (joined != null) {
+                for (int i = 0; i < joined.size(); i++) {
+                    ((Task) joined.elementAt(i)).set(out).fork();
+                }
+            }
+        }
+
+        /**
+         * The get failed or was canceled, cancel the callers who joined it
+         *
+         * @param reason
+         */
+        void cancel(final String reason) {
+            final Vector joined = end();
+
+            if (joined != null) {
+                for (int i = 0; i < joined.size(); i++) {
+                    ((Task) joined.elementAt(i)).cancel("The get of this url was canceled: " + reason);
+                }
+            }
+        }
+
+        private Vector end() {
+            synchronized (inFlightGets) {
+                if (inFlightGets.get(digest) == this) {
+                    inFlightGets.remove(digest);
+                }
+                final Vector joined = joinedGetTasks;
+                joinedGetTasks = null;
+
+                return joined;
+            }
+        }
+    }
+
     /**
      * HTTP operations are relatively slow and not allowed into the FASTLANE to
      * give local operations a way to keep the UI responsive even when there are
@@ -413,6 +1056,174 @@ public final class StaticWebCache extends StaticCache {
         }
     }
 
+    /**
+     * Retrieve many objects from the web in the background if they are not
+     * already cached locally, for example the thumbnails of a feed.
+     *
+     * Keys already in the cache are skipped without reading flash memory. The
+     * visible keys according to the policy are fetched first. Downloads stop
+     * when the byte budget is used or the network becomes slow, see
+     * PrefetchPolicy.
+     *
+     * Cancel the returned Task to stop the batch. Downloads already started
+     * complete since other gets may be waiting for the same url.
+     *
+     * @param keys
+     * @param policy
+     * @return a Task which completes with the number of values fetched, or is
+     * canceled if the batch is canceled
+     */
+    public Task prefetch(final String[] keys, final PrefetchPolicy policy) {
+        final Vector visible = new Vector();
+        final Vector other = new Vector();
+
+        for (int i = 0; i < keys.length; i++) {
+            try {
+                if (!containsDigest(CryptoUtils.getInstance().toDigest(keys[i]))) {
+                    if (policy.isVisible(keys[i])) {
+                        visible.addElement(keys[i]);
+                    } else {
+                        other.addElement(keys[i]);
+                    }
+                }
+            } catch (Exception e) {
+                //#debug
+                L.e(this, "Can not prefetch", keys[i], e);
+            }
+        }
+        for (int i = 0; i < other.size(); i++) {
+            visible.addElement(other.elementAt(i));
+        }
+        //#debug
+        L.i(this, "Prefetch", visible.size() + " of " + keys.length + " keys not cached");
+        final PrefetchBatch batch = new PrefetchBatch(visible, policy);
+        batch.startNext();
+
+        return batch;
+    }
+
+    /**
+     * The state of a prefetch(String[], PrefetchPolicy). The Task is forked
+     * to complete when the last download of the batch ends.
+     */
+    private final class PrefetchBatch extends Task {
+
+        private final Vector keys;
+        private final PrefetchPolicy policy;
+        // Access only within synchronized(this)
+        private int nextKey = 0;
+        private int activeCount = 0;
+        private int fetchedCount = 0;
+        private int bytesReceived = 0;
+        private boolean stopped = false;
+        private boolean ended = false;
+
+        PrefetchBatch(final Vector keys, final PrefetchPolicy policy) {
+            super(Task.FASTLANE_PRIORITY);
+
+            this.keys = keys;
+            this.policy = policy;
+            setClassName("PrefetchBatch");
+        }
+
+        protected Object exec(final Object in) {
+            return in;
+        }
+
+        synchronized void addBytes(final int byteCount) {
+            bytesReceived += byteCount;
+        }
+
+        /**
+         * Start downloads up to the concurrency limit, or complete the batch
+         * if there is nothing more to do
+         */
+        void startNext() {
+            while (true) {
+                final String key;
+                synchronized (this) {
+                    if (!stopped && nextKey < keys.size()) {
+                        final String k = (String) keys.elementAt(nextKey);
+                        if (bytesReceived >= policy.getMaxBytes() || HttpGetter.getAverageBaud(k) < policy.getMinBaud()) {
+                            //#debug
+                            L.i(this, "Prefetch budget or network speed limit reached", "bytes=" + bytesReceived + " baud=" + HttpGetter.getAverageBaud(k));
+                            stopped = true;
+                        }
+                    }
+                    if (stopped || nextKey >= keys.size()) {
+                        if (activeCount > 0 || ended) {
+                            return;
+                        }
+                        ended = true;
+                        break;
+                    }
+                    if (activeCount >= policy.getMaxConcurrent()) {
+                        return;
+                    }
+                    key = (String) keys.elementAt(nextKey++);
+                    activeCount++;
+                }
+                start(key);
+            }
+            if (getStatus() == Task.PENDING) {
+                final int count;
+                synchronized (this) {
+                    count = fetchedCount;
+                }
+                set(new Integer(count)).fork();
+            }
+        }
+
+        private void start(final String key) {
+            inFlightPrefetches.put(key, this);
+            final Task fetchEnded = new Task(Task.FASTLANE_PRIORITY) {
+                protected Object exec(final Object in) {
+                    end(key, true);
+
+                    return in;
+                }
+
+                public boolean cancel(final String reason, final Throwable t) {
+                    final boolean canceled = super.cancel(reason, t);
+
+                    if (canceled) {
+                        end(key, false);
+                    }
+
+                    return canceled;
+                }
+            }.setClassName("PrefetchEnded");
+            try {
+                getAsync(key, policy.getPriority(key), StaticWebCache.GET_ANYWHERE, fetchEnded);
+            } catch (RuntimeException e) {
+                //#debug
+                L.e(this, "Can not prefetch", key, e);
+                fetchEnded.cancel("Can not prefetch: " + key, e);
+            }
+        }
+
+        private void end(final String key, final boolean fetched) {
+            if (inFlightPrefetches.get(key) == this) {
+                inFlightPrefetches.remove(key);
+            }
+            synchronized (this) {
+                activeCount--;
+                if (fetched) {
+                    fetchedCount++;
+                }
+            }
+            startNext();
+        }
+
+        public boolean cancel(final String reason, final Throwable t) {
+            synchronized (this) {
+                stopped = true;
+            }
+
+            return super.cancel(reason, t);
+        }
+    }
+
     /**
      * This Task performs a StaticWebCache.GET_ANYWHERE operation on a Worker
      * thread in the background.
@@ -459,6 +1270,7 @@ public final class StaticWebCache extends StaticCache {
         final Task nextTask;
         final StaticWebCache.HttpTaskFactory taskFactory;
         final CacheView cacheView;
+        final InFlightGet inFlightGet;
 
         /**
          * Create a
@@ -482,8 +1294,10 @@ public final class StaticWebCache extends StaticCache {
          * @param key
          * @param cachePriorityChar
          * @param postMessage
+         * @param inFlightGet - null unless other gets of the url can join this
+         * one
          */
-        private GetAnywhereTask(final int priority, final String key, final byte[] postMessage, final Task nextTask, final StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView) {
+        private GetAnywhereTask(final int priority, final String key, final byte[] postMessage, final Task nextTask, final StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView, final InFlightGet inFlightGet) {
             super(priority, key);
 
             this.postMessage = postMessage;
@@ -491,6 +1305,17 @@ public final class StaticWebCache extends StaticCache {
             this.nextTask = nextTask;
             this.taskFactory = taskFactory;
             this.cacheView = cacheView;
+            this.inFlightGet = inFlightGet;
+        }
+
+        public boolean cancel(final String reason, final Throwable t) {
+            final boolean canceled = super.cancel(reason, t);
+
+            if (canceled && inFlightGet != null) {
+                inFlightGet.cancel(reason);
+            }
+
+            return canceled;
         }
 
         protected Object exec(final Object in) {
@@ -506,10 +1331,23 @@ public final class StaticWebCache extends StaticCache {
                     //#debug
                     L.i(this, "StaticWebCache.HttpGetterTask.exec: GetAnywhereTask get locally", url);
                     out = synchronousGet(url, cacheView);
+                    if (out != null && revalidationEnabled && postMessage == null) {
+                        final HttpCacheMetadata metadata = getMetadata(url);
+
+                        if (metadata != null && metadata.isStale(System.currentTimeMillis())) {
+                            final Task httpGetter = getRevalidatingHttpGetter(preventWebTaskFromUsingFastLane(priority), url, metadata, out, nextTask, taskFactory, cacheView, inFlightGet);
+                            if (httpGetter != null) {
+                                //#debug
+                                L.i(this, "Local value is stale, revalidate", url);
+                                httpGetter.fork();
+                                return null;
+                            }
+                        }
+                    }
                     if (out == null) {
                         //#debug
                         L.i(this, "StaticWebCache.HttpGetterTask.exec: GetAnywhereTask did not found locally, get from the web", url);
-                        final Task httpGetter = getHttpGetter(preventWebTaskFromUsingFastLane(priority), url, postMessage, nextTask, taskFactory, cacheView);
+                        final Task httpGetter = getHttpGetter(preventWebTaskFromUsingFastLane(priority), url, postMessage, nextTask, taskFactory, cacheView, inFlightGet);
                         if (httpGetter == null) {
                             //#debug
                             L.i(this, getClassName() + " was told by " + StaticWebCache.this.httpTaskFactory.getClass().getName() + " not to complete the HTTP operation at this time by returning a null HttpGetter", url);
@@ -523,6 +1361,9 @@ public final class StaticWebCache extends StaticCache {
                         }
                     } else {
                         chain(nextTask);
+                        if (inFlightGet != null) {
+                            inFlightGet.finish(out);
+                        }
                     }
                 } catch (FlashDatabaseException e) {
                     //#debug
@@ -560,9 +1401,17 @@ public final class StaticWebCache extends StaticCache {
      * @param nextTask
      * @param taskFactory
      * @param skipHeap
+     * @param inFlightGet - null unless other gets of the url can join this
+     * one
      * @return
      */
-    private Task getHttpGetter(final int priority, final String url, final byte[] postMessage, final Task nextTask, final StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView) {
+    private Task getHttpGetter(final int priority, final String url, final byte[] postMessage, final Task nextTask, final StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView, final InFlightGet inFlightGet) {
+        final boolean rememberFailure = failureCacheEnabled && postMessage == null;
+        if (rememberFailure && isFailedGet(url)) {
+            //#debug
+            L.i(this, "Recent failure, no HttpGetter", url);
+            return null;
+        }
         final HttpGetter httpGetter = taskFactory.getHttpTask(priority, url, postMessage);
 
         if (httpGetter == null) {
@@ -570,6 +1419,10 @@ public final class StaticWebCache extends StaticCache {
             L.i(this, taskFactory.getClass().getName() + " signaled the HttpGetter is no longer needed- aborting", url);
             return null;
         }
+        setCompression(httpGetter);
+        if (resumeEnabled && postMessage == null) {
+            setResume(url, httpGetter);
+        }
 
         //#debug
         L.i(this, "getHttpGetter(" + url + ")", L.CRLF + httpGetter);
@@ -587,10 +1440,27 @@ public final class StaticWebCache extends StaticCache {
                 if (!taskFactory.validateHttpResponse(httpGetter, bytesReference.getBytes())) {
                     //#debug
                     L.i(this, "Rejected server response", httpGetter.toString());
+                    if (rememberFailure) {
+                        putFailedGet(url, httpGetter.getResponseCode());
+                    }
                     cancel("StaticWebCache.GetWebTask failed HttpTaskFactory validation: " + url);
                 } else {
                     try {
+                        markStoredCompressed(url, httpGetter);
                         out = put(url, bytesReference, cacheView, null);
+                        if (revalidationEnabled && postMessage == null) {
+                            putResponseMetadata(url, httpGetter);
+                        }
+                        if (resumeEnabled && postMessage == null) {
+                            removePartialContent(url);
+                        }
+                        final PrefetchBatch batch = (PrefetchBatch) inFlightPrefetches.get(url);
+                        if (batch != null) {
+                            batch.addBytes(bytesReference.getBytes().length);
+                        }
+                        if (inFlightGet != null) {
+                            inFlightGet.finish(out);
+                        }
                     } catch (FlashDatabaseException ex) {
                         //#debug
                         L.e(this, "Can not put web service response to heap cache", url, ex);
@@ -600,11 +1470,311 @@ public final class StaticWebCache extends StaticCache {
 
                 return out;
             }
+
+            public boolean cancel(final String reason, final Throwable t) {
+                if (rememberFailure && httpGetter.isFailed()) {
+                    putFailedGet(url, httpGetter.getResponseCode());
+                }
+                final boolean canceled = super.cancel(reason, t);
+
+                if (canceled && inFlightGet != null) {
+                    inFlightGet.cancel(reason);
+                }
+
+                return canceled;
+            }
         }.setClassName("ValidateAndWriteWebServiceReponse").chain(nextTask);
 
         return httpGetter.chain(validationTask);
     }
 
+    /**
+     * Conditional GET of a stale local value. The nextTask receives the new
+     * value if the server sends one, otherwise the local value.
+     *
+     * @param priority
+     * @param url
+     * @param metadata
+     * @param localValue
+     * @param nextTask
+     * @param taskFactory
+     * @param cacheView
+     * @param inFlightGet - null unless other gets of the url can join this
+     * one
+     * @return the HttpGetter, not yet forked, or null if the taskFactory
+     * decided not to fetch at this time
+     */
+    private Task getRevalidatingHttpGetter(final int priority, final String url, final HttpCacheMetadata metadata, final Object localValue, final Task nextTask, final StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView, final InFlightGet inFlightGet) {
+        final HttpGetter httpGetter = taskFactory.getHttpTask(priority, url, null);
+
+        if (httpGetter == null) {
+            //#debug
+            L.i(this, taskFactory.getClass().getName() + " signaled the revalidation HttpGetter is not needed, using local value", url);
+            return null;
+        }
+        metadata.addConditionalHeaders(httpGetter);
+        setCompression(httpGetter);
+
+        final Task revalidationTask = new Task(Task.FASTLANE_PRIORITY) {
+            protected Object exec(final Object in) {
+                Object out = localValue;
+
+                if (httpGetter.getResponseCode() == HttpGetter.HTTP_304_NOT_MODIFIED) {
+                    //#debug
+                    L.i(this, "Not modified, keep local value", url);
+                    putMetadata(url, metadata.refresh(httpGetter.getResponseHeaders(), System.currentTimeMillis()));
+                } else if (in instanceof LOR && taskFactory.validateHttpResponse(httpGetter, ((LOR) in).getBytes())) {
+                    try {
+                        markStoredCompressed(url, httpGetter);
+                        out = put(url, (LOR) in, cacheView, null);
+                        putResponseMetadata(url, httpGetter);
+                    } catch (FlashDatabaseException ex) {
+                        //#debug
+                        L.e(this, "Can not put revalidated web service response to cache", url, ex);
+                    }
+                } else {
+                    //#debug
+                    L.i(this, "Rejected revalidation response, using stale local value", httpGetter.toString());
+                }
+                if (inFlightGet != null) {
+                    inFlightGet.finish(out);
+                }
+                if (nextTask != null) {
+                    nextTask.set(out).fork();
+                }
+
+                return out;
+            }
+
+            public boolean cancel(final String reason, final Throwable t) {
+                final boolean canceled = super.cancel(reason, t);
+
+                if (canceled) {
+                    //#debug
+                    L.i(this, "Revalidation failed, using stale local value", url + " : " + reason);
+                    if (inFlightGet != null) {
+                        inFlightGet.finish(localValue);
+                    }
+                    if (nextTask != null) {
+                        nextTask.set(localValue).fork();
+                    }
+                }
+
+                return canceled;
+            }
+        }.setClassName("RevalidateWebServiceResponse");
+
+        return httpGetter.chain(revalidationTask);
+    }
+
+    /**
+     * The local part of a GET_STALE_WHILE_REVALIDATE. A local value is passed
+     * to the nextTask at once and refreshed in the background, otherwise the
+     * value is fetched from the web.
+     */
+    private final class StaleWhileRevalidateTask extends Task {
+
+        final int webPriority;
+        final Task nextTask;
+        final StaticWebCache.HttpTaskFactory taskFactory;
+        final CacheView cacheView;
+
+        StaleWhileRevalidateTask(final int priority, final String key, final int webPriority, final Task nextTask, final StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView) {
+            super(priority, key);
+
+            this.webPriority = webPriority;
+            this.nextTask = nextTask;
+            this.taskFactory = taskFactory;
+            this.cacheView = cacheView;
+            setClassName("StaleWhileRevalidate");
+        }
+
+        protected Object exec(final Object in) {
+            if (!(in instanceof String)) {
+                chain(nextTask);
+                cancel(getClassName() + " got bad url: " + in);
+                return null;
+            }
+            final String url = (String) in;
+            final Object out;
+            try {
+                out = synchronousGet(url, cacheView);
+            } catch (FlashDatabaseException e) {
+                //#debug
+                L.e(this, "Can not get", url, e);
+                chain(nextTask);
+                cancel("Can not GET_STALE_WHILE_REVALIDATE, in=" + url, e);
+                return null;
+            }
+
+            if (out == null) {
+                //#debug
+                L.i(this, "Not found locally, get from the web", url);
+                final Task httpGetter = getHttpGetter(preventWebTaskFromUsingFastLane(webPriority), url, null, nextTask, taskFactory, cacheView, null);
+                if (httpGetter == null) {
+                    final String s = getClassName() + " was told by " + taskFactory.getClass().getName() + " not to complete the HTTP operation at this time by returning a null HttpGetter: " + url;
+                    cancel(s);
+                    if (nextTask != null) {
+                        nextTask.cancel(s);
+                    }
+                } else {
+                    httpGetter.fork();
+                }
+
+                return null;
+            }
+            chain(nextTask);
+            refresh(url, taskFactory, cacheView);
+
+            return out;
+        }
+    }
+
+    /**
+     * Fetch a new copy of a value already in the local cache at
+     * IDLE_PRIORITY. Only one refresh of each url runs at a time. If HTTP
+     * caching headers are kept and the value is still fresh, nothing is done.
+     *
+     * @param url
+     * @param taskFactory
+     * @param cacheView
+     */
+    private void refresh(final String url, final StaticWebCache.HttpTaskFactory taskFactory, final CacheView cacheView) {
+        final HttpCacheMetadata metadata = revalidationEnabled ? getMetadata(url) : null;
+
+        if (metadata != null && !metadata.isStale(System.currentTimeMillis())) {
+            //#debug
+            L.i(this, "Local value is fresh, no refresh", url);
+            return;
+        }
+        if (failureCacheEnabled && isFailedGet(url)) {
+            //#debug
+            L.i(this, "Recent failure, no refresh", url);
+            return;
+        }
+        synchronized (inFlightRefreshes) {
+            if (inFlightRefreshes.containsKey(url)) {
+                //#debug
+                L.i(this, "Refresh already in progress", url);
+                return;
+            }
+            final HttpGetter httpGetter = taskFactory.getHttpTask(Task.IDLE_PRIORITY, url, null);
+            if (httpGetter == null) {
+                //#debug
+                L.i(this, taskFactory.getClass().getName() + " signaled the refresh HttpGetter is not needed", url);
+                return;
+            }
+            if (metadata != null) {
+                metadata.addConditionalHeaders(httpGetter);
+            }
+            setCompression(httpGetter);
+            final Task refreshTask = new Task(Task.FASTLANE_PRIORITY) {
+                protected Object exec(final Object in) {
+                    endRefresh(url, this);
+                    if (httpGetter.getResponseCode() == HttpGetter.HTTP_304_NOT_MODIFIED && metadata != null) {
+                        //#debug
+                        L.i(this, "Not modified, keep local value", url);
+                        putMetadata(url, metadata.refresh(httpGetter.getResponseHeaders(), System.currentTimeMillis()));
+                        return null;
+                    }
+                    if (!(in instanceof LOR) || !taskFactory.validateHttpResponse(httpGetter, ((LOR) in).getBytes())) {
+                        //#debug
+                        L.i(this, "Rejected refresh response, keep local value", httpGetter.toString());
+                        return null;
+                    }
+                    if (revalidationEnabled) {
+                        putResponseMetadata(url, httpGetter);
+                    }
+                    try {
+                        if (isUnchanged(url, ((LOR) in).getBytes())) {
+                            //#debug
+                            L.i(this, "Refresh unchanged, keep local value", url);
+                            return null;
+                        }
+                        markStoredCompressed(url, httpGetter);
+                        final Object out = put(url, (LOR) in, cacheView, null);
+                        final Object[] listeners = refreshListenerDelegate.getAllListeners();
+                        for (int i = 0; i < listeners.length; i++) {
+                            ((RefreshListener) listeners[i]).valueRefreshed(url, out);
+                        }
+
+                        return out;
+                    } catch (FlashDatabaseException e) {
+                        //#debug
+                        L.e(this, "Can not put refreshed web service response to cache", url, e);
+                        return null;
+                    }
+                }
+
+                public boolean cancel(final String reason, final Throwable t) {
+                    endRefresh(url, this);
+                    if (failureCacheEnabled && httpGetter.isFailed()) {
+                        putFailedGet(url, httpGetter.getResponseCode());
+                    }
+
+                    return super.cancel(reason, t);
+                }
+            }.setClassName("RefreshWebServiceResponse");
+            inFlightRefreshes.put(url, refreshTask);
+            httpGetter.chain(refreshTask).fork();
+        }
+    }
+
+    private void endRefresh(final String url, final Task refreshTask) {
+        synchronized (inFlightRefreshes) {
+            if (inFlightRefreshes.get(url) == refreshTask) {
+                inFlightRefreshes.remove(url);
+            }
+        }
+    }
+
+    /**
+     * Compare the digest of new bytes from the server with the bytes now
+     * stored
+     *
+     * @param url
+     * @param bytes
+     * @return true if the stored bytes are the same
+     * @throws FlashDatabaseException
+     */
+    private boolean isUnchanged(final String url, final byte[] bytes) throws FlashDatabaseException {
+        final byte[] stored = getBytes(url);
+
+        if (stored == null || stored.length != bytes.length) {
+            return false;
+        }
+        try {
+            final CryptoUtils cryptoUtils = CryptoUtils.getInstance();
+
+            return cryptoUtils.toDigest(stored) == cryptoUtils.toDigest(bytes);
+        } catch (DigestException e) {
+            //#debug
+            L.e(this, "Can not compare refreshed value", url, e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e(this, "Can not compare refreshed value", url, e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Implement this to be notified when a GET_STALE_WHILE_REVALIDATE
+     * background refresh brings a new value. The nextTask of that get already
+     * received the old value.
+     */
+    public interface RefreshListener {
+
+        /**
+         * The value has changed on the server and the new value is now in the
+         * cache. This is called on a Worker thread.
+         *
+         * @param url
+         * @param value the new value in use form
+         */
+        void valueRefreshed(String url, Object value);
+    }
+
     /**
      * If you override this default implementation, you can add custom header
      * parameters to the HTTP request and act on custom header fields such as
@@ -633,6 +1803,7 @@ public final class StaticWebCache extends StaticCache {
          * otherwise poorly performing 3G network.
          */
         public final RollingAverage averageGetTimeMillis = new RollingAverage(10, 700.0f);
+        private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
 
         private final class TimerEndTask extends Task {
 
@@ -680,6 +1851,7 @@ public final class StaticWebCache extends StaticCache {
                 L.i(this, "Generating a new HttpPoster", url + " postDataLength=" + postMessage.length + " priority=" + priority);
                 httpGetter = new HttpPoster(priority, url, postMessage);
             }
+            httpGetter.setRetryPolicy(retryPolicy);
             if (getSequencerEnabled) {
                 httpGetter.chain(new TimerEndTask(httpGetter));
             }
@@ -687,6 +1859,27 @@ public final class StaticWebCache extends StaticCache {
             return httpGetter;
         }
 
+        /**
+         * Set the retry policy given to each HTTP task this factory makes
+         *
+         * @param retryPolicy
+         */
+        public void setRetryPolicy(final RetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new NullPointerException("HttpTaskFactory retry policy can not be null, use RetryPolicy.NONE");
+            }
+            this.retryPolicy = retryPolicy;
+        }
+
+        /**
+         * Get the retry policy given to each HTTP task this factory makes
+         *
+         * @return
+         */
+        public RetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
         /**
          * Validate the server response.
          *
@@ -32,6 +32,9 @@ import java.io.InputStream;
 /**
  * The user of this interface can directly read from the InputStream of the
  * HttpGetter
+ *
+ * Extend ChunkedStreamReader instead if you want the body pushed to you in
+ * small chunks as it arrives.
  */
 public interface StreamReader {
 
@@ -85,7 +85,12 @@ public class JSONGetter extends HttpGetter {
         String value = null;
         
         try {
-            value = new String(((LOR) super.exec(in)).getBytes(), "UTF-8").trim();
+            final LOR response = (LOR) super.exec(in);
+            if (isDeferred()) {
+                // Waiting for a connection or a retry, exec() runs again later
+                return null;
+            }
+            value = new String(response.getBytes(), "UTF-8").trim();
             if (value.startsWith("[")) {
                 // Parser expects non-array base object- add one
                 value = "{\"base:\"" + value + "}";
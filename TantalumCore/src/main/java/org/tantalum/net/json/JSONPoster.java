@@ -31,6 +31,7 @@ import java.io.UnsupportedEncodingException;
 import org.tantalum.Task;
 import org.tantalum.net.HttpPoster;
 import org.tantalum.util.L;
+import org.tantalum.util.LOR;
 
 /**
  * A convenience class for sending HTTP POST to a web server
@@ -88,7 +89,12 @@ public abstract class JSONPoster extends HttpPoster {
         String value = null;
 
         try {
-            value = new String((byte[]) super.exec(key), "UTF8").trim();
+            final LOR response = (LOR) super.exec(key);
+            if (isDeferred()) {
+                // Waiting for a connection or a retry, exec() runs again later
+                return null;
+            }
+            value = new String(response.getBytes(), "UTF8").trim();
             if (value.startsWith("[")) {
                 // Parser expects non-array base object- add one
                 value = "{\"base:\"" + value + "}";
@@ -55,6 +55,11 @@ public abstract class FlashCache {
      * purposes.
      */
     public final char priority;
+    /*
+     * Stored in each cache to record which CryptoUtils digest algorithm the
+     * keys were written with
+     */
+    private static final String DIGEST_ALGORITHM_KEY = "\ntantalum-digest-algorithm";
     /**
      *
      */
@@ -147,7 +152,147 @@ public abstract class FlashCache {
         //#debug
         L.i(this, "get(" + key + ")", "digest=" + StringUtils.byteArrayToHexString(CryptoUtils.getInstance().longToBytes(digest)));
 
-        return get(digest, true);
+        return get(key, digest);
+    }
+
+    /**
+     * Get the object from flash memory when the caller already knows the
+     * digest of the key.
+     *
+     * If the current key digest is not cryptographic, the stored key is
+     * compared and a digest collision is treated as a cache miss. With
+     * <code>CryptoUtils.DIGEST_XXHASH64</code> every hit therefore costs a
+     * second flash read, <code>getKey()</code>, in addition to the value. The
+     * faster digest pays off only if keys are hashed more often than values
+     * are read from flash.
+     *
+     * @param key
+     * @param digest
+     * @return the stored bytes, or null if not found or the digest collides
+     * with a different key
+     * @throws DigestException
+     * @throws FlashDatabaseException
+     */
+    public final byte[] get(final String key, final long digest) throws DigestException, FlashDatabaseException {
+        final byte[] bytes = get(digest, true);
+
+        if (bytes != null && !CryptoUtils.getInstance().isCryptographic()) {
+            final String storedKey = getKey(digest);
+
+            if (storedKey != null && !storedKey.equals(key)) {
+                //#debug
+                L.i(this, "Digest collision, treated as a miss", "key=" + key + " storedKey=" + storedKey);
+                return null;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Re-key existing contents if they were stored with a different key digest
+     * algorithm than the current
+     * <code>CryptoUtils.getDigestAlgorithm()</code>.
+     *
+     * The algorithm is recorded in the cache itself, so after the first call
+     * this costs one small read. That record is not a cached value: use
+     * <code>isDigestAlgorithmMarker()</code> to keep it out of eviction and
+     * clearing. Values whose key can not be read back are removed since they
+     * can no longer be found.
+     *
+     * @throws DigestException
+     * @throws FlashDatabaseException
+     */
+    public void migrateDigests() throws DigestException, FlashDatabaseException {
+        final CryptoUtils cryptoUtils = CryptoUtils.getInstance();
+        final int algorithm = cryptoUtils.getDigestAlgorithm();
+        final byte[] marker = getDigestAlgorithmMarker();
+
+        if (marker != null && marker.length == 1 && marker[0] == algorithm) {
+            return;
+        }
+        if (marker != null || algorithm != CryptoUtils.DIGEST_MD5) {
+            final Vector digests = new Vector();
+            final Enumeration enumeration = getDigests();
+
+            while (enumeration.hasMoreElements()) {
+                digests.addElement(enumeration.nextElement());
+            }
+            //#debug
+            L.i(this, "Migrating key digests to algorithm " + algorithm, "count=" + digests.size());
+            for (int i = 0; i < digests.size(); i++) {
+                final long oldDigest = ((Long) digests.elementAt(i)).longValue();
+                final String key = getKey(oldDigest);
+
+                try {
+                    if (key == null) {
+                        removeData(oldDigest);
+                    } else if (!key.equals(DIGEST_ALGORITHM_KEY) && cryptoUtils.toDigest(key) != oldDigest) {
+                        final byte[] bytes = get(oldDigest, false);
+
+                        removeData(oldDigest);
+                        if (bytes != null) {
+                            put(key, bytes);
+                        }
+                    }
+                } catch (UnsupportedEncodingException ex) {
+                    removeData(oldDigest);
+                } catch (FlashFullException ex) {
+                    //#debug
+                    L.e(this, "Flash full during digest migration, value dropped", key, ex);
+                }
+            }
+        }
+        try {
+            put(DIGEST_ALGORITHM_KEY, new byte[]{(byte) algorithm});
+        } catch (FlashFullException ex) {
+            //#debug
+            L.e(this, "Can not store digest algorithm marker", "" + algorithm, ex);
+        }
+    }
+
+    /**
+     * Check if a digest is the record of the key digest algorithm written by
+     * <code>migrateDigests()</code>. It is part of the cache format rather
+     * than a cached value, so it must not be evicted to free space.
+     *
+     * @param digest
+     * @return
+     * @throws DigestException
+     */
+    public final boolean isDigestAlgorithmMarker(final long digest) throws DigestException {
+        return digest == toDigest(DIGEST_ALGORITHM_KEY, CryptoUtils.getInstance().getDigestAlgorithm());
+    }
+
+    private byte[] getDigestAlgorithmMarker() throws DigestException, FlashDatabaseException {
+        final int algorithm = CryptoUtils.getInstance().getDigestAlgorithm();
+        final int[] candidates = {algorithm, algorithm == CryptoUtils.DIGEST_MD5 ? CryptoUtils.DIGEST_XXHASH64 : CryptoUtils.DIGEST_MD5};
+
+        /*
+         * The marker is itself stored under a digest, so look for it with
+         * each algorithm it may have been written with.
+         */
+        for (int i = 0; i < candidates.length; i++) {
+            final long digest = toDigest(DIGEST_ALGORITHM_KEY, candidates[i]);
+            final byte[] bytes = get(digest, false);
+
+            if (bytes != null) {
+                if (candidates[i] != algorithm) {
+                    removeData(digest);
+                }
+                return bytes;
+            }
+        }
+
+        return null;
+    }
+
+    private static long toDigest(final String key, final int algorithm) throws DigestException {
+        try {
+            return CryptoUtils.getInstance().toDigest(key.getBytes("UTF-8"), algorithm);
+        } catch (UnsupportedEncodingException ex) {
+            throw new DigestException("Can not encode key: " + ex);
+        }
     }
 
     /**
@@ -171,6 +316,25 @@ public abstract class FlashCache {
      */
     public abstract void put(String key, byte[] bytes) throws DigestException, FlashFullException, FlashDatabaseException;
 
+    /**
+     * Store several data objects to persistent memory as one batch
+     *
+     * The default implementation calls put() for each. Implementations should
+     * override this if they can share one transaction or lock across the
+     * batch. If an exception is thrown, some values may already be stored.
+     *
+     * @param keys
+     * @param values - the bytes for each key, in the same order
+     * @throws DigestException
+     * @throws FlashFullException
+     * @throws FlashDatabaseException
+     */
+    public void putAll(final String[] keys, final byte[][] values) throws DigestException, FlashFullException, FlashDatabaseException {
+        for (int i = 0; i < keys.length; i++) {
+            put(keys[i], values[i]);
+        }
+    }
+
     /**
      * Remove the data object from persistent memory
      *
@@ -237,6 +401,50 @@ public abstract class FlashCache {
      */
     public abstract void maintainDatabase();
 
+    /**
+     * Run the StartupTask for each key in a background Task so the cache can
+     * be used at once. An implementation calls this after opening when it has
+     * not already read every key, for example because the index was loaded
+     * from a snapshot.
+     *
+     * The StartupTask may run concurrently with other use of the cache, and a
+     * key removed before it is reached is skipped.
+     *
+     * @param startupTask - may be null
+     * @return the forked Task, or null if there is no startupTask
+     */
+    protected final Task forkStartupTask(final StartupTask startupTask) {
+        if (startupTask == null) {
+            return null;
+        }
+
+        return new Task(Task.IDLE_PRIORITY) {
+            protected Object exec(final Object in) throws CancellationException, TimeoutException, InterruptedException {
+                final Enumeration digests = getDigests();
+
+                while (digests.hasMoreElements() && !isCanceled() && !Task.isShuttingDown()) {
+                    final long digest = ((Long) digests.nextElement()).longValue();
+
+                    try {
+                        final String key = getKey(digest);
+
+                        if (key != null && !key.equals(DIGEST_ALGORITHM_KEY)) {
+                            startupTask.execForEachKey(FlashCache.this, key);
+                        }
+                    } catch (DigestException e) {
+                        //#debug
+                        L.e(FlashCache.this, "StartupTask failed", Long.toString(digest, 16), e);
+                    } catch (FlashDatabaseException e) {
+                        //#debug
+                        L.e(FlashCache.this, "StartupTask failed", Long.toString(digest, 16), e);
+                    }
+                }
+
+                return in;
+            }
+        }.setClassName("StartupTask").fork();
+    }
+
     /**
      * Run finalization tasks and then close all cache resources
      *
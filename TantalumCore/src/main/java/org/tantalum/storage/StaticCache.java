@@ -31,6 +31,9 @@ import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
 import java.security.DigestException;
 import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.TimerTask;
+import java.util.Vector;
 import org.tantalum.CancellationException;
 import org.tantalum.PlatformUtils;
 import org.tantalum.Task;
@@ -39,9 +42,10 @@ import org.tantalum.util.Comparator;
 import org.tantalum.util.CryptoUtils;
 import org.tantalum.util.L;
 import org.tantalum.util.LOR;
-import org.tantalum.util.LRUVector;
+import org.tantalum.util.LongLongLRUMap;
+import org.tantalum.util.SLRUHashCache;
 import org.tantalum.util.SortedVector;
-import org.tantalum.util.WeakHashCache;
+import org.tantalum.util.Weigher;
 
 /**
  * A ramCache which returns Objects based on a String key asynchronously from
@@ -82,8 +86,45 @@ public class StaticCache {
      * A heap memory ramCache in the form of a Hashtable from which data can be
      * removed automatically by the virtual machine to free up memory (automatic
      * memory management).
+     *
+     * Optionally, setRAMCacheMaxWeight() keeps a bounded set of the most
+     * useful values by strong reference so they are not garbage collected.
      */
-    protected final WeakHashCache ramCache = new WeakHashCache();
+    protected final SLRUHashCache ramCache;
+    /**
+     * Digests of the values in flash memory in least-recently-used-first order,
+     * with the byte length of each value or UNKNOWN_SIZE if it has not been
+     * read since startup. This lets clearSpace() pick what to delete without
+     * reading values from flash just to learn their size.
+     */
+    private final LongLongLRUMap flashAccessOrder = new LongLongLRUMap();
+    private static final long UNKNOWN_SIZE = -1;
+    /*
+     * Values accepted by put() but not yet written to flash memory, by Long
+     * digest. Reads are served from here until the write completes.
+     *
+     * Always access within a synchronized(pendingWrites) block
+     */
+    private final Hashtable pendingWrites = new Hashtable();
+    /*
+     * PendingWrite entries not yet taken by a flush, in put() order
+     * 
+     * Always access within a synchronized(pendingWrites) block
+     */
+    private final Vector writeQueue = new Vector();
+    /*
+     * PendingWrite entries taken by the flush now in progress, by Long digest.
+     * A remove() meanwhile marks the entry so the flush deletes the value
+     * again once it is written.
+     *
+     * Always access within a synchronized(pendingWrites) block
+     */
+    private final Hashtable flushingWrites = new Hashtable();
+    private int writeQueueBytes = 0;
+    private boolean flushScheduled = false;
+    private TimerTask flushTimerTask = null;
+    private int writeBehindDelay = 0;
+    private int writeBehindMaxBytes = 64 * 1024;
     /**
      * This character serves as a market tag to distinguish the contents of this
      * ramCache from other caches which may also be stored in flash memory in a
@@ -112,6 +153,11 @@ public class StaticCache {
      */
     //#debug
     private volatile boolean flashCacheEnabled = true;
+    /*
+     * Supporting records stored with putBytes() under the key of a value plus
+     * one of these suffixes are removed with the value
+     */
+    private volatile String[] supportingKeySuffixes = null;
 
     /**
      * Get the previously-created cache with the same parameters
@@ -190,6 +236,7 @@ public class StaticCache {
         }
         this.cachePriorityChar = priority;
         this.defaultCacheView = defaultCacheView;
+        ramCache = new SLRUHashCache(defaultCacheView instanceof Weigher ? (Weigher) defaultCacheView : null);
         flashCache = PlatformUtils.getInstance().getFlashCache(priority, cacheType, startupTask);
         try {
             init();
@@ -203,6 +250,16 @@ public class StaticCache {
         L.i(this, "StaticCache created", toString());
     }
 
+    private boolean isDigestAlgorithmMarker(final long digest) {
+        try {
+            return flashCache.isDigestAlgorithmMarker(digest);
+        } catch (DigestException ex) {
+            //#debug
+            L.e(this, "Can not check digest", Long.toString(digest, 16), ex);
+            return false;
+        }
+    }
+
     /**
      * Load the keys from flash memory
      *
@@ -212,11 +269,24 @@ public class StaticCache {
      * @throws FlashDatabaseException
      */
     private void init() throws FlashDatabaseException {
+        try {
+            flashCache.migrateDigests();
+        } catch (DigestException ex) {
+            //#debug
+            L.e(this, "Can not migrate key digests", flashCache.toString(), ex);
+        }
         final Enumeration digests = flashCache.getDigests();
         
         synchronized (ramCache) {
             while (digests.hasMoreElements()) {
-                ramCache.markContains((Long) digests.nextElement());
+                final Long digest = (Long) digests.nextElement();
+
+                if (isDigestAlgorithmMarker(digest.longValue())) {
+                    // Not a value, so never evicted
+                    continue;
+                }
+                ramCache.markContains(digest);
+                flashAccessOrder.put(digest.longValue(), UNKNOWN_SIZE);
             }
         }
         new Task(Task.SHUTDOWN) {
@@ -224,6 +294,7 @@ public class StaticCache {
                 try {
                     //#debug
                     L.i(this, "Closing FlashCache \'" + flashCache.priority + " on shutdown", StaticCache.this.toString());
+                    flushPendingWrites();
                     flashCache.close();
                 } catch (FlashDatabaseException ex) {
                     //#debug
@@ -253,6 +324,23 @@ public class StaticCache {
     }
 //#enddebug
 
+    /**
+     * Set how much of the RAM cache is held by strong reference and so not
+     * lost to garbage collection.
+     *
+     * If the default CacheView is a Weigher, such as a platform image view,
+     * weight is the value size in heap memory. Otherwise each value has weight
+     * 1 and this is the number of values.
+     *
+     * The default is 0, in which case all values in RAM are weak references
+     * and may be garbage collected at any time.
+     *
+     * @param maxWeight
+     */
+    public void setRAMCacheMaxWeight(final int maxWeight) {
+        ramCache.setMaxWeight(maxWeight);
+    }
+
     /**
      * Add a Task which will be run compare the cache closes.
      *
@@ -289,10 +377,11 @@ public class StaticCache {
         }
         final long startTime = System.currentTimeMillis();
         //#enddebug
-        final Object o = defaultCacheView.convertToUseForm(key, bytesReference);
+        final Object o = convertToUseForm(key, bytesReference, defaultCacheView);
 
         final Long digest = new Long(CryptoUtils.getInstance().toDigest(key));
         flashCache.markLeastRecentlyUsed(digest);
+        flashAccessOrder.touch(digest.longValue());
         ramCache.put(digest, o);
         //#debug
         L.i(this, "End convert, elapsedTime=" + (System.currentTimeMillis() - startTime) + "ms", key);
@@ -300,6 +389,21 @@ public class StaticCache {
         return o;
     }
 
+    /**
+     * Convert bytes from flash or the network to the form the application
+     * uses. The default passes the bytes to the CacheView. Override to first
+     * transform the bytes, for example to decode a compressed format in which
+     * they are stored.
+     *
+     * @param key
+     * @param bytesReference
+     * @param cacheView
+     * @return
+     */
+    protected Object convertToUseForm(final String key, final LOR bytesReference, final CacheView cacheView) {
+        return cacheView.convertToUseForm(key, bytesReference);
+    }
+
     /**
      * Synchronously return the hash object
      *
@@ -317,6 +421,7 @@ public class StaticCache {
                 //#debug            
                 L.i(this, "Possible StaticCache hit in RAM (might be expired WeakReference)", key);
                 flashCache.markLeastRecentlyUsed(digest);
+                flashAccessOrder.touch(digest.longValue());
             }
 
             return o;
@@ -428,7 +533,7 @@ public class StaticCache {
                 byte[] bytes;
                 //#debug                
                 if (flashCacheEnabled) {
-                    bytes = flashCache.get(key);
+                    bytes = getFlashOrPendingWrite(key);
 //#mdebug
                 } else {
                     bytes = null;
@@ -438,6 +543,7 @@ public class StaticCache {
                 //#debug
                 L.i(this, "Flash get result", "(" + cachePriorityChar + ") key=" + key + " byteLength=" + (bytes != null ? ("" + bytes.length) : "<null>"));
                 if (bytes != null) {
+                    flashAccessOrder.put(CryptoUtils.getInstance().toDigest(key), bytes.length);
                     final LOR bytesReference = new LOR(bytes);
                     bytes = null;
                     if (defaultCacheView == cacheView) {
@@ -445,7 +551,7 @@ public class StaticCache {
                         //#debug
                         L.i(this, "Flash get converted result", "(" + cachePriorityChar + ") " + key + " : " + useForm);
                     } else {
-                        useForm = cacheView.convertToUseForm(key, bytesReference);
+                        useForm = convertToUseForm(key, bytesReference, cacheView);
                         //#debug
                         L.i(this, "Flash get converted result, result not placed in heap cache, non-default cacheView=" + cacheView, "(" + cachePriorityChar + ") " + key + " : " + useForm);
                     }
@@ -477,9 +583,9 @@ public class StaticCache {
      * Actual storage to persistent flash storage is done asynchronously on a
      * background worker thread. This is done at high priority to prevent the
      * queue of to-be-written objects from taking up precious heap memory. Items
-     * are written in the order in which calls to this method complete. You may
-     * prefer to explicitly manage this processes yourself by use of
-     * synchronousPutToRMS().
+     * are written in the order in which calls to this method complete, grouped
+     * into batches as set by setWriteBehindWindow(). Until written, get() of
+     * the same key returns the pending value.
      *
      * @param key
      * @param bytes
@@ -548,7 +654,7 @@ public class StaticCache {
                 }.setClassName("DummyDuplicatePutAsyncResponse").fork();
             }
         } else {
-            useForm = cacheView.convertToUseForm(key, bytesReference);
+            useForm = convertToUseForm(key, bytesReference, cacheView);
         }
 
 //#mdebug        
@@ -557,23 +663,351 @@ public class StaticCache {
         }
 //#enddebug        
 
+        queueWrite(key, serialWriteBytesReference.getBytes(), useForm, nextTask);
+
+        return useForm;
+    }
+
+    /**
+     * Set how writes from put() are collected into batches before they are
+     * written to flash memory. Repeated puts of the same key while waiting
+     * are merged so only the last value is written.
+     *
+     * A batch is written after the first put() in it has waited delayMillis,
+     * or sooner if it reaches maxBytes. The default is a delay of 0, which
+     * batches whatever collects while the serial worker is busy, and 64KB.
+     *
+     * @param delayMillis
+     * @param maxBytes
+     */
+    public void setWriteBehindWindow(final int delayMillis, final int maxBytes) {
+        if (delayMillis < 0 || maxBytes < 1) {
+            throw new IllegalArgumentException("Invalid write behind window, delayMillis=" + delayMillis + " maxBytes=" + maxBytes);
+        }
+        synchronized (pendingWrites) {
+            writeBehindDelay = delayMillis;
+            writeBehindMaxBytes = maxBytes;
+        }
+    }
+
+    /**
+     * Add a value to the next batch to write to flash memory
+     *
+     * @param key
+     * @param bytes
+     * @param useForm - input to nextTask
+     * @param nextTask - forked after the value is written, or canceled if the
+     * write fails. May be null.
+     * @throws FlashDatabaseException
+     */
+    private void queueWrite(final String key, final byte[] bytes, final Object useForm, final Task nextTask) throws FlashDatabaseException {
+        final Long digest;
+        try {
+            digest = new Long(CryptoUtils.getInstance().toDigest(key));
+        } catch (DigestException e) {
+            //#debug
+            L.e("Can not queue write", key, e);
+            throw new FlashDatabaseException("Can not queue write: " + key + " - " + e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e("Can not queue write", key, e);
+            throw new FlashDatabaseException("Can not queue write: " + key + " - " + e);
+        }
+
+        boolean flushNow = false;
+        synchronized (pendingWrites) {
+            PendingWrite write = (PendingWrite) pendingWrites.get(digest);
+
+            if (write == null || write.writing) {
+                write = new PendingWrite(digest, key);
+                pendingWrites.put(digest, write);
+                writeQueue.addElement(write);
+            } else {
+                //#debug
+                L.i(this, "Merge overwrite of pending write", key);
+                writeQueueBytes -= write.bytes.length;
+            }
+            write.bytes = bytes;
+            writeQueueBytes += bytes.length;
+            if (nextTask != null) {
+                write.nextTasks.addElement(nextTask);
+                write.useForms.addElement(useForm);
+            }
+            if (writeQueueBytes >= writeBehindMaxBytes || writeBehindDelay == 0) {
+                if (flushTimerTask != null) {
+                    flushTimerTask.cancel();
+                    flushTimerTask = null;
+                    flushScheduled = false;
+                }
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    flushNow = true;
+                }
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flushTimerTask = new TimerTask() {
+                    public void run() {
+                        forkFlush();
+                    }
+                };
+                Task.getTimer().schedule(flushTimerTask, writeBehindDelay);
+            }
+        }
+        if (flushNow) {
+            forkFlush();
+        }
+    }
+
+    private void forkFlush() {
         new Task(Task.SERIAL_PRIORITY) {
             protected Object exec(final Object in) {
-                int byteLength = 0;
+                flushPendingWrites();
+
+                return in;
+            }
+        }.setClassName("WriteBehind").fork();
+    }
+
+    /**
+     * Write all queued values to flash memory as one batch
+     *
+     * If the batch fails, each value is retried alone so that one bad value
+     * does not lose the others, and so that space can be cleared if flash is
+     * full.
+     *
+     * A value removed from the cache while it is being written is deleted from
+     * flash again after the write, so the write can not bring it back.
+     */
+    private void flushPendingWrites() {
+        final PendingWrite[] writes;
+        final String[] keys;
+        final byte[][] values;
+
+        synchronized (pendingWrites) {
+            if (flushTimerTask != null) {
+                flushTimerTask.cancel();
+                flushTimerTask = null;
+            }
+            flushScheduled = false;
+            if (writeQueue.isEmpty()) {
+                return;
+            }
+            writes = new PendingWrite[writeQueue.size()];
+            writeQueue.copyInto(writes);
+            writeQueue.removeAllElements();
+            writeQueueBytes = 0;
+            keys = new String[writes.length];
+            values = new byte[writes.length][];
+            for (int i = 0; i < writes.length; i++) {
+                writes[i].writing = true;
+                flushingWrites.put(writes[i].digest, writes[i]);
+                keys[i] = writes[i].key;
+                values[i] = writes[i].bytes;
+            }
+        }
+
+        boolean batchWritten = false;
+        try {
+            //#debug
+            L.i(this, "Write behind batch start", writes.length + " values");
+            flashCache.putAll(keys, values);
+            batchWritten = true;
+            //#debug
+            L.i(this, "Write behind batch end", writes.length + " values");
+        } catch (FlashFullException e) {
+            //#debug
+            L.e(this, "Write behind batch full, writing individually", writes.length + " values", e);
+        } catch (FlashDatabaseException e) {
+            //#debug
+            L.e(this, "Write behind batch failed, writing individually", writes.length + " values", e);
+        } catch (DigestException e) {
+            //#debug
+            L.e(this, "Write behind batch failed, writing individually", writes.length + " values", e);
+        }
+
+        final boolean[] written = new boolean[writes.length];
+        for (int i = 0; i < writes.length; i++) {
+            final PendingWrite write = writes[i];
+
+            if (batchWritten) {
+                written[i] = true;
+            } else if (!isRemovedDuringFlush(write)) {
                 try {
-                    byteLength = serialWriteBytesReference.getBytes().length;
-                    synchronousFlashPut(key, serialWriteBytesReference);
+                    synchronousFlashPut(write.key, new LOR(write.bytes));
+                    written[i] = true;
                 } catch (FlashDatabaseException e) {
                     //#debug
-                    L.e(this, "Can not synchronousFlashPut()", key, e);
-                    cancel("Can not sync write to flash: " + key + " byte length=" + byteLength, e);
+                    L.e(this, "Can not synchronousFlashPut()", write.key, e);
+                    write.fail("Can not sync write to flash: " + write.key + " byte length=" + write.bytes.length, e);
                 }
+            }
+        }
+        synchronized (pendingWrites) {
+            for (int i = 0; i < writes.length; i++) {
+                final PendingWrite write = writes[i];
 
-                return useForm;
+                flushingWrites.remove(write.digest);
+                if (pendingWrites.get(write.digest) == write) {
+                    pendingWrites.remove(write.digest);
+                }
+                if (write.removed && written[i]) {
+                    try {
+                        //#debug
+                        L.i(this, "Removed during write behind, delete again", write.key);
+                        flashCache.removeData(write.digest.longValue());
+                    } catch (FlashDatabaseException e) {
+                        //#debug
+                        L.e(this, "Can not remove value written after remove()", write.key, e);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < writes.length; i++) {
+            final PendingWrite write = writes[i];
+
+            if (write.removed) {
+                flashAccessOrder.remove(write.digest.longValue());
+                write.fail("Removed from cache during write to flash: " + write.key, null);
+            } else if (written[i]) {
+                if (batchWritten) {
+                    flashAccessOrder.put(write.digest.longValue(), write.bytes.length);
+                }
+                write.complete();
             }
-        }.setClassName("PutAsync").chain(nextTask).fork();
+        }
+    }
 
-        return useForm;
+    private boolean isRemovedDuringFlush(final PendingWrite write) {
+        synchronized (pendingWrites) {
+            return write.removed;
+        }
+    }
+
+    /**
+     * Store bytes to flash memory without CacheView conversion or a copy in
+     * the RAM cache. This is for small supporting records kept next to cache
+     * entries.
+     *
+     * @param key
+     * @param bytes
+     * @throws FlashDatabaseException
+     */
+    protected void putBytes(final String key, final byte[] bytes) throws FlashDatabaseException {
+        try {
+            ramCache.markContains(new Long(CryptoUtils.getInstance().toDigest(key)));
+        } catch (DigestException e) {
+            //#debug
+            L.e(this, "Can not putBytes", key, e);
+            throw new FlashDatabaseException("Can not putBytes: " + key + " - " + e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e(this, "Can not putBytes", key, e);
+            throw new FlashDatabaseException("Can not putBytes: " + key + " - " + e);
+        }
+        queueWrite(key, bytes, null, null);
+    }
+
+    /**
+     * Remove bytes stored with putBytes()
+     *
+     * @param key
+     */
+    protected void removeBytes(final String key) {
+        try {
+            remove(CryptoUtils.getInstance().toDigest(key));
+        } catch (DigestException e) {
+            //#debug
+            L.e(this, "Can not removeBytes", key, e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e(this, "Can not removeBytes", key, e);
+        }
+    }
+
+    /**
+     * Set the key suffixes of supporting records stored with putBytes() next
+     * to each value. When a value is removed or evicted to clear space, any
+     * supporting records of that key are removed with it. This costs one
+     * flash read of the key per removal.
+     *
+     * @param suffixes
+     */
+    protected final void setSupportingKeySuffixes(final String[] suffixes) {
+        supportingKeySuffixes = suffixes;
+    }
+
+    /**
+     * Read bytes stored with putBytes()
+     *
+     * @param key
+     * @return bytes, or null if not found
+     * @throws FlashDatabaseException
+     */
+    protected byte[] getBytes(final String key) throws FlashDatabaseException {
+        try {
+            return getFlashOrPendingWrite(key);
+        } catch (DigestException e) {
+            //#debug
+            L.e(this, "Can not getBytes", key, e);
+            throw new FlashDatabaseException("Can not getBytes: " + key + " - " + e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e(this, "Can not getBytes", key, e);
+            throw new FlashDatabaseException("Can not getBytes: " + key + " - " + e);
+        }
+    }
+
+    /**
+     * Read a value which may not yet be written from put() to flash memory
+     *
+     * @param key
+     * @return bytes, or null if not found
+     * @throws DigestException
+     * @throws UnsupportedEncodingException
+     * @throws FlashDatabaseException
+     */
+    private byte[] getFlashOrPendingWrite(final String key) throws DigestException, UnsupportedEncodingException, FlashDatabaseException {
+        final Long digest = new Long(CryptoUtils.getInstance().toDigest(key));
+
+        synchronized (pendingWrites) {
+            final PendingWrite write = (PendingWrite) pendingWrites.get(digest);
+
+            if (write != null) {
+                //#debug
+                L.i(this, "Get from pending write", key);
+                return write.bytes;
+            }
+        }
+
+        return flashCache.get(key, digest.longValue());
+    }
+
+    /**
+     * Forget a value not yet written from put() to flash memory
+     *
+     * @param digest
+     */
+    private void removePendingWrite(final Long digest) {
+        final PendingWrite write;
+
+        synchronized (pendingWrites) {
+            final PendingWrite flushing = (PendingWrite) flushingWrites.get(digest);
+
+            if (flushing != null) {
+                // The flush will delete it again after writing
+                flushing.removed = true;
+            }
+            write = (PendingWrite) pendingWrites.remove(digest);
+            if (write == null) {
+                return;
+            }
+            if (write.writing) {
+                return;
+            }
+            writeQueue.removeElement(write);
+            writeQueueBytes -= write.bytes.length;
+        }
+        write.fail("Removed from cache before write to flash: " + write.key, null);
     }
 
     /**
@@ -614,10 +1048,15 @@ public class StaticCache {
                 StaticCache.clearSpaceAllCaches(bytes.length);
                 flashCache.put(key, bytes);
             }
+            flashAccessOrder.put(CryptoUtils.getInstance().toDigest(key), bytes.length);
         } catch (DigestException e) {
             //#debug
             L.e("Couldn't store object to flash", key, e);
             throw new FlashDatabaseException("Could not store object to flash: " + key + " - " + e);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e("Couldn't store object to flash", key, e);
+            throw new FlashDatabaseException("Could not store object to flash: " + key + " - " + e);
         }
     }
 
@@ -654,25 +1093,45 @@ public class StaticCache {
         flashCache.maintainDatabase();
     }
 
+    /**
+     * Delete least recently used values from flash memory
+     *
+     * @param minSpaceToClear
+     * @return the number of value bytes deleted
+     * @throws FlashDatabaseException
+     * @throws DigestException
+     */
     public int clearSpace(final int minSpaceToClear) throws FlashDatabaseException, DigestException {
         //#debug
         L.i(this, "Start clearing space, cache-" + this.cachePriorityChar, minSpaceToClear + " bytes still to clear");
 
         int spaceCleared = 0;
-
-        final Enumeration digests = flashCache.getDigests();
         int i = 0;
-        while (spaceCleared < minSpaceToClear && digests.hasMoreElements()) {
+        while (spaceCleared < minSpaceToClear) {
             //#debug
             L.i(this, "start cleardigest", "" + ++i);
-            final long dig = ((Long) digests.nextElement()).longValue();
-            final byte[] bytes = flashCache.get(dig, false);
+            final long dig;
+            long size;
+            synchronized (flashAccessOrder) {
+                if (flashAccessOrder.size() == 0) {
+                    break;
+                }
+                dig = flashAccessOrder.getLeastRecentlyUsedKey();
+                size = flashAccessOrder.get(dig, false);
+            }
+
+            if (size == UNKNOWN_SIZE) {
+                final byte[] bytes = flashCache.get(dig, false);
 
-            if (bytes != null && remove(dig)) {
-                spaceCleared += bytes.length;
+                size = bytes == null ? LongLongLRUMap.NO_VALUE : bytes.length;
+            }
+            if (size != LongLongLRUMap.NO_VALUE && remove(dig)) {
+                spaceCleared += size;
                 //#debug
-                L.i(this, "success cleardigest", "Cleared " + bytes.length + " bytes (spaceCeared=" + spaceCleared + " + #itemsInCache= " + this.ramCache.size() + ")");
+                L.i(this, "success cleardigest", "Cleared " + size + " bytes (spaceCeared=" + spaceCleared + " + #itemsInCache= " + this.ramCache.size() + ")");
             } else {
+                // Not in flash, forget it so that we do not try again
+                flashAccessOrder.remove(dig);
                 //#debug
                 L.i(this, "** fail cleardigest", "Did not find in digest");
             }
@@ -703,7 +1162,14 @@ public class StaticCache {
      */
     public boolean remove(final long digest) {
         final boolean removed = containsDigest(digest);
+        final String[] suffixes = supportingKeySuffixes;
+        String key = null;
 
+        if (removed && suffixes != null) {
+            key = getKeyOfSupportedValue(new Long(digest), suffixes);
+        }
+        flashAccessOrder.remove(digest);
+        removePendingWrite(new Long(digest));
         if (removed) {
             try {
                 final Long l = new Long(digest);
@@ -717,10 +1183,64 @@ public class StaticCache {
                 L.e(this, "Couldn't remove object from cache", Long.toString(digest, 16), e);
             }
         }
+        if (key != null) {
+            for (int i = 0; i < suffixes.length; i++) {
+                try {
+                    final long supportingDigest = CryptoUtils.getInstance().toDigest(key + suffixes[i]);
+
+                    if (containsDigest(supportingDigest)) {
+                        remove(supportingDigest);
+                    }
+                } catch (DigestException e) {
+                    //#debug
+                    L.e(this, "Can not remove supporting record", key + suffixes[i], e);
+                } catch (UnsupportedEncodingException e) {
+                    //#debug
+                    L.e(this, "Can not remove supporting record", key + suffixes[i], e);
+                }
+            }
+        }
 
         return removed;
     }
 
+    /**
+     * Find the key of a value which is about to be removed
+     *
+     * @param digest
+     * @param suffixes
+     * @return the key, or null if the key is not known or is itself a
+     * supporting record
+     */
+    private String getKeyOfSupportedValue(final Long digest, final String[] suffixes) {
+        String key = null;
+
+        synchronized (pendingWrites) {
+            final PendingWrite write = (PendingWrite) pendingWrites.get(digest);
+
+            if (write != null) {
+                key = write.key;
+            }
+        }
+        if (key == null) {
+            try {
+                key = flashCache.getKey(digest.longValue());
+            } catch (FlashDatabaseException e) {
+                //#debug
+                L.e(this, "Can not read key to remove supporting records", Long.toString(digest.longValue(), 16), e);
+            }
+        }
+        if (key != null) {
+            for (int i = 0; i < suffixes.length; i++) {
+                if (key.endsWith(suffixes[i])) {
+                    return null;
+                }
+            }
+        }
+
+        return key;
+    }
+
     /**
      * Remove all elements contained in this cache at the moment this method is
      * called.
@@ -741,7 +1261,11 @@ public class StaticCache {
                 //#debug
                 L.i("Start Cache Clear", "ID=" + cachePriorityChar);
                 while (digests.hasMoreElements()) {
-                    remove(((Long) digests.nextElement()).longValue());
+                    final long digest = ((Long) digests.nextElement()).longValue();
+
+                    if (!isDigestAlgorithmMarker(digest)) {
+                        remove(digest);
+                    }
                 }
                 //#debug
                 L.i("Cache cleared", "ID=" + cachePriorityChar);
@@ -940,4 +1464,35 @@ public class StaticCache {
     protected boolean equals(final char priority, final CacheView handler, final Object taskFactory) {
         return this.cachePriorityChar == priority && this.defaultCacheView.equals(handler);
     }
+
+    /**
+     * A value accepted by put() and waiting to be written to flash memory
+     */
+    private static final class PendingWrite {
+
+        final Long digest;
+        final String key;
+        byte[] bytes;
+        boolean writing = false; // Taken by a flush, can no longer be merged
+        boolean removed = false; // remove() was called during the flush
+        final Vector nextTasks = new Vector(1);
+        final Vector useForms = new Vector(1);
+
+        PendingWrite(final Long digest, final String key) {
+            this.digest = digest;
+            this.key = key;
+        }
+
+        void complete() {
+            for (int i = 0; i < nextTasks.size(); i++) {
+                ((Task) nextTasks.elementAt(i)).set(useForms.elementAt(i)).fork();
+            }
+        }
+
+        void fail(final String reason, final Throwable t) {
+            for (int i = 0; i < nextTasks.size(); i++) {
+                ((Task) nextTasks.elementAt(i)).cancel(reason, t);
+            }
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Vector;
+
+/**
+ * A pool of equal-length byte[] buffers, such as network read buffers, which
+ * can be re-used to minimize heap memory thrash.
+ *
+ * Released buffers are held by WeakReference, so the pool never prevents the
+ * garbage collector from recovering memory when the phone needs it.
+ *
+ * @author phou
+ */
+public final class ByteArrayPool {
+
+    private final int bufferLength;
+    private final int maxPoolSize;
+    private final Vector pool = new Vector();
+
+    /**
+     * Create a pool
+     *
+     * @param bufferLength the length of every buffer in the pool
+     * @param maxPoolSize the most released buffers to hold for re-use
+     */
+    public ByteArrayPool(final int bufferLength, final int maxPoolSize) {
+        if (bufferLength <= 0 || maxPoolSize < 0) {
+            throw new IllegalArgumentException("ByteArrayPool bufferLength=" + bufferLength + " maxPoolSize=" + maxPoolSize);
+        }
+        this.bufferLength = bufferLength;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * The length of every buffer in the pool
+     *
+     * @return
+     */
+    public int getBufferLength() {
+        return bufferLength;
+    }
+
+    /**
+     * Get a buffer from the pool, or a new buffer if none is available. The
+     * contents of a re-used buffer are not cleared.
+     *
+     * @return
+     */
+    public byte[] get() {
+        synchronized (pool) {
+            while (pool.size() > 0) {
+                final int last = pool.size() - 1;
+                final byte[] buffer = (byte[]) ((WeakReference) pool.elementAt(last)).get();
+                pool.removeElementAt(last);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+
+        return new byte[bufferLength];
+    }
+
+    /**
+     * Return a buffer to the pool. Do not use the buffer after releasing it.
+     *
+     * Buffers of a different length, or in excess of the maximum pool size,
+     * are left for the garbage collector.
+     *
+     * @param buffer
+     */
+    public void release(final byte[] buffer) {
+        if (buffer == null || buffer.length != bufferLength) {
+            return;
+        }
+        synchronized (pool) {
+            if (pool.size() < maxPoolSize) {
+                pool.addElement(new WeakReference(buffer));
+            }
+        }
+    }
+
+    /**
+     * The number of buffers currently held for re-use. Some of these may
+     * already have been garbage collected.
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+}
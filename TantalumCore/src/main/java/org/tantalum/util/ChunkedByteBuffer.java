@@ -0,0 +1,158 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+/**
+ * An append-only byte sequence made of buffers taken from a ByteArrayPool.
+ *
+ * Unlike ByteArrayOutputStream, growing does not copy the data already
+ * received, and data can be read from an InputStream directly into the
+ * sequence. toByteArray() then makes one array of exactly the right size.
+ * Call release() when done to return the buffers to the pool.
+ *
+ * @author phou
+ */
+public final class ChunkedByteBuffer {
+
+    private final ByteArrayPool pool;
+    private final Vector chunks = new Vector();
+    private byte[] current = null;
+    private int currentLength = 0;
+    private int length = 0;
+
+    /**
+     * Create an empty sequence which takes its buffers from the pool
+     *
+     * @param pool
+     */
+    public ChunkedByteBuffer(final ByteArrayPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Append one byte
+     *
+     * @param b
+     */
+    public void write(final int b) {
+        ensureSpace();
+        current[currentLength++] = (byte) b;
+        length++;
+    }
+
+    /**
+     * Append bytes
+     *
+     * @param bytes
+     * @param offset
+     * @param len
+     */
+    public void write(final byte[] bytes, int offset, int len) {
+        while (len > 0) {
+            ensureSpace();
+            final int n = Math.min(len, current.length - currentLength);
+            System.arraycopy(bytes, offset, current, currentLength, n);
+            currentLength += n;
+            length += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Read once from the stream directly into the free space at the end of the
+     * sequence.
+     *
+     * @param inputStream
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException
+     */
+    public int read(final InputStream inputStream) throws IOException {
+        ensureSpace();
+        final int n = inputStream.read(current, currentLength, current.length - currentLength);
+        if (n > 0) {
+            currentLength += n;
+            length += n;
+        }
+
+        return n;
+    }
+
+    private void ensureSpace() {
+        if (current == null || currentLength == current.length) {
+            current = pool.get();
+            currentLength = 0;
+            chunks.addElement(current);
+        }
+    }
+
+    /**
+     * The number of bytes in the sequence
+     *
+     * @return
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Copy the sequence into a new array of exactly size() bytes
+     *
+     * @return
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[length];
+        int offset = 0;
+
+        for (int i = 0; i < chunks.size(); i++) {
+            final byte[] chunk = (byte[]) chunks.elementAt(i);
+            final int n = chunk == current ? currentLength : chunk.length;
+            System.arraycopy(chunk, 0, bytes, offset, n);
+            offset += n;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Empty the sequence and return its buffers to the pool
+     */
+    public void release() {
+        for (int i = 0; i < chunks.size(); i++) {
+            pool.release((byte[]) chunks.elementAt(i));
+        }
+        chunks.removeAllElements();
+        current = null;
+        currentLength = 0;
+        length = 0;
+    }
+}
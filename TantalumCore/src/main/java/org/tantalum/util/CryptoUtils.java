@@ -4,6 +4,7 @@ import java.io.UnsupportedEncodingException;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Vector;
 
 /**
  * Simplified cryptography routines
@@ -18,8 +19,30 @@ public class CryptoUtils {
      * A digest is a byte[] of this length
      */
     public static final int DIGEST_LENGTH = 16;
+    /**
+     * Key digests are MD5 folded to 64 bits. This is the default and matches
+     * the digests of caches written by earlier versions.
+     */
+    public static final int DIGEST_MD5 = 0;
+    /**
+     * Key digests are a fast, non-cryptographic 64 bit xxHash64 of the UTF-8
+     * key. Caches which use this check the stored key on each flash read to
+     * detect collisions.
+     */
+    public static final int DIGEST_XXHASH64 = 1;
     private static final int LONG_LENGTH_IN_BYTES = 8;
-    private MessageDigest messageDigest;
+    private static final int MAX_POOLED_DIGESTS = 4;
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    /*
+     * MessageDigest instances are not thread safe. Each caller borrows one from
+     * this pool instead of waiting on a lock for the duration of the hash.
+     */
+    private final Vector messageDigestPool = new Vector(MAX_POOLED_DIGESTS);
+    private volatile int digestAlgorithm = DIGEST_MD5;
 
     private static class CryptoUtilsHolder {
 
@@ -36,12 +59,43 @@ public class CryptoUtils {
     }
 
     private CryptoUtils() {
-        try {
-            messageDigest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException ex) {
-            //#debug
-            L.e("Can not init CryptoUtils", "", ex);
+    }
+
+    /**
+     * Select the algorithm used to convert cache keys into digests.
+     *
+     * Set this once at application start, before any cache is created.
+     * Existing flash cache contents are re-keyed by
+     * <code>FlashCache.migrateDigests()</code> the first time a cache is opened
+     * after the algorithm changes.
+     *
+     * @param algorithm <code>DIGEST_MD5</code> or
+     * <code>DIGEST_XXHASH64</code>
+     */
+    public void setDigestAlgorithm(final int algorithm) {
+        if (algorithm != DIGEST_MD5 && algorithm != DIGEST_XXHASH64) {
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm);
         }
+        this.digestAlgorithm = algorithm;
+    }
+
+    /**
+     * Get the algorithm used to convert cache keys into digests
+     *
+     * @return <code>DIGEST_MD5</code> or <code>DIGEST_XXHASH64</code>
+     */
+    public int getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Check if the current digest algorithm is collision resistant. If not,
+     * the caller must compare the original key before trusting a digest match.
+     *
+     * @return
+     */
+    public boolean isCryptographic() {
+        return digestAlgorithm == DIGEST_MD5;
     }
 
     /**
@@ -53,7 +107,7 @@ public class CryptoUtils {
      * @throws DigestException
      * @throws UnsupportedEncodingException
      */
-    public synchronized long toDigest(final String key) throws DigestException, UnsupportedEncodingException {
+    public long toDigest(final String key) throws DigestException, UnsupportedEncodingException {
         if (key == null) {
             throw new NullPointerException("You attempted to convert a null string into a hash digest");
         }
@@ -64,23 +118,50 @@ public class CryptoUtils {
     }
 
     /**
-     * Generate a cryptographic MD5 digest from a byte array
+     * Generate a 64 bit digest from a byte array using the current digest
+     * algorithm
      *
      * @param bytes
      * @return
      * @throws DigestException
      * @throws UnsupportedEncodingException
      */
-    public synchronized long toDigest(final byte[] bytes) throws DigestException, UnsupportedEncodingException {
+    public long toDigest(final byte[] bytes) throws DigestException, UnsupportedEncodingException {
+        return toDigest(bytes, digestAlgorithm);
+    }
+
+    /**
+     * Generate a 64 bit digest from a byte array using a specific algorithm.
+     * This is used to find values stored before the algorithm was changed.
+     *
+     * @param bytes
+     * @param algorithm <code>DIGEST_MD5</code> or
+     * <code>DIGEST_XXHASH64</code>
+     * @return
+     * @throws DigestException
+     */
+    public long toDigest(final byte[] bytes, final int algorithm) throws DigestException {
         if (bytes == null) {
             throw new NullPointerException("You attempted to convert a null byte[] into a hash digest");
         }
-        
+        if (algorithm == DIGEST_XXHASH64) {
+            return xxHash64(bytes, 0, bytes.length, 0);
+        }
+
+        return md5Digest(bytes);
+    }
+
+    private long md5Digest(final byte[] bytes) throws DigestException {
+        final MessageDigest messageDigest = borrowMessageDigest();
         final byte[] hashKey = new byte[DIGEST_LENGTH];
 
-        messageDigest.update(bytes, 0, bytes.length);
-        messageDigest.digest(hashKey, 0, DIGEST_LENGTH);
-        
+        try {
+            messageDigest.update(bytes, 0, bytes.length);
+            messageDigest.digest(hashKey, 0, DIGEST_LENGTH);
+        } finally {
+            returnMessageDigest(messageDigest);
+        }
+
         final byte[] l = new byte[LONG_LENGTH_IN_BYTES];
         for (int i = 0; i < l.length; i++) {
             l[i] = (byte)((hashKey[2*i] & 0xFF) ^ (hashKey[(2*i) + 1] & 0xFF));
@@ -89,6 +170,121 @@ public class CryptoUtils {
         return bytesToLong(l, 0);
     }
 
+    private MessageDigest borrowMessageDigest() throws DigestException {
+        synchronized (messageDigestPool) {
+            final int n = messageDigestPool.size();
+
+            if (n > 0) {
+                final MessageDigest messageDigest = (MessageDigest) messageDigestPool.elementAt(n - 1);
+                messageDigestPool.removeElementAt(n - 1);
+
+                return messageDigest;
+            }
+        }
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new DigestException("Can not init MD5: " + ex);
+        }
+    }
+
+    private void returnMessageDigest(final MessageDigest messageDigest) {
+        synchronized (messageDigestPool) {
+            if (messageDigestPool.size() < MAX_POOLED_DIGESTS) {
+                messageDigestPool.addElement(messageDigest);
+            }
+        }
+    }
+
+    /**
+     * xxHash64 of part of a byte array
+     *
+     * This is not a cryptographic hash, but it is several times faster than
+     * MD5 and well distributed for cache keys.
+     *
+     * @param bytes
+     * @param start
+     * @param length
+     * @param seed
+     * @return
+     */
+    public static long xxHash64(final byte[] bytes, final int start, final int length, final long seed) {
+        final int end = start + length;
+        int i = start;
+        long h;
+
+        if (length >= 32) {
+            long v1 = seed + PRIME64_1 + PRIME64_2;
+            long v2 = seed + PRIME64_2;
+            long v3 = seed;
+            long v4 = seed - PRIME64_1;
+            final int limit = end - 32;
+
+            do {
+                v1 = xxRound(v1, readLong(bytes, i));
+                v2 = xxRound(v2, readLong(bytes, i + 8));
+                v3 = xxRound(v3, readLong(bytes, i + 16));
+                v4 = xxRound(v4, readLong(bytes, i + 24));
+                i += 32;
+            } while (i <= limit);
+            h = rotl(v1, 1) + rotl(v2, 7) + rotl(v3, 12) + rotl(v4, 18);
+            h = xxMergeRound(h, v1);
+            h = xxMergeRound(h, v2);
+            h = xxMergeRound(h, v3);
+            h = xxMergeRound(h, v4);
+        } else {
+            h = seed + PRIME64_5;
+        }
+        h += length;
+        while (i + 8 <= end) {
+            h ^= xxRound(0, readLong(bytes, i));
+            h = rotl(h, 27) * PRIME64_1 + PRIME64_4;
+            i += 8;
+        }
+        if (i + 4 <= end) {
+            h ^= (readInt(bytes, i) & 0xFFFFFFFFL) * PRIME64_1;
+            h = rotl(h, 23) * PRIME64_2 + PRIME64_3;
+            i += 4;
+        }
+        while (i < end) {
+            h ^= (bytes[i] & 0xFF) * PRIME64_5;
+            h = rotl(h, 11) * PRIME64_1;
+            i++;
+        }
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+
+        return h;
+    }
+
+    private static long xxRound(long acc, final long input) {
+        acc += input * PRIME64_2;
+        acc = rotl(acc, 31);
+
+        return acc * PRIME64_1;
+    }
+
+    private static long xxMergeRound(long acc, final long val) {
+        acc ^= xxRound(0, val);
+
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long rotl(final long l, final int bits) {
+        return (l << bits) | (l >>> (64 - bits));
+    }
+
+    private static long readLong(final byte[] bytes, final int i) {
+        return (readInt(bytes, i) & 0xFFFFFFFFL) | (((long) readInt(bytes, i + 4)) << 32);
+    }
+
+    private static int readInt(final byte[] bytes, final int i) {
+        return (bytes[i] & 0xFF) | ((bytes[i + 1] & 0xFF) << 8) | ((bytes[i + 2] & 0xFF) << 16) | ((bytes[i + 3] & 0xFF) << 24);
+    }
+
     /**
      * Encode 8 bytes into one Long
      *
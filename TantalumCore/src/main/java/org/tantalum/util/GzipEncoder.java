@@ -0,0 +1,212 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compress data to gzip format (RFC 1952) for platforms such as CLDC which do
+ * not have java.util.zip.
+ *
+ * This is a small, fast encoder using LZ77 matching in an 8KB window and the
+ * fixed deflate Huffman codes. It compresses text such as JSON and XML well
+ * and needs little memory, but is not as tight as a full zlib implementation.
+ * Decode with InflateInputStream or any standard gzip decoder.
+ *
+ * @author phou
+ */
+public final class GzipEncoder {
+
+    private static final int WINDOW_SIZE = 8192;
+    private static final int HASH_SIZE = 4096;
+    private static final int MAX_CHAIN = 32;
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 258;
+    private final ByteArrayOutputStream out;
+    private int bitBuffer = 0;
+    private int bitCount = 0;
+
+    private GzipEncoder(final int expectedLength) {
+        out = new ByteArrayOutputStream(expectedLength / 2 + 32);
+    }
+
+    /**
+     * Compress to gzip format
+     *
+     * @param data
+     * @return
+     */
+    public static byte[] gzip(final byte[] data) {
+        final GzipEncoder encoder = new GzipEncoder(data.length);
+        final ByteArrayOutputStream out = encoder.out;
+        final byte[] header = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        out.write(header, 0, header.length);
+        encoder.deflate(data);
+        int crc = 0xffffffff;
+        for (int i = 0; i < data.length; i++) {
+            crc = InflateInputStream.CRC_TABLE[(crc ^ data[i]) & 0xff] ^ (crc >>> 8);
+        }
+        encoder.writeIntLittleEndian(~crc);
+        encoder.writeIntLittleEndian(data.length);
+
+        return out.toByteArray();
+    }
+
+    private void deflate(final byte[] data) {
+        final int n = data.length;
+        final int[] head = new int[HASH_SIZE];
+        final int[] prev = new int[WINDOW_SIZE];
+
+        for (int i = 0; i < HASH_SIZE; i++) {
+            head[i] = -1;
+        }
+        writeBits(1, 1); // Final block
+        writeBits(1, 2); // Fixed Huffman codes
+        int i = 0;
+        while (i < n) {
+            int bestLength = 0;
+            int bestDistance = 0;
+            if (i + MIN_MATCH <= n) {
+                final int maxLength = Math.min(MAX_MATCH, n - i);
+                int candidate = head[hash(data, i)];
+                int chain = MAX_CHAIN;
+                while (candidate >= 0 && i - candidate <= WINDOW_SIZE && chain-- > 0) {
+                    int length = 0;
+                    while (length < maxLength && data[candidate + length] == data[i + length]) {
+                        length++;
+                    }
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = i - candidate;
+                        if (length == maxLength) {
+                            break;
+                        }
+                    }
+                    final int next = prev[candidate & (WINDOW_SIZE - 1)];
+                    if (next >= candidate) {
+                        break; // Slot was reused by a newer position
+                    }
+                    candidate = next;
+                }
+                insert(data, i, head, prev);
+            }
+            if (bestLength >= MIN_MATCH) {
+                writeLength(bestLength);
+                writeDistance(bestDistance);
+                for (int k = 1; k < bestLength; k++) {
+                    if (i + k + MIN_MATCH <= n) {
+                        insert(data, i + k, head, prev);
+                    }
+                }
+                i += bestLength;
+            } else {
+                writeLiteral(data[i] & 0xff);
+                i++;
+            }
+        }
+        writeLiteral(256); // End of block
+        if (bitCount > 0) {
+            out.write(bitBuffer);
+            bitBuffer = 0;
+            bitCount = 0;
+        }
+    }
+
+    private static int hash(final byte[] data, final int i) {
+        return (((data[i] & 0xff) << 8) ^ ((data[i + 1] & 0xff) << 4) ^ (data[i + 2] & 0xff)) & (HASH_SIZE - 1);
+    }
+
+    private static void insert(final byte[] data, final int i, final int[] head, final int[] prev) {
+        final int h = hash(data, i);
+
+        prev[i & (WINDOW_SIZE - 1)] = head[h];
+        head[h] = i;
+    }
+
+    private void writeBits(final int value, final int count) {
+        bitBuffer |= value << bitCount;
+        bitCount += count;
+        while (bitCount >= 8) {
+            out.write(bitBuffer & 0xff);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    /**
+     * Huffman codes are sent most significant bit first
+     */
+    private void writeCode(final int code, final int length) {
+        int reversed = 0;
+
+        for (int i = 0; i < length; i++) {
+            reversed = (reversed << 1) | ((code >>> i) & 1);
+        }
+        writeBits(reversed, length);
+    }
+
+    private void writeLiteral(final int symbol) {
+        if (symbol < 144) {
+            writeCode(0x30 + symbol, 8);
+        } else if (symbol < 256) {
+            writeCode(0x190 + symbol - 144, 9);
+        } else if (symbol < 280) {
+            writeCode(symbol - 256, 7);
+        } else {
+            writeCode(0xc0 + symbol - 280, 8);
+        }
+    }
+
+    private void writeLength(final int length) {
+        int code = InflateInputStream.LENGTH_BASE.length - 1;
+
+        while (InflateInputStream.LENGTH_BASE[code] > length) {
+            code--;
+        }
+        writeLiteral(257 + code);
+        writeBits(length - InflateInputStream.LENGTH_BASE[code], InflateInputStream.LENGTH_EXTRA[code]);
+    }
+
+    private void writeDistance(final int distance) {
+        int code = InflateInputStream.DISTANCE_BASE.length - 1;
+
+        while (InflateInputStream.DISTANCE_BASE[code] > distance) {
+            code--;
+        }
+        writeCode(code, 5);
+        writeBits(distance - InflateInputStream.DISTANCE_BASE[code], InflateInputStream.DISTANCE_EXTRA[code]);
+    }
+
+    private void writeIntLittleEndian(final int value) {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decode a gzip (RFC 1952), zlib (RFC 1950) or raw deflate (RFC 1951) stream
+ * as it is read.
+ *
+ * This is a small pure Java decoder for platforms such as CLDC which do not
+ * have java.util.zip. Output is produced block by block with a 32KB window, so
+ * the compressed body is never held in memory as a whole. Checksums and the
+ * gzip length in the stream trailer are verified at the end of the stream.
+ *
+ * @author phou
+ */
+public final class InflateInputStream extends InputStream {
+
+    /**
+     * Raw deflate data with no header or trailer
+     */
+    public static final int RAW = 0;
+    /**
+     * zlib header and Adler-32 trailer
+     */
+    public static final int ZLIB = 1;
+    /**
+     * gzip header and CRC-32 trailer
+     */
+    public static final int GZIP = 2;
+    /**
+     * zlib if the stream starts with a valid zlib header, otherwise raw. This
+     * is for HTTP "Content-Encoding: deflate", which should be zlib but is raw
+     * deflate from some servers.
+     */
+    public static final int ZLIB_OR_RAW = 3;
+    private static final int WINDOW_SIZE = 32768;
+    private static final int MAX_BITS = 15;
+    static final short[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    static final byte[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    static final short[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    static final byte[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final byte[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+    /**
+     * CRC-32 (IEEE 802.3) lookup table, shared with GzipEncoder
+     */
+    static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? 0xedb88320 ^ (c >>> 1) : c >>> 1;
+            }
+            CRC_TABLE[n] = c;
+        }
+    }
+    private static Huffman fixedLiteralCodes = null; // Access only within synchronized(InflateInputStream.class)
+    private static Huffman fixedDistanceCodes = null; // Access only within synchronized(InflateInputStream.class)
+    private final InputStream in;
+    private int format;
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private int windowPosition = 0;
+    private int bitBuffer = 0;
+    private int bitCount = 0;
+    private boolean headerRead = false;
+    private boolean lastBlock = false;
+    private boolean finished = false;
+    private int blockType = -1; // -1 means the next block header has not been read
+    private int storedRemaining = 0;
+    private Huffman literalCodes;
+    private Huffman distanceCodes;
+    private int copyLength = 0;
+    private int copyDistance = 0;
+    private int crc = 0xffffffff;
+    private int adlerA = 1;
+    private int adlerB = 0;
+    private int totalOut = 0;
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * Canonical Huffman decoding table: the number of codes of each bit length
+     * and the symbols in code order
+     */
+    private static final class Huffman {
+
+        final short[] count = new short[MAX_BITS + 1];
+        final short[] symbol;
+
+        Huffman(final byte[] lengths, final int offset, final int n) throws IOException {
+            symbol = new short[n];
+            for (int i = 0; i < n; i++) {
+                count[lengths[offset + i]]++;
+            }
+            count[0] = 0;
+            int left = 1;
+            for (int len = 1; len <= MAX_BITS; len++) {
+                left <<= 1;
+                left -= count[len];
+                if (left < 0) {
+                    throw new IOException("Inflate over-subscribed Huffman code");
+                }
+            }
+            final short[] offs = new short[MAX_BITS + 1];
+            for (int len = 1; len < MAX_BITS; len++) {
+                offs[len + 1] = (short) (offs[len] + count[len]);
+            }
+            for (int i = 0; i < n; i++) {
+                if (lengths[offset + i] != 0) {
+                    symbol[offs[lengths[offset + i]]++] = (short) i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a stream in the given format
+     *
+     * @param in
+     * @param format RAW, ZLIB, GZIP or ZLIB_OR_RAW
+     */
+    public InflateInputStream(final InputStream in, final int format) {
+        if (format < RAW || format > ZLIB_OR_RAW) {
+            throw new IllegalArgumentException("Unsupported inflate format: " + format);
+        }
+        this.in = in;
+        this.format = format;
+    }
+
+    /**
+     * The number of decoded bytes read so far
+     *
+     * @return
+     */
+    public int getTotalOut() {
+        return totalOut;
+    }
+
+    public int read() throws IOException {
+        final int n = read(singleByte, 0, 1);
+
+        return n < 0 ? -1 : singleByte[0] & 0xff;
+    }
+
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (!headerRead) {
+            readHeader();
+            headerRead = true;
+        }
+        int n = 0;
+        while (n < len && !finished) {
+            if (copyLength > 0) {
+                int from = (windowPosition - copyDistance) & (WINDOW_SIZE - 1);
+                while (copyLength > 0 && n < len) {
+                    b[off + n++] = output(window[from]);
+                    from = (from + 1) & (WINDOW_SIZE - 1);
+                    copyLength--;
+                }
+            } else if (blockType < 0) {
+                if (lastBlock) {
+                    readTrailer();
+                    finished = true;
+                } else {
+                    readBlockHeader();
+                }
+            } else if (blockType == 0) {
+                if (storedRemaining == 0) {
+                    blockType = -1;
+                } else {
+                    b[off + n++] = output((byte) readAlignedByte());
+                    storedRemaining--;
+                }
+            } else {
+                final int symbol = decode(literalCodes);
+                if (symbol < 256) {
+                    b[off + n++] = output((byte) symbol);
+                } else if (symbol == 256) {
+                    blockType = -1;
+                } else {
+                    final int lengthCode = symbol - 257;
+                    if (lengthCode >= LENGTH_BASE.length) {
+                        throw new IOException("Inflate bad length code: " + symbol);
+                    }
+                    copyLength = LENGTH_BASE[lengthCode] + bits(LENGTH_EXTRA[lengthCode]);
+                    final int distanceCode = decode(distanceCodes);
+                    if (distanceCode >= DISTANCE_BASE.length) {
+                        throw new IOException("Inflate bad distance code: " + distanceCode);
+                    }
+                    copyDistance = DISTANCE_BASE[distanceCode] + bits(DISTANCE_EXTRA[distanceCode]);
+                    if (copyDistance > totalOut) {
+                        throw new IOException("Inflate distance too far back: " + copyDistance);
+                    }
+                }
+            }
+        }
+
+        return n == 0 && finished ? -1 : n;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private byte output(final byte b) {
+        window[windowPosition] = b;
+        windowPosition = (windowPosition + 1) & (WINDOW_SIZE - 1);
+        totalOut++;
+        if (format == GZIP) {
+            crc = CRC_TABLE[(crc ^ b) & 0xff] ^ (crc >>> 8);
+        } else if (format == ZLIB) {
+            adlerA = (adlerA + (b & 0xff)) % 65521;
+            adlerB = (adlerB + adlerA) % 65521;
+        }
+
+        return b;
+    }
+
+    private int nextByte() throws IOException {
+        final int b = in.read();
+
+        if (b < 0) {
+            throw new IOException("Inflate unexpected end of stream");
+        }
+
+        return b;
+    }
+
+    private int bits(final int need) throws IOException {
+        while (bitCount < need) {
+            bitBuffer |= nextByte() << bitCount;
+            bitCount += 8;
+        }
+        final int value = bitBuffer & ((1 << need) - 1);
+        bitBuffer >>>= need;
+        bitCount -= need;
+
+        return value;
+    }
+
+    /**
+     * Discard bits to the next byte boundary and read one byte
+     */
+    private int readAlignedByte() throws IOException {
+        final int partial = bitCount & 7;
+        bitBuffer >>>= partial;
+        bitCount -= partial;
+        if (bitCount > 0) {
+            return bits(8);
+        }
+
+        return nextByte();
+    }
+
+    private int decode(final Huffman h) throws IOException {
+        int code = 0;
+        int first = 0;
+        int index = 0;
+
+        for (int len = 1; len <= MAX_BITS; len++) {
+            code |= bits(1);
+            final int count = h.count[len];
+            if (code - count < first) {
+                return h.symbol[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+
+        throw new IOException("Inflate bad Huffman code");
+    }
+
+    private void readHeader() throws IOException {
+        switch (format) {
+            case GZIP:
+                if (nextByte() != 0x1f || nextByte() != 0x8b || nextByte() != 8) {
+                    throw new IOException("Not a gzip stream");
+                }
+                final int flags = nextByte();
+                for (int i = 0; i < 6; i++) {
+                    nextByte(); // Modification time, extra flags, OS
+                }
+                if ((flags & 4) != 0) {
+                    int extraLength = nextByte() | (nextByte() << 8);
+                    while (extraLength-- > 0) {
+                        nextByte();
+                    }
+                }
+                if ((flags & 8) != 0) {
+                    while (nextByte() != 0) {
+                        // File name
+                    }
+                }
+                if ((flags & 16) != 0) {
+                    while (nextByte() != 0) {
+                        // Comment
+                    }
+                }
+                if ((flags & 2) != 0) {
+                    nextByte(); // Header CRC
+                    nextByte();
+                }
+                break;
+
+            case ZLIB:
+            case ZLIB_OR_RAW:
+                final int cmf = nextByte();
+                final int flg = nextByte();
+                if ((cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0) {
+                    if ((flg & 0x20) != 0) {
+                        throw new IOException("zlib preset dictionary is not supported");
+                    }
+                    format = ZLIB;
+                } else if (format == ZLIB) {
+                    throw new IOException("Not a zlib stream");
+                } else {
+                    format = RAW;
+                    bitBuffer = cmf | (flg << 8);
+                    bitCount = 16;
+                }
+                break;
+
+            default:
+        }
+    }
+
+    private void readTrailer() throws IOException {
+        if (format == GZIP) {
+            final int expectedCrc = readAlignedByte() | (readAlignedByte() << 8) | (readAlignedByte() << 16) | (readAlignedByte() << 24);
+            final int expectedLength = readAlignedByte() | (readAlignedByte() << 8) | (readAlignedByte() << 16) | (readAlignedByte() << 24);
+            if (expectedCrc != ~crc || expectedLength != totalOut) {
+                throw new IOException("gzip CRC or length does not match");
+            }
+        } else if (format == ZLIB) {
+            final int expected = (readAlignedByte() << 24) | (readAlignedByte() << 16) | (readAlignedByte() << 8) | readAlignedByte();
+            if (expected != ((adlerB << 16) | adlerA)) {
+                throw new IOException("zlib Adler-32 does not match");
+            }
+        }
+    }
+
+    private void readBlockHeader() throws IOException {
+        lastBlock = bits(1) == 1;
+        blockType = bits(2);
+        switch (blockType) {
+            case 0:
+                storedRemaining = readAlignedByte() | (readAlignedByte() << 8);
+                final int complement = readAlignedByte() | (readAlignedByte() << 8);
+                if ((storedRemaining ^ 0xffff) != complement) {
+                    throw new IOException("Inflate stored block length does not match");
+                }
+                break;
+
+            case 1:
+                initFixedCodes();
+                break;
+
+            case 2:
+                readDynamicCodes();
+                break;
+
+            default:
+                throw new IOException("Inflate bad block type");
+        }
+    }
+
+    private void initFixedCodes() throws IOException {
+        synchronized (InflateInputStream.class) {
+            if (fixedLiteralCodes == null) {
+                final byte[] lengths = new byte[288 + 30];
+                for (int i = 0; i < 288; i++) {
+                    lengths[i] = (byte) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+                }
+                for (int i = 288; i < lengths.length; i++) {
+                    lengths[i] = 5;
+                }
+                fixedLiteralCodes = new Huffman(lengths, 0, 288);
+                fixedDistanceCodes = new Huffman(lengths, 288, 30);
+            }
+            literalCodes = fixedLiteralCodes;
+            distanceCodes = fixedDistanceCodes;
+        }
+    }
+
+    private void readDynamicCodes() throws IOException {
+        final int literalCount = bits(5) + 257;
+        final int distanceCount = bits(5) + 1;
+        final int codeLengthCount = bits(4) + 4;
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new IOException("Inflate bad dynamic code counts");
+        }
+        final byte[] lengths = new byte[literalCount + distanceCount];
+        final byte[] codeLengthLengths = new byte[19];
+        for (int i = 0; i < codeLengthCount; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+        }
+        final Huffman codeLengthCodes = new Huffman(codeLengthLengths, 0, 19);
+        int i = 0;
+        while (i < lengths.length) {
+            final int symbol = decode(codeLengthCodes);
+            if (symbol < 16) {
+                lengths[i++] = (byte) symbol;
+            } else {
+                byte repeat = 0;
+                int times;
+                if (symbol == 16) {
+                    if (i == 0) {
+                        throw new IOException("Inflate repeat with no previous length");
+                    }
+                    repeat = lengths[i - 1];
+                    times = 3 + bits(2);
+                } else if (symbol == 17) {
+                    times = 3 + bits(3);
+                } else {
+                    times = 11 + bits(7);
+                }
+                if (i + times > lengths.length) {
+                    throw new IOException("Inflate too many code lengths");
+                }
+                while (times-- > 0) {
+                    lengths[i++] = repeat;
+                }
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new IOException("Inflate block has no end code");
+        }
+        literalCodes = new Huffman(lengths, 0, literalCount);
+        distanceCodes = new Huffman(lengths, literalCount, distanceCount);
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+/**
+ * A map from primitive long keys to primitive long values which tracks access
+ * order like LRUHashtable, but without creating a Long object or searching a
+ * Vector for each operation.
+ *
+ * Entries are kept in parallel arrays and linked by array index into a hash
+ * bucket chain and a doubly-linked list from least to most recently used.
+ * get(), put(), remove() and finding the least recently used entry are
+ * constant time and do not allocate memory unless the arrays must grow.
+ *
+ * @author phou
+ */
+public final class LongLongLRUMap {
+
+    /**
+     * Returned by get() and remove() if the key is not in the map. This value
+     * can not be stored.
+     */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+    private static final int NONE = -1;
+    private int[] buckets; // First entry of each hash chain
+    private long[] keys;
+    private long[] values;
+    private int[] nextInBucket; // Also links the free entry list
+    private int[] older; // Toward least recently used
+    private int[] newer; // Toward most recently used
+    private int leastRecentlyUsed;
+    private int mostRecentlyUsed;
+    private int freeList;
+    private int highWaterMark; // Entries at or above this index have never been used
+    private int size;
+
+    public LongLongLRUMap() {
+        this(16);
+    }
+
+    /**
+     * @param initialCapacity - number of entries before the arrays must grow
+     */
+    public LongLongLRUMap(final int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("LongLongLRUMap capacity must be at least 1: " + initialCapacity);
+        }
+        int capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new long[capacity];
+        nextInBucket = new int[capacity];
+        older = new int[capacity];
+        newer = new int[capacity];
+        buckets = new int[capacity];
+        clear();
+    }
+
+    private int bucket(final long key) {
+        final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+
+        return (h ^ (h >>> 16)) & (buckets.length - 1);
+    }
+
+    private int find(final long key) {
+        for (int i = buckets[bucket(key)]; i != NONE; i = nextInBucket[i]) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Get the value, and mark it as the most recently used
+     *
+     * @param key
+     * @return the value, or NO_VALUE if not found
+     */
+    public long get(final long key) {
+        return get(key, true);
+    }
+
+    /**
+     * Get the value, and optionally mark it as the most recently used
+     *
+     * @param key
+     * @param markMostRecentlyUsed
+     * @return the value, or NO_VALUE if not found
+     */
+    public synchronized long get(final long key, final boolean markMostRecentlyUsed) {
+        final int i = find(key);
+
+        if (i == NONE) {
+            return NO_VALUE;
+        }
+        if (markMostRecentlyUsed) {
+            moveToMostRecentlyUsed(i);
+        }
+
+        return values[i];
+    }
+
+    /**
+     * Mark the entry as the most recently used
+     *
+     * @param key
+     * @return false if the key is not in the map
+     */
+    public synchronized boolean touch(final long key) {
+        final int i = find(key);
+
+        if (i == NONE) {
+            return false;
+        }
+        moveToMostRecentlyUsed(i);
+
+        return true;
+    }
+
+    public synchronized boolean containsKey(final long key) {
+        return find(key) != NONE;
+    }
+
+    /**
+     * Add or replace a value. The entry becomes the most recently used.
+     *
+     * @param key
+     * @param value
+     * @return the previous value, or NO_VALUE if there was none
+     */
+    public synchronized long put(final long key, final long value) {
+        if (value == NO_VALUE) {
+            throw new IllegalArgumentException("LongLongLRUMap can not store NO_VALUE");
+        }
+        int i = find(key);
+
+        if (i != NONE) {
+            final long previous = values[i];
+
+            values[i] = value;
+            moveToMostRecentlyUsed(i);
+
+            return previous;
+        }
+        if (size == keys.length) {
+            grow();
+        }
+        if (freeList != NONE) {
+            i = freeList;
+            freeList = nextInBucket[i];
+        } else {
+            i = highWaterMark++;
+        }
+        keys[i] = key;
+        values[i] = value;
+        final int b = bucket(key);
+        nextInBucket[i] = buckets[b];
+        buckets[b] = i;
+        older[i] = mostRecentlyUsed;
+        newer[i] = NONE;
+        linkAsMostRecentlyUsed(i);
+        size++;
+
+        return NO_VALUE;
+    }
+
+    /**
+     * Remove an entry
+     *
+     * @param key
+     * @return the value removed, or NO_VALUE if not found
+     */
+    public synchronized long remove(final long key) {
+        final int b = bucket(key);
+        int previous = NONE;
+
+        for (int i = buckets[b]; i != NONE; i = nextInBucket[i]) {
+            if (keys[i] == key) {
+                if (previous == NONE) {
+                    buckets[b] = nextInBucket[i];
+                } else {
+                    nextInBucket[previous] = nextInBucket[i];
+                }
+                unlink(i);
+                nextInBucket[i] = freeList;
+                freeList = i;
+                size--;
+
+                return values[i];
+            }
+            previous = i;
+        }
+
+        return NO_VALUE;
+    }
+
+    /**
+     * @return the key of the least recently used entry
+     * @throws NoSuchElementException if the map is empty
+     */
+    public synchronized long getLeastRecentlyUsedKey() {
+        if (size == 0) {
+            throw new NoSuchElementException("LongLongLRUMap is empty");
+        }
+
+        return keys[leastRecentlyUsed];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = NONE;
+        }
+        leastRecentlyUsed = NONE;
+        mostRecentlyUsed = NONE;
+        freeList = NONE;
+        highWaterMark = 0;
+        size = 0;
+    }
+
+    /**
+     * An enumeration of Long keys in a current snapshot of the map, in
+     * least-recently-used-first order.
+     *
+     * You can continue to make changes to the map while using the enumeration.
+     * These changes will not be reflected in the enumeration contents or order.
+     *
+     * @return
+     */
+    public synchronized Enumeration keys() {
+        final Vector v = new Vector(size);
+
+        for (int i = leastRecentlyUsed; i != NONE; i = newer[i]) {
+            v.addElement(new Long(keys[i]));
+        }
+
+        return v.elements();
+    }
+
+    /**
+     * Write all entries in least-recently-used-first order. This is a compact
+     * snapshot of 16 bytes per entry which readFrom() loads in one pass.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public synchronized void writeTo(final DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = leastRecentlyUsed; i != NONE; i = newer[i]) {
+            out.writeLong(keys[i]);
+            out.writeLong(values[i]);
+        }
+    }
+
+    /**
+     * Add the entries written by writeTo(). The access order is restored, with
+     * the entries read becoming more recently used than any already present.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public synchronized void readFrom(final DataInputStream in) throws IOException {
+        final int n = in.readInt();
+
+        if (n < 0) {
+            throw new IOException("LongLongLRUMap snapshot has negative size: " + n);
+        }
+        for (int j = 0; j < n; j++) {
+            final long key = in.readLong();
+
+            put(key, in.readLong());
+        }
+    }
+
+    private void moveToMostRecentlyUsed(final int i) {
+        if (i != mostRecentlyUsed) {
+            unlink(i);
+            older[i] = mostRecentlyUsed;
+            newer[i] = NONE;
+            linkAsMostRecentlyUsed(i);
+        }
+    }
+
+    private void linkAsMostRecentlyUsed(final int i) {
+        if (mostRecentlyUsed == NONE) {
+            leastRecentlyUsed = i;
+        } else {
+            newer[mostRecentlyUsed] = i;
+        }
+        mostRecentlyUsed = i;
+    }
+
+    private void unlink(final int i) {
+        if (older[i] == NONE) {
+            leastRecentlyUsed = newer[i];
+        } else {
+            newer[older[i]] = newer[i];
+        }
+        if (newer[i] == NONE) {
+            mostRecentlyUsed = older[i];
+        } else {
+            older[newer[i]] = older[i];
+        }
+    }
+
+    /**
+     * Double the capacity. Entries keep their array index so the access order
+     * links are unchanged, only the hash chains are rebuilt.
+     */
+    private void grow() {
+        final int capacity = keys.length * 2;
+
+        keys = copyOf(keys, capacity);
+        values = copyOf(values, capacity);
+        nextInBucket = copyOf(nextInBucket, capacity);
+        older = copyOf(older, capacity);
+        newer = copyOf(newer, capacity);
+        buckets = new int[capacity];
+        for (int b = 0; b < capacity; b++) {
+            buckets[b] = NONE;
+        }
+        for (int i = leastRecentlyUsed; i != NONE; i = newer[i]) {
+            final int b = bucket(keys[i]);
+
+            nextInBucket[i] = buckets[b];
+            buckets[b] = i;
+        }
+    }
+
+    private static long[] copyOf(final long[] a, final int length) {
+        final long[] copy = new long[length];
+
+        System.arraycopy(a, 0, copy, 0, a.length);
+
+        return copy;
+    }
+
+    private static int[] copyOf(final int[] a, final int length) {
+        final int[] copy = new int[length];
+
+        System.arraycopy(a, 0, copy, 0, a.length);
+
+        return copy;
+    }
+}
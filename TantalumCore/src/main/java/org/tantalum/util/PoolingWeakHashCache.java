@@ -60,27 +60,26 @@ public class PoolingWeakHashCache extends WeakHashCache {
      * not necessarily mean that the current pool size increases by one.
      */
     public boolean remove(final Object key) {
-        synchronized (hash) {
-            boolean removed = false;
+        if (key == null) {
+            //#debug
+            L.i("PoolingWeakHashCache", "remove() with null key");
+            return false;
+        }
 
-            if (key == null) {
-                //#debug
-                L.i("PoolingWeakHashCache", "remove() with null key");
-            } else {
-                final WeakReference wr = (WeakReference) hash.get(key);
+        final WeakReference wr = removeReference(key);
 
-                if (wr != null) {
-                    removed = hash.remove(key) != null;
-                    if (wr.get() != null) {
-                        //#debug
-                        L.i("Adding to pool", key.toString());
-                        pool.addElement(wr);
-                    }
-                }
+        if (wr == null) {
+            return false;
+        }
+        if (wr.get() != null) {
+            //#debug
+            L.i("Adding to pool", key.toString());
+            synchronized (pool) {
+                pool.addElement(wr);
             }
-
-            return removed;
         }
+
+        return true;
     }
 
     /**
@@ -89,7 +88,7 @@ public class PoolingWeakHashCache extends WeakHashCache {
      * @return - null if the pool is empty
      */
     public Object getFromPool() {
-        synchronized (hash) {
+        synchronized (pool) {
             Object o = null;
 
             while (pool.size() > 0) {
@@ -109,7 +108,7 @@ public class PoolingWeakHashCache extends WeakHashCache {
      * Clear both the cache and the pool of re-use objects
      */
     public void clear() {
-        synchronized (hash) {
+        synchronized (pool) {
             super.clear();
 
             pool.removeAllElements();
@@ -0,0 +1,291 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.util.Hashtable;
+
+/**
+ * A WeakHashCache with a bounded tier of strong references in front of it, so
+ * recently and frequently used values stay in heap memory regardless of
+ * garbage collection while the total weight is within budget.
+ *
+ * The strong tier is a segmented LRU. New values enter a probation segment.
+ * Values used again while on probation move to a protected segment which may
+ * hold up to 80% of the budget. When over budget, the least recently used
+ * value on probation is dropped first, so a burst of values seen only once
+ * does not push out values which are used repeatedly. Dropped values remain in
+ * the weak references behind the strong tier until the garbage collector takes
+ * them, and are admitted back on probation if they are used again.
+ *
+ * Weight is measured by the Weigher, or 1 per value if there is none. A
+ * maximum weight of 0 disables the strong tier and this acts exactly like a
+ * WeakHashCache, including taking no lock other than that of the WeakHashCache
+ * segment for get() and put(). While the strong tier is enabled those calls
+ * synchronize on the SLRUHashCache to keep the recently used order.
+ *
+ * @author phou
+ */
+public class SLRUHashCache extends WeakHashCache {
+
+    private final Hashtable strong = new Hashtable();
+    private final Weigher weigher;
+    private final Segment probation = new Segment();
+    private final Segment protectedSegment = new Segment();
+    private volatile int maxWeight;
+
+    /**
+     * Create a cache with no strong tier until setMaxWeight() is called
+     *
+     * @param weigher - may be null to count each value as weight 1
+     */
+    public SLRUHashCache(final Weigher weigher) {
+        this(0, weigher);
+    }
+
+    /**
+     * Create a cache
+     *
+     * @param maxWeight - total weight of values held by strong reference
+     * @param weigher - may be null to count each value as weight 1
+     */
+    public SLRUHashCache(final int maxWeight, final Weigher weigher) {
+        this.weigher = weigher;
+        setMaxWeight(maxWeight);
+    }
+
+    /**
+     * Change the total weight of values held by strong reference. Values are
+     * released from the strong tier immediately if needed to fit.
+     *
+     * @param maxWeight - 0 to disable the strong tier
+     */
+    public synchronized void setMaxWeight(final int maxWeight) {
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("SLRUHashCache maxWeight must be 0 or more: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        trim();
+    }
+
+    public synchronized int getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return the total weight of values currently held by strong reference
+     */
+    public synchronized int getWeight() {
+        return probation.weight + protectedSegment.weight;
+    }
+
+    /**
+     * Get the object associated with this key, and mark it as recently used.
+     *
+     * @param key
+     * @return - null if the object is not stored, or if it has been released
+     * from the strong tier and then garbage collected
+     */
+    public Object get(final Object key) {
+        if (maxWeight == 0) {
+            return super.get(key);
+        }
+
+        synchronized (this) {
+            final Node node = key == null ? null : (Node) strong.get(key);
+
+            if (node != null) {
+                if (node.segment == probation) {
+                    probation.unlink(node);
+                    protectedSegment.addMostRecentlyUsed(node);
+                    trim();
+                } else {
+                    protectedSegment.unlink(node);
+                    protectedSegment.addMostRecentlyUsed(node);
+                }
+
+                return node.value;
+            }
+
+            final Object o = super.get(key);
+            if (o != null) {
+                admit(key, o);
+            }
+
+            return o;
+        }
+    }
+
+    public void put(final Object key, final Object value) {
+        if (maxWeight == 0) {
+            super.put(key, value);
+            return;
+        }
+
+        synchronized (this) {
+            super.put(key, value);
+            admit(key, value);
+        }
+    }
+
+    public synchronized boolean remove(final Object key) {
+        release(key);
+
+        return super.remove(key);
+    }
+
+    public synchronized void clear() {
+        releaseAll();
+        super.clear();
+    }
+
+    public synchronized void clearValues() {
+        releaseAll();
+        super.clearValues();
+    }
+
+    private void admit(final Object key, final Object value) {
+        if (maxWeight == 0) {
+            return;
+        }
+        final int weight = weigher == null ? 1 : Math.max(1, weigher.weigh(value));
+        Node node = (Node) strong.get(key);
+
+        if (node != null) {
+            node.segment.unlink(node);
+        } else {
+            node = new Node(key);
+        }
+        if (weight > maxWeight) {
+            // Too large to hold, leave it to the weak reference
+            strong.remove(key);
+            return;
+        }
+        node.value = value;
+        node.weight = weight;
+        strong.put(key, node);
+        probation.addMostRecentlyUsed(node);
+        trim();
+    }
+
+    private void release(final Object key) {
+        if (key != null) {
+            final Node node = (Node) strong.remove(key);
+
+            if (node != null) {
+                node.segment.unlink(node);
+            }
+        }
+    }
+
+    private void releaseAll() {
+        strong.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    /**
+     * Demote from protected to probation, then release from probation until
+     * within budget
+     */
+    private void trim() {
+        final int maxProtectedWeight = maxWeight - maxWeight / 5;
+
+        while (protectedSegment.weight > maxProtectedWeight) {
+            final Node node = protectedSegment.leastRecentlyUsed;
+
+            protectedSegment.unlink(node);
+            probation.addMostRecentlyUsed(node);
+        }
+        while (probation.weight + protectedSegment.weight > maxWeight) {
+            final Node node = probation.leastRecentlyUsed != null ? probation.leastRecentlyUsed : protectedSegment.leastRecentlyUsed;
+
+            node.segment.unlink(node);
+            strong.remove(node.key);
+        }
+    }
+
+    private static final class Node {
+
+        final Object key;
+        Object value;
+        int weight;
+        Segment segment;
+        Node older;
+        Node newer;
+
+        Node(final Object key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A doubly linked list from least to most recently used
+     */
+    private static final class Segment {
+
+        Node leastRecentlyUsed;
+        Node mostRecentlyUsed;
+        int weight;
+
+        void addMostRecentlyUsed(final Node node) {
+            node.segment = this;
+            node.older = mostRecentlyUsed;
+            node.newer = null;
+            if (mostRecentlyUsed == null) {
+                leastRecentlyUsed = node;
+            } else {
+                mostRecentlyUsed.newer = node;
+            }
+            mostRecentlyUsed = node;
+            weight += node.weight;
+        }
+
+        void unlink(final Node node) {
+            if (node.older == null) {
+                leastRecentlyUsed = node.newer;
+            } else {
+                node.older.newer = node.newer;
+            }
+            if (node.newer == null) {
+                mostRecentlyUsed = node.older;
+            } else {
+                node.newer.older = node.older;
+            }
+            node.older = null;
+            node.newer = null;
+            node.segment = null;
+            weight -= node.weight;
+        }
+
+        void clear() {
+            leastRecentlyUsed = null;
+            mostRecentlyUsed = null;
+            weight = 0;
+        }
+    }
+}
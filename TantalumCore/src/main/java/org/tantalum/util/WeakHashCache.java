@@ -36,8 +36,13 @@ import java.util.Vector;
  * This is a hashtable which acts as a heap memory cache using WeakReference.
  *
  * <code>Hashtable</code> is not thread safe, but
- * <code>WeakHashCache</code> is synchronized and thread safe. Like
- * <code>Vector</code>, you can externally synchronize on it.
+ * <code>WeakHashCache</code> is thread safe. Keys are spread over several
+ * independently locked segments so threads working on different keys do not
+ * wait for each other. Operations on one key are atomic, but operations which
+ * span the whole collection such as size() and keys() are not a consistent
+ * snapshot if other threads are changing it. If you need several calls to act
+ * as one, externally synchronize on the cache and do all access to it within
+ * such blocks.
  *
  * Objects in the hashtable are not held in memory, they may be garbage
  * collected at any time, in which case the calling routine must do something
@@ -48,7 +53,9 @@ import java.util.Vector;
  * If an object is garbage collected, it will not be removed from the hash cache
  * automatically, so your app can count on this is a stable list of objects. You
  * may choose to manually remove references which will no longer be of interest
- * according to application logic.
+ * according to application logic. The WeakReference of a garbage collected
+ * object is released a few segments at a time as new values are added, so the
+ * per-entry overhead of expired values does not build up.
  *
  * Since you do not have any control over which weak references are destroyed,
  * your application should be prepared to re-create data stored in this cache
@@ -62,10 +69,58 @@ import java.util.Vector;
 public class WeakHashCache {
 
     private final static WeakReference NULL_WEAK_REFERENCE = new WeakReference(null);
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 8;
+    /*
+     * After this many put() or markContains() calls one segment is swept for
+     * expired WeakReference values
+     */
+    private static final int SWEEP_INTERVAL = 32;
     /**
-     * A Hashtable of WeakReference objects.
+     * Each segment is a Hashtable of WeakReference objects. Hashtable is
+     * internally synchronized, and compound operations on a segment
+     * synchronize on that segment.
+     */
+    private final Hashtable[] segments;
+    private final int segmentMask;
+    private int writesSinceSweep = 0;
+    private int nextSweepSegment = 0;
+
+    /**
+     * Create a cache with the default number of segments
+     */
+    public WeakHashCache() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Create a cache
+     *
+     * @param concurrencyLevel - the expected number of threads using the cache
+     * at the same time. This is rounded up to a power of two segments. Use 1
+     * for a small cache which is always externally synchronized.
      */
-    protected final Hashtable hash = new Hashtable();
+    public WeakHashCache(final int concurrencyLevel) {
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("WeakHashCache concurrencyLevel must be 1 or more: " + concurrencyLevel);
+        }
+        int n = 1;
+        while (n < concurrencyLevel) {
+            n <<= 1;
+        }
+        segments = new Hashtable[n];
+        segmentMask = n - 1;
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Hashtable();
+        }
+    }
+
+    private Hashtable segmentFor(final Object key) {
+        int h = key.hashCode();
+
+        h ^= (h >>> 16) ^ (h >>> 8);
+
+        return segments[h & segmentMask];
+    }
 
     /**
      * Get the object associated with this key
@@ -74,12 +129,12 @@ public class WeakHashCache {
      * @return - null if the object is not stored, or if the WeakReference has
      * been garbage collected by the virtual machine.
      */
-    public synchronized Object get(final Object key) {
+    public Object get(final Object key) {
         if (key == null) {
             throw new NullPointerException("Attempt to get(null) from WeakHashCache");
         }
 
-        final WeakReference reference = (WeakReference) hash.get(key);
+        final WeakReference reference = (WeakReference) segmentFor(key).get(key);
 
         if (reference == null) {
             return null;
@@ -93,8 +148,18 @@ public class WeakHashCache {
      * 
      * @return 
      */
-    public synchronized Enumeration keys() {
-        return hash.keys();
+    public Enumeration keys() {
+        final Vector v = new Vector(size());
+
+        for (int i = 0; i < segments.length; i++) {
+            final Enumeration enu = segments[i].keys();
+
+            while (enu.hasMoreElements()) {
+                v.addElement(enu.nextElement());
+            }
+        }
+
+        return v.elements();
     }
 
     /**
@@ -102,8 +167,18 @@ public class WeakHashCache {
      * 
      * @return 
      */
-    public synchronized Enumeration elements() {
-        return hash.elements();
+    public Enumeration elements() {
+        final Vector v = new Vector(size());
+
+        for (int i = 0; i < segments.length; i++) {
+            final Enumeration enu = segments[i].elements();
+
+            while (enu.hasMoreElements()) {
+                v.addElement(enu.nextElement());
+            }
+        }
+
+        return v.elements();
     }
 
     /**
@@ -121,7 +196,7 @@ public class WeakHashCache {
      * @param key
      * @param value
      */
-    public synchronized void put(final Object key, final Object value) {
+    public void put(final Object key, final Object value) {
         if (key == null) {
             throw new NullPointerException("null key put to WeakHashCache");
         }
@@ -129,7 +204,8 @@ public class WeakHashCache {
             throw new IllegalArgumentException("null value put to WeakHashCache");
         }
 
-        hash.put(key, new WeakReference(value));
+        segmentFor(key).put(key, new WeakReference(value));
+        sweepIfDue();
     }
 
     /**
@@ -141,14 +217,19 @@ public class WeakHashCache {
      *
      * @param key
      */
-    public synchronized void markContains(final Object key) {
+    public void markContains(final Object key) {
         if (key == null) {
             throw new NullPointerException("markContains(null) to WeakHashCache");
         }
-        if (hash.containsKey(key)) {
-            return;
+        final Hashtable segment = segmentFor(key);
+
+        synchronized (segment) {
+            if (segment.containsKey(key)) {
+                return;
+            }
+            segment.put(key, NULL_WEAK_REFERENCE);
         }
-        hash.put(key, NULL_WEAK_REFERENCE);
+        sweepIfDue();
     }
 
     /**
@@ -160,9 +241,9 @@ public class WeakHashCache {
      * @param key
      * @return true if the key was found and removed
      */
-    public synchronized boolean remove(final Object key) {
+    public boolean remove(final Object key) {
         if (key != null) {
-            return hash.remove(key) != null;
+            return segmentFor(key).remove(key) != null;
         }
 
         //#debug
@@ -170,6 +251,18 @@ public class WeakHashCache {
         return false;
     }
 
+    /**
+     * Remove the key from the cache and return the WeakReference which held
+     * its value, so a subclass can decide what to do with a value which has
+     * not yet been garbage collected
+     *
+     * @param key
+     * @return the reference, or null if the key was not in the cache
+     */
+    protected final WeakReference removeReference(final Object key) {
+        return (WeakReference) segmentFor(key).remove(key);
+    }
+
     /**
      * Indicate if the cache contains the given key.
      *
@@ -181,12 +274,12 @@ public class WeakHashCache {
      * @param key
      * @return
      */
-    public synchronized boolean containsKey(final Object key) {
+    public boolean containsKey(final Object key) {
         if (key == null) {
             throw new NullPointerException("containsKey() with null key");
         }
 
-        return hash.containsKey(key);
+        return segmentFor(key).containsKey(key);
     }
 
     /**
@@ -199,8 +292,14 @@ public class WeakHashCache {
      *
      * @return
      */
-    public synchronized int size() {
-        return hash.size();
+    public int size() {
+        int size = 0;
+
+        for (int i = 0; i < segments.length; i++) {
+            size += segments[i].size();
+        }
+
+        return size;
     }
 
     /**
@@ -209,11 +308,11 @@ public class WeakHashCache {
      * This does not free a great deal of memory, but it does free the overhead
      * structure associated with each collection element.
      */
-    public synchronized void clear() {
-        hash.clear();
+    public void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].clear();
+        }
     }
-    
-    private final Vector purgeList = new Vector();
 
     /**
      * Remove from the list all elements for which the WeakReference has
@@ -224,27 +323,27 @@ public class WeakHashCache {
      * WeakHashCache without concern the response will be affected by reference
      * expiry.
      *
+     * Each segment is locked in turn, so other threads may continue to use the
+     * rest of the cache meanwhile.
+     *
      * @return the size after items were removed
      */
-    public synchronized int purgeExpiredWeakReferences() {
-        final Enumeration keys = hash.keys();
+    public int purgeExpiredWeakReferences() {
+        final Vector purgeList = new Vector();
 
-        purgeList.removeAllElements();
-        while (keys.hasMoreElements()) {
-            final Object key = keys.nextElement();
-            final Object o = this.get(key);
+        for (int i = 0; i < segments.length; i++) {
+            final Hashtable segment = segments[i];
 
-            if (o == null) {
-                purgeList.addElement(key);
+            synchronized (segment) {
+                collectExpired(segment, purgeList, true);
+                for (int j = purgeList.size() - 1; j >= 0; j--) {
+                    segment.remove(purgeList.elementAt(j));
+                }
             }
+            purgeList.removeAllElements();
         }
-        final int n = purgeList.size();
 
-        for (int i = 0; i < n; i++) {
-            remove(purgeList.elementAt(i));
-        }
-
-        return hash.size();
+        return size();
     }
 
     /**
@@ -252,17 +351,23 @@ public class WeakHashCache {
      * they point.
      *
      */
-    public synchronized void clearValues() {
-        final Object[] keyCopy = new Object[hash.size()];
-        final Enumeration keys = hash.keys();
-        int i = 0;
+    public void clearValues() {
+        final Vector keys = new Vector();
 
-        while (keys.hasMoreElements()) {
-            keyCopy[i++] = keys.nextElement();
-        }
-        hash.clear();
-        for (i = 0; i < keyCopy.length; i++) {
-            hash.put(keyCopy[i], NULL_WEAK_REFERENCE);
+        for (int i = 0; i < segments.length; i++) {
+            final Hashtable segment = segments[i];
+
+            synchronized (segment) {
+                final Enumeration enu = segment.keys();
+
+                while (enu.hasMoreElements()) {
+                    keys.addElement(enu.nextElement());
+                }
+                for (int j = keys.size() - 1; j >= 0; j--) {
+                    segment.put(keys.elementAt(j), NULL_WEAK_REFERENCE);
+                }
+            }
+            keys.removeAllElements();
         }
     }
 
@@ -271,14 +376,55 @@ public class WeakHashCache {
      *
      * @return
      */
-    public synchronized Object[] getKeys() {
-        final Object[] keys = new Object[hash.size()];
+    public Object[] getKeys() {
+        final Vector v = new Vector(size());
+        final Enumeration enu = keys();
 
-        final Enumeration enu = hash.keys();
-        for (int i = 0; i < keys.length; i++) {
-            keys[i] = enu.nextElement();
+        while (enu.hasMoreElements()) {
+            v.addElement(enu.nextElement());
         }
+        final Object[] keys = new Object[v.size()];
+        v.copyInto(keys);
 
         return keys;
     }
+
+    /**
+     * Every SWEEP_INTERVAL writes, replace the expired WeakReference objects
+     * in the next segment with the shared empty reference. The keys remain.
+     */
+    private void sweepIfDue() {
+        /*
+         * The counters are not locked. A lost update only shifts when the
+         * next sweep happens, and two threads sweeping the same segment is
+         * harmless.
+         */
+        if (++writesSinceSweep < SWEEP_INTERVAL) {
+            return;
+        }
+        writesSinceSweep = 0;
+        final Hashtable segment = segments[nextSweepSegment & segmentMask];
+        nextSweepSegment = (nextSweepSegment + 1) & segmentMask;
+        final Vector expired = new Vector();
+
+        synchronized (segment) {
+            collectExpired(segment, expired, false);
+            for (int i = expired.size() - 1; i >= 0; i--) {
+                segment.put(expired.elementAt(i), NULL_WEAK_REFERENCE);
+            }
+        }
+    }
+
+    private static void collectExpired(final Hashtable segment, final Vector expired, final boolean includeEmpty) {
+        final Enumeration keys = segment.keys();
+
+        while (keys.hasMoreElements()) {
+            final Object key = keys.nextElement();
+            final WeakReference reference = (WeakReference) segment.get(key);
+
+            if ((includeEmpty || reference != NULL_WEAK_REFERENCE) && reference.get() == null) {
+                expired.addElement(key);
+            }
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum;
+
+import java.util.Vector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Unit tests for the QueuePolicy types as applied by Worker.fork()
+ *
+ * @author phou
+ */
+public class QueuePolicyTest {
+
+    private static final int LIMIT = 3;
+
+    private static Task task(final String name) {
+        return task(Task.NORMAL_PRIORITY, name);
+    }
+
+    private static Task task(final int priority, final String name) {
+        return new Task(priority) {
+            protected Object exec(final Object in) {
+                return in;
+            }
+        }.setClassName(name);
+    }
+
+    private static Vector fill(final int n) {
+        final Vector queue = new Vector();
+
+        for (int i = 0; i < n; i++) {
+            queue.addElement(task("Queued" + i));
+        }
+
+        return queue;
+    }
+
+    private static Task applyPolicy(final QueuePolicy policy, final Vector queue, final Task task) {
+        final QueuePolicy previous = Worker.getQueuePolicy();
+
+        Worker.setQueuePolicy(policy);
+        try {
+            return Worker.applyQueuePolicy(queue, QueuePolicy.NORMAL_QUEUE, task);
+        } finally {
+            Worker.setQueuePolicy(previous);
+        }
+    }
+
+    @Test
+    public void testCancelOnOverflow() {
+        System.out.println("testCancelOnOverflow");
+        final QueuePolicy policy = new QueuePolicy(QueuePolicy.CANCEL_ON_OVERFLOW, LIMIT);
+        final Vector queue = fill(LIMIT - 1);
+
+        assertNull("Space in the queue", applyPolicy(policy, queue, task("New")));
+        queue.addElement(task("Last"));
+        final Object last = queue.lastElement();
+        assertSame("Full queue gives up its last Task", last, applyPolicy(policy, queue, task("New")));
+        assertEquals("Last Task removed", LIMIT - 1, queue.size());
+        assertEquals("Rejected count", 1, policy.getRejectedCount(QueuePolicy.NORMAL_QUEUE));
+        assertEquals("Max depth", LIMIT, policy.getMaxDepth(QueuePolicy.NORMAL_QUEUE));
+    }
+
+    @Test
+    public void testShedLowestPriority() {
+        System.out.println("testShedLowestPriority");
+        final QueuePolicy policy = new QueuePolicy(QueuePolicy.SHED_LOWEST_PRIORITY, LIMIT);
+        final Vector queue = new Vector();
+
+        queue.addElement(task(Task.HIGH_PRIORITY, "High"));
+        queue.addElement(task("Normal0"));
+        queue.addElement(task("Normal1"));
+        final Object last = queue.lastElement();
+        assertSame("A HIGH Task sheds the last NORMAL Task", last, applyPolicy(policy, queue, task(Task.HIGH_PRIORITY, "New")));
+        assertEquals("Queue is below the limit", LIMIT - 1, queue.size());
+        assertEquals("Rejected count", 1, policy.getRejectedCount(QueuePolicy.NORMAL_QUEUE));
+
+        queue.addElement(task("Normal2"));
+        final Task normal = task("New");
+        assertSame("A NORMAL Task does not shed one of the same priority", normal, applyPolicy(policy, queue, normal));
+        assertEquals("Queue untouched", LIMIT, queue.size());
+        assertEquals("Rejected count after shed", 2, policy.getRejectedCount(QueuePolicy.NORMAL_QUEUE));
+
+        final Vector fastlaneQueue = new Vector();
+        for (int i = 0; i < LIMIT; i++) {
+            fastlaneQueue.addElement(task(Task.FASTLANE_PRIORITY, "Fastlane" + i));
+        }
+        final Task high = task(Task.HIGH_PRIORITY, "New");
+        assertSame("A FASTLANE Task is never shed for a lower priority one", high, applyPolicy(policy, fastlaneQueue, high));
+        assertEquals("Fastlane queue untouched", LIMIT, fastlaneQueue.size());
+    }
+
+    @Test
+    public void testGrowToMemoryBudget() {
+        System.out.println("testGrowToMemoryBudget");
+        final QueuePolicy underBudget = new QueuePolicy(QueuePolicy.GROW_TO_MEMORY_BUDGET, LIMIT, Long.MAX_VALUE);
+        final Vector queue = fill(LIMIT * 2);
+
+        assertNull("Under the memory budget the queue grows", applyPolicy(underBudget, queue, task("New")));
+        assertEquals("Nothing rejected", 0, underBudget.getRejectedCount(QueuePolicy.NORMAL_QUEUE));
+
+        final QueuePolicy overBudget = new QueuePolicy(QueuePolicy.GROW_TO_MEMORY_BUDGET, LIMIT, 1);
+        final Object last = queue.lastElement();
+        assertSame("Over the memory budget the last Task is canceled", last, applyPolicy(overBudget, queue, task("New")));
+    }
+
+    @Test
+    public void testBlockForker() throws InterruptedException {
+        System.out.println("testBlockForker");
+        final QueuePolicy policy = new QueuePolicy(QueuePolicy.BLOCK_FORKER, LIMIT);
+        final Vector queue = fill(LIMIT);
+        final Task newTask = task("New");
+        final Task[] canceled = new Task[1];
+        final QueuePolicy previous = Worker.getQueuePolicy();
+
+        Worker.setQueuePolicy(policy);
+        try {
+            final Thread forker = new Thread() {
+                public void run() {
+                    Worker.awaitQueueSpace(queue, QueuePolicy.NORMAL_QUEUE, queue);
+                    synchronized (queue) {
+                        canceled[0] = Worker.applyQueuePolicy(queue, QueuePolicy.NORMAL_QUEUE, newTask);
+                        queue.insertElementAt(newTask, 0);
+                    }
+                }
+            };
+            forker.start();
+            for (int i = 0; i < 100 && policy.getBlockedCount(QueuePolicy.NORMAL_QUEUE) == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals("Forker blocked on a full queue", 1, policy.getBlockedCount(QueuePolicy.NORMAL_QUEUE));
+            assertTrue("Forker still waiting", forker.isAlive());
+            synchronized (queue) {
+                queue.removeElementAt(queue.size() - 1);
+                queue.notifyAll();
+            }
+            forker.join(1000);
+            assertTrue("Forker released", !forker.isAlive());
+            assertNull("A forker let through by BLOCK_FORKER cancels nothing", canceled[0]);
+            assertSame("New Task queued", newTask, queue.firstElement());
+            assertEquals("Queue full again", LIMIT, queue.size());
+            assertEquals("Nothing rejected", 0, policy.getRejectedCount(QueuePolicy.NORMAL_QUEUE));
+        } finally {
+            Worker.setQueuePolicy(previous);
+        }
+    }
+}
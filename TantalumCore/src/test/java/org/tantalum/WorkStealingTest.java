@@ -0,0 +1,208 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum;
+
+import java.util.Vector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the Worker work-stealing scheduler mode
+ *
+ * @author phou
+ */
+public class WorkStealingTest extends MockedStaticInitializers {
+
+    private static final int NUMBER_OF_WORKERS = 4;
+    private static boolean workersStarted = false;
+
+    @Before
+    public final void workStealingTestFixture() {
+        synchronized (WorkStealingTest.class) {
+            if (!workersStarted) {
+                Worker.init(NUMBER_OF_WORKERS, true);
+                workersStarted = true;
+            }
+        }
+    }
+
+    /**
+     * Wait for a Task to finish without join(), which would run a queued Task
+     * on this thread instead of a Worker
+     */
+    private static boolean awaitFinished(final Task task, final long timeout) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+
+        while (task.getStatus() != Task.FINISHED && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+
+        return task.getStatus() == Task.FINISHED;
+    }
+
+    private static Task recordThread(final int priority, final Vector threads) {
+        return new Task(priority) {
+            protected Object exec(final Object in) {
+                threads.addElement(Thread.currentThread());
+                return in;
+            }
+        }.setClassName("RecordThread");
+    }
+
+    @Test
+    public void testFork() throws InterruptedException {
+        System.out.println("testFork");
+        final Vector threads = new Vector();
+        final Task[] tasks = new Task[20];
+
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = recordThread(Task.NORMAL_PRIORITY, threads).fork();
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            assertTrue("Forked Task " + i + " finished", awaitFinished(tasks[i], 2000));
+        }
+        assertEquals("Every Task ran once", tasks.length, threads.size());
+        for (int i = 0; i < threads.size(); i++) {
+            assertTrue("Task ran on a Worker", threads.elementAt(i) instanceof Worker);
+        }
+    }
+
+    @Test
+    public void testSteal() throws InterruptedException {
+        System.out.println("testSteal");
+        final Vector threads = new Vector();
+        final Task[] children = new Task[2];
+        final Task parent = new Task(Task.NORMAL_PRIORITY) {
+            protected Object exec(final Object in) throws InterruptedException {
+                /*
+                 * Tasks forked from a Worker go to its own deque. This Worker
+                 * stays busy, so a peer must steal them.
+                 */
+                for (int i = 0; i < children.length; i++) {
+                    children[i] = recordThread(Task.NORMAL_PRIORITY, threads).fork();
+                }
+                for (int i = 0; i < children.length; i++) {
+                    awaitFinished(children[i], 2000);
+                }
+                return Thread.currentThread();
+            }
+        }.setClassName("Parent").fork();
+
+        assertTrue("Parent finished", awaitFinished(parent, 5000));
+        assertEquals("Both children ran", children.length, threads.size());
+        for (int i = 0; i < threads.size(); i++) {
+            assertTrue("Child stolen by a peer Worker", threads.elementAt(i) != parent.getValue());
+        }
+    }
+
+    @Test
+    public void testParkedWorkerWakesOnFork() throws InterruptedException {
+        System.out.println("testParkedWorkerWakesOnFork");
+        Thread.sleep(200); // All Workers run out of work and park
+        final Task task = recordThread(Task.HIGH_PRIORITY, new Vector()).fork();
+
+        assertTrue("A parked Worker woke to run the Task", awaitFinished(task, 1000));
+    }
+
+    @Test
+    public void testIdleRunsAfterFastlane() throws InterruptedException {
+        System.out.println("testIdleRunsAfterFastlane");
+        final Vector threads = new Vector();
+        final Vector started = new Vector();
+        final Task[] busy = new Task[NUMBER_OF_WORKERS];
+
+        Thread.sleep(200); // All Workers park
+        /*
+         * Occupy every Worker at once so that one of these runs on the Fastlane
+         * Worker, which then finishes last
+         */
+        for (int i = 0; i < busy.length; i++) {
+            busy[i] = new Task(Task.FASTLANE_PRIORITY) {
+                protected Object exec(final Object in) throws InterruptedException {
+                    synchronized (started) {
+                        started.addElement(Thread.currentThread());
+                        started.notifyAll();
+                        while (started.size() < NUMBER_OF_WORKERS) {
+                            started.wait();
+                        }
+                    }
+                    if ("Fastlane".equals(Thread.currentThread().getName())) {
+                        Thread.sleep(300);
+                    }
+                    return in;
+                }
+            }.setClassName("Busy").fork();
+        }
+        synchronized (started) {
+            while (started.size() < NUMBER_OF_WORKERS) {
+                started.wait(2000);
+            }
+        }
+        /*
+         * The IDLE Task is not runnable while the Fastlane Worker is busy, so
+         * the other Workers park. It must still run when the Fastlane Worker,
+         * which never runs IDLE Tasks, is the last to go idle.
+         */
+        final Task idle = recordThread(Task.IDLE_PRIORITY, threads).fork();
+
+        for (int i = 0; i < busy.length; i++) {
+            assertTrue("Busy Task finished", awaitFinished(busy[i], 2000));
+        }
+        assertTrue("IDLE Task ran after the last busy Worker went idle", awaitFinished(idle, 2000));
+        assertTrue("IDLE Task ran on a Worker", threads.elementAt(0) instanceof Worker);
+    }
+
+    @Test
+    public void testOneIdleTaskAtATime() throws InterruptedException {
+        System.out.println("testOneIdleTaskAtATime");
+        final int[] running = new int[2]; // Now, most at once
+        final Task[] idle = new Task[8];
+
+        Thread.sleep(200); // All Workers park
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = new Task(Task.IDLE_PRIORITY) {
+                protected Object exec(final Object in) throws InterruptedException {
+                    synchronized (running) {
+                        running[1] = Math.max(running[1], ++running[0]);
+                    }
+                    Thread.sleep(20);
+                    synchronized (running) {
+                        running[0]--;
+                    }
+                    return in;
+                }
+            }.setClassName("Idle").fork();
+        }
+        for (int i = 0; i < idle.length; i++) {
+            assertTrue("IDLE Task finished", awaitFinished(idle[i], 5000));
+        }
+        assertEquals("IDLE Tasks run only when all other Workers are idle", 1, running[1]);
+    }
+}
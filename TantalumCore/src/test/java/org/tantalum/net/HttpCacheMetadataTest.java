@@ -0,0 +1,102 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.util.Hashtable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Unit tests for <code>HttpCacheMetadata</code>
+ *
+ * @author phou
+ */
+public class HttpCacheMetadataTest {
+
+    private static final long NOW = 1000000000000L;
+
+    private static Hashtable headers(final String[] keysAndValues) {
+        final Hashtable h = new Hashtable();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            h.put(keysAndValues[i], new String[]{keysAndValues[i + 1]});
+        }
+        return h;
+    }
+
+    @Test
+    public void parseHttpDate() {
+        assertEquals("RFC 1123 date", 784111777000L, HttpCacheMetadata.parseHttpDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals("Not a date", -1, HttpCacheMetadata.parseHttpDate("yesterday"));
+        assertEquals("Null", -1, HttpCacheMetadata.parseHttpDate(null));
+    }
+
+    @Test
+    public void maxAgeWins() {
+        final HttpCacheMetadata m = HttpCacheMetadata.fromHeaders(headers(new String[]{
+            "cache-control", "public, max-age=60",
+            "Expires", "Sun, 06 Nov 1994 08:49:37 GMT",
+            "etag", "\"abc\""}), NOW);
+        assertEquals("Expires after max-age", NOW + 60000, m.expiresAt);
+        assertEquals("ETag found ignoring case", "\"abc\"", m.eTag);
+        assertFalse("Fresh", m.isStale(NOW + 59999));
+        assertTrue("Stale", m.isStale(NOW + 60000));
+    }
+
+    @Test
+    public void noCacheIsStale() {
+        final HttpCacheMetadata m = HttpCacheMetadata.fromHeaders(headers(new String[]{
+            "Cache-Control", "no-cache, max-age=600"}), NOW);
+        assertTrue("no-cache must revalidate", m.isStale(NOW));
+        assertFalse("No validators", m.hasValidator());
+    }
+
+    @Test
+    public void expiresRelativeToServerDate() {
+        final HttpCacheMetadata m = HttpCacheMetadata.fromHeaders(headers(new String[]{
+            "Date", "Sun, 06 Nov 1994 08:49:37 GMT",
+            "Expires", "Sun, 06 Nov 1994 09:49:37 GMT"}), NOW);
+        assertEquals("One hour after the response regardless of phone clock", NOW + 3600000, m.expiresAt);
+    }
+
+    @Test
+    public void refreshKeepsValidators() throws Exception {
+        final HttpCacheMetadata m = new HttpCacheMetadata("\"abc\"", "Sun, 06 Nov 1994 08:49:37 GMT", NOW);
+        final HttpCacheMetadata r = m.refresh(headers(new String[]{"Cache-Control", "max-age=10"}), NOW);
+        assertEquals("ETag kept", "\"abc\"", r.eTag);
+        assertEquals("Last-Modified kept", m.lastModified, r.lastModified);
+        assertEquals("New freshness", NOW + 10000, r.expiresAt);
+
+        final HttpCacheMetadata copy = HttpCacheMetadata.fromBytes(r.toBytes());
+        assertEquals("Serialized ETag", r.eTag, copy.eTag);
+        assertEquals("Serialized expiry", r.expiresAt, copy.expiresAt);
+        assertNull("Empty ETag is null", HttpCacheMetadata.fromBytes(new HttpCacheMetadata(null, null, NOW).toBytes()).eTag);
+    }
+}
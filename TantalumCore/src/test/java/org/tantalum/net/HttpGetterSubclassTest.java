@@ -0,0 +1,125 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.util.Hashtable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tantalum.Task;
+import org.tantalum.net.json.JSONGetter;
+import org.tantalum.net.json.JSONModel;
+import org.tantalum.net.json.JSONPoster;
+
+/**
+ * Subclasses of HttpGetter which call super.exec() must survive an exec()
+ * which is deferred to wait for a connection or a retry
+ *
+ * @author phou
+ */
+public class HttpGetterSubclassTest {
+
+    private static final long TIMEOUT = 10000;
+    private static final byte[] JSON = "{\"name\":\"value\"}".getBytes();
+
+    @BeforeClass
+    public static void setUpClass() {
+        ScriptedPlatformAdapter.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        HttpGetter.averageBaud.reset(HttpGetter.THRESHOLD_BAUD / 2);
+    }
+
+    @Before
+    public void clearScript() {
+        ScriptedPlatformAdapter.clear();
+    }
+
+    @Test
+    public void jsonGetterWaitsForSaturatedHost() throws Exception {
+        final String url = "http://saturated.example.com/json";
+        final HttpScheduler scheduler = HttpScheduler.getScheduler(url);
+        final int limit = scheduler.getConnectionLimit();
+        for (int i = 0; i < limit; i++) {
+            assertTrue("Connection " + i, scheduler.tryAcquire(new JSONGetter(new JSONModel())));
+        }
+        ScriptedPlatformAdapter.respond(HttpGetter.HTTP_200_OK, new Hashtable(), JSON);
+        final JSONModel model = new JSONModel();
+        final JSONGetter getter = new JSONGetter(Task.NORMAL_PRIORITY, url, model);
+
+        getter.fork();
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (scheduler.getWaitingCount() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("Parked to wait for a connection", 1, scheduler.getWaitingCount());
+        assertEquals("Still waiting", Task.PENDING, getter.getStatus());
+        assertEquals("No request while the host is full", 0, ScriptedPlatformAdapter.getRequestCount());
+        assertSame("Parked getter is next", getter, scheduler.release());
+        getter.fork();
+        for (int i = 1; i < limit; i++) {
+            scheduler.release();
+        }
+
+        assertSame(model, getter.join(TIMEOUT));
+        assertEquals("value", model.getString("name"));
+    }
+
+    @Test
+    public void jsonGetterRetries() throws Exception {
+        final JSONModel model = new JSONModel();
+        final JSONGetter getter = new JSONGetter(Task.NORMAL_PRIORITY, "http://retry.example.com/json", model);
+
+        getter.setRetryPolicy(new RetryPolicy(1, 10, 100));
+        ScriptedPlatformAdapter.respond(HttpGetter.HTTP_503_SERVICE_UNAVAILABLE, new Hashtable(), new byte[0]);
+        ScriptedPlatformAdapter.respond(HttpGetter.HTTP_200_OK, new Hashtable(), JSON);
+
+        assertSame(model, getter.fork().join(TIMEOUT));
+        assertEquals("value", model.getString("name"));
+        assertEquals("Retried once", 2, ScriptedPlatformAdapter.getRequestCount());
+    }
+
+    @Test
+    public void jsonPosterRetries() throws Exception {
+        final JSONPoster poster = new JSONPoster(Task.NORMAL_PRIORITY, "http://retry.example.com/post", "{}", "UTF8") {
+        };
+
+        poster.setRetryPolicy(new RetryPolicy(1, 10, 100));
+        ScriptedPlatformAdapter.respond(HttpGetter.HTTP_503_SERVICE_UNAVAILABLE, new Hashtable(), new byte[0]);
+        ScriptedPlatformAdapter.respond(HttpGetter.HTTP_200_OK, new Hashtable(), JSON);
+
+        assertEquals("value", ((JSONModel) poster.fork().join(TIMEOUT)).getString("name"));
+        assertEquals("Retried once", 2, ScriptedPlatformAdapter.getRequestCount());
+    }
+}
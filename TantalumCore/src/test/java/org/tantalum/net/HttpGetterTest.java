@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.util.Vector;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Ignore;
 import static org.mockito.Mockito.*;
@@ -74,6 +75,28 @@ public class HttpGetterTest extends MockedStaticInitializers {
         assertEquals("Getter was not correctly cancelled for non-String url", getter.getStatus(), Task.CANCELED);
     }
 
+    @Test
+    public void notFailedWhenOnlyCanceled() {
+        getter.cancel("Caller no longer needs the result");
+        assertTrue("Getter was canceled", getter.isCanceled());
+        assertFalse("A cancel by the caller is not an HTTP failure", getter.isFailed());
+    }
+
+    @Test
+    public void failedWhenCircuitOpen() throws InterruptedException {
+        final String url = "http://circuit-open.example.com/test";
+
+        HttpGetter.setCircuitBreaker(1, 60000);
+        try {
+            HttpScheduler.getScheduler(url).recordFailure(System.currentTimeMillis());
+            getter.exec(url);
+            assertTrue("Getter was canceled", getter.isCanceled());
+            assertTrue("An open circuit is an HTTP failure", getter.isFailed());
+        } finally {
+            HttpGetter.setCircuitBreaker(5, 30000);
+        }
+    }
+
     @Ignore
     @Test
     public void responseCodesIn400RangeAreConsideredBad() throws IOException, InterruptedException {
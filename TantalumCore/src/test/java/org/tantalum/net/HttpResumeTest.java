@@ -0,0 +1,213 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.util.Hashtable;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tantalum.util.LOR;
+
+/**
+ * Resuming an interrupted download with an HTTP Range request
+ *
+ * @author phou
+ */
+public class HttpResumeTest {
+
+    private static final String URL = "http://resume.example.com/big";
+    private static final String VALIDATOR = "\"v1\"";
+    private static final int PARTIAL_LENGTH = 4000;
+    private static final long TIMEOUT = 10000;
+    private static final byte[] BODY = new byte[10000];
+
+    @BeforeClass
+    public static void setUpClass() {
+        for (int i = 0; i < BODY.length; i++) {
+            BODY[i] = (byte) (i * 31);
+        }
+        ScriptedPlatformAdapter.install();
+    }
+
+    /**
+     * The downloads here are very fast. Do not let them change the speed
+     * other tests see for a new host.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        HttpGetter.averageBaud.reset(HttpGetter.THRESHOLD_BAUD / 2);
+    }
+
+    @Before
+    public void clearScript() {
+        ScriptedPlatformAdapter.clear();
+    }
+
+    @Test
+    public void contentRangeStartIsParsed() {
+        assertEquals(4000, HttpGetter.getContentRangeStart("bytes 4000-9999/10000"));
+        assertEquals(0, HttpGetter.getContentRangeStart(" bytes 0-9/10 "));
+        assertEquals(4000, HttpGetter.getContentRangeStart("bytes 4000-9999/*"));
+        assertEquals(-1, HttpGetter.getContentRangeStart(null));
+        assertEquals(-1, HttpGetter.getContentRangeStart("bytes */10000"));
+        assertEquals(-1, HttpGetter.getContentRangeStart("items 0-9/10"));
+        assertEquals(-1, HttpGetter.getContentRangeStart("bytes x-9/10"));
+        assertEquals(-1, HttpGetter.getContentRangeStart("bytes 4000"));
+    }
+
+    @Test
+    public void partialResponseContinuesPartialContent() throws Exception {
+        respond(206, "bytes " + PARTIAL_LENGTH + "-9999/10000", tail(PARTIAL_LENGTH));
+
+        assertArrayEquals(BODY, get(resumingGetter()));
+        assertEquals(1, ScriptedPlatformAdapter.getRequestCount());
+        assertEquals("bytes=" + PARTIAL_LENGTH + "-|" + VALIDATOR, request(0));
+    }
+
+    @Test
+    public void partialResponseWithoutValidatorContinuesPartialContent() throws Exception {
+        respond(206, "bytes " + PARTIAL_LENGTH + "-9999/10000", null, tail(PARTIAL_LENGTH));
+
+        assertArrayEquals("A 206 response without an ETag is still joined to the partial body", BODY, get(resumingGetter()));
+        assertEquals(1, ScriptedPlatformAdapter.getRequestCount());
+    }
+
+    @Test
+    public void partialResponseAtWrongOffsetRestarts() throws Exception {
+        respond(206, "bytes 3000-9999/10000", tail(3000));
+        respond(200, null, BODY);
+
+        assertArrayEquals("Bytes from the wrong offset must not be joined to the partial body", BODY, get(resumingGetter()));
+        assertEquals(2, ScriptedPlatformAdapter.getRequestCount());
+        assertEquals("bytes=" + PARTIAL_LENGTH + "-|" + VALIDATOR, request(0));
+        assertEquals("The retry asks for the whole body", "null|null", request(1));
+    }
+
+    @Test
+    public void fullResponseReplacesPartialContent() throws Exception {
+        respond(200, null, BODY);
+
+        assertArrayEquals("A 200 response body is not appended to the partial body", BODY, get(resumingGetter()));
+        assertEquals(1, ScriptedPlatformAdapter.getRequestCount());
+    }
+
+    @Test
+    public void rejectedRangeRestarts() throws Exception {
+        respond(HttpGetter.HTTP_416_REQUESTED_RANGE_NOT_SATISFIABLE, null, new byte[0]);
+        respond(200, null, BODY);
+
+        assertArrayEquals(BODY, get(resumingGetter()));
+        assertEquals(2, ScriptedPlatformAdapter.getRequestCount());
+        assertEquals("bytes=" + PARTIAL_LENGTH + "-|" + VALIDATOR, request(0));
+        assertEquals("The retry asks for the whole body", "null|null", request(1));
+    }
+
+    @Test
+    public void partialContentRecordRoundTrip() throws Exception {
+        final byte[] record = StaticWebCache.toPartialContentRecord(head(PARTIAL_LENGTH), VALIDATOR);
+        final HttpGetter httpGetter = new HttpGetter(URL);
+
+        assertEquals(2 + VALIDATOR.length() + PARTIAL_LENGTH, record.length);
+        httpGetter.setResumable(true);
+        assertTrue(StaticWebCache.setPartialContent(httpGetter, record));
+        respond(206, "bytes " + PARTIAL_LENGTH + "-9999/10000", tail(PARTIAL_LENGTH));
+
+        assertArrayEquals(BODY, get(httpGetter));
+        assertEquals("bytes=" + PARTIAL_LENGTH + "-|" + VALIDATOR, request(0));
+    }
+
+    @Test
+    public void unusablePartialContentRecordIsIgnored() throws Exception {
+        final HttpGetter httpGetter = new HttpGetter(URL);
+
+        assertFalse("Too short", StaticWebCache.setPartialContent(httpGetter, new byte[]{0, 4}));
+        assertFalse("No validator", StaticWebCache.setPartialContent(httpGetter, new byte[]{0, 0, 1, 2}));
+        assertFalse("No body", StaticWebCache.setPartialContent(httpGetter, new byte[]{0, 2, 'v', '1'}));
+        assertFalse("Truncated validator", StaticWebCache.setPartialContent(httpGetter, new byte[]{0, 9, 'v', '1'}));
+        assertNull("Validator too long to store", StaticWebCache.toPartialContentRecord(new byte[1], new String(new char[0x10000])));
+    }
+
+    private static HttpGetter resumingGetter() {
+        final HttpGetter httpGetter = new HttpGetter(URL);
+
+        httpGetter.setResumable(true);
+        httpGetter.setRetryPolicy(new RetryPolicy(1, 10, 100));
+        httpGetter.setPartialContent(head(PARTIAL_LENGTH), VALIDATOR);
+
+        return httpGetter;
+    }
+
+    private static byte[] get(final HttpGetter httpGetter) throws Exception {
+        return ((LOR) httpGetter.fork().join(TIMEOUT)).getBytes();
+    }
+
+    private static byte[] head(final int length) {
+        final byte[] bytes = new byte[length];
+
+        System.arraycopy(BODY, 0, bytes, 0, length);
+
+        return bytes;
+    }
+
+    private static byte[] tail(final int start) {
+        final byte[] bytes = new byte[BODY.length - start];
+
+        System.arraycopy(BODY, start, bytes, 0, bytes.length);
+
+        return bytes;
+    }
+
+    private static void respond(final int responseCode, final String contentRange, final byte[] body) {
+        respond(responseCode, contentRange, VALIDATOR, body);
+    }
+
+    private static void respond(final int responseCode, final String contentRange, final String validator, final byte[] body) {
+        final Hashtable headers = new Hashtable();
+
+        if (validator != null) {
+            headers.put("ETag", validator);
+        }
+        if (contentRange != null) {
+            headers.put("Content-Range", contentRange);
+        }
+        ScriptedPlatformAdapter.respond(responseCode, headers, body);
+    }
+
+    /**
+     * The Range and If-Range request headers of a request
+     */
+    private static String request(final int request) {
+        return ScriptedPlatformAdapter.getRequestProperty(request, "Range") + "|" + ScriptedPlatformAdapter.getRequestProperty(request, "If-Range");
+    }
+}
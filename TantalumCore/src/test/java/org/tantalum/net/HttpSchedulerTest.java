@@ -0,0 +1,172 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.tantalum.Task;
+
+/**
+ * Unit tests for <code>HttpScheduler</code>
+ *
+ * @author phou
+ */
+public class HttpSchedulerTest {
+
+    private static HttpScheduler fastScheduler(final String url) {
+        final HttpScheduler scheduler = HttpScheduler.getScheduler(url);
+        for (int i = 0; i < 10; i++) {
+            scheduler.averageBaud.update(HttpGetter.THRESHOLD_BAUD * 4);
+        }
+
+        return scheduler;
+    }
+
+    private static Task task(final int priority) {
+        return new Task(priority) {
+            protected Object exec(final Object in) {
+                return in;
+            }
+        };
+    }
+
+    @Test
+    public void getHost() {
+        assertEquals("Path removed", "http://example.com", HttpScheduler.getHost("http://Example.com/a/b?c"));
+        assertEquals("Port kept", "https://example.com:8080", HttpScheduler.getHost("https://example.com:8080?q"));
+        assertSame("One scheduler per host", HttpScheduler.getScheduler("http://same.host/a"), HttpScheduler.getScheduler("http://SAME.host/b"));
+    }
+
+    @Test
+    public void slowHostGetsOneConnection() {
+        final HttpScheduler scheduler = HttpScheduler.getScheduler("http://slow.host/");
+        for (int i = 0; i < 10; i++) {
+            scheduler.averageBaud.update(HttpGetter.THRESHOLD_BAUD / 8);
+        }
+        assertTrue("First connection", scheduler.tryAcquire(task(Task.NORMAL_PRIORITY)));
+        assertFalse("Second connection waits", scheduler.tryAcquire(task(Task.NORMAL_PRIORITY)));
+    }
+
+    @Test
+    public void newHostIsNotLimitedUntilMeasured() {
+        final HttpScheduler scheduler = HttpScheduler.getScheduler("http://new.host/");
+        assertEquals("Full connection limit", HttpScheduler.getMaxConnectionsPerHost(), scheduler.getConnectionLimit());
+    }
+
+    @Test
+    public void idleHostsAreForgotten() {
+        final HttpScheduler busy = HttpScheduler.getScheduler("http://busy.host/");
+        assertTrue("Busy host has a connection", busy.tryAcquire(task(Task.NORMAL_PRIORITY)));
+        for (int i = 0; i < 100; i++) {
+            HttpScheduler.getScheduler("http://host" + i + ".example.com/");
+        }
+        assertTrue("Scheduler count is bounded: " + HttpScheduler.getSchedulerCount(), HttpScheduler.getSchedulerCount() <= 20);
+        assertSame("A host with a connection is kept", busy, HttpScheduler.getScheduler("http://busy.host/a"));
+        busy.release();
+    }
+
+    @Test
+    public void parkedTasksStartInPriorityOrder() {
+        final HttpScheduler scheduler = fastScheduler("http://priority.host/");
+        final int limit = scheduler.getConnectionLimit();
+        for (int i = 0; i < limit; i++) {
+            assertTrue("Free connection " + i, scheduler.tryAcquire(task(Task.NORMAL_PRIORITY)));
+        }
+        final Task normal = task(Task.NORMAL_PRIORITY);
+        final Task high = task(Task.HIGH_PRIORITY);
+        final Task normal2 = task(Task.NORMAL_PRIORITY);
+        assertFalse("Busy", scheduler.tryAcquire(normal));
+        assertFalse("Parked", scheduler.park(normal));
+        assertFalse("Parked", scheduler.park(high));
+        assertFalse("Parked", scheduler.park(normal2));
+        assertFalse("Newcomer waits behind parked Tasks", scheduler.tryAcquire(task(Task.HIGH_PRIORITY)));
+
+        assertSame("High priority first", high, scheduler.release());
+        assertTrue("Reserved connection", scheduler.tryAcquire(high));
+        assertSame("Then first normal", normal, scheduler.release());
+        assertEquals("Connections in use", limit, scheduler.getActiveConnections());
+        assertEquals("Still waiting", 1, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void abandonReleasesReservedConnection() {
+        final HttpScheduler scheduler = fastScheduler("http://abandon.host/");
+        final int limit = scheduler.getConnectionLimit();
+        for (int i = 0; i < limit; i++) {
+            scheduler.tryAcquire(task(Task.NORMAL_PRIORITY));
+        }
+        final Task first = task(Task.NORMAL_PRIORITY);
+        final Task second = task(Task.NORMAL_PRIORITY);
+        scheduler.park(first);
+        scheduler.park(second);
+        assertSame("First reserved", first, scheduler.release());
+        assertSame("Reservation passed on", second, scheduler.abandon(first));
+        assertNull("Nothing left", scheduler.abandon(second));
+        assertEquals("Connections in use", limit - 1, scheduler.getActiveConnections());
+    }
+
+    @Test
+    public void circuitOpensAfterFailuresAndClosesAfterTrial() {
+        final HttpScheduler scheduler = HttpScheduler.getScheduler("http://down.host/");
+        final Task trial = task(Task.NORMAL_PRIORITY);
+        final long now = 1000000;
+        for (int i = 0; i < 5; i++) {
+            assertTrue("Closed", scheduler.allowRequest(task(Task.NORMAL_PRIORITY), now));
+            scheduler.recordFailure(now);
+        }
+        assertFalse("Open after 5 failures", scheduler.allowRequest(task(Task.NORMAL_PRIORITY), now + 1));
+        assertTrue("Open", scheduler.isCircuitOpen(now + 1));
+        assertTrue("Half-open trial", scheduler.allowRequest(trial, now + 30000));
+        assertFalse("Only the trial while half-open", scheduler.allowRequest(task(Task.NORMAL_PRIORITY), now + 30000));
+        assertTrue("Trial retry", scheduler.allowRequest(trial, now + 30001));
+        scheduler.recordFailure(now + 30002);
+        assertFalse("Open again after failed trial", scheduler.allowRequest(task(Task.NORMAL_PRIORITY), now + 30003));
+        final Task trial2 = task(Task.NORMAL_PRIORITY);
+        assertTrue("Second trial", scheduler.allowRequest(trial2, now + 60002));
+        scheduler.recordSuccess();
+        assertTrue("Closed after successful trial", scheduler.allowRequest(task(Task.NORMAL_PRIORITY), now + 60003));
+        assertFalse("Closed", scheduler.isCircuitOpen(now + 60003));
+    }
+
+    @Test
+    public void abandonedTrialLetsAnotherTry() {
+        final HttpScheduler scheduler = HttpScheduler.getScheduler("http://flaky.host/");
+        final long now = 1000000;
+        for (int i = 0; i < 5; i++) {
+            scheduler.recordFailure(now);
+        }
+        final Task trial = task(Task.NORMAL_PRIORITY);
+        assertTrue("Half-open trial", scheduler.allowRequest(trial, now + 30000));
+        scheduler.abandon(trial);
+        assertTrue("Next request is the trial", scheduler.allowRequest(task(Task.NORMAL_PRIORITY), now + 30001));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.util.Hashtable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Unit tests for <code>RetryPolicy</code>
+ *
+ * @author phou
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void backoffWithJitter() {
+        final RetryPolicy policy = new RetryPolicy(5, 1000, 3000);
+        for (int i = 0; i < 3; i++) {
+            final long first = policy.getRetryDelay(1, HttpGetter.HTTP_OPERATION_PENDING, null);
+            assertTrue("First retry 500..1000ms: " + first, first >= 500 && first <= 1000);
+            final long second = policy.getRetryDelay(2, HttpGetter.HTTP_503_SERVICE_UNAVAILABLE, null);
+            assertTrue("Second retry 1000..2000ms: " + second, second >= 1000 && second <= 2000);
+            final long capped = policy.getRetryDelay(5, HttpGetter.HTTP_503_SERVICE_UNAVAILABLE, null);
+            assertTrue("Capped at max delay: " + capped, capped >= 1500 && capped <= 3000);
+        }
+    }
+
+    @Test
+    public void onlyTemporaryErrorsAreRetried() {
+        final RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+        assertEquals("404", RetryPolicy.NO_RETRY, policy.getRetryDelay(1, HttpGetter.HTTP_404_NOT_FOUND, null));
+        assertTrue("429", policy.getRetryDelay(1, HttpGetter.HTTP_429_TOO_MANY_REQUESTS, null) >= 0);
+        assertEquals("Too many retries", RetryPolicy.NO_RETRY, policy.getRetryDelay(3, HttpGetter.HTTP_OPERATION_PENDING, null));
+        assertEquals("NONE", RetryPolicy.NO_RETRY, RetryPolicy.NONE.getRetryDelay(1, HttpGetter.HTTP_OPERATION_PENDING, null));
+    }
+
+    @Test
+    public void retryAfter() {
+        final Hashtable headers = new Hashtable();
+        headers.put("retry-after", new String[]{"2"});
+        assertEquals("Seconds", 2000, RetryPolicy.getRetryAfterMillis(headers, 0));
+        final RetryPolicy policy = new RetryPolicy(2, 100, 5000);
+        assertEquals("Server delay is longer than backoff", 2000, policy.getRetryDelay(1, HttpGetter.HTTP_503_SERVICE_UNAVAILABLE, headers));
+        headers.put("retry-after", new String[]{"Sun, 06 Nov 1994 08:49:37 GMT"});
+        assertEquals("HTTP date", 3000, RetryPolicy.getRetryAfterMillis(headers, 784111777000L - 3000));
+        headers.put("retry-after", new String[]{"60"});
+        assertEquals("Longer than max delay", RetryPolicy.NO_RETRY, policy.getRetryDelay(1, HttpGetter.HTTP_503_SERVICE_UNAVAILABLE, headers));
+    }
+
+    @Test
+    public void retryBudget() {
+        final RetryPolicy policy = new RetryPolicy(1, 0, 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Within budget " + i, 0, policy.getRetryDelay(1, HttpGetter.HTTP_OPERATION_PENDING, null));
+        }
+        assertEquals("Budget exhausted", RetryPolicy.NO_RETRY, policy.getRetryDelay(1, HttpGetter.HTTP_OPERATION_PENDING, null));
+        for (int i = 0; i < 10; i++) {
+            policy.recordSuccess();
+        }
+        assertEquals("Refilled by successes", 0, policy.getRetryDelay(1, HttpGetter.HTTP_OPERATION_PENDING, null));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+import org.tantalum.PlatformAdapter;
+import org.tantalum.PlatformUtils;
+import org.tantalum.storage.FlashCache;
+import org.tantalum.storage.ImageCacheView;
+import org.tantalum.util.L;
+
+/**
+ * A headless PlatformAdapter whose HTTP connections give scripted responses,
+ * in order, to real HttpGetters running on the Worker threads
+ *
+ * @author phou
+ */
+final class ScriptedPlatformAdapter implements PlatformAdapter {
+
+    /*
+     * The responses the server will give, in order
+     */
+    private static final Vector responses = new Vector();
+    /*
+     * The request properties of each request, in order
+     */
+    private static final Vector requests = new Vector();
+    private final L log = new L() {
+        protected void printMessage(final StringBuffer sb, final Throwable t) {
+        }
+
+        protected void close() {
+        }
+    };
+
+    /**
+     * Start the Worker threads with this adapter. Only the first call in a
+     * test run has effect, so all test classes share the same script.
+     */
+    static void install() {
+        PlatformUtils.getInstance().setProgram(new Object(), new ScriptedPlatformAdapter(), 4, PlatformUtils.NORMAL_LOG_MODE);
+    }
+
+    static void clear() {
+        synchronized (responses) {
+            responses.removeAllElements();
+            requests.removeAllElements();
+        }
+    }
+
+    /**
+     * Add the next response of the server
+     *
+     * @param responseCode
+     * @param headers - response header name to String value
+     * @param body
+     */
+    static void respond(final int responseCode, final Hashtable headers, final byte[] body) {
+        synchronized (responses) {
+            responses.addElement(new ScriptedConn(responseCode, headers, body));
+        }
+    }
+
+    static int getRequestCount() {
+        synchronized (responses) {
+            return requests.size();
+        }
+    }
+
+    /**
+     * A request property sent with a request
+     *
+     * @param request - 0 for the first request
+     * @param key
+     * @return the value, or null if the request did not have it
+     */
+    static String getRequestProperty(final int request, final String key) {
+        synchronized (responses) {
+            return (String) ((Hashtable) requests.elementAt(request)).get(key);
+        }
+    }
+
+    public void init(final int logMode) {
+    }
+
+    public void runOnUiThread(final Runnable action) {
+        new Thread(action).start();
+    }
+
+    public void shutdownComplete() {
+    }
+
+    public L getLog() {
+        return log;
+    }
+
+    public ImageCacheView getImageCacheView() {
+        return null;
+    }
+
+    public void vibrateAsync(final int duration, final Runnable timekeeperLambda) {
+    }
+
+    public Object readImageFromJAR(final String jarPathAndFilename) {
+        return null;
+    }
+
+    public FlashCache getFlashCache(final char priority, final int cacheType, final FlashCache.StartupTask startupTask) {
+        return null;
+    }
+
+    public void deleteFlashCache(final char priority, final int cacheType) {
+    }
+
+    public PlatformUtils.HttpConn getHttpConn(final String url, final Vector requestPropertyKeys, final Vector requestPropertyValues, final byte[] bytes, final String requestMethod) throws IOException {
+        final Hashtable request = new Hashtable();
+
+        for (int i = 0; i < requestPropertyKeys.size(); i++) {
+            request.put(requestPropertyKeys.elementAt(i), requestPropertyValues.elementAt(i));
+        }
+        synchronized (responses) {
+            requests.addElement(request);
+            if (responses.isEmpty()) {
+                throw new IOException("No scripted response for " + url);
+            }
+            final PlatformUtils.HttpConn httpConn = (PlatformUtils.HttpConn) responses.firstElement();
+            responses.removeElementAt(0);
+
+            return httpConn;
+        }
+    }
+
+    private static final class ScriptedConn implements PlatformUtils.HttpConn {
+
+        private final int responseCode;
+        private final Hashtable headers;
+        private final byte[] body;
+
+        ScriptedConn(final int responseCode, final Hashtable headers, final byte[] body) {
+            this.responseCode = responseCode;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(body);
+        }
+
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                public void write(final int b) {
+                }
+            };
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        public void getResponseHeaders(final Hashtable responseHeaders) {
+            final Enumeration keys = headers.keys();
+
+            responseHeaders.clear();
+            while (keys.hasMoreElements()) {
+                final Object key = keys.nextElement();
+                responseHeaders.put(key, new String[]{(String) headers.get(key)});
+            }
+        }
+
+        public long getLength() {
+            return body.length;
+        }
+
+        public long getMaxLengthSupportedAsBlockOperation() {
+            return 1 << 20;
+        }
+
+        public void close() {
+        }
+    }
+}
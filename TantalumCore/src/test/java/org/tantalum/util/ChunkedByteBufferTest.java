@@ -0,0 +1,90 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.ByteArrayInputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ *
+ * @author phou
+ */
+public class ChunkedByteBufferTest {
+
+    private static byte[] testBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+
+        return bytes;
+    }
+
+    @Test
+    public void testReadAcrossChunks() throws Exception {
+        System.out.println("testReadAcrossChunks");
+        final byte[] expected = testBytes(1000);
+        final ByteArrayInputStream in = new ByteArrayInputStream(expected, 1, expected.length - 1);
+        final ChunkedByteBuffer instance = new ChunkedByteBuffer(new ByteArrayPool(64, 4));
+        instance.write(expected[0]);
+        while (instance.read(in) >= 0) {
+        }
+        assertEquals("Size", expected.length, instance.size());
+        assertArrayEquals("Exact bytes", expected, instance.toByteArray());
+    }
+
+    @Test
+    public void testWrite() {
+        System.out.println("testWrite");
+        final byte[] expected = testBytes(200);
+        final ChunkedByteBuffer instance = new ChunkedByteBuffer(new ByteArrayPool(64, 4));
+        instance.write(expected, 0, 10);
+        instance.write(expected, 10, 190);
+        assertArrayEquals("Exact bytes", expected, instance.toByteArray());
+        assertEquals("Empty", 0, new ChunkedByteBuffer(new ByteArrayPool(64, 4)).toByteArray().length);
+    }
+
+    @Test
+    public void testReleaseReusesBuffers() {
+        System.out.println("testReleaseReusesBuffers");
+        final ByteArrayPool pool = new ByteArrayPool(64, 2);
+        final ChunkedByteBuffer instance = new ChunkedByteBuffer(pool);
+        instance.write(testBytes(64 * 3), 0, 64 * 3);
+        instance.release();
+        assertEquals("Released size", 0, instance.size());
+        assertEquals("Pool is bounded", 2, pool.size());
+        final byte[] buffer = pool.get();
+        pool.release(buffer);
+        assertSame("Buffer is reused", buffer, pool.get());
+        pool.release(new byte[10]);
+        assertEquals("Wrong length not pooled", 1, pool.size());
+    }
+}
@@ -71,4 +71,28 @@ public class CryptoUtilsTest extends MockedStaticInitializers {
     public void nullByteArrayTest() throws DigestException, UnsupportedEncodingException {
         cryptoUtils.toDigest((byte[]) null);
     }
+
+    @Test
+    public void xxHash64KnownValuesTest() throws UnsupportedEncodingException {
+        assertEquals(0xEF46DB3751D8E999L, CryptoUtils.xxHash64(new byte[0], 0, 0, 0));
+        assertEquals(0xD24EC4F1A98C6E5BL, CryptoUtils.xxHash64("a".getBytes("UTF-8"), 0, 1, 0));
+        assertEquals(0x44BC2CF5AD770999L, CryptoUtils.xxHash64("abc".getBytes("UTF-8"), 0, 3, 0));
+    }
+
+    @Test
+    public void xxHash64DigestAlgorithmTest() throws DigestException, UnsupportedEncodingException {
+        final long md5 = cryptoUtils.toDigest(imageUrl3);
+
+        cryptoUtils.setDigestAlgorithm(CryptoUtils.DIGEST_XXHASH64);
+        try {
+            assertFalse(cryptoUtils.isCryptographic());
+            final byte[] bytes = imageUrl3.getBytes("UTF-8");
+            assertEquals(CryptoUtils.xxHash64(bytes, 0, bytes.length, 0), cryptoUtils.toDigest(imageUrl3));
+            assertNotEquals(cryptoUtils.toDigest(imageUrl1), cryptoUtils.toDigest(imageUrl2));
+            assertEquals(md5, cryptoUtils.toDigest(bytes, CryptoUtils.DIGEST_MD5));
+        } finally {
+            cryptoUtils.setDigestAlgorithm(CryptoUtils.DIGEST_MD5);
+        }
+        assertEquals(md5, cryptoUtils.toDigest(imageUrl3));
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Compress with GzipEncoder and decode with java.util.zip
+ *
+ * @author phou
+ */
+public class GzipEncoderTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        final int[] lengths = {0, 1, 3, 258, 259, 10000, 100000};
+        for (int i = 0; i < lengths.length; i++) {
+            final byte[] text = InflateInputStreamTest.testData(lengths[i], true);
+            assertArrayEquals("Text " + lengths[i], text, InflateInputStreamTest.readAll(new GZIPInputStream(new ByteArrayInputStream(GzipEncoder.gzip(text)))));
+            final byte[] random = InflateInputStreamTest.testData(lengths[i], false);
+            assertArrayEquals("Random " + lengths[i], random, InflateInputStreamTest.readAll(new InflateInputStream(new ByteArrayInputStream(GzipEncoder.gzip(random)), InflateInputStream.GZIP)));
+        }
+        final byte[] same = new byte[100000];
+        assertArrayEquals("Long runs", same, InflateInputStreamTest.readAll(new GZIPInputStream(new ByteArrayInputStream(GzipEncoder.gzip(same)))));
+    }
+
+    @Test
+    public void textCompresses() {
+        final byte[] text = InflateInputStreamTest.testData(50000, true);
+        final int compressedLength = GzipEncoder.gzip(text).length;
+        assertTrue("Compressed to less than 60%: " + compressedLength, compressedLength < text.length * 6 / 10);
+        final byte[] repeated = new byte[text.length];
+        for (int i = 0; i < repeated.length; i++) {
+            repeated[i] = text[i % 100];
+        }
+        final int repeatedLength = GzipEncoder.gzip(repeated).length;
+        assertTrue("Repeated text compressed to less than 2%: " + repeatedLength, repeatedLength < repeated.length / 50);
+    }
+}
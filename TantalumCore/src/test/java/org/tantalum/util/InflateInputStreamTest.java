@@ -0,0 +1,130 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Decode data compressed by java.util.zip
+ *
+ * @author phou
+ */
+public class InflateInputStreamTest {
+
+    static byte[] testData(final int length, final boolean text) {
+        final byte[] bytes = new byte[length];
+        final Random random = new Random(length);
+        final String words = "{\"title\": \"Tantalum\", \"items\": [1, 2, 3], \"link\": \"http://example.com/\"} ";
+        for (int i = 0; i < length; i++) {
+            bytes[i] = text ? (byte) words.charAt((i + random.nextInt(3)) % words.length()) : (byte) random.nextInt();
+        }
+
+        return bytes;
+    }
+
+    static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            bos.write(buffer, 0, n);
+        }
+
+        return bos.toByteArray();
+    }
+
+    private static byte[] compress(final byte[] data, final int level, final boolean zlibHeader) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DeflaterOutputStream out = new DeflaterOutputStream(bos, new Deflater(level, !zlibHeader));
+        out.write(data);
+        out.close();
+
+        return bos.toByteArray();
+    }
+
+    private static byte[] gzip(final byte[] data) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(bos);
+        out.write(data);
+        out.close();
+
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void gzipFormat() throws IOException {
+        final int[] lengths = {0, 1, 100, 70000};
+        for (int i = 0; i < lengths.length; i++) {
+            final byte[] text = testData(lengths[i], true);
+            assertArrayEquals("gzip text " + lengths[i], text, readAll(new InflateInputStream(new ByteArrayInputStream(gzip(text)), InflateInputStream.GZIP)));
+            final byte[] random = testData(lengths[i], false);
+            assertArrayEquals("gzip random " + lengths[i], random, readAll(new InflateInputStream(new ByteArrayInputStream(gzip(random)), InflateInputStream.GZIP)));
+        }
+    }
+
+    @Test
+    public void zlibAndRawAtEachLevel() throws IOException {
+        final byte[] data = testData(100000, true);
+        for (int level = 0; level <= 9; level += 3) {
+            assertArrayEquals("zlib level " + level, data, readAll(new InflateInputStream(new ByteArrayInputStream(compress(data, level, true)), InflateInputStream.ZLIB)));
+            assertArrayEquals("zlib or raw, zlib level " + level, data, readAll(new InflateInputStream(new ByteArrayInputStream(compress(data, level, true)), InflateInputStream.ZLIB_OR_RAW)));
+            assertArrayEquals("zlib or raw, raw level " + level, data, readAll(new InflateInputStream(new ByteArrayInputStream(compress(data, level, false)), InflateInputStream.ZLIB_OR_RAW)));
+        }
+    }
+
+    @Test
+    public void corruptDataIsRejected() {
+        final byte[] compressed;
+        try {
+            compressed = gzip(testData(5000, true));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        compressed[compressed.length - 6]++; // CRC
+        try {
+            readAll(new InflateInputStream(new ByteArrayInputStream(compressed), InflateInputStream.GZIP));
+            fail("Bad CRC must throw IOException");
+        } catch (IOException e) {
+        }
+        try {
+            readAll(new InflateInputStream(new ByteArrayInputStream(compressed, 0, compressed.length / 2), InflateInputStream.GZIP));
+            fail("Truncated stream must throw IOException");
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author phou
+ */
+public class LongLongLRUMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        System.out.println("testPutAndGet");
+        LongLongLRUMap instance = new LongLongLRUMap();
+        assertEquals("Previous value", LongLongLRUMap.NO_VALUE, instance.put(1L, 10L));
+        assertEquals("Previous value on replace", 10L, instance.put(1L, 11L));
+        instance.put(-2L, 20L);
+        assertEquals("Size 2", 2, instance.size());
+        assertEquals("Get 1", 11L, instance.get(1L));
+        assertEquals("Get -2", 20L, instance.get(-2L));
+        assertEquals("Get missing", LongLongLRUMap.NO_VALUE, instance.get(3L));
+        assertTrue("Contains 1", instance.containsKey(1L));
+        assertFalse("Does not contain 3", instance.containsKey(3L));
+    }
+
+    @Test
+    public void testGetAndLRUKey() {
+        System.out.println("testGetAndLRUKey");
+        LongLongLRUMap instance = new LongLongLRUMap();
+        instance.put(1L, 1L);
+        instance.put(2L, 2L);
+        instance.put(3L, 3L);
+        instance.get(1L);
+        assertEquals("LRU is 2", 2L, instance.getLeastRecentlyUsedKey());
+        instance.get(2L, false);
+        assertEquals("LRU is still 2", 2L, instance.getLeastRecentlyUsedKey());
+        instance.touch(2L);
+        assertEquals("LRU is 3", 3L, instance.getLeastRecentlyUsedKey());
+        assertEquals("Remove 3", 3L, instance.remove(3L));
+        assertEquals("LRU is 1", 1L, instance.getLeastRecentlyUsedKey());
+    }
+
+    @Test
+    public void testKeyEnumeration() {
+        System.out.println("testKeyEnumeration");
+        LongLongLRUMap instance = new LongLongLRUMap(2);
+        long[] keys = {4L, 3L, 2L, 1L};
+        for (int i = 0; i < keys.length; i++) {
+            instance.put(keys[i], i);
+        }
+        Enumeration enu = instance.keys();
+        instance.get(2L);
+        instance.remove(3L);
+        int i = 0;
+        while (enu.hasMoreElements()) {
+            Long l = (Long) enu.nextElement();
+            assertEquals("LRU element " + i + " sequence", keys[i++], l.longValue());
+        }
+        assertEquals("Enumeration length", keys.length, i);
+    }
+
+    @Test
+    public void testMatchesLRUHashtable() {
+        System.out.println("testMatchesLRUHashtable");
+        LongLongLRUMap instance = new LongLongLRUMap(1);
+        LRUHashtable model = new LRUHashtable();
+        Random random = new Random(1234);
+        for (int i = 0; i < 20000; i++) {
+            final long key = random.nextInt(200);
+            final Long k = new Long(key);
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    instance.put(key, i);
+                    model.put(k, new Long(i));
+                    break;
+                case 2:
+                    final Long v = (Long) model.get(k);
+                    assertEquals("Get " + key, v == null ? LongLongLRUMap.NO_VALUE : v.longValue(), instance.get(key));
+                    break;
+                default:
+                    final Long r = (Long) model.remove(k);
+                    assertEquals("Remove " + key, r == null ? LongLongLRUMap.NO_VALUE : r.longValue(), instance.remove(key));
+            }
+            assertEquals("Size", model.size(), instance.size());
+        }
+        Enumeration expected = model.keys();
+        Enumeration actual = instance.keys();
+        while (expected.hasMoreElements()) {
+            assertEquals("LRU order", expected.nextElement(), actual.nextElement());
+        }
+        assertFalse("Same length", actual.hasMoreElements());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoValueCanNotBeStored() {
+        System.out.println("testNoValueCanNotBeStored");
+        new LongLongLRUMap().put(1L, LongLongLRUMap.NO_VALUE);
+    }
+
+    @Test
+    public void testWriteToAndReadFrom() throws IOException {
+        System.out.println("testWriteToAndReadFrom");
+        LongLongLRUMap instance = new LongLongLRUMap();
+        for (long l = 0; l < 100; l++) {
+            instance.put(l, l * 10);
+        }
+        instance.get(5L, true);
+        instance.remove(7L);
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        instance.writeTo(new DataOutputStream(bos));
+        assertEquals("16 bytes per entry", 4 + 99 * 16, bos.size());
+
+        LongLongLRUMap copy = new LongLongLRUMap();
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        assertEquals("Same size", instance.size(), copy.size());
+        assertEquals("Same LRU key", instance.getLeastRecentlyUsedKey(), copy.getLeastRecentlyUsedKey());
+        final Enumeration a = instance.keys();
+        final Enumeration b = copy.keys();
+        while (a.hasMoreElements()) {
+            final Long key = (Long) a.nextElement();
+            assertEquals("Same order", key, b.nextElement());
+            assertEquals("Same value", instance.get(key.longValue()), copy.get(key.longValue()));
+        }
+        assertFalse("Removed key absent", copy.containsKey(7L));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Unit tests for SLRUHashCache
+ *
+ * @author phou
+ */
+public class SLRUHashCacheTest {
+
+    private static final Weigher LENGTH_WEIGHER = new Weigher() {
+        public int weigh(final Object value) {
+            return ((String) value).length();
+        }
+    };
+
+    @Test
+    public void testCountBudget() {
+        System.out.println("testCountBudget");
+        SLRUHashCache instance = new SLRUHashCache(3, null);
+        for (int i = 0; i < 10; i++) {
+            instance.put("k" + i, "v" + i);
+        }
+        assertEquals("Strong weight", 3, instance.getWeight());
+        assertEquals("All keys kept", 10, instance.size());
+        assertEquals("Recent value", "v9", instance.get("k9"));
+    }
+
+    @Test
+    public void testWeightBudget() {
+        System.out.println("testWeightBudget");
+        SLRUHashCache instance = new SLRUHashCache(10, LENGTH_WEIGHER);
+        instance.put("a", "aaaa");
+        instance.put("b", "bbbb");
+        assertEquals("Weight 8", 8, instance.getWeight());
+        instance.put("c", "cccc");
+        assertEquals("Weight 8 after overflow", 8, instance.getWeight());
+        instance.put("big", "this is longer than the budget");
+        assertEquals("Too heavy not held", 8, instance.getWeight());
+        instance.setMaxWeight(4);
+        assertEquals("Weight after shrink", 4, instance.getWeight());
+        instance.setMaxWeight(0);
+        assertEquals("Disabled", 0, instance.getWeight());
+    }
+
+    @Test
+    public void testProtectedSurvivesScan() {
+        System.out.println("testProtectedSurvivesScan");
+        SLRUHashCache instance = new SLRUHashCache(10, null);
+        final String hot = new String("hot");
+        instance.put("hot", hot);
+        instance.get("hot");
+        for (int i = 0; i < 100; i++) {
+            instance.put("scan" + i, "value" + i);
+        }
+        assertEquals("Strong weight", 10, instance.getWeight());
+        instance.setMaxWeight(1);
+        assertSame("Hot value still held", hot, instance.get("hot"));
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        System.out.println("testRemoveAndClear");
+        SLRUHashCache instance = new SLRUHashCache(5, null);
+        instance.put("a", "A");
+        instance.put("b", "B");
+        instance.get("b");
+        instance.remove("b");
+        assertNull("Removed", instance.get("b"));
+        assertEquals("Weight after remove", 1, instance.getWeight());
+        instance.clearValues();
+        assertEquals("Weight after clearValues", 0, instance.getWeight());
+        assertEquals("Keys kept after clearValues", 1, instance.size());
+        instance.put("c", "C");
+        instance.clear();
+        assertEquals("Weight after clear", 0, instance.getWeight());
+        assertEquals("Size after clear", 0, instance.size());
+    }
+}
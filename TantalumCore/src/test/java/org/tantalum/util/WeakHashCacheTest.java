@@ -176,4 +176,22 @@ public class WeakHashCacheTest extends MockedStaticInitializers {
             assertEquals(null, instance.get(key));
         }
     }    
+
+    @Test
+    public void testKeysAcrossSegments() {
+        WeakHashCache instance = new WeakHashCache(4);
+        final int length = 1000;
+        for (int i = 0; i < length; i++) {
+            instance.put(KEY_CONSTANT + i, VALUE_CONSTANT + i);
+        }
+        instance.markContains("marked");
+        instance.markContains(KEY_CONSTANT + 0);
+        assertEquals(length + 1, instance.size());
+        assertEquals(length + 1, instance.getKeys().length);
+        assertEquals(VALUE_CONSTANT + 0, instance.get(KEY_CONSTANT + 0));
+        assertTrue(instance.containsKey("marked"));
+        assertNull(instance.get("marked"));
+        instance.purgeExpiredWeakReferences();
+        assertFalse(instance.containsKey("marked"));
+    }
 }
@@ -32,14 +32,23 @@ import org.tantalum.Task;
 import org.tantalum.storage.ImageCacheView;
 import org.tantalum.util.L;
 import org.tantalum.util.LOR;
+import org.tantalum.util.Weigher;
 
 /**
  * This is a helper class for creating an image class. It automatically converts
  * the byte[] to an Image as the data is loaded from the network or cache.
  *
+ * Images are weighed by their decoded ARGB size in heap memory.
+ *
  * @author tsaa
  */
-public class JMEImageCacheView extends ImageCacheView {
+public class JMEImageCacheView extends ImageCacheView implements Weigher {
+
+    public int weigh(final Object value) {
+        final Image img = (Image) value;
+
+        return img.getWidth() * img.getHeight() * 4;
+    }
 
     public Object convertToUseForm(final Object key, final LOR bytesReference) {
         final Image img;
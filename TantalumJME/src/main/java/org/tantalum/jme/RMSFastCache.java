@@ -1,5 +1,10 @@
 package org.tantalum.jme;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.DigestException;
 import java.security.NoSuchAlgorithmException;
@@ -19,7 +24,7 @@ import org.tantalum.storage.FlashDatabaseException;
 import org.tantalum.storage.FlashFullException;
 import org.tantalum.util.CryptoUtils;
 import org.tantalum.util.L;
-import org.tantalum.util.LRUHashtable;
+import org.tantalum.util.LongLongLRUMap;
 
 /**
  *
@@ -28,6 +33,7 @@ import org.tantalum.util.LRUHashtable;
 public final class RMSFastCache extends FlashCache {
     private static final int SLEEP_TIME_DURING_CLOSE_OPEN_RMS = 1000;
     private static final boolean INDIVIDUAL_WRITE_DIRTY_FLAG = true; // Set true is slower to write and shutdown app, but less likely to wipe cache in event of unexpected shutdown
+    private static final int INDEX_SNAPSHOT_VERSION = 1;
 
     /**
      * Always accessed from a synchronized block. How big the RMS is after we
@@ -44,11 +50,11 @@ public final class RMSFastCache extends FlashCache {
      */
     static final char RECORD_HASH_PREFIX = '_';
     /*
-     * The Integer index of each key record in the hashtable
+     * The key and value record indexes of each digest, packed into one long
      * 
      * Always access within a synchronized(MUTEX) block
      */
-    private final LRUHashtable indexHash = new LRUHashtable();
+    private final LongLongLRUMap indexHash = new LongLongLRUMap();
     private RecordStore keyRS;
     private RecordStore valueRS;
     private final Object mutex = new Object();
@@ -60,8 +66,12 @@ public final class RMSFastCache extends FlashCache {
         clearCacheIfLastCloseWasDirty();
         keyRS = openRMS(getKeyRSName());
         valueRS = openRMS(getValueRSName());
-        final int numberOfKeys = keyRS.getNumRecords();
-        initIndex(numberOfKeys, startupTask);
+        if (initIndexFromSnapshot()) {
+            forkStartupTask(startupTask);
+        } else {
+            final int numberOfKeys = keyRS.getNumRecords();
+            initIndex(numberOfKeys, startupTask);
+        }
         updateRMSByteSize();
     }
 
@@ -135,7 +145,7 @@ public final class RMSFastCache extends FlashCache {
             throw new IllegalArgumentException("Can not mark null digest as least recently used");
         }
 
-        indexHash.get(digest, true);
+        indexHash.touch(digest.longValue());
     }
 
     private String getFlagRMSName() {
@@ -146,6 +156,14 @@ public final class RMSFastCache extends FlashCache {
         return "IO+" + getKeyRSName();
     }
 
+    private String getIndexRSName() {
+        return getIndexRSName(priority);
+    }
+
+    private static String getIndexRSName(final char priority) {
+        return "" + RECORD_HASH_PREFIX + priority + "idx";
+    }
+
     private void clearCacheIfLastCloseWasDirty() {
         RecordStore flagRMS = null;
         RecordStore storeFlagRMS = null;
@@ -292,6 +310,13 @@ public final class RMSFastCache extends FlashCache {
             L.e("Failed to delete keyRS", "priority=" + priority, ex);
         }
 
+        try {
+            RMSUtils.getInstance().delete(getIndexRSName(priority));
+        } catch (FlashDatabaseException ex) {
+            //#debug
+            L.e("Failed to delete index snapshot", "priority=" + priority, ex);
+        }
+
         //#debug
         L.i("*** Attempting to delete valueRS", "priority=" + priority);
         try {
@@ -304,6 +329,104 @@ public final class RMSFastCache extends FlashCache {
         }
     }
 
+    /**
+     * Load the index written by close() after the previous normal shutdown, so
+     * startup is one sequential read instead of a walk of every record.
+     *
+     * The snapshot is used only if neither record store has changed since it
+     * was written. It is deleted once read so it can not be applied to a later
+     * state. After an abnormal shutdown the dirty flag has already wiped the
+     * cache, so there is no journal to replay.
+     *
+     * @return true if the index was loaded, false if the full integrity scan
+     * in initIndex() is needed
+     */
+    private boolean initIndexFromSnapshot() {
+        final String name = getIndexRSName();
+        final byte[] bytes;
+
+        try {
+            bytes = RMSUtils.getInstance().read(name);
+            if (bytes == null) {
+                return false;
+            }
+            RMSUtils.getInstance().delete(name);
+        } catch (FlashDatabaseException e) {
+            //#debug
+            L.e(this, "Can not read index snapshot", name, e);
+            return false;
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        synchronized (mutex) {
+            try {
+                if (in.readInt() != INDEX_SNAPSHOT_VERSION
+                        || in.readInt() != keyRS.getVersion()
+                        || in.readInt() != valueRS.getVersion()
+                        || in.readInt() != keyRS.getNumRecords()
+                        || in.readInt() != valueRS.getNumRecords()) {
+                    //#debug
+                    L.i(this, "Index snapshot is out of date, reading all records", name);
+                    return false;
+                }
+                indexHash.readFrom(in);
+                if (indexHash.size() != keyRS.getNumRecords()) {
+                    //#debug
+                    L.i(this, "Index snapshot size mismatch, reading all records", indexHash.size() + " != " + keyRS.getNumRecords());
+                    indexHash.clear();
+                    return false;
+                }
+                //#debug
+                L.i(this, "Index loaded from snapshot", indexHash.size() + " entries");
+
+                return true;
+            } catch (IOException e) {
+                //#debug
+                L.e(this, "Can not decode index snapshot", name, e);
+            } catch (RecordStoreNotOpenException e) {
+                //#debug
+                L.e(this, "Can not check index snapshot", name, e);
+            }
+            indexHash.clear();
+
+            return false;
+        }
+    }
+
+    /**
+     * Save the index and the record store versions it matches. Call within
+     * the mutex while the record stores are still open during a normal close.
+     */
+    private void writeIndexSnapshot() {
+        if (keyRS == null || valueRS == null) {
+            return;
+        }
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(24 + indexHash.size() * 16);
+            final DataOutputStream out = new DataOutputStream(bos);
+
+            out.writeInt(INDEX_SNAPSHOT_VERSION);
+            out.writeInt(keyRS.getVersion());
+            out.writeInt(valueRS.getVersion());
+            out.writeInt(keyRS.getNumRecords());
+            out.writeInt(valueRS.getNumRecords());
+            indexHash.writeTo(out);
+            out.close();
+            RMSUtils.getInstance().write(getIndexRSName(), bos.toByteArray());
+            //#debug
+            L.i(this, "Index snapshot written", indexHash.size() + " entries, " + bos.size() + " bytes");
+        } catch (IOException e) {
+            //#debug
+            L.e(this, "Can not write index snapshot", getIndexRSName(), e);
+        } catch (RecordStoreException e) {
+            //#debug
+            L.e(this, "Can not write index snapshot", getIndexRSName(), e);
+        } catch (FlashDatabaseException e) {
+            //#debug
+            L.e(this, "Can not write index snapshot", getIndexRSName(), e);
+        }
+    }
+
     /**
      * Read the index into Hashtable for rapid "contains" and read operations.
      *
@@ -356,13 +479,14 @@ public final class RMSFastCache extends FlashCache {
         // Validate that no two keys have the same value
         final Hashtable copy = new Hashtable();
 
-        final Enumeration enumeration = indexHash.elements();
+        final Enumeration enumeration = indexHash.keys();
         while (enumeration.hasMoreElements()) {
             final Object dummyObject = new Object();
-            Object theValue = enumeration.nextElement();
+            final long indexEntry = indexHash.get(((Long) enumeration.nextElement()).longValue(), false);
+            final Long theValue = new Long(indexEntry);
             if (copy.containsKey(theValue)) {
                 // Here we have duplicate value in the indexHash
-                L.i(this, "Duplicate value in indexHash. Two distinct keys point to equal value ", RMSKeyUtils.toKeyIndex((Long) theValue) + "-" + RMSKeyUtils.toValueIndex((Long) theValue));
+                L.i(this, "Duplicate value in indexHash. Two distinct keys point to equal value ", RMSKeyUtils.toKeyIndex(indexEntry) + "-" + RMSKeyUtils.toValueIndex(indexEntry));
                 dumpHash(copy);
                 PlatformUtils.getInstance().shutdown("RMS is inconsistent");
             }
@@ -624,10 +748,10 @@ public final class RMSFastCache extends FlashCache {
      * @param valueRecordId
      */
     private void indexHashPut(final long digest, final int keyRecordId, final int valueRecordId) {
-        final Long l = RMSKeyUtils.toIndexHash(keyRecordId, valueRecordId);
+        final long l = RMSKeyUtils.toIndexHash(keyRecordId, valueRecordId);
 
         synchronized (mutex) {
-            indexHash.put(new Long(digest), l);
+            indexHash.put(digest, l);
         }
     }
 
@@ -636,11 +760,12 @@ public final class RMSFastCache extends FlashCache {
      * hashtable
      *
      * @param digest
-     * @return
+     * @return the packed key and value record indexes, or
+     * LongLongLRUMap.NO_VALUE if not found
      */
-    private Long indexHashGet(final long digest, final boolean markLeastRecentlyUsed) {
+    private long indexHashGet(final long digest, final boolean markLeastRecentlyUsed) {
         synchronized (mutex) {
-            return (Long) indexHash.get(new Long(digest), markLeastRecentlyUsed);
+            return indexHash.get(digest, markLeastRecentlyUsed);
         }
     }
 
@@ -655,9 +780,9 @@ public final class RMSFastCache extends FlashCache {
      */
     public String getKey(final long digest) throws FlashDatabaseException {
         synchronized (mutex) {
-            final Long keyAndValueIndexes = indexHashGet(digest, false);
+            final long keyAndValueIndexes = indexHashGet(digest, false);
 
-            if (keyAndValueIndexes == null) {
+            if (keyAndValueIndexes == LongLongLRUMap.NO_VALUE) {
                 return null;
             }
 
@@ -709,10 +834,9 @@ public final class RMSFastCache extends FlashCache {
      */
     public byte[] get(final long digest, final boolean markAsLeastRecentlyUsed) throws FlashDatabaseException {
         synchronized (mutex) {
-            final Long dig = new Long(digest);
-            final Long hashValue = ((Long) indexHash.get(dig, markAsLeastRecentlyUsed));
+            final long hashValue = indexHash.get(digest, markAsLeastRecentlyUsed);
 
-            if (hashValue != null) {
+            if (hashValue != LongLongLRUMap.NO_VALUE) {
                 try {
                     final int valueIndex = RMSKeyUtils.toValueIndex(hashValue);
                     final byte[] bytes = getValueRS().getRecord(valueIndex);
@@ -738,40 +862,40 @@ public final class RMSFastCache extends FlashCache {
      * @throws FlashDatabaseException
      */
     public void put(final String key, final byte[] value) throws DigestException, FlashFullException, FlashDatabaseException {
-        if (key == null) {
-            throw new NullPointerException("You attempted to put a null key to the cache");
-        }
-        if (value == null) {
-            throw new NullPointerException("You attempted to put null data to the cache");
+        putAll(new String[]{key}, new byte[][]{value});
+    }
+
+    /**
+     * Put several values in one batch. The store dirty flag is set and cleared
+     * once around the whole batch instead of once per value.
+     *
+     * @param keys
+     * @param values
+     * @throws DigestException
+     * @throws FlashFullException
+     * @throws FlashDatabaseException
+     */
+    public void putAll(final String[] keys, final byte[][] values) throws DigestException, FlashFullException, FlashDatabaseException {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                throw new NullPointerException("You attempted to put a null key to the cache");
+            }
+            if (values[i] == null) {
+                throw new NullPointerException("You attempted to put null data to the cache");
+            }
         }
 
         synchronized (mutex) {
+            String key = null;
             try {
-                final long digest = CryptoUtils.getInstance().toDigest(key);
-                final Long indexEntry = indexHashGet(digest, true);
-                final int valueRecordId;
-                final int keyRecordId;
-
                 final boolean storeFlagSet = setStoreFlag();
-                byte[] byteKey = null;
-                if (indexEntry == null) {
-                    valueRecordId = getValueRS().addRecord(value, 0, value.length);
-                    byteKey = RMSKeyUtils.toIndexBytes(key, valueRecordId);
-                    keyRecordId = getKeyRS().addRecord(byteKey, 0, byteKey.length);
-                    indexHashPut(digest, keyRecordId, valueRecordId);
-
-                    //#debug
-                    L.i(this, "put(" + key + ") digest=" + Long.toString(digest, 16), "Value added to RMS=" + getValueRS().getName() + " index=" + valueRecordId + " bytes=" + value.length + " keyIndex=" + keyRecordId);
-                } else {
-                    valueRecordId = RMSKeyUtils.toValueIndex(indexEntry);
-                    getValueRS().setRecord(valueRecordId, value, 0, value.length);
-                    //#debug
-                    L.i(this, "put(" + key + ") digest=" + Long.toString(digest, 16), "Value overwrite to RMS=" + getValueRS().getName() + " index=" + valueRecordId + " bytes=" + value.length);
+                for (int i = 0; i < keys.length; i++) {
+                    key = keys[i];
+                    putRecord(key, values[i]);
                 }
                 if (storeFlagSet) {
                     clearStoreFlag();
                 }
-                rmsByteSize += value.length + (byteKey == null ? 0 : byteKey.length);
             } catch (RecordStoreFullException e) {
                 //#debug
                 L.e(this, "Can not write", "key=" + key, e);
@@ -789,6 +913,34 @@ public final class RMSFastCache extends FlashCache {
         }
     }
 
+    /**
+     * Add or overwrite the key and value records. Call within synchronized
+     * (mutex) with the store flag set.
+     */
+    private void putRecord(final String key, final byte[] value) throws DigestException, UnsupportedEncodingException, RecordStoreException, FlashDatabaseException {
+        final long digest = CryptoUtils.getInstance().toDigest(key);
+        final long indexEntry = indexHashGet(digest, true);
+        final int valueRecordId;
+        final int keyRecordId;
+
+        byte[] byteKey = null;
+        if (indexEntry == LongLongLRUMap.NO_VALUE) {
+            valueRecordId = getValueRS().addRecord(value, 0, value.length);
+            byteKey = RMSKeyUtils.toIndexBytes(key, valueRecordId);
+            keyRecordId = getKeyRS().addRecord(byteKey, 0, byteKey.length);
+            indexHashPut(digest, keyRecordId, valueRecordId);
+
+            //#debug
+            L.i(this, "put(" + key + ") digest=" + Long.toString(digest, 16), "Value added to RMS=" + getValueRS().getName() + " index=" + valueRecordId + " bytes=" + value.length + " keyIndex=" + keyRecordId);
+        } else {
+            valueRecordId = RMSKeyUtils.toValueIndex(indexEntry);
+            getValueRS().setRecord(valueRecordId, value, 0, value.length);
+            //#debug
+            L.i(this, "put(" + key + ") digest=" + Long.toString(digest, 16), "Value overwrite to RMS=" + getValueRS().getName() + " index=" + valueRecordId + " bytes=" + value.length);
+        }
+        rmsByteSize += value.length + (byteKey == null ? 0 : byteKey.length);
+    }
+
     /**
      * Remove the key and value associated with a key digest from the cache
      *
@@ -798,12 +950,10 @@ public final class RMSFastCache extends FlashCache {
     public void removeData(final long digest) throws FlashDatabaseException {
         synchronized (mutex) {
             try {
-                final Long indexEntry = indexHashGet(digest, false);
-
-                if (indexEntry != null) {
+                final long indexEntry = indexHashGet(digest, false);
 
-                    final Long dig = new Long(digest);
-                    indexHash.remove(dig);
+                if (indexEntry != LongLongLRUMap.NO_VALUE) {
+                    indexHash.remove(digest);
                     final int valueRecordId = RMSKeyUtils.toValueIndex(indexEntry);
                     final int keyRecordId = RMSKeyUtils.toKeyIndex(indexEntry);
                     int size = 0;
@@ -960,6 +1110,7 @@ public final class RMSFastCache extends FlashCache {
         synchronized (mutex) {
             try {
                 super.close();
+                writeIndexSnapshot();
                 try {
                     if (valueRS != null) {
                         //#debug
@@ -10,38 +10,38 @@ import java.io.UnsupportedEncodingException;
 public final class RMSKeyUtils {
 
     /**
-     * Combine two 4 byte integers into one Long object for indexHash storage
+     * Combine two 4 byte integers into one long for indexHash storage
      *
      * @param keyIndex
      * @param valueIndex
-     * @return keyIndex and valueIndex coded into a single Long object to keep
-     *         in memory as a Hashtable value
+     * @return keyIndex and valueIndex coded into a single long to keep in
+     *         memory as an index map value
      */
-    Long toIndexHash(final int keyIndex, final int valueIndex) {
+    long toIndexHash(final int keyIndex, final int valueIndex) {
         final long lki = (long) keyIndex;
-        return new Long((lki << 32) | valueIndex);
+        return (lki << 32) | valueIndex;
     }
 
     /**
-     * Extract the index into the key RMS from Long value stored in the
-     * hashtable
+     * Extract the index into the key RMS from the long value stored in the
+     * index map
      *
      * @param hashValue
      * @return record number in keyRMS
      */
-    int toKeyIndex(final Long hashValue) {
-        return (int) ((hashValue.longValue() >>> 32) & 0xFFFFFFFF);
+    int toKeyIndex(final long hashValue) {
+        return (int) ((hashValue >>> 32) & 0xFFFFFFFF);
     }
 
     /**
-     * Extract the index into the value RMS from Long value stored in the
-     * hashtable
+     * Extract the index into the value RMS from the long value stored in the
+     * index map
      *
      * @param hashValue
      * @return record number in valueRMS
      */
-    int toValueIndex(final Long hashValue) {
-        return (int) (hashValue.longValue() & 0xFFFFFFFF);
+    int toValueIndex(final long hashValue) {
+        return (int) (hashValue & 0xFFFFFFFF);
     }
 
     /**
@@ -0,0 +1,897 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.jse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.util.Enumeration;
+import java.util.Vector;
+import org.tantalum.storage.FlashCache;
+import org.tantalum.storage.FlashDatabaseException;
+import org.tantalum.storage.FlashFullException;
+import org.tantalum.util.CryptoUtils;
+import org.tantalum.util.L;
+
+/**
+ * A FlashCache for desktop and server JVMs backed by a ring of memory-mapped,
+ * append-only segment files.
+ *
+ * Values are never held on the Java heap. The index is an open-addressing
+ * table of primitive long digests and record locations, so a cache of many GB
+ * does not add garbage collection pressure. Use getBuffer() for a zero-copy
+ * read-only view of a value.
+ *
+ * Each put() or removeData() appends a record to the newest segment. When the
+ * ring is full the oldest segment is recycled: entries read since the last
+ * time around the ring get a second chance and are compacted to the start of
+ * the segment, all others are evicted. After an unexpected shutdown at most
+ * the records of the segment being written are lost.
+ *
+ * Use this from the getFlashCache() method of a PlatformAdapter for a desktop
+ * or server JVM.
+ *
+ * @author phou
+ */
+public final class MappedFlashCache extends FlashCache {
+
+    /**
+     * Default bytes in each segment file
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /**
+     * Default number of segment files in the ring
+     */
+    public static final int DEFAULT_NUMBER_OF_SEGMENTS = 16;
+    private static final int SEGMENT_MAGIC = 0x54615367;
+    private static final int RECORD_MAGIC = 0x54615263;
+    /*
+     * Segment header: magic, end of the valid records, sequence number. A
+     * sequence number of 0 is an empty segment.
+     */
+    private static final int SEGMENT_MAGIC_POSITION = 0;
+    private static final int SEGMENT_END_POSITION = 4;
+    private static final int SEGMENT_SEQUENCE_POSITION = 8;
+    private static final int SEGMENT_HEADER_LENGTH = 16;
+    /*
+     * Record header: magic, digest, key length, value length. The key and value
+     * bytes follow. A value length of REMOVED marks removeData().
+     */
+    private static final int RECORD_MAGIC_POSITION = 0;
+    private static final int RECORD_DIGEST_POSITION = 4;
+    private static final int RECORD_KEY_LENGTH_POSITION = 12;
+    private static final int RECORD_VALUE_LENGTH_POSITION = 16;
+    private static final int RECORD_HEADER_LENGTH = 20;
+    private static final int REMOVED = -1;
+    private static final byte[] NO_KEY = new byte[0];
+    private final File directory;
+    private final int segmentSize;
+    private final Segment[] segments;
+    /*
+     * All fields below, and the buffer position of each segment, are accessed
+     * only within synchronized(mutex)
+     */
+    private final Object mutex = new Object();
+    private final LongIndex index = new LongIndex();
+    private final byte[] copyBuffer = new byte[8192];
+    private int head = 0;
+    private long nextSequence = 1;
+
+    /**
+     * Open or create a cache with default segment size and number of segments
+     *
+     * @param priority
+     * @param directory - where the segment files are kept
+     * @param startupTask - run for each key found in the cache, or null
+     * @throws FlashDatabaseException
+     */
+    public MappedFlashCache(final char priority, final File directory, final FlashCache.StartupTask startupTask) throws FlashDatabaseException {
+        this(priority, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_NUMBER_OF_SEGMENTS, startupTask);
+    }
+
+    /**
+     * Open or create a cache
+     *
+     * @param priority
+     * @param directory - where the segment files are kept
+     * @param segmentSize - bytes in each segment file. This is also the
+     * maximum size of one entry.
+     * @param numberOfSegments - the maximum cache size is numberOfSegments *
+     * segmentSize
+     * @param startupTask - run for each key found in the cache, or null
+     * @throws FlashDatabaseException
+     */
+    public MappedFlashCache(final char priority, final File directory, final int segmentSize, final int numberOfSegments, final FlashCache.StartupTask startupTask) throws FlashDatabaseException {
+        super(priority);
+
+        if (directory == null) {
+            throw new NullPointerException("MappedFlashCache directory can not be null");
+        }
+        if (segmentSize <= SEGMENT_HEADER_LENGTH + RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException("MappedFlashCache segment size is too small: " + segmentSize);
+        }
+        if (numberOfSegments < 1) {
+            throw new IllegalArgumentException("MappedFlashCache needs at least one segment: " + numberOfSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FlashDatabaseException("Can not create MappedFlashCache directory: " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = new Segment[numberOfSegments];
+        try {
+            for (int i = 0; i < numberOfSegments; i++) {
+                segments[i] = new Segment(getSegmentFile(directory, priority, i), segmentSize);
+            }
+        } catch (IOException e) {
+            //#debug
+            L.e(this, "Can not open segment files", directory.toString(), e);
+            closeSegments();
+            throw new FlashDatabaseException("Can not open MappedFlashCache segment files in " + directory + " : " + e);
+        }
+        initIndex(startupTask);
+    }
+
+    /**
+     * Delete the segment files of a cache which is not open. This is only done
+     * if there are unfixable errors detected.
+     *
+     * @param priority
+     * @param directory
+     */
+    public static void deleteDataFiles(final char priority, final File directory) {
+        for (int i = 0;; i++) {
+            final File file = getSegmentFile(directory, priority, i);
+
+            if (!file.exists()) {
+                return;
+            }
+            if (!file.delete()) {
+                //#debug
+                L.i("Can not delete MappedFlashCache segment", file.toString());
+            }
+        }
+    }
+
+    private static File getSegmentFile(final File directory, final char priority, final int i) {
+        return new File(directory, "tantalum-" + (int) priority + "-" + i + ".seg");
+    }
+
+    private static long toLocation(final int segment, final int position) {
+        return ((long) segment << 32) | position;
+    }
+
+    private static int toSegment(final long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int toPosition(final long location) {
+        return (int) location;
+    }
+
+    /**
+     * Replay the records of all segments from oldest to newest to rebuild the
+     * index. A segment is truncated at the first record which is not complete.
+     *
+     * @param startupTask
+     */
+    private void initIndex(final FlashCache.StartupTask startupTask) {
+        synchronized (mutex) {
+            final int[] order = new int[segments.length];
+            long newest = 0;
+
+            for (int i = 0; i < order.length; i++) {
+                int j = i;
+
+                while (j > 0 && segments[order[j - 1]].sequence > segments[i].sequence) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = i;
+                if (segments[i].sequence > newest) {
+                    newest = segments[i].sequence;
+                    head = i;
+                }
+            }
+            for (int i = 0; i < order.length; i++) {
+                if (segments[order[i]].sequence != 0) {
+                    replay(order[i]);
+                }
+            }
+            nextSequence = newest + 1;
+            if (newest == 0) {
+                segments[head].reset(nextSequence++);
+            }
+        }
+
+        if (startupTask != null) {
+            final Enumeration digests = getDigests();
+
+            while (digests.hasMoreElements()) {
+                final long digest = ((Long) digests.nextElement()).longValue();
+
+                try {
+                    startupTask.execForEachKey(this, getKey(digest));
+                } catch (DigestException e) {
+                    //#debug
+                    L.e(this, "Startup task failed, removing", Long.toString(digest, 16), e);
+                    removeIndexEntry(digest);
+                } catch (FlashDatabaseException e) {
+                    //#debug
+                    L.e(this, "Startup task failed, removing", Long.toString(digest, 16), e);
+                    removeIndexEntry(digest);
+                }
+            }
+        }
+    }
+
+    private void removeIndexEntry(final long digest) {
+        try {
+            removeData(digest);
+        } catch (FlashDatabaseException e) {
+            //#debug
+            L.e(this, "Can not remove", Long.toString(digest, 16), e);
+        }
+    }
+
+    private void replay(final int i) {
+        final Segment segment = segments[i];
+        final ByteBuffer buffer = segment.buffer;
+        int position = SEGMENT_HEADER_LENGTH;
+
+        while (position < segment.end) {
+            final int length = validRecordLength(segment, position);
+
+            if (length < 0) {
+                //#debug
+                L.i(this, "Truncating segment " + i + " at incomplete record", position + " of " + segment.end);
+                segment.setEnd(position);
+                break;
+            }
+            final long digest = buffer.getLong(position + RECORD_DIGEST_POSITION);
+            if (buffer.getInt(position + RECORD_VALUE_LENGTH_POSITION) == REMOVED) {
+                index.remove(digest);
+            } else {
+                index.put(digest, toLocation(i, position));
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * @param segment
+     * @param position
+     * @return length of the record at this position, or -1 if there is no
+     * complete record
+     */
+    private static int validRecordLength(final Segment segment, final int position) {
+        final ByteBuffer buffer = segment.buffer;
+
+        if (position + RECORD_HEADER_LENGTH > segment.end || buffer.getInt(position + RECORD_MAGIC_POSITION) != RECORD_MAGIC) {
+            return -1;
+        }
+        final int keyLength = buffer.getInt(position + RECORD_KEY_LENGTH_POSITION);
+        final int valueLength = buffer.getInt(position + RECORD_VALUE_LENGTH_POSITION);
+        if (keyLength < 0 || valueLength < REMOVED) {
+            return -1;
+        }
+        final long length = (long) RECORD_HEADER_LENGTH + keyLength + Math.max(0, valueLength);
+        if (position + length > segment.end) {
+            return -1;
+        }
+
+        return (int) length;
+    }
+
+    private static int recordLength(final ByteBuffer buffer, final int position) {
+        return RECORD_HEADER_LENGTH + buffer.getInt(position + RECORD_KEY_LENGTH_POSITION) + Math.max(0, buffer.getInt(position + RECORD_VALUE_LENGTH_POSITION));
+    }
+
+    public void markLeastRecentlyUsed(final Long digest) {
+        if (digest == null) {
+            throw new IllegalArgumentException("Can not mark null digest as least recently used");
+        }
+
+        synchronized (mutex) {
+            index.get(digest.longValue(), true);
+        }
+    }
+
+    /**
+     * Read the key stored with a digest
+     *
+     * @param digest
+     * @return the original string used to generate the digest, or null if not
+     * in the cache
+     * @throws FlashDatabaseException
+     */
+    public String getKey(final long digest) throws FlashDatabaseException {
+        synchronized (mutex) {
+            final long location = index.get(digest, false);
+
+            if (location < 0) {
+                return null;
+            }
+            final ByteBuffer buffer = segments[toSegment(location)].buffer;
+            final int position = toPosition(location);
+            final byte[] keyBytes = new byte[buffer.getInt(position + RECORD_KEY_LENGTH_POSITION)];
+
+            buffer.position(position + RECORD_HEADER_LENGTH);
+            buffer.get(keyBytes);
+            try {
+                return new String(keyBytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new FlashDatabaseException("Can not decode key: " + Long.toString(digest, 16) + " - " + e);
+            }
+        }
+    }
+
+    /**
+     * Get a copy of the value associated with this key digest
+     *
+     * @param digest
+     * @param markAsLeastRecentlyUsed
+     * @return the bytes of the value, or null if not in the cache
+     */
+    public byte[] get(final long digest, final boolean markAsLeastRecentlyUsed) {
+        synchronized (mutex) {
+            final ByteBuffer value = getValue(digest, markAsLeastRecentlyUsed);
+
+            if (value == null) {
+                return null;
+            }
+            final byte[] bytes = new byte[value.remaining()];
+            value.get(bytes);
+
+            return bytes;
+        }
+    }
+
+    /**
+     * Get a read-only view of the value associated with this key digest
+     * without copying it to the heap.
+     *
+     * The view is only valid until the cache is next changed, since the space
+     * may then be reused. Copy the bytes if you need them for longer.
+     *
+     * @param digest
+     * @param markAsLeastRecentlyUsed
+     * @return the value, or null if not in the cache
+     */
+    public ByteBuffer getBuffer(final long digest, final boolean markAsLeastRecentlyUsed) {
+        synchronized (mutex) {
+            final ByteBuffer value = getValue(digest, markAsLeastRecentlyUsed);
+
+            return value == null ? null : value.slice().asReadOnlyBuffer();
+        }
+    }
+
+    private ByteBuffer getValue(final long digest, final boolean markAsLeastRecentlyUsed) {
+        final long location = index.get(digest, markAsLeastRecentlyUsed);
+
+        if (location < 0) {
+            return null;
+        }
+        final ByteBuffer value = segments[toSegment(location)].buffer.duplicate();
+        final int position = toPosition(location);
+        final int start = position + RECORD_HEADER_LENGTH + value.getInt(position + RECORD_KEY_LENGTH_POSITION);
+
+        value.limit(start + value.getInt(position + RECORD_VALUE_LENGTH_POSITION));
+        value.position(start);
+
+        return value;
+    }
+
+    /**
+     * Put new or replacement data associated with a key into the cache
+     *
+     * @param key
+     * @param value
+     * @throws DigestException
+     * @throws FlashFullException - the value is larger than a segment
+     * @throws FlashDatabaseException
+     */
+    public void put(final String key, final byte[] value) throws DigestException, FlashFullException, FlashDatabaseException {
+        if (key == null) {
+            throw new NullPointerException("You attempted to put a null key to the cache");
+        }
+        if (value == null) {
+            throw new NullPointerException("You attempted to put null data to the cache");
+        }
+
+        final byte[] keyBytes;
+        final long digest;
+        try {
+            keyBytes = key.getBytes("UTF-8");
+            digest = CryptoUtils.getInstance().toDigest(key);
+        } catch (UnsupportedEncodingException e) {
+            //#debug
+            L.e(this, "Can not write", "key=" + key, e);
+            throw new FlashDatabaseException("Can not put to MappedFlashCache: " + key + " - " + e);
+        }
+        synchronized (mutex) {
+            append(digest, keyBytes, value);
+            //#debug
+            L.i(this, "put(" + key + ") digest=" + Long.toString(digest, 16), "segment=" + head + " bytes=" + value.length);
+        }
+    }
+
+    /**
+     * Remove the key and value associated with a key digest from the cache
+     *
+     * @param digest
+     * @throws FlashDatabaseException
+     */
+    public void removeData(final long digest) throws FlashDatabaseException {
+        synchronized (mutex) {
+            if (index.get(digest, false) < 0) {
+                //#debug
+                L.i("*** Can not remove from MappedFlashCache, digest not found", Long.toString(digest, 16));
+                return;
+            }
+            append(digest, NO_KEY, null);
+        }
+    }
+
+    /**
+     * Write a record to the newest segment and update the index
+     *
+     * @param digest
+     * @param keyBytes
+     * @param value - null to record removal of the digest
+     * @throws FlashFullException
+     */
+    private void append(final long digest, final byte[] keyBytes, final byte[] value) throws FlashFullException {
+        final int length = RECORD_HEADER_LENGTH + keyBytes.length + (value == null ? 0 : value.length);
+        final Segment segment = getSegmentWithSpace(length);
+        final ByteBuffer buffer = segment.buffer;
+        final int position = segment.end;
+
+        buffer.putLong(position + RECORD_DIGEST_POSITION, digest);
+        buffer.putInt(position + RECORD_KEY_LENGTH_POSITION, keyBytes.length);
+        buffer.putInt(position + RECORD_VALUE_LENGTH_POSITION, value == null ? REMOVED : value.length);
+        buffer.position(position + RECORD_HEADER_LENGTH);
+        buffer.put(keyBytes);
+        if (value != null) {
+            buffer.put(value);
+        }
+        buffer.putInt(position + RECORD_MAGIC_POSITION, RECORD_MAGIC);
+        segment.setEnd(position + length);
+        if (value == null) {
+            index.remove(digest);
+        } else {
+            index.put(digest, toLocation(head, position));
+        }
+    }
+
+    /**
+     * Find space for a new record, recycling the oldest segments as needed.
+     * Two times around the ring is enough to evict even entries which were
+     * given a second chance on the first time around.
+     *
+     * @param length
+     * @return
+     * @throws FlashFullException
+     */
+    private Segment getSegmentWithSpace(final int length) throws FlashFullException {
+        if (length > segmentSize - SEGMENT_HEADER_LENGTH) {
+            throw new FlashFullException("Entry of " + length + " bytes does not fit in a MappedFlashCache segment of " + segmentSize + " bytes");
+        }
+        for (int i = 0; i <= 2 * segments.length; i++) {
+            final Segment segment = segments[head];
+
+            if (segmentSize - segment.end >= length) {
+                return segment;
+            }
+            head = (head + 1) % segments.length;
+            recycle(head);
+        }
+
+        throw new FlashFullException("MappedFlashCache can not make space for " + length + " bytes");
+    }
+
+    /**
+     * Make the oldest segment the newest. Entries which have been read since
+     * they were written or last recycled are moved to the start of the
+     * segment, all others are evicted.
+     *
+     * The segment is marked empty before entries are moved so that an
+     * unexpected shutdown part way through loses those entries rather than
+     * leaving partial records.
+     *
+     * @param i
+     */
+    private void recycle(final int i) {
+        final Segment segment = segments[i];
+        final ByteBuffer buffer = segment.buffer;
+        final boolean wasEmpty = segment.sequence == 0;
+        final int end = segment.end;
+        int read = SEGMENT_HEADER_LENGTH;
+        int write = SEGMENT_HEADER_LENGTH;
+        //#debug
+        int evicted = 0;
+
+        segment.reset(nextSequence++);
+        if (wasEmpty) {
+            return;
+        }
+        while (read < end) {
+            final long digest = buffer.getLong(read + RECORD_DIGEST_POSITION);
+            final int length = recordLength(buffer, read);
+
+            if (index.get(digest, false) == toLocation(i, read)) {
+                if (index.clearAccessed(digest)) {
+                    move(buffer, read, write, length);
+                    index.put(digest, toLocation(i, write));
+                    write += length;
+                } else {
+                    index.remove(digest);
+                    //#debug
+                    evicted++;
+                }
+            }
+            read += length;
+        }
+        segment.setEnd(write);
+        //#debug
+        L.i(this, "Recycled segment " + i, "kept " + (write - SEGMENT_HEADER_LENGTH) + " bytes, evicted " + evicted + " entries");
+    }
+
+    private void move(final ByteBuffer buffer, final int from, final int to, final int length) {
+        if (from == to) {
+            return;
+        }
+        for (int done = 0; done < length;) {
+            final int n = Math.min(copyBuffer.length, length - done);
+
+            buffer.position(from + done);
+            buffer.get(copyBuffer, 0, n);
+            buffer.position(to + done);
+            buffer.put(copyBuffer, 0, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Get a list of all digests in this cache
+     *
+     * @return Long digest-of-key objects in the cache
+     */
+    public Enumeration getDigests() {
+        synchronized (mutex) {
+            return index.keys().elements();
+        }
+    }
+
+    /**
+     * Delete all entries
+     */
+    public void clear() {
+        synchronized (mutex) {
+            //#debug
+            L.i("Clearing MappedFlashCache", "" + priority);
+            index.clear();
+            for (int i = 0; i < segments.length; i++) {
+                segments[i].reset(0);
+            }
+            head = 0;
+            segments[head].reset(nextSequence++);
+        }
+    }
+
+    /**
+     * Bytes which can be added before the oldest entries are evicted
+     *
+     * @return
+     */
+    public long getFreespace() {
+        final long free = (long) segments.length * (segmentSize - SEGMENT_HEADER_LENGTH) - getSize();
+
+        return Math.min(free, directory.getUsableSpace());
+    }
+
+    /**
+     * Bytes used by records in all segments, including replaced and removed
+     * entries which have not yet been recycled
+     *
+     * @return
+     */
+    public long getSize() {
+        synchronized (mutex) {
+            long size = 0;
+
+            for (int i = 0; i < segments.length; i++) {
+                size += segments[i].end - SEGMENT_HEADER_LENGTH;
+            }
+
+            return size;
+        }
+    }
+
+    /**
+     * Write changed pages of the segment files to disk
+     */
+    public void maintainDatabase() {
+        synchronized (mutex) {
+            for (int i = 0; i < segments.length; i++) {
+                segments[i].buffer.force();
+            }
+        }
+    }
+
+    public void close() throws FlashDatabaseException {
+        super.close();
+        synchronized (mutex) {
+            maintainDatabase();
+            closeSegments();
+        }
+    }
+
+    private void closeSegments() {
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                try {
+                    segments[i].close();
+                } catch (IOException e) {
+                    //#debug
+                    L.e(this, "Can not close segment", "" + i, e);
+                }
+            }
+        }
+    }
+
+    //#mdebug
+    public String toString() {
+        synchronized (mutex) {
+            final StringBuffer sb = new StringBuffer();
+
+            sb.append(super.toString());
+            sb.append(" directory=");
+            sb.append(directory);
+            sb.append(" entries=");
+            sb.append(index.size());
+            sb.append(" head=");
+            sb.append(head);
+            sb.append(" size=");
+            sb.append(getSize());
+
+            return sb.toString();
+        }
+    }
+    //#enddebug
+
+    /**
+     * One memory-mapped segment file
+     */
+    private static final class Segment {
+
+        final RandomAccessFile file;
+        final MappedByteBuffer buffer;
+        long sequence;
+        int end;
+
+        Segment(final File f, final int size) throws IOException {
+            file = new RandomAccessFile(f, "rw");
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            sequence = buffer.getLong(SEGMENT_SEQUENCE_POSITION);
+            end = buffer.getInt(SEGMENT_END_POSITION);
+            if (buffer.getInt(SEGMENT_MAGIC_POSITION) != SEGMENT_MAGIC || sequence < 0 || end < SEGMENT_HEADER_LENGTH || end > size) {
+                reset(0);
+            }
+        }
+
+        void reset(final long sequence) {
+            this.sequence = sequence;
+            setEnd(SEGMENT_HEADER_LENGTH);
+            buffer.putLong(SEGMENT_SEQUENCE_POSITION, sequence);
+            buffer.putInt(SEGMENT_MAGIC_POSITION, SEGMENT_MAGIC);
+        }
+
+        void setEnd(final int end) {
+            this.end = end;
+            buffer.putInt(SEGMENT_END_POSITION, end);
+        }
+
+        void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Open-addressing hash table from a long digest to a long record location
+     * with a second-chance "accessed" flag for each entry. There is no
+     * allocation except when the table grows.
+     */
+    private static final class LongIndex {
+
+        private static final int INITIAL_CAPACITY = 1024;
+        private long[] keys;
+        private long[] locations;
+        private boolean[] used;
+        private boolean[] accessed;
+        private int size;
+
+        LongIndex() {
+            clear();
+        }
+
+        void clear() {
+            keys = new long[INITIAL_CAPACITY];
+            locations = new long[INITIAL_CAPACITY];
+            used = new boolean[INITIAL_CAPACITY];
+            accessed = new boolean[INITIAL_CAPACITY];
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int hash(final long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+
+            return (int) (h >>> 32) & (keys.length - 1);
+        }
+
+        private int find(final long key) {
+            final int mask = keys.length - 1;
+
+            for (int i = hash(key);; i = (i + 1) & mask) {
+                if (!used[i]) {
+                    return -1;
+                }
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * @param key
+         * @param markAccessed
+         * @return location, or -1 if not found
+         */
+        long get(final long key, final boolean markAccessed) {
+            final int i = find(key);
+
+            if (i < 0) {
+                return -1;
+            }
+            if (markAccessed) {
+                accessed[i] = true;
+            }
+
+            return locations[i];
+        }
+
+        /**
+         * @param key
+         * @return true if the entry had been accessed
+         */
+        boolean clearAccessed(final long key) {
+            final int i = find(key);
+
+            if (i < 0 || !accessed[i]) {
+                return false;
+            }
+            accessed[i] = false;
+
+            return true;
+        }
+
+        void put(final long key, final long location) {
+            final int mask = keys.length - 1;
+            int i = hash(key);
+
+            while (used[i]) {
+                if (keys[i] == key) {
+                    locations[i] = location;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = key;
+            locations[i] = location;
+            accessed[i] = false;
+            if (++size * 4 > keys.length * 3) {
+                grow();
+            }
+        }
+
+        /**
+         * Remove with backward shift of the following entries so no tombstone
+         * markers are needed
+         *
+         * @param key
+         */
+        void remove(final long key) {
+            int i = find(key);
+
+            if (i < 0) {
+                return;
+            }
+            final int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (!used[j]) {
+                    break;
+                }
+                final int k = hash(keys[j]);
+                if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+                    continue;
+                }
+                keys[i] = keys[j];
+                locations[i] = locations[j];
+                accessed[i] = accessed[j];
+                i = j;
+            }
+            used[i] = false;
+            accessed[i] = false;
+            size--;
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys;
+            final long[] oldLocations = locations;
+            final boolean[] oldUsed = used;
+            final boolean[] oldAccessed = accessed;
+            final int capacity = oldKeys.length * 2;
+
+            keys = new long[capacity];
+            locations = new long[capacity];
+            used = new boolean[capacity];
+            accessed = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldLocations[i]);
+                    accessed[find(oldKeys[i])] = oldAccessed[i];
+                }
+            }
+        }
+
+        Vector keys() {
+            final Vector v = new Vector(size);
+
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i]) {
+                    v.addElement(new Long(keys[i]));
+                }
+            }
+
+            return v;
+        }
+    }
+}
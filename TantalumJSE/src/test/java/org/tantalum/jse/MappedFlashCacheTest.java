@@ -0,0 +1,238 @@
+/*
+ Copyright (c) 2013 Nokia Corporation. All rights reserved.
+ Nokia and Nokia Connecting People are registered trademarks of Nokia Corporation.
+ Oracle and Java are trademarks or registered trademarks of Oracle and/or its
+ affiliates. Other product and company names mentioned herein may be trademarks
+ or trade names of their respective owners.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ - Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.tantalum.jse;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.Vector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tantalum.PlatformAdapter;
+import org.tantalum.PlatformUtils;
+import org.tantalum.storage.FlashCache;
+import org.tantalum.storage.FlashFullException;
+import org.tantalum.storage.ImageCacheView;
+import org.tantalum.util.CryptoUtils;
+import org.tantalum.util.L;
+
+/**
+ *
+ * @author phou
+ */
+public class MappedFlashCacheTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int NUMBER_OF_SEGMENTS = 3;
+    private File directory;
+    private MappedFlashCache cache;
+
+    @BeforeClass
+    public static void setUpClass() {
+        PlatformUtils.getInstance().setProgram(new Object(), new HeadlessPlatformAdapter(), 3, PlatformUtils.NORMAL_LOG_MODE);
+    }
+
+    @Before
+    public void openCache() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "MappedFlashCacheTest-" + System.nanoTime());
+        cache = open();
+    }
+
+    @After
+    public void deleteCache() throws Exception {
+        cache.close();
+        MappedFlashCache.deleteDataFiles('t', directory);
+        directory.delete();
+    }
+
+    private MappedFlashCache open() throws Exception {
+        return new MappedFlashCache('t', directory, SEGMENT_SIZE, NUMBER_OF_SEGMENTS, null);
+    }
+
+    private static long digest(final String key) throws Exception {
+        return CryptoUtils.getInstance().toDigest(key);
+    }
+
+    @Test
+    public void putGetAndGetKey() throws Exception {
+        final byte[] value = "value".getBytes("UTF-8");
+
+        cache.put("key", value);
+        assertArrayEquals(value, cache.get("key"));
+        assertEquals("key", cache.getKey(digest("key")));
+        assertNull(cache.get("missing"));
+    }
+
+    @Test
+    public void replaceValue() throws Exception {
+        cache.put("key", new byte[]{1, 2, 3});
+        cache.put("key", new byte[]{4});
+        assertArrayEquals(new byte[]{4}, cache.get("key"));
+        assertEquals(1, count(cache.getDigests()));
+    }
+
+    @Test
+    public void removeData() throws Exception {
+        cache.put("key", new byte[]{1});
+        cache.removeData("key");
+        assertNull(cache.get("key"));
+        assertEquals(0, count(cache.getDigests()));
+    }
+
+    @Test
+    public void entriesAndRemovalsSurviveReopen() throws Exception {
+        cache.put("a", new byte[]{1});
+        cache.put("b", new byte[]{2});
+        cache.put("a", new byte[]{3});
+        cache.removeData("b");
+        cache.close();
+
+        cache = open();
+        assertArrayEquals(new byte[]{3}, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("a", cache.getKey(digest("a")));
+    }
+
+    @Test
+    public void startupTaskSeesEachKey() throws Exception {
+        final Vector keys = new Vector();
+
+        cache.put("a", new byte[]{1});
+        cache.put("b", new byte[]{2});
+        cache.close();
+        cache = new MappedFlashCache('t', directory, SEGMENT_SIZE, NUMBER_OF_SEGMENTS, new FlashCache.StartupTask() {
+            public void execForEachKey(final FlashCache flashCache, final String key) {
+                keys.addElement(key);
+            }
+        });
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains("a") && keys.contains("b"));
+    }
+
+    @Test
+    public void getBufferIsReadOnlyView() throws Exception {
+        cache.put("key", new byte[]{7, 8, 9});
+
+        final ByteBuffer buffer = cache.getBuffer(digest("key"), true);
+        assertEquals(3, buffer.remaining());
+        assertEquals(8, buffer.get(1));
+        assertTrue(buffer.isReadOnly());
+    }
+
+    @Test
+    public void recycleKeepsRecentlyReadEntries() throws Exception {
+        final byte[] value = new byte[1000];
+
+        cache.put("keep", value);
+        for (int i = 0; i < 20; i++) {
+            cache.get("keep");
+            cache.put("filler" + i, value);
+        }
+        assertNotNull(cache.get("keep"));
+        assertNull(cache.get("filler0"));
+        assertTrue(cache.getSize() <= NUMBER_OF_SEGMENTS * SEGMENT_SIZE);
+    }
+
+    @Test(expected = FlashFullException.class)
+    public void valueLargerThanSegmentIsRejected() throws Exception {
+        cache.put("key", new byte[SEGMENT_SIZE]);
+    }
+
+    @Test
+    public void clear() throws Exception {
+        cache.put("key", new byte[]{1});
+        cache.clear();
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.getSize());
+    }
+
+    private static int count(final Enumeration e) {
+        int n = 0;
+
+        while (e.hasMoreElements()) {
+            e.nextElement();
+            n++;
+        }
+
+        return n;
+    }
+
+    private static final class HeadlessPlatformAdapter implements PlatformAdapter {
+
+        private final L log = new L() {
+            protected void printMessage(final StringBuffer sb, final Throwable t) {
+            }
+
+            protected void close() {
+            }
+        };
+
+        public void init(final int logMode) {
+        }
+
+        public void runOnUiThread(final Runnable action) {
+            new Thread(action).start();
+        }
+
+        public void shutdownComplete() {
+        }
+
+        public L getLog() {
+            return log;
+        }
+
+        public ImageCacheView getImageCacheView() {
+            return null;
+        }
+
+        public void vibrateAsync(final int duration, final Runnable timekeeperLambda) {
+        }
+
+        public Object readImageFromJAR(final String jarPathAndFilename) {
+            return null;
+        }
+
+        public FlashCache getFlashCache(final char priority, final int cacheType, final FlashCache.StartupTask startupTask) {
+            return null;
+        }
+
+        public void deleteFlashCache(final char priority, final int cacheType) {
+        }
+
+        public PlatformUtils.HttpConn getHttpConn(final String url, final Vector requestPropertyKeys, final Vector requestPropertyValues, final byte[] bytes, final String requestMethod) {
+            return null;
+        }
+    }
+}